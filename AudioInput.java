@@ -0,0 +1,14 @@
+package com.example.audio;
+
+/**
+ * Capture device behind {@link CaptureLoop}: AudioRecord in the app, a simulated mic in
+ * {@link StreamingBenchmark}. Mono little-endian PCM16.
+ */
+public interface AudioInput {
+
+    /** Returned when the device was stopped (or lost its permission) underneath the reader. */
+    int ERROR_STOPPED = -1000;
+
+    /** Blocking read, paced by the device clock. Returns bytes read or a negative error code. */
+    int read(byte[] data, int off, int len);
+}
@@ -0,0 +1,166 @@
+package com.example.audio;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Fixed-frame mixer for the send path (mic talk-back plus melodies / soundboard clips).
+ *
+ * Sources are added and removed from any thread through a lock-free slot table; only the pacing
+ * thread calls {@link #mix}, and a removal takes effect at its next frame. A source is removed
+ * through the {@link Slot} it was added with, never by table index, so a stale handle cannot
+ * remove whatever source took that index over. Each source has its own
+ * gain. While a "key" source (the mic) is above the ducking threshold, every "ducked" source is
+ * smoothly attenuated so a parent can talk over a lullaby. Gain changes are ramped across the
+ * frame to avoid zipper noise. No allocation per frame.
+ */
+public class AudioMixer {
+
+    public static final int MAX_SOURCES = 8;
+
+    /** A mono PCM16 producer pulled by the mixer once per frame. */
+    public interface Source {
+        /**
+         * Writes up to {@code samples} samples into {@code dst} and returns how many were written
+         * (the rest of the frame is treated as silence), or -1 once the source has ended.
+         */
+        int read(short[] dst, int samples);
+
+        /**
+         * Called on the mixer thread after the source returned -1, or at the first frame after it
+         * was removed; never while {@link #read} runs. A source removed while nothing mixes hears
+         * of it when mixing resumes.
+         */
+        default void onRemoved() {}
+    }
+
+    /** Handle to one added source; stays valid (and harmless) after the source is gone. */
+    public static final class Slot {
+        private final Source source;
+        private final boolean key;
+        private final boolean ducked;
+        private volatile float gain;
+        private volatile boolean removed;
+        private float appliedGain; // Mixer thread only
+        private Slot(Source source, float gain, boolean key, boolean ducked) {
+            this.source = source;
+            this.gain = gain;
+            this.appliedGain = gain;
+            this.key = key;
+            this.ducked = ducked;
+        }
+    }
+
+    private final int frameSamples;
+    private final AtomicReferenceArray<Slot> slots = new AtomicReferenceArray<>(MAX_SOURCES);
+    private final short[] scratch;
+    private final int[] accumulator;
+
+    private volatile float duckThreshold; // Key-source RMS (PCM16 units) that triggers ducking
+    private volatile float duckGain;
+    private final float duckAttack;       // Per-frame smoothing towards the ducked gain
+    private final float duckRelease;      // Per-frame smoothing back to unity
+    private float duckLevel = 1f;
+
+    private long framesMixed = 0;
+    private long clippedSamples = 0;
+
+    public AudioMixer(int frameSamples, float duckThreshold, float duckGain) {
+        this.frameSamples = frameSamples;
+        this.scratch = new short[frameSamples];
+        this.accumulator = new int[frameSamples];
+        this.duckThreshold = duckThreshold;
+        this.duckGain = duckGain;
+        this.duckAttack = 0.5f;
+        this.duckRelease = 0.05f;
+    }
+
+    public int getFrameSamples() { return frameSamples; }
+
+    /** Returns the source's handle, or null if all slots are taken. */
+    public Slot addSource(Source source, float gain, boolean key, boolean ducked) {
+        Slot slot = new Slot(source, gain, key, ducked);
+        for (int i = 0; i < MAX_SOURCES; i++) {
+            if (slots.compareAndSet(i, null, slot)) return slot;
+        }
+        return null;
+    }
+
+    /**
+     * Detaches a source: it is not read after the frame in progress, and its slot is freed at the
+     * next. Does nothing for null or a source that is already gone.
+     */
+    public void removeSource(Slot slot) {
+        if (slot != null) slot.removed = true;
+    }
+
+    public void setGain(Slot slot, float gain) {
+        if (slot != null) slot.gain = gain;
+    }
+
+    public void setDucking(float threshold, float gain) {
+        this.duckThreshold = threshold;
+        this.duckGain = gain;
+    }
+
+    /** Mixes one frame into {@code out} and returns the number of sources that contributed. */
+    public int mix(short[] out) {
+        int n = frameSamples;
+        java.util.Arrays.fill(accumulator, 0);
+        int active = 0;
+        boolean keyActive = false;
+
+        // Key sources first so this frame's ducking decision uses this frame's voice level
+        for (int pass = 0; pass < 2; pass++) {
+            if (pass == 1) updateDucking(keyActive);
+            for (int i = 0; i < MAX_SOURCES; i++) {
+                Slot slot = slots.get(i);
+                if (slot == null || slot.key != (pass == 0)) continue;
+                int got = slot.removed ? -1 : slot.source.read(scratch, n);
+                if (got < 0) {
+                    if (slots.compareAndSet(i, slot, null)) slot.source.onRemoved();
+                    continue;
+                }
+                if (got == 0) continue;
+                active++;
+                float target = slot.gain * (slot.ducked ? duckLevel : 1f);
+                if (slot.key && rms(scratch, got) >= duckThreshold) keyActive = true;
+                accumulate(scratch, got, slot.appliedGain, target);
+                slot.appliedGain = target;
+            }
+        }
+
+        for (int i = 0; i < n; i++) {
+            int v = accumulator[i];
+            if (v > Short.MAX_VALUE) { v = Short.MAX_VALUE; clippedSamples++; }
+            else if (v < Short.MIN_VALUE) { v = Short.MIN_VALUE; clippedSamples++; }
+            out[i] = (short) v;
+        }
+        framesMixed++;
+        return active;
+    }
+
+    private void updateDucking(boolean keyActive) {
+        float target = keyActive ? duckGain : 1f;
+        duckLevel += (target - duckLevel) * (keyActive ? duckAttack : duckRelease);
+    }
+
+    // Adds src with a linear gain ramp from g0 to g1 across the frame
+    private void accumulate(short[] src, int samples, float g0, float g1) {
+        float step = (g1 - g0) / frameSamples;
+        float g = g0;
+        for (int i = 0; i < samples; i++) {
+            accumulator[i] += (int) (src[i] * g);
+            g += step;
+        }
+    }
+
+    private static float rms(short[] src, int samples) {
+        long sum = 0;
+        for (int i = 0; i < samples; i++) sum += src[i] * src[i];
+        return (float) Math.sqrt((double) sum / samples);
+    }
+
+    public float getDuckLevel() { return duckLevel; }
+    public long getFramesMixed() { return framesMixed; }
+    public long getClippedSamples() { return clippedSamples; }
+}
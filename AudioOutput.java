@@ -0,0 +1,14 @@
+package com.example.audio;
+
+/**
+ * Playback device behind {@link PlayoutLoop}: AudioTrack in the app, a simulated sink in
+ * {@link StreamingBenchmark}. Mono little-endian PCM16.
+ */
+public interface AudioOutput {
+
+    /** Returned when the device was stopped underneath the writer. */
+    int ERROR_STOPPED = -1000;
+
+    /** Blocking write, paced by the device clock. Returns bytes written or a negative error code. */
+    int write(byte[] data, int off, int len);
+}
@@ -0,0 +1,132 @@
+package com.example.audio;
+
+/**
+ * Datagram format of the UDP audio mode (ports 8080/8081 UDP, next to the TCP streams), shared
+ * with ESP1mic.ino / ESP2speaker.ino. Every datagram carries one frame:
+ *
+ *   [0xA6][codec u8][seq u16 LE][timestamp u32 LE][samples u16 LE][payload]
+ *
+ * {@code seq} counts packets and {@code timestamp} counts samples (an RTP-style media clock), so a
+ * receiver can tell loss from reordering and knows how much audio a gap is worth. Payloads are the
+ * {@link WireCodec} ones; an IMA-ADPCM block carries its own predictor, so every packet decodes on
+ * its own and a loss never corrupts the packets after it. A silent stretch the sender suppressed
+ * starts with a comfort-noise marker packet (codec {@link WireCodec#CODEC_COMFORT_NOISE}, 0
+ * samples, the 2-byte level) and the next audio packet carries on with the next seq, its
+ * timestamp advanced by the silence.
+ *
+ * The mic board streams to whoever last sent it a {@link WireCodec#hello} datagram and stops
+ * after {@link #SUBSCRIPTION_TIMEOUT_MS} without one; the phone repeats the hello every
+ * {@link #HELLO_INTERVAL_MS}. The speaker board just plays what arrives.
+ *
+ * Optional forward error correction: a subscription hello with two more bytes, group size N (2..
+ * {@link #MAX_FEC_GROUP}) and depth D (1..{@link #MAX_FEC_DEPTH}), asks the mic to follow every N
+ * packets spaced D apart (seq s, s+D, ..., s+(N-1)D) with a parity packet
+ *
+ *   [0xA7][count u8][stride u8][base seq u16 LE][xor of lengths u16 LE][xor of the whole packets]
+ *
+ * (shorter packets zero-padded), from which any single lost packet of the group is rebuilt. D
+ * groups run interleaved, so a burst of up to D consecutive losses is repaired; overhead is 1/N
+ * and a receiver must hold up to N*D-1 packets to use it. Old receivers drop parity packets as bad.
+ */
+public final class AudioPacket {
+
+    public static final int SYNC = 0xA6;
+    public static final int HEADER_BYTES = 10;
+    public static final int MAX_PACKET_BYTES = HEADER_BYTES + WireCodec.MAX_FRAME_SAMPLES * 2;
+    public static final long HELLO_INTERVAL_MS = 1000;
+    public static final long SUBSCRIPTION_TIMEOUT_MS = 3000;
+
+    public static final int PARITY_SYNC = 0xA7;
+    public static final int PARITY_HEADER_BYTES = 7;
+    public static final int MAX_FEC_GROUP = 8;
+    public static final int MAX_FEC_DEPTH = 4;
+    public static final int MAX_PARITY_BYTES = PARITY_HEADER_BYTES + MAX_PACKET_BYTES;
+
+    private AudioPacket() {}
+
+    public static void writeHeader(byte[] dst, int off, int codec, int seq, long timestamp, int samples) {
+        dst[off] = (byte) SYNC;
+        dst[off + 1] = (byte) codec;
+        dst[off + 2] = (byte) seq;
+        dst[off + 3] = (byte) (seq >> 8);
+        dst[off + 4] = (byte) timestamp;
+        dst[off + 5] = (byte) (timestamp >> 8);
+        dst[off + 6] = (byte) (timestamp >> 16);
+        dst[off + 7] = (byte) (timestamp >> 24);
+        dst[off + 8] = (byte) samples;
+        dst[off + 9] = (byte) (samples >> 8);
+    }
+
+    /** True if {@code len} bytes at {@code off} are a complete, consistent packet. */
+    public static boolean isValid(byte[] b, int off, int len) {
+        if (len < HEADER_BYTES || (b[off] & 0xFF) != SYNC) return false;
+        int codec = codec(b, off);
+        int samples = samples(b, off);
+        return WireCodec.isSupported(codec) && samples > 0 && samples <= WireCodec.MAX_FRAME_SAMPLES
+                && len - HEADER_BYTES == WireCodec.payloadBytes(codec, samples);
+    }
+
+    /** True if {@code len} bytes at {@code off} are a comfort-noise marker packet. */
+    public static boolean isComfortNoise(byte[] b, int off, int len) {
+        return len >= HEADER_BYTES && (b[off] & 0xFF) == SYNC && WireCodec.isComfortNoise(codec(b, off), samples(b, off), len - HEADER_BYTES);
+    }
+
+    public static int codec(byte[] b, int off) { return b[off + 1] & 0xFF; }
+    public static int seq(byte[] b, int off) { return (b[off + 2] & 0xFF) | ((b[off + 3] & 0xFF) << 8); }
+    public static long timestamp(byte[] b, int off) {
+        return (b[off + 4] & 0xFFL) | ((b[off + 5] & 0xFFL) << 8) | ((b[off + 6] & 0xFFL) << 16) | ((b[off + 7] & 0xFFL) << 24);
+    }
+    public static int samples(byte[] b, int off) { return (b[off + 8] & 0xFF) | ((b[off + 9] & 0xFF) << 8); }
+
+    /** True if {@code len} bytes at {@code off} look like a parity packet. */
+    public static boolean isParity(byte[] b, int off, int len) {
+        if (len < PARITY_HEADER_BYTES + HEADER_BYTES || (b[off] & 0xFF) != PARITY_SYNC) return false;
+        return isValidFec(parityCount(b, off), parityStride(b, off)) && len - PARITY_HEADER_BYTES <= MAX_PACKET_BYTES;
+    }
+
+    public static boolean isValidFec(int group, int depth) {
+        return group >= 2 && group <= MAX_FEC_GROUP && depth >= 1 && depth <= MAX_FEC_DEPTH;
+    }
+
+    public static void writeParityHeader(byte[] dst, int off, int count, int stride, int baseSeq, int lengthXor) {
+        dst[off] = (byte) PARITY_SYNC;
+        dst[off + 1] = (byte) count;
+        dst[off + 2] = (byte) stride;
+        dst[off + 3] = (byte) baseSeq;
+        dst[off + 4] = (byte) (baseSeq >> 8);
+        dst[off + 5] = (byte) lengthXor;
+        dst[off + 6] = (byte) (lengthXor >> 8);
+    }
+
+    public static int parityCount(byte[] b, int off) { return b[off + 1] & 0xFF; }
+    public static int parityStride(byte[] b, int off) { return b[off + 2] & 0xFF; }
+    public static int parityBaseSeq(byte[] b, int off) { return (b[off + 3] & 0xFF) | ((b[off + 4] & 0xFF) << 8); }
+    public static int parityLengthXor(byte[] b, int off) { return (b[off + 5] & 0xFF) | ((b[off + 6] & 0xFF) << 8); }
+
+    /** Mic subscription: the codec hello, plus group size and depth when {@code fecGroup} is non-zero. */
+    public static byte[] subscribeHello(int codec, int fecGroup, int fecDepth) {
+        byte[] hello = WireCodec.hello(codec);
+        if (fecGroup == 0) return hello;
+        if (!isValidFec(fecGroup, fecDepth)) throw new IllegalArgumentException("Invalid FEC group/depth: " + fecGroup + "/" + fecDepth);
+        byte[] extended = new byte[hello.length + 2];
+        System.arraycopy(hello, 0, extended, 0, hello.length);
+        extended[hello.length] = (byte) fecGroup;
+        extended[hello.length + 1] = (byte) fecDepth;
+        return extended;
+    }
+
+    /** FEC group size requested by a subscription hello of {@code len} bytes; 0 for none. */
+    public static int subscribedFecGroup(byte[] hello, int len) {
+        if (len < WireCodec.HELLO_BYTES + 2) return 0;
+        int group = hello[WireCodec.HELLO_BYTES] & 0xFF;
+        return isValidFec(group, subscribedFecDepth(hello, len)) ? group : 0;
+    }
+
+    /** FEC depth requested by a subscription hello; only meaningful if {@link #subscribedFecGroup} is non-zero. */
+    public static int subscribedFecDepth(byte[] hello, int len) {
+        return len < WireCodec.HELLO_BYTES + 2 ? 1 : hello[WireCodec.HELLO_BYTES + 1] & 0xFF;
+    }
+
+    /** Signed distance from {@code expected} to {@code seq}, modulo 2^16. */
+    public static int seqDistance(int seq, int expected) { return (short) (seq - expected); }
+}
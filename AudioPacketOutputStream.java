@@ -0,0 +1,35 @@
+package com.example.audio;
+
+import java.io.OutputStream;
+
+/**
+ * Accepts little-endian PCM16 and writes one {@link AudioPacket} per frame, each in a single write
+ * to {@code out} (one datagram on a UDP connection). Numbers the packets and stamps them with the
+ * sample count sent so far; suppressed silence advances the timestamp without using up sequence
+ * numbers, so the receiver sees no loss, just a later media time.
+ */
+public class AudioPacketOutputStream extends FramedAudioOutputStream {
+
+    private int seq = 0;
+    private long timestamp = 0;
+    private long packetsWritten = 0;
+
+    public AudioPacketOutputStream(OutputStream out, int codec, int frameSamples) {
+        super(out, codec, frameSamples, AudioPacket.HEADER_BYTES);
+    }
+
+    @Override
+    protected void writeHeader(byte[] frame, int codec, int samples, int payloadBytes) {
+        AudioPacket.writeHeader(frame, 0, codec, seq, timestamp, samples);
+        seq = (seq + 1) & 0xFFFF;
+        timestamp = (timestamp + samples) & 0xFFFFFFFFL;
+        packetsWritten++;
+    }
+
+    @Override
+    protected void onSilence(int samples) {
+        timestamp = (timestamp + samples) & 0xFFFFFFFFL;
+    }
+
+    public long getPacketsWritten() { return packetsWritten; }
+}
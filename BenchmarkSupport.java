@@ -0,0 +1,19 @@
+package com.example.audio;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/** Measurement helpers shared by the plain-main benchmarks. */
+final class BenchmarkSupport {
+
+    // Looked up once: the lookup itself allocates
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    private BenchmarkSupport() {}
+
+    /** Bytes allocated so far by the calling thread, or -1 where the JVM cannot count them. */
+    static long allocatedBytes() {
+        if (!(THREADS instanceof com.sun.management.ThreadMXBean)) return -1;
+        return ((com.sun.management.ThreadMXBean) THREADS).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
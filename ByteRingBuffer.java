@@ -0,0 +1,188 @@
+package com.example.audio;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Preallocated lock-free single-producer/single-consumer byte ring.
+ *
+ * Exactly one thread may call {@link #offer}, and exactly one other thread may call
+ * {@link #read} / {@link #awaitData}. Neither side ever blocks the other: a full ring rejects the
+ * whole chunk (counted as an overrun, so sample alignment is preserved) and an empty ring returns 0
+ * (counted as an underrun on the transition from data to no data).
+ *
+ * A ring built to stamp arrivals also keeps, beside the bytes, when each chunk was offered: the
+ * producer passes the time of the socket read it came from, and {@link #readArrival} hands the
+ * consumer one arrival at a time with that time, so a jitter buffer behind the ring sees the
+ * network's timing rather than its own reader's.
+ */
+public class ByteRingBuffer {
+
+    /** Arrival time of bytes offered without one. */
+    public static final long NO_ARRIVAL = Long.MIN_VALUE;
+
+    private static final int ARRIVAL_MARKS = 256; // Chunks in flight; beyond that a chunk reads as part of the next
+
+    private final byte[] data;
+    private final int mask;
+
+    private final AtomicLong writePos = new AtomicLong(); // Owned by the producer
+    private final AtomicLong readPos = new AtomicLong();  // Owned by the consumer
+    private long cachedReadPos = 0;   // Producer's last view of readPos
+    private long cachedWritePos = 0;  // Consumer's last view of writePos
+
+    private volatile Thread waitingConsumer = null;
+
+    // Arrival marks: where each stamped chunk ends, and when it arrived. Null unless stamping
+    private final long[] markEnd;
+    private final long[] markNanos;
+    private final AtomicLong markWritePos = new AtomicLong(); // Owned by the producer
+    private final AtomicLong markReadPos = new AtomicLong();  // Owned by the consumer
+    private long lastArrivalNanos = NO_ARRIVAL;
+    private volatile long droppedMarks = 0;                   // Written by producer only
+
+    private volatile long overruns = 0;       // Written by producer only
+    private volatile long overrunBytes = 0;   // Written by producer only
+    private volatile long underruns = 0;      // Written by consumer only
+    private boolean consumerHadData = false;
+
+    /** @param capacity rounded up to the next power of two */
+    public ByteRingBuffer(int capacity) {
+        this(capacity, false);
+    }
+
+    /** With {@code stampArrivals}, chunks keep the time given to {@link #offer(byte[], int, int, long)}. */
+    public ByteRingBuffer(int capacity, boolean stampArrivals) {
+        if (capacity <= 0) throw new IllegalArgumentException("Invalid capacity: " + capacity);
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) size <<= 1;
+        this.data = new byte[size];
+        this.mask = size - 1;
+        this.markEnd = stampArrivals ? new long[ARRIVAL_MARKS] : null;
+        this.markNanos = stampArrivals ? new long[ARRIVAL_MARKS] : null;
+    }
+
+    /** Producer side. Copies all of {@code len} bytes or nothing; returns false on overrun. */
+    public boolean offer(byte[] src, int off, int len) {
+        return offer(src, off, len, NO_ARRIVAL);
+    }
+
+    /**
+     * Producer side. As {@link #offer(byte[], int, int)}, for bytes that arrived at
+     * {@code arrivalNanos} ({@link System#nanoTime}); offers of one socket read pass the same time.
+     */
+    public boolean offer(byte[] src, int off, int len, long arrivalNanos) {
+        long w = writePos.get();
+        if (data.length - (w - cachedReadPos) < len) {
+            cachedReadPos = readPos.get();
+            if (data.length - (w - cachedReadPos) < len) {
+                overruns++;
+                overrunBytes += len;
+                return false;
+            }
+        }
+        int idx = (int) (w & mask);
+        int first = Math.min(len, data.length - idx);
+        System.arraycopy(src, off, data, idx, first);
+        if (first < len) System.arraycopy(src, off + first, data, 0, len - first);
+        if (markEnd != null && arrivalNanos != NO_ARRIVAL) mark(w + len, arrivalNanos); // Before the bytes are published
+        writePos.set(w + len);
+
+        Thread waiter = waitingConsumer;
+        if (waiter != null) LockSupport.unpark(waiter);
+        return true;
+    }
+
+    /** Consumer side. Copies up to {@code len} bytes and returns the count, 0 if empty. */
+    public int read(byte[] dst, int off, int len) {
+        long r = readPos.get();
+        long avail = cachedWritePos - r;
+        if (avail < len) {
+            cachedWritePos = writePos.get();
+            avail = cachedWritePos - r;
+        }
+        if (avail == 0) {
+            if (consumerHadData) {
+                underruns++;
+                consumerHadData = false;
+            }
+            return 0;
+        }
+        consumerHadData = true;
+        int n = (int) Math.min(len, avail);
+        int idx = (int) (r & mask);
+        int first = Math.min(n, data.length - idx);
+        System.arraycopy(data, idx, dst, off, first);
+        if (first < n) System.arraycopy(data, 0, dst, off + first, n - first);
+        readPos.set(r + n);
+        return n;
+    }
+
+    private void mark(long end, long arrivalNanos) {
+        long m = markWritePos.get();
+        if (m - markReadPos.get() == ARRIVAL_MARKS) { droppedMarks++; return; }
+        int i = (int) (m & (ARRIVAL_MARKS - 1));
+        markEnd[i] = end;
+        markNanos[i] = arrivalNanos;
+        markWritePos.set(m + 1);
+    }
+
+    /**
+     * Consumer side. Like {@link #read}, but stops at the end of one arrival: the bytes offered
+     * with the same time, whose time {@link #getLastArrivalNanos} then returns. An arrival larger
+     * than {@code len} takes several calls, all with its time. Unstamped bytes read as part of the
+     * next stamped chunk, or as {@link #NO_ARRIVAL} if there is none.
+     */
+    public int readArrival(byte[] dst, int off, int len) {
+        long arrivalNanos = NO_ARRIVAL;
+        if (markEnd != null) {
+            long r = readPos.get();
+            long m = markReadPos.get();
+            long written = markWritePos.get();
+            while (m < written && markEnd[(int) (m & (ARRIVAL_MARKS - 1))] <= r) m++; // Read or cleared already
+            markReadPos.set(m);
+            if (m < written) {
+                arrivalNanos = markNanos[(int) (m & (ARRIVAL_MARKS - 1))];
+                long end = markEnd[(int) (m & (ARRIVAL_MARKS - 1))];
+                for (long next = m + 1; next < written && markNanos[(int) (next & (ARRIVAL_MARKS - 1))] == arrivalNanos; next++) {
+                    end = markEnd[(int) (next & (ARRIVAL_MARKS - 1))];
+                }
+                len = (int) Math.min(len, end - r);
+            }
+        }
+        int n = read(dst, off, len);
+        lastArrivalNanos = arrivalNanos;
+        return n;
+    }
+
+    /** Consumer side. The time of the arrival the last {@link #readArrival} read from, or {@link #NO_ARRIVAL}. */
+    public long getLastArrivalNanos() { return lastArrivalNanos; }
+
+    /** Consumer side. Parks until data is available or the timeout passes. */
+    public boolean awaitData(long timeoutNanos) {
+        if (available() > 0) return true;
+        waitingConsumer = Thread.currentThread();
+        try {
+            if (available() == 0) LockSupport.parkNanos(this, timeoutNanos);
+        } finally {
+            waitingConsumer = null;
+        }
+        return available() > 0;
+    }
+
+    /** Consumer side. Discards everything currently queued. */
+    public void clear() {
+        long marks = markWritePos.get(); // Before the bytes: a mark published in between is skipped once its bytes are gone
+        readPos.set(writePos.get());
+        markReadPos.set(marks);
+        consumerHadData = false;
+    }
+
+    public int available() { return (int) (writePos.get() - readPos.get()); }
+    public int capacity() { return data.length; }
+    public long getOverruns() { return overruns; }
+    public long getOverrunBytes() { return overrunBytes; }
+    public long getUnderruns() { return underruns; }
+    /** Stamped chunks that found every mark in use; their bytes took the next chunk's time. */
+    public long getDroppedMarks() { return droppedMarks; }
+}
@@ -0,0 +1,49 @@
+package com.example.audio;
+
+import java.util.function.BooleanSupplier;
+
+/**
+ * Keeps an {@link AudioInput} drained into the send ring and never waits on the network; the
+ * send pacer picks the audio up from the ring.
+ *
+ * Runs until {@code running} turns false, the thread is interrupted, or the device reports an
+ * error ({@link #getExitCode}).
+ */
+public class CaptureLoop implements Runnable {
+
+    private final AudioInput input;
+    private final ByteRingBuffer ring;
+    private final int chunkBytes;
+    private final LatencyHistogram readLatency;
+    private final BooleanSupplier running;
+    private volatile int exitCode = 0;
+
+    /** {@code readLatency} (may be null) records the time spent in each device read. */
+    public CaptureLoop(AudioInput input, ByteRingBuffer ring, int chunkBytes, LatencyHistogram readLatency, BooleanSupplier running) {
+        this.input = input;
+        this.ring = ring;
+        this.chunkBytes = chunkBytes;
+        this.readLatency = readLatency;
+        this.running = running;
+    }
+
+    @Override
+    public void run() {
+        byte[] buffer = new byte[chunkBytes];
+        while (running.getAsBoolean() && !Thread.currentThread().isInterrupted()) {
+            long start = System.nanoTime();
+            int bytesRead = input.read(buffer, 0, buffer.length);
+            if (readLatency != null) readLatency.record(System.nanoTime() - start);
+            if (bytesRead < 0) {
+                exitCode = bytesRead;
+                return;
+            }
+            if (bytesRead > 0) {
+                ring.offer(buffer, 0, bytesRead); // Overruns are counted by the ring
+            }
+        }
+    }
+
+    /** The device error that ended the loop, or 0 if it was stopped. */
+    public int getExitCode() { return exitCode; }
+}
@@ -0,0 +1,30 @@
+package com.example.audio;
+
+/**
+ * Socket-level metrics of one ESP32 channel, registered once and attached to every connection the
+ * channel's supervisor opens, so totals and rates carry across reconnects.
+ */
+public class ChannelMetrics implements NioTransport.IoObserver {
+
+    private final MetricsRegistry.Counter bytesIn;
+    private final MetricsRegistry.Counter bytesOut;
+    private final LatencyHistogram readNanos;
+    private final LatencyHistogram writeNanos;
+
+    public ChannelMetrics(MetricsRegistry registry, String channel) {
+        this.bytesIn = registry.counter(channel + ".bytesIn");
+        this.bytesOut = registry.counter(channel + ".bytesOut");
+        this.readNanos = registry.histogram(channel + ".socketRead");
+        this.writeNanos = registry.histogram(channel + ".socketWrite");
+    }
+
+    @Override public void onRead(int bytes, long nanos) {
+        bytesIn.add(bytes);
+        readNanos.record(nanos);
+    }
+
+    @Override public void onWrite(int bytes, long nanos) {
+        bytesOut.add(bytes);
+        writeNanos.record(nanos);
+    }
+}
@@ -0,0 +1,133 @@
+package com.example.audio;
+
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Night-long soak of the receive playout against sample-clock drift, in simulated time. The
+ * default four 8 hour runs take 60-75 s on a plain JVM, nearly all of it in the compensated runs'
+ * resampler filter (about 8 s per simulated hour of all four); {@code --hours 1} is a quick check.
+ *
+ * The board's clock runs {@code ppm} fast or slow (plus a slow thermal wander) and sends 10 ms
+ * frames over a link with random delay; the phone's device clock polls the playout chain every
+ * 10 ms exactly as {@link PlayoutLoop} does. Each run reports per hour the range of jitter buffer
+ * depth (the latency drift would grow or shrink), underruns, trimmed frames and the drift
+ * estimate. It runs once with the {@link DriftCompensator} and once without, for
+ * +ppm and -ppm, and exits non-zero if, once the controller has settled, the compensated buffer
+ * ever leaves its bound or glitches (underrun or trimmed frame).
+ *
+ * Usage: ClockDriftSoak [--hours H] [--ppm P] [--jitter MS] [--seed S]
+ */
+public class ClockDriftSoak {
+
+    // Same as StreamingService
+    private static final int SAMPLE_RATE = 16000;
+    private static final int FRAME_MS = 10;
+    private static final int FRAME_SAMPLES = SAMPLE_RATE / 1000 * FRAME_MS;
+    private static final int JITTER_MIN_FRAMES = 3;
+    private static final int JITTER_MAX_FRAMES = 30;
+    private static final int JITTER_CAPACITY_FRAMES = 40;
+
+    private static final long FRAME_NANOS = FRAME_MS * 1_000_000L;
+    private static final long BASE_DELAY_NANOS = 5_000_000L;
+    private static final double WANDER_PPM = 30;              // Thermal drift on top of the offset...
+    private static final double WANDER_PERIOD_HOURS = 3;      // ...over this period
+    private static final long SETTLE_NANOS = 600_000_000_000L; // Checks start after this
+    private static final long HOUR_NANOS = 3_600_000_000_000L;
+
+    private static final class Hour {
+        double minBufferedMs = Double.MAX_VALUE;
+        double maxBufferedMs = 0;
+        long underruns;
+        long trimmed;
+        double driftPpm;
+    }
+
+    private static final class Result {
+        double worstBufferedMs;  // After the settle time
+        long glitches;           // Underruns and trimmed frames after the settle time
+    }
+
+    private static Result run(double ppm, boolean compensate, int hours, int jitterMs, long seed) {
+        JitterBuffer buffer = new JitterBuffer(FRAME_SAMPLES * 2, 2, FRAME_MS, JITTER_MIN_FRAMES, JITTER_MAX_FRAMES, JITTER_CAPACITY_FRAMES);
+        DriftCompensator drift = compensate ? new DriftCompensator(buffer) : null;
+        Random random = new Random(seed);
+        byte[] frame = new byte[FRAME_SAMPLES * 2];
+        byte[] out = new byte[FRAME_SAMPLES * 2];
+        for (int i = 0; i < FRAME_SAMPLES; i++) {
+            int s = (int) (8000 * Math.sin(2 * Math.PI * 440 * i / SAMPLE_RATE));
+            frame[2 * i] = (byte) s;
+            frame[2 * i + 1] = (byte) (s >> 8);
+        }
+
+        double sendNanos = 0;     // Board clock, in phone nanoseconds
+        long arrivalNanos = 0;    // In-order link: a frame never overtakes the previous one
+        long nextArrival = BASE_DELAY_NANOS;
+        long end = hours * HOUR_NANOS;
+        Result result = new Result();
+        long settledGlitches = -1;
+        Hour hour = new Hour();
+        long lastUnderruns = 0;
+        long lastTrimmed = 0;
+        System.out.println(String.format(Locale.US, "%s, sender %+.0f ppm:", compensate ? "compensated" : "uncompensated", ppm));
+        for (long now = 0; now < end; now += FRAME_NANOS) {
+            while (nextArrival <= now) {
+                buffer.offer(frame, 0, frame.length, nextArrival);
+                double hoursIn = sendNanos / HOUR_NANOS;
+                double rate = 1 + (ppm + WANDER_PPM * Math.sin(2 * Math.PI * hoursIn / WANDER_PERIOD_HOURS)) * 1e-6;
+                sendNanos += FRAME_NANOS / rate;
+                arrivalNanos = Math.max(arrivalNanos, (long) sendNanos + BASE_DELAY_NANOS + (jitterMs > 0 ? (long) (random.nextInt(jitterMs * 1000)) * 1000 : 0));
+                nextArrival = arrivalNanos;
+            }
+            if (drift != null) drift.poll(out, 0); else buffer.poll(out, 0);
+
+            double bufferedMs = buffer.getDepthFrames() * FRAME_MS;
+            hour.minBufferedMs = Math.min(hour.minBufferedMs, bufferedMs);
+            hour.maxBufferedMs = Math.max(hour.maxBufferedMs, bufferedMs);
+            long glitches = buffer.getUnderruns() + buffer.getFramesDroppedOverflow() + buffer.getFramesDroppedLate();
+            if (now >= SETTLE_NANOS) {
+                if (settledGlitches < 0) settledGlitches = glitches;
+                result.worstBufferedMs = Math.max(result.worstBufferedMs, bufferedMs);
+                result.glitches = glitches - settledGlitches;
+            }
+            if ((now + FRAME_NANOS) % HOUR_NANOS == 0) {
+                hour.underruns = buffer.getUnderruns() - lastUnderruns;
+                hour.trimmed = buffer.getFramesDroppedOverflow() + buffer.getFramesDroppedLate() - lastTrimmed;
+                lastUnderruns = buffer.getUnderruns();
+                lastTrimmed = buffer.getFramesDroppedOverflow() + buffer.getFramesDroppedLate();
+                hour.driftPpm = drift != null ? drift.getDriftPpm() : 0;
+                System.out.println(String.format(Locale.US, "  hour %d: buffered %5.1f..%5.1f ms, target %2d frames, underruns %4d, trimmed %4d%s",
+                        (now + FRAME_NANOS) / HOUR_NANOS, hour.minBufferedMs, hour.maxBufferedMs, buffer.getTargetDepthFrames(), hour.underruns, hour.trimmed,
+                        drift != null ? String.format(Locale.US, ", drift estimate %+6.1f ppm", hour.driftPpm) : ""));
+                hour = new Hour();
+            }
+        }
+        return result;
+    }
+
+    public static void main(String[] args) {
+        int hours = 8;
+        double ppm = 500;
+        int jitterMs = 20;
+        long seed = 1;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--hours": hours = Integer.parseInt(args[++i]); break;
+                case "--ppm": ppm = Double.parseDouble(args[++i]); break;
+                case "--jitter": jitterMs = Integer.parseInt(args[++i]); break;
+                case "--seed": seed = Long.parseLong(args[++i]); break;
+                default: throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+        double boundMs = (JITTER_MIN_FRAMES * FRAME_MS + 2 * jitterMs) * 2; // Twice what the jitter alone needs
+        boolean ok = true;
+        for (double p : new double[] { ppm, -ppm }) {
+            run(p, false, hours, jitterMs, seed);
+            Result r = run(p, true, hours, jitterMs, seed);
+            boolean pass = r.worstBufferedMs <= boundMs && r.glitches == 0;
+            System.out.println(String.format(Locale.US, "  settled: worst buffered %.1f ms (bound %.1f ms), %d glitches: %s", r.worstBufferedMs, boundMs, r.glitches, pass ? "OK" : "FAIL"));
+            ok &= pass;
+        }
+        if (!ok) System.exit(1);
+    }
+}
@@ -0,0 +1,228 @@
+package com.example.audio;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Round trip and throughput of the wire codecs on one core of a plain JVM.
+ *
+ * Round trip: each signal (loud and quiet tones, speech-like bursts over a noise bed, white noise,
+ * silence) is written through a {@link FramedAudioOutputStream} in 10 ms frames, a stray sync
+ * byte goes in front of a frame now and then, and the stream is cut into socket reads of random
+ * sizes and parsed back by a
+ * {@link FrameDecoder}. It reports the frames recovered, the bad headers skipped, and the
+ * signal-to-error ratio of what came out; PCM16 must come back bit for bit. Two checks of the
+ * codecs themselves follow: every mu-law code decodes to a value that encodes back to the same
+ * code, and an ADPCM frame decodes the same whether or not the frame before it was lost.
+ *
+ * Throughput: the median of several timed runs (after warmup, so the JIT has compiled the inner
+ * loops) of encoding and decoding one frame, with the real-time factor for one stream and the
+ * bytes allocated per frame where the JVM can count them (the codecs must not allocate).
+ *
+ * Usage: CodecBenchmark [--seconds S] [--runs N] [--seed S]
+ */
+public class CodecBenchmark {
+
+    private static final int SAMPLE_RATE = 16000;
+    private static final int FRAME_SAMPLES = 160;     // 10 ms, as the send path frames
+    private static final int MAX_READ_BYTES = 1500;   // Socket reads of 1..this
+    private static final double STRAY_SYNC_CHANCE = 0.05; // Per frame: a lone 0xA5 in front of it
+    private static final int WARMUP_RUNS = 3;
+    private static final int[] CODECS = { WireCodec.CODEC_PCM16, WireCodec.CODEC_ULAW, WireCodec.CODEC_IMA_ADPCM };
+
+    private static byte[] toPcm(double[] y) {
+        byte[] pcm = new byte[y.length * 2];
+        for (int i = 0; i < y.length; i++) {
+            int s = (int) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, Math.round(y[i])));
+            pcm[2 * i] = (byte) s;
+            pcm[2 * i + 1] = (byte) (s >> 8);
+        }
+        return pcm;
+    }
+
+    private static double[] tone(int samples, double hz, double dbfs) {
+        double[] y = new double[samples];
+        double amplitude = VadBenchmark.dbToAmplitude(dbfs) * Math.sqrt(2);
+        for (int i = 0; i < samples; i++) y[i] = amplitude * Math.sin(2 * Math.PI * hz * i / SAMPLE_RATE);
+        return y;
+    }
+
+    private static double[] speech(Random random, int samples) {
+        double[] y = VadBenchmark.noise(random, samples, -60, true);
+        VadBenchmark.addVoice(random, y, new boolean[samples / FRAME_SAMPLES], -20);
+        return y;
+    }
+
+    private static final class Signal {
+        final String name;
+        final byte[] pcm;
+        Signal(String name, byte[] pcm) { this.name = name; this.pcm = pcm; }
+    }
+
+    private static List<Signal> signals(long seed, int seconds) {
+        int samples = SAMPLE_RATE * seconds / FRAME_SAMPLES * FRAME_SAMPLES;
+        Random random = new Random(seed);
+        List<Signal> signals = new ArrayList<>();
+        signals.add(new Signal("1 kHz tone, -6 dBFS", toPcm(tone(samples, 1000, -6))));
+        signals.add(new Signal("1 kHz tone, -40 dBFS", toPcm(tone(samples, 1000, -40))));
+        signals.add(new Signal("speech-like over room", toPcm(speech(random, samples))));
+        signals.add(new Signal("white noise, -12 dBFS", toPcm(VadBenchmark.noise(random, samples, -12, false))));
+        signals.add(new Signal("silence", new byte[samples * 2]));
+        return signals;
+    }
+
+    private static double snrDb(byte[] ref, byte[] out, int bytes) {
+        double signal = 0, error = 0;
+        for (int i = 0; i < bytes; i += 2) {
+            int a = (short) ((ref[i] & 0xFF) | (ref[i + 1] << 8));
+            int b = (short) ((out[i] & 0xFF) | (out[i + 1] << 8));
+            signal += (double) a * a;
+            error += (double) (a - b) * (a - b);
+        }
+        if (error == 0) return Double.POSITIVE_INFINITY;
+        return 10 * Math.log10(Math.max(signal, 1) / error);
+    }
+
+    // --- Round trip ---
+
+    private static void roundTrip(Signal signal, int codec, Random random) throws IOException {
+        ByteArrayOutputStream wire = new ByteArrayOutputStream();
+        FramedAudioOutputStream framed = new FramedAudioOutputStream(wire, codec, FRAME_SAMPLES);
+        framed.write(signal.pcm, 0, signal.pcm.length);
+        framed.flush();
+        byte[] frames = wire.toByteArray();
+
+        // Frames are fixed-size here; a stray sync byte goes in front of one now and then
+        int frameBytes = WireCodec.FRAME_HEADER_BYTES + WireCodec.payloadBytes(codec, FRAME_SAMPLES);
+        ByteArrayOutputStream withStrays = new ByteArrayOutputStream();
+        long strays = 0;
+        for (int off = 0; off < frames.length; off += frameBytes) {
+            if (random.nextDouble() < STRAY_SYNC_CHANCE) { withStrays.write(WireCodec.FRAME_SYNC); strays++; }
+            withStrays.write(frames, off, Math.min(frameBytes, frames.length - off));
+        }
+        byte[] stream = withStrays.toByteArray();
+
+        FrameDecoder decoder = new FrameDecoder();
+        byte[] out = new byte[signal.pcm.length + FrameDecoder.maxDecodedBytes(MAX_READ_BYTES)];
+        int decoded = 0;
+        for (int off = 0; off < stream.length; ) {
+            int n = Math.min(stream.length - off, 1 + random.nextInt(MAX_READ_BYTES));
+            decoded += decoder.decode(stream, off, n, out, decoded);
+            off += n;
+        }
+        int frameCount = signal.pcm.length / 2 / FRAME_SAMPLES;
+        int bytes = Math.min(decoded, signal.pcm.length);
+        double snr = snrDb(signal.pcm, out, bytes);
+        boolean exact = decoded == signal.pcm.length && snr == Double.POSITIVE_INFINITY;
+        String quality = codec == WireCodec.CODEC_PCM16 ? (exact ? "bit-exact" : "NOT EXACT")
+                : snr == Double.POSITIVE_INFINITY ? "lossless" : String.format(Locale.US, "%6.1f dB", snr);
+        System.out.println(String.format(Locale.US, "%-24s %-9s | %6d/%-6d | %5d %5d | %8.2f | %s",
+                signal.name, WireCodec.name(codec), decoder.getFramesDecoded(), frameCount, strays, decoder.getBadFrames(),
+                frames.length * 8.0 / (frameCount * FRAME_SAMPLES / (double) SAMPLE_RATE) / 1000, quality));
+    }
+
+    private static void codecChecks(List<Signal> signals) {
+        int mismatches = 0;
+        for (int code = 0; code < 256; code++) {
+            short s = MuLawCodec.decode((byte) code);
+            if (MuLawCodec.decode(MuLawCodec.encode(s)) != s) mismatches++;
+        }
+        System.out.println("mu-law: " + (256 - mismatches) + "/256 codes decode to a value that encodes back to the same level");
+
+        // Encode a signal, then decode one frame after its predecessor and on its own
+        byte[] pcm = signals.get(2).pcm;
+        int frames = pcm.length / 2 / FRAME_SAMPLES;
+        int blockBytes = ImaAdpcmCodec.encodedBytes(FRAME_SAMPLES);
+        byte[] encoded = new byte[frames * blockBytes];
+        ImaAdpcmCodec encoder = new ImaAdpcmCodec();
+        for (int f = 0; f < frames; f++) encoder.encode(pcm, f * FRAME_SAMPLES * 2, FRAME_SAMPLES, encoded, f * blockBytes);
+        byte[] inSequence = new byte[FRAME_SAMPLES * 2];
+        byte[] alone = new byte[FRAME_SAMPLES * 2];
+        int differing = 0;
+        for (int f = 1; f < frames; f += 2) { // Every other frame "lost"
+            ImaAdpcmCodec.decode(encoded, (f - 1) * blockBytes, FRAME_SAMPLES, inSequence, 0);
+            ImaAdpcmCodec.decode(encoded, f * blockBytes, FRAME_SAMPLES, inSequence, 0);
+            ImaAdpcmCodec.decode(encoded, f * blockBytes, FRAME_SAMPLES, alone, 0);
+            if (!java.util.Arrays.equals(inSequence, alone)) differing++;
+        }
+        System.out.println("ima-adpcm: " + (frames / 2 - differing) + "/" + frames / 2 + " frames decode the same with the frame before them lost");
+    }
+
+    // --- Throughput ---
+
+    private interface FrameKernel {
+        void run(byte[] pcm, int off);
+    }
+
+    private static void throughput(String name, byte[] pcm, FrameKernel kernel, int runs) {
+        int frames = pcm.length / 2 / FRAME_SAMPLES;
+        List<Double> times = new ArrayList<>();
+        long allocated = 0;
+        for (int r = 0; r < WARMUP_RUNS + runs; r++) {
+            long bytesBefore = BenchmarkSupport.allocatedBytes();
+            long start = System.nanoTime();
+            for (int f = 0; f < frames; f++) kernel.run(pcm, f * FRAME_SAMPLES * 2);
+            long elapsed = System.nanoTime() - start;
+            long bytesAfter = BenchmarkSupport.allocatedBytes();
+            if (r >= WARMUP_RUNS) {
+                times.add(elapsed / (double) frames);
+                allocated = bytesBefore < 0 ? -1 : Math.max(allocated, bytesAfter - bytesBefore);
+            }
+        }
+        Collections.sort(times);
+        double ns = times.get(times.size() / 2);
+        System.out.println(String.format(Locale.US, "%-22s | %7.0f %7.0f | %8.0fx | %s",
+                name, ns, times.get(times.size() - 1), 10_000_000 / ns,
+                allocated < 0 ? "-" : String.format(Locale.US, "%.1f", allocated / (double) frames)));
+    }
+
+    public static void main(String[] args) throws IOException {
+        int seconds = 60;
+        int runs = 9;
+        long seed = 1;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--seconds": seconds = Integer.parseInt(args[++i]); break;
+                case "--runs": runs = Integer.parseInt(args[++i]); break;
+                case "--seed": seed = Long.parseLong(args[++i]); break;
+                default: throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+        List<Signal> signals = signals(seed, seconds);
+
+        System.out.println("Round trip through FramedAudioOutputStream and FrameDecoder, random reads with stray sync bytes:");
+        System.out.println("frames out/in, stray syncs, bad headers skipped, wire kbit/s, signal-to-error ratio");
+        System.out.println(String.format(Locale.US, "%-24s %-9s | %13s | %5s %5s | %8s | %s", "signal", "codec", "frames", "stray", "bad", "kbit/s", "quality"));
+        Random random = new Random(seed);
+        for (Signal signal : signals) for (int codec : CODECS) roundTrip(signal, codec, random);
+        System.out.println();
+        codecChecks(signals);
+        System.out.println();
+
+        System.out.println("Per 10 ms frame (" + FRAME_SAMPLES + " samples): median and worst-run ns, real-time factor for one stream, bytes allocated per frame");
+        System.out.println(String.format(Locale.US, "%-22s | %7s %7s | %9s | %s", "kernel", "median", "worst", "realtime", "alloc"));
+        byte[] pcm = signals.get(2).pcm;
+        byte[] ulaw = new byte[FRAME_SAMPLES];
+        byte[] adpcm = new byte[ImaAdpcmCodec.encodedBytes(FRAME_SAMPLES)];
+        byte[] decoded = new byte[FRAME_SAMPLES * 2];
+        ImaAdpcmCodec encoder = new ImaAdpcmCodec();
+        MuLawCodec.encode(pcm, 0, FRAME_SAMPLES, ulaw, 0);
+        encoder.encode(pcm, 0, FRAME_SAMPLES, adpcm, 0);
+        throughput("mu-law encode", pcm, (src, off) -> MuLawCodec.encode(src, off, FRAME_SAMPLES, ulaw, 0), runs);
+        throughput("mu-law decode", pcm, (src, off) -> MuLawCodec.decode(ulaw, 0, FRAME_SAMPLES, decoded, 0), runs);
+        throughput("ima-adpcm encode", pcm, (src, off) -> encoder.encode(src, off, FRAME_SAMPLES, adpcm, 0), runs);
+        throughput("ima-adpcm decode", pcm, (src, off) -> ImaAdpcmCodec.decode(adpcm, 0, FRAME_SAMPLES, decoded, 0), runs);
+
+        // The whole receive path for one frame of wire bytes, header parsing included
+        FrameDecoder decoder = new FrameDecoder();
+        byte[] frame = new byte[WireCodec.FRAME_HEADER_BYTES + adpcm.length];
+        WireCodec.writeHeader(frame, 0, WireCodec.CODEC_IMA_ADPCM, FRAME_SAMPLES, adpcm.length);
+        System.arraycopy(adpcm, 0, frame, WireCodec.FRAME_HEADER_BYTES, adpcm.length);
+        throughput("FrameDecoder ima-adpcm", pcm, (src, off) -> decoder.decode(frame, 0, frame.length, decoded, 0), runs);
+    }
+}
@@ -0,0 +1,141 @@
+package com.example.audio;
+
+import java.util.Random;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Keeps one ESP32 channel connected: opens the channel's session, and whenever it ends (peer
+ * reboot, Wi-Fi drop, read stall) opens a new one after a jittered exponential backoff.
+ *
+ * Event-driven: sessions report back through {@link Session#connected} / {@link Session#closed}
+ * and retries are put on a {@link Scheduler} (the transport's event loop), so supervising a
+ * channel costs no thread of its own.
+ *
+ * Backoff restarts from the initial delay after every session that actually connected, so a
+ * rebooted board is picked up within roughly one initial delay plus connect time. The time from
+ * losing a link to having it back is recorded per reconnect.
+ */
+public class ConnectionSupervisor {
+
+    public interface Scheduler {
+        void schedule(Runnable task, long delayMillis);
+    }
+
+    /** Starts one connect-and-stream cycle; it must end with {@link Session#closed}. */
+    public interface Channel {
+        void open(Session session) throws Exception;
+    }
+
+    public interface Listener {
+        void onConnecting(String channel, int attempt);
+        /** {@code outageMillis} is -1 for the first connection of the supervisor. */
+        void onConnected(String channel, int reconnects, long outageMillis);
+        void onSessionEnded(String channel, Throwable error, long nextRetryMillis);
+    }
+
+    /** Handed to each session so it can report the moment the link is up and when it is gone. */
+    public final class Session {
+        private final int attempt;
+        private boolean connected = false;
+        private boolean ended = false;
+        Session(int attempt) { this.attempt = attempt; }
+        public int attempt() { return attempt; }
+        /** True if an earlier session of this supervisor had connected. */
+        public boolean isReconnect() { return connects > 0; }
+        public void connected() {
+            if (connected || ended) return;
+            connected = true;
+            long outageMillis = -1;
+            if (outageStartNanos >= 0) {
+                outageMillis = (System.nanoTime() - outageStartNanos) / 1_000_000L;
+                reconnects++;
+                lastReconnectMillis = outageMillis;
+                maxReconnectMillis = Math.max(maxReconnectMillis, outageMillis);
+            }
+            connects++;
+            listener.onConnected(name, reconnects, outageMillis);
+        }
+        public void closed(Throwable error) {
+            if (ended) return;
+            ended = true;
+            sessionEnded(this, error);
+        }
+    }
+
+    private final String name;
+    private final Channel channel;
+    private final Listener listener;
+    private final Scheduler scheduler;
+    private final BooleanSupplier keepRunning;
+    private final long initialBackoffMs;
+    private final long maxBackoffMs;
+    private final Random random = new Random();
+
+    private int attempt = 0;
+    private int consecutiveFailures = 0;
+    private long outageStartNanos = -1;
+
+    private volatile int connects = 0;
+    private volatile int reconnects = 0;
+    private volatile int failedAttempts = 0;
+    private volatile long lastReconnectMillis = -1;
+    private volatile long maxReconnectMillis = -1;
+
+    public ConnectionSupervisor(String name, Channel channel, Listener listener, Scheduler scheduler, BooleanSupplier keepRunning, long initialBackoffMs, long maxBackoffMs) {
+        this.name = name;
+        this.channel = channel;
+        this.listener = listener;
+        this.scheduler = scheduler;
+        this.keepRunning = keepRunning;
+        this.initialBackoffMs = initialBackoffMs;
+        this.maxBackoffMs = Math.max(initialBackoffMs, maxBackoffMs);
+    }
+
+    public void start() {
+        scheduler.schedule(this::openSession, 0);
+    }
+
+    private void openSession() {
+        if (!keepRunning.getAsBoolean()) return;
+        Session session = new Session(++attempt);
+        listener.onConnecting(name, attempt);
+        try {
+            channel.open(session);
+        } catch (Exception e) {
+            session.closed(e);
+        }
+    }
+
+    private void sessionEnded(Session session, Throwable error) {
+        if (session.connected) {
+            consecutiveFailures = 0;
+            outageStartNanos = System.nanoTime();
+        } else {
+            consecutiveFailures++;
+            failedAttempts++;
+            if (outageStartNanos < 0 && connects > 0) outageStartNanos = System.nanoTime();
+        }
+        if (!keepRunning.getAsBoolean()) {
+            listener.onSessionEnded(name, error, -1);
+            return;
+        }
+        long delay = nextBackoffMillis(consecutiveFailures);
+        listener.onSessionEnded(name, error, delay);
+        scheduler.schedule(this::openSession, delay);
+    }
+
+    // "Equal jitter": half the exponential delay plus a random half, so channels don't retry in lockstep
+    long nextBackoffMillis(int consecutiveFailures) {
+        long exp = initialBackoffMs << Math.min(consecutiveFailures, 16);
+        long capped = Math.min(maxBackoffMs, exp);
+        long half = capped / 2;
+        return half + (half > 0 ? (long) (random.nextDouble() * half) : 0);
+    }
+
+    public String getName() { return name; }
+    public int getConnects() { return connects; }
+    public int getReconnects() { return reconnects; }
+    public int getFailedAttempts() { return failedAttempts; }
+    public long getLastReconnectMillis() { return lastReconnectMillis; }
+    public long getMaxReconnectMillis() { return maxReconnectMillis; }
+}
@@ -0,0 +1,159 @@
+package com.example.audio;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Coalescing, rate-limited sender for the line-based control channel ("S1=90\n").
+ *
+ * Commands are keyed by the text before '=' (the whole command if there is none), so a slider
+ * drag that produces hundreds of "S1=..." updates leaves only the latest angle queued. At most one
+ * batch is written per {@code minIntervalMs}, and one batch carries every pending key in a single
+ * write. A batch the sink cannot take (link down, send queue full) stays queued, still coalescing,
+ * and is retried on the next tick or when a new sink is attached.
+ *
+ * {@link #submit} may be called from any thread; batches are written from the scheduler's thread.
+ */
+public class ControlCommandPipeline {
+
+    /** Takes a whole batch or nothing, e.g. {@code NioTransport.Connection::send}. */
+    public interface Sink {
+        boolean write(byte[] data, int off, int len);
+    }
+
+    private static final class Pending {
+        String line;
+        long enqueuedNanos;
+    }
+
+    private final ConnectionSupervisor.Scheduler scheduler;
+    private final int maxBatchBytes;
+    private final byte[] batch;
+    private volatile long minIntervalNanos;
+
+    private final LinkedHashMap<String, Pending> pending = new LinkedHashMap<>(); // Guarded by this
+    private Sink sink;                  // Guarded by this
+    private boolean drainScheduled = false; // Guarded by this
+    private long lastBatchNanos = 0;
+    private final long[] batchEnqueuedNanos = new long[64]; // Scheduler thread only
+
+    private volatile long submitted = 0;
+    private volatile long coalesced = 0;
+    private volatile long sent = 0;
+    private volatile long batches = 0;
+    private volatile long rejectedBatches = 0;
+    private volatile long lastLatencyNanos = -1;
+    private volatile long maxLatencyNanos = 0;
+    private volatile long totalLatencyNanos = 0;
+    private volatile LatencyHistogram latencyHistogram = null;
+
+    public ControlCommandPipeline(ConnectionSupervisor.Scheduler scheduler, long minIntervalMs, int maxBatchBytes) {
+        this.scheduler = scheduler;
+        this.minIntervalNanos = minIntervalMs * 1_000_000L;
+        this.maxBatchBytes = maxBatchBytes;
+        this.batch = new byte[maxBatchBytes];
+    }
+
+    /** Queues {@code command}, replacing any unsent command with the same key. */
+    public void submit(String command, long enqueuedNanos) {
+        String line = command.trim();
+        if (line.isEmpty() || line.indexOf('\n') >= 0 || line.length() + 1 > maxBatchBytes) {
+            throw new IllegalArgumentException("Invalid control command: " + command);
+        }
+        int eq = line.indexOf('=');
+        String key = eq > 0 ? line.substring(0, eq) : line;
+        synchronized (this) {
+            submitted++;
+            Pending p = pending.get(key);
+            if (p == null) {
+                p = new Pending();
+                pending.put(key, p);
+            } else {
+                coalesced++;
+            }
+            p.line = line;
+            p.enqueuedNanos = enqueuedNanos;
+            scheduleDrainLocked();
+        }
+    }
+
+    /** Attaches the live connection (null while the link is down); queued commands go out on attach. */
+    public synchronized void setSink(Sink sink) {
+        this.sink = sink;
+        if (sink != null && !pending.isEmpty()) scheduleDrainLocked();
+    }
+
+    public void setMinIntervalMillis(long minIntervalMs) {
+        this.minIntervalNanos = minIntervalMs * 1_000_000L;
+    }
+
+    /** Also records each command's submit-to-write latency into {@code histogram} (may be null). */
+    public void setLatencyHistogram(LatencyHistogram histogram) {
+        this.latencyHistogram = histogram;
+    }
+
+    private void scheduleDrainLocked() {
+        if (drainScheduled || sink == null) return;
+        drainScheduled = true;
+        long wait = lastBatchNanos + minIntervalNanos - System.nanoTime();
+        scheduler.schedule(this::drain, wait > 0 ? (wait + 999_999) / 1_000_000 : 0);
+    }
+
+    private void drain() {
+        int len = 0;
+        int count = 0;
+        Sink target;
+        synchronized (this) {
+            drainScheduled = false;
+            target = sink;
+            if (target == null || pending.isEmpty()) return;
+            for (Pending p : pending.values()) {
+                int n = p.line.length();
+                if (len + n + 1 > maxBatchBytes || count == batchEnqueuedNanos.length) break;
+                for (int i = 0; i < n; i++) batch[len + i] = (byte) p.line.charAt(i); // Commands are ASCII
+                batch[len + n] = '\n';
+                len += n + 1;
+                batchEnqueuedNanos[count++] = p.enqueuedNanos;
+            }
+        }
+
+        long now = System.nanoTime();
+        boolean written = target.write(batch, 0, len);
+        synchronized (this) {
+            lastBatchNanos = now;
+            if (written) {
+                // Remove what went out unless a newer value for the key arrived meanwhile
+                Iterator<Pending> it = pending.values().iterator();
+                for (int i = 0; i < count && it.hasNext(); i++) {
+                    Pending p = it.next();
+                    if (p.enqueuedNanos == batchEnqueuedNanos[i]) it.remove();
+                }
+                batches++;
+                sent += count;
+            } else {
+                rejectedBatches++;
+            }
+            if (!pending.isEmpty()) scheduleDrainLocked();
+        }
+        if (written) {
+            LatencyHistogram histogram = latencyHistogram;
+            for (int i = 0; i < count; i++) {
+                long latency = now - batchEnqueuedNanos[i];
+                if (histogram != null) histogram.record(latency);
+                lastLatencyNanos = latency;
+                if (latency > maxLatencyNanos) maxLatencyNanos = latency;
+                totalLatencyNanos += latency;
+            }
+        }
+    }
+
+    public synchronized int getQueueDepth() { return pending.size(); }
+    public long getSubmitted() { return submitted; }
+    public long getCoalesced() { return coalesced; }
+    public long getSent() { return sent; }
+    public long getBatches() { return batches; }
+    public long getRejectedBatches() { return rejectedBatches; }
+    public long getLastLatencyNanos() { return lastLatencyNanos; }
+    public long getMaxLatencyNanos() { return maxLatencyNanos; }
+    public long getMeanLatencyNanos() { long n = sent; return n == 0 ? 0 : totalLatencyNanos / n; }
+}
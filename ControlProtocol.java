@@ -0,0 +1,354 @@
+package com.example.audio;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Binary, acknowledged control protocol shared with ESP2speaker.ino (port 8082).
+ *
+ * After connecting, the phone sends the ASCII line {@link #HELLO_LINE}. Text-only firmware logs it
+ * as an unknown command and keeps reading "S1=90" lines; firmware that speaks this protocol echoes
+ * the line and from then on both sides exchange frames:
+ *
+ *   [0xC5][opcode u8][seq u16 LE][payload length u8][payload][checksum u8 = xor of all previous bytes]
+ *
+ * Every non-ACK frame is answered with an ACK carrying the same seq and {acked opcode, status}.
+ * Unacknowledged frames are retransmitted with a TCP-style RTO (smoothed RTT + 4 x deviation);
+ * a frame superseded by a newer one for the same servo/setting is not. An idle link is pinged so
+ * a dead peer is found after a few RTOs rather than after TCP's own timeouts.
+ *
+ * Commands arrive as the same text lines the fallback mode sends ("S1=90", "VOL=80", "FMT=2",
+ * "PING"), so the {@link ControlCommandPipeline} works unchanged in both modes.
+ *
+ * Owned by the transport thread: every method must be called on the scheduler's thread.
+ */
+public class ControlProtocol implements ControlCommandPipeline.Sink {
+
+    public static final String HELLO_LINE = "BMCTL 1";
+
+    public static final int SYNC = 0xC5;
+    public static final int HEADER_BYTES = 5;
+    public static final int MAX_PAYLOAD = 16;
+    public static final int MAX_FRAME_BYTES = HEADER_BYTES + MAX_PAYLOAD + 1;
+
+    public static final int OP_SERVO = 0x01;   // {servo id 1..2, angle 0..180}
+    public static final int OP_PING = 0x02;    // {}
+    public static final int OP_VOLUME = 0x03;  // {speaker volume 0..100 %}
+    public static final int OP_FORMAT = 0x04;  // {codec}: can the speaker take it on the audio port?
+    public static final int OP_ACK = 0x80;     // {acked opcode, status}
+
+    public static final int STATUS_OK = 0;
+    public static final int STATUS_BAD_ARGUMENT = 1;
+    public static final int STATUS_UNSUPPORTED = 2;
+
+    private static final int WINDOW = 64;               // In-flight frames tracked (by seq)
+    private static final int MAX_RETRANSMITS = 3;       // Then the link is declared dead
+    private static final long INITIAL_RTO_NANOS = 500_000_000L; // Until the first RTT sample (LAN, so well below RFC 6298's 1 s)
+    private static final long MIN_RTO_NANOS = 200_000_000L;
+    private static final long MAX_RTO_NANOS = 2_000_000_000L;
+    private static final long TICK_MS = 50;
+
+    public interface Listener {
+        /** The peer rejected a command (status != STATUS_OK). */
+        void onRejected(int opcode, int status);
+        /** A frame exhausted its retransmissions: treat the connection as gone. */
+        void onLinkDead();
+    }
+
+    private static final class InFlight {
+        boolean active;
+        int seq;
+        int key;            // opcode << 8 | target, for superseding
+        int frameLength;
+        final byte[] frame = new byte[MAX_FRAME_BYTES];
+        long sentNanos;
+        int retransmits;
+    }
+
+    private final ControlCommandPipeline.Sink out;
+    private final ConnectionSupervisor.Scheduler scheduler;
+    private final Listener listener;
+    private final long keepaliveNanos;
+    private final InFlight[] window = new InFlight[WINDOW];
+    private final byte[] batch = new byte[WINDOW * MAX_FRAME_BYTES];
+    private final byte[] payload = new byte[MAX_PAYLOAD];
+    private final byte[] line = new byte[64];
+    private int nextSeq = 0;
+    private long lastSendNanos;
+    private boolean closed = false;
+
+    // Receive parser
+    private final byte[] rx = new byte[MAX_FRAME_BYTES];
+    private int rxFill = 0;
+    private int rxNeeded = HEADER_BYTES;
+
+    // RTT estimator (RFC 6298)
+    private long srttNanos = -1;
+    private long rttVarNanos = 0;
+    private volatile long lastRttNanos = -1;
+    private volatile long minRttNanos = Long.MAX_VALUE;
+    private volatile long maxRttNanos = 0;
+    private volatile LatencyHistogram rttHistogram = null;
+
+    private volatile long framesSent = 0;
+    private volatile long acksReceived = 0;
+    private volatile long retransmits = 0;
+    private volatile long superseded = 0;
+    private volatile long rejected = 0;
+    private volatile long badFrames = 0;
+    private volatile long unmappedCommands = 0;
+
+    public ControlProtocol(ControlCommandPipeline.Sink out, ConnectionSupervisor.Scheduler scheduler, Listener listener, long keepaliveMs) {
+        this.out = out;
+        this.scheduler = scheduler;
+        this.listener = listener;
+        this.keepaliveNanos = keepaliveMs * 1_000_000L;
+        for (int i = 0; i < WINDOW; i++) window[i] = new InFlight();
+    }
+
+    public void start() {
+        lastSendNanos = System.nanoTime();
+        scheduler.schedule(this::tick, TICK_MS);
+    }
+
+    public void close() {
+        closed = true;
+    }
+
+    /** Also records every RTT sample into {@code histogram} (may be null). */
+    public void setRttHistogram(LatencyHistogram histogram) {
+        this.rttHistogram = histogram;
+    }
+
+    /**
+     * Pipeline sink: translates a batch of text commands into frames and queues them with one
+     * write. Returns false (nothing sent) if the connection cannot take the whole batch.
+     */
+    @Override
+    public boolean write(byte[] data, int off, int len) {
+        if (closed) return false;
+        int batchLen = 0;
+        int firstSeq = nextSeq;
+        int end = off + len;
+        int start = off;
+        for (int i = off; i < end; i++) {
+            if (data[i] != '\n') continue;
+            int n = Math.min(i - start, line.length);
+            System.arraycopy(data, start, line, 0, n);
+            start = i + 1;
+            int frameLen = encodeCommand(line, n, batch, batchLen);
+            if (frameLen < 0) { unmappedCommands++; continue; }
+            batchLen += frameLen;
+        }
+        if (batchLen == 0) return true;
+        if (!out.write(batch, 0, batchLen)) {
+            nextSeq = firstSeq; // Nothing went out; reuse the sequence numbers
+            return false;
+        }
+        long now = System.nanoTime();
+        for (int p = 0; p < batchLen; ) {
+            int frameLen = HEADER_BYTES + (batch[p + 4] & 0xFF) + 1;
+            track(batch, p, frameLen, now);
+            p += frameLen;
+        }
+        lastSendNanos = now;
+        return true;
+    }
+
+    /** Sends a keepalive ping now (its ACK also yields an RTT sample). */
+    public boolean ping() {
+        int frameLen = encodeFrame(batch, 0, OP_PING, nextSeq, payload, 0);
+        if (!out.write(batch, 0, frameLen)) return false;
+        nextSeq = (nextSeq + 1) & 0xFFFF;
+        long now = System.nanoTime();
+        track(batch, 0, frameLen, now);
+        lastSendNanos = now;
+        return true;
+    }
+
+    // "S1=90" / "S2=45" / "VOL=80" / "FMT=2" / "PING"; returns the frame length or -1 if unmapped
+    private int encodeCommand(byte[] cmd, int n, byte[] dst, int off) {
+        int opcode;
+        int plen;
+        if (n >= 4 && cmd[0] == 'S' && (cmd[1] == '1' || cmd[1] == '2') && cmd[2] == '=') {
+            int angle = parseInt(cmd, 3, n);
+            if (angle < 0 || angle > 180) return -1;
+            opcode = OP_SERVO;
+            payload[0] = (byte) (cmd[1] - '0');
+            payload[1] = (byte) angle;
+            plen = 2;
+        } else if (n >= 5 && cmd[0] == 'V' && cmd[1] == 'O' && cmd[2] == 'L' && cmd[3] == '=') {
+            int volume = parseInt(cmd, 4, n);
+            if (volume < 0 || volume > 100) return -1;
+            opcode = OP_VOLUME;
+            payload[0] = (byte) volume;
+            plen = 1;
+        } else if (n >= 5 && cmd[0] == 'F' && cmd[1] == 'M' && cmd[2] == 'T' && cmd[3] == '=') {
+            int codec = parseInt(cmd, 4, n);
+            if (codec < 0 || codec > 255) return -1;
+            opcode = OP_FORMAT;
+            payload[0] = (byte) codec;
+            plen = 1;
+        } else if (n == 4 && cmd[0] == 'P' && cmd[1] == 'I' && cmd[2] == 'N' && cmd[3] == 'G') {
+            opcode = OP_PING;
+            plen = 0;
+        } else {
+            return -1;
+        }
+        int frameLen = encodeFrame(dst, off, opcode, nextSeq, payload, plen);
+        nextSeq = (nextSeq + 1) & 0xFFFF;
+        return frameLen;
+    }
+
+    private static int parseInt(byte[] s, int from, int to) {
+        if (from >= to) return -1;
+        int v = 0;
+        for (int i = from; i < to; i++) {
+            int d = s[i] - '0';
+            if (d < 0 || d > 9 || v > 100_000) return -1;
+            v = v * 10 + d;
+        }
+        return v;
+    }
+
+    public static int encodeFrame(byte[] dst, int off, int opcode, int seq, byte[] payload, int payloadLength) {
+        dst[off] = (byte) SYNC;
+        dst[off + 1] = (byte) opcode;
+        dst[off + 2] = (byte) seq;
+        dst[off + 3] = (byte) (seq >> 8);
+        dst[off + 4] = (byte) payloadLength;
+        System.arraycopy(payload, 0, dst, off + HEADER_BYTES, payloadLength);
+        int end = off + HEADER_BYTES + payloadLength;
+        dst[end] = checksum(dst, off, end - off);
+        return end + 1 - off;
+    }
+
+    private static byte checksum(byte[] b, int off, int len) {
+        int x = 0;
+        for (int i = 0; i < len; i++) x ^= b[off + i];
+        return (byte) x;
+    }
+
+    private void track(byte[] frame, int off, int frameLen, long now) {
+        int seq = (frame[off + 2] & 0xFF) | ((frame[off + 3] & 0xFF) << 8);
+        int opcode = frame[off + 1] & 0xFF;
+        int key = (opcode << 8) | (opcode == OP_SERVO ? frame[off + HEADER_BYTES] & 0xFF : 0);
+        if (opcode != OP_PING) {
+            // An older value for the same servo/setting no longer needs to arrive
+            for (InFlight f : window) {
+                if (f.active && f.key == key) { f.active = false; superseded++; }
+            }
+        }
+        InFlight f = window[seq % WINDOW];
+        f.active = true;
+        f.seq = seq;
+        f.key = key;
+        f.frameLength = frameLen;
+        System.arraycopy(frame, off, f.frame, 0, frameLen);
+        f.sentNanos = now;
+        f.retransmits = 0;
+        framesSent++;
+    }
+
+    /** Feeds bytes read from the control socket. */
+    public void onData(ByteBuffer data) {
+        while (data.hasRemaining()) {
+            if (rxFill == 0) {
+                int b = data.get() & 0xFF;
+                if (b != SYNC) { badFrames++; continue; }
+                rx[rxFill++] = (byte) b;
+                continue;
+            }
+            int n = Math.min(data.remaining(), rxNeeded - rxFill);
+            data.get(rx, rxFill, n);
+            rxFill += n;
+            if (rxFill < rxNeeded) continue;
+            if (rxNeeded == HEADER_BYTES) {
+                int plen = rx[4] & 0xFF;
+                if (plen > MAX_PAYLOAD) { badFrames++; rxFill = 0; continue; }
+                rxNeeded = HEADER_BYTES + plen + 1;
+                continue;
+            }
+            if (checksum(rx, 0, rxNeeded - 1) == rx[rxNeeded - 1]) {
+                handleFrame(rx[1] & 0xFF, (rx[2] & 0xFF) | ((rx[3] & 0xFF) << 8), rx[4] & 0xFF);
+            } else {
+                badFrames++;
+            }
+            rxFill = 0;
+            rxNeeded = HEADER_BYTES;
+        }
+    }
+
+    private void handleFrame(int opcode, int seq, int plen) {
+        if (opcode != OP_ACK || plen < 2) return; // The firmware only ever sends ACKs
+        acksReceived++;
+        int status = rx[HEADER_BYTES + 1] & 0xFF;
+        InFlight f = window[seq % WINDOW];
+        if (f.active && f.seq == seq) {
+            f.active = false;
+            if (f.retransmits == 0) sampleRtt(System.nanoTime() - f.sentNanos); // Karn: ambiguous samples skipped
+        }
+        if (status != STATUS_OK) {
+            rejected++;
+            listener.onRejected(rx[HEADER_BYTES] & 0xFF, status);
+        }
+    }
+
+    private void sampleRtt(long rtt) {
+        lastRttNanos = rtt;
+        LatencyHistogram histogram = rttHistogram;
+        if (histogram != null) histogram.record(rtt);
+        if (rtt < minRttNanos) minRttNanos = rtt;
+        if (rtt > maxRttNanos) maxRttNanos = rtt;
+        if (srttNanos < 0) {
+            srttNanos = rtt;
+            rttVarNanos = rtt / 2;
+        } else {
+            rttVarNanos += (Math.abs(srttNanos - rtt) - rttVarNanos) >> 2;
+            srttNanos += (rtt - srttNanos) >> 3;
+        }
+    }
+
+    private long rtoNanos() {
+        long rto = srttNanos < 0 ? INITIAL_RTO_NANOS : srttNanos + 4 * rttVarNanos;
+        return Math.max(MIN_RTO_NANOS, Math.min(MAX_RTO_NANOS, rto));
+    }
+
+    private void tick() {
+        if (closed) return;
+        long now = System.nanoTime();
+        long rto = rtoNanos();
+        for (InFlight f : window) {
+            if (!f.active || now - f.sentNanos < rto << f.retransmits) continue;
+            if (f.retransmits >= MAX_RETRANSMITS) {
+                closed = true;
+                listener.onLinkDead();
+                return;
+            }
+            if (out.write(f.frame, 0, f.frameLength)) {
+                f.retransmits++;
+                f.sentNanos = now;
+                retransmits++;
+                lastSendNanos = now;
+            }
+        }
+        if (now - lastSendNanos >= keepaliveNanos) ping();
+        scheduler.schedule(this::tick, TICK_MS);
+    }
+
+    public int getInFlight() {
+        int n = 0;
+        for (InFlight f : window) if (f.active) n++;
+        return n;
+    }
+    public long getSmoothedRttNanos() { return srttNanos; }
+    public long getLastRttNanos() { return lastRttNanos; }
+    public long getMinRttNanos() { return minRttNanos == Long.MAX_VALUE ? -1 : minRttNanos; }
+    public long getMaxRttNanos() { return maxRttNanos; }
+    public long getFramesSent() { return framesSent; }
+    public long getAcksReceived() { return acksReceived; }
+    public long getRetransmits() { return retransmits; }
+    public long getSuperseded() { return superseded; }
+    public long getRejected() { return rejected; }
+    public long getBadFrames() { return badFrames; }
+    public long getUnmappedCommands() { return unmappedCommands; }
+}
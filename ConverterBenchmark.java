@@ -0,0 +1,146 @@
+package com.example.audio;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.function.LongSupplier;
+
+/**
+ * Throughput and accuracy of the {@link Pcm32To16Converter} kernel on one core of a plain JVM.
+ *
+ * The input is what ESP1mic streams: 32-bit left-justified samples with 24 useful bits, here a
+ * 1 kHz tone over a quiet noise floor, converted one second at a time. For each setting it reports
+ * the median of several timed runs (after warmup, so the JIT has compiled the kernel) per
+ * one-second block, in million samples per second and as a real-time factor for one stream, the
+ * bytes allocated per block where the JVM can count them (the kernel must not allocate), and for
+ * the first block the samples clipped and the error against the exact scaled value in 16-bit
+ * LSBs. A plain 16-bit shift without gain, rounding or dither is the floor to compare against.
+ *
+ * Usage: ConverterBenchmark [--blocks N] [--runs N] [--level DBFS]
+ */
+public class ConverterBenchmark {
+
+    private static final int SAMPLE_RATE = 16000;
+    private static final int BLOCK_SAMPLES = SAMPLE_RATE; // One second
+    private static final int WARMUP_RUNS = 5;
+    private static final double NOISE_FLOOR_DBFS = -90;  // Roughly the INMP441's self-noise
+
+    private static final class Setting {
+        final String name;
+        final int shift;
+        final float gain;
+        final boolean dither;
+        Setting(String name, int shift, float gain, boolean dither) {
+            this.name = name;
+            this.shift = shift;
+            this.gain = gain;
+            this.dither = dither;
+        }
+    }
+
+    private static final Setting[] SETTINGS = {
+        new Setting("unity", 16, 1.0f, false),
+        new Setting("unity, dither", 16, 1.0f, true),
+        new Setting("+12 dB (shift 14)", 14, 1.0f, true),
+        new Setting("+18 dB (shift 14, x2)", 14, 2.0f, true),
+        new Setting("+30 dB (shift 11)", 11, 1.0f, true),
+    };
+
+    private static byte[] micBlock(long seed, double levelDbfs) {
+        Random random = new Random(seed);
+        double amplitude = Math.pow(10, levelDbfs / 20) * Math.sqrt(2) * Integer.MAX_VALUE;
+        double noise = Math.pow(10, NOISE_FLOOR_DBFS / 20) * Integer.MAX_VALUE;
+        byte[] block = new byte[BLOCK_SAMPLES * 4];
+        for (int i = 0; i < BLOCK_SAMPLES; i++) {
+            double y = amplitude * Math.sin(2 * Math.PI * 1000 * i / SAMPLE_RATE) + noise * random.nextGaussian();
+            int s = (int) Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, Math.round(y))) & 0xFFFFFF00; // 24 bits
+            block[4 * i] = (byte) s;
+            block[4 * i + 1] = (byte) (s >> 8);
+            block[4 * i + 2] = (byte) (s >> 16);
+            block[4 * i + 3] = (byte) (s >> 24);
+        }
+        return block;
+    }
+
+    // What the service did before the converter: keep the top 16 bits
+    private static int shiftOnly(byte[] src, byte[] dst) {
+        int o = 0;
+        for (int i = 0; i < src.length; i += 4) {
+            dst[o++] = src[i + 2];
+            dst[o++] = src[i + 3];
+        }
+        return o;
+    }
+
+    // Mean and RMS error against the exact scaled and clipped value, in 16-bit LSBs
+    private static double[] error(byte[] src, byte[] dst, double scale) {
+        double sum = 0, sumSquares = 0;
+        for (int i = 0; i < BLOCK_SAMPLES; i++) {
+            int in = (src[4 * i] & 0xFF) | ((src[4 * i + 1] & 0xFF) << 8) | ((src[4 * i + 2] & 0xFF) << 16) | (src[4 * i + 3] << 24);
+            double exact = Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, in * scale));
+            int out = (short) ((dst[2 * i] & 0xFF) | (dst[2 * i + 1] << 8));
+            sum += out - exact;
+            sumSquares += (out - exact) * (out - exact);
+        }
+        return new double[] { sum / BLOCK_SAMPLES, Math.sqrt(sumSquares / BLOCK_SAMPLES) };
+    }
+
+    private interface Kernel {
+        int run(byte[] src, byte[] dst);
+    }
+
+    private static void report(String name, byte[][] blocks, byte[] dst, Kernel kernel, int runs, double scale, LongSupplier clipped) {
+        List<Double> times = new ArrayList<>();
+        long allocated = 0;
+        for (int r = 0; r < WARMUP_RUNS + runs; r++) {
+            long bytesBefore = BenchmarkSupport.allocatedBytes();
+            long start = System.nanoTime();
+            for (byte[] block : blocks) kernel.run(block, dst);
+            long elapsed = System.nanoTime() - start;
+            long bytesAfter = BenchmarkSupport.allocatedBytes();
+            if (r < WARMUP_RUNS) continue;
+            times.add(elapsed / (double) blocks.length);
+            allocated = bytesBefore < 0 ? -1 : Math.max(allocated, bytesAfter - bytesBefore);
+        }
+        Collections.sort(times);
+        double ns = times.get(times.size() / 2);
+        long clippedBefore = clipped == null ? 0 : clipped.getAsLong();
+        kernel.run(blocks[0], dst);
+        double[] e = error(blocks[0], dst, scale);
+        System.out.println(String.format(Locale.US, "%-22s | %8.1f %8.1f | %7.0f %8.0fx | %5s | %7s | %+6.3f %6.3f",
+                name, ns / 1000, times.get(times.size() - 1) / 1000, BLOCK_SAMPLES * 1e3 / ns, 1e9 / ns,
+                allocated < 0 ? "-" : Long.toString(allocated / blocks.length),
+                clipped == null ? "-" : Long.toString(clipped.getAsLong() - clippedBefore), e[0], e[1]));
+    }
+
+    public static void main(String[] args) {
+        int blockCount = 10;
+        int runs = 9;
+        double level = -20;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--blocks": blockCount = Integer.parseInt(args[++i]); break;
+                case "--runs": runs = Integer.parseInt(args[++i]); break;
+                case "--level": level = Double.parseDouble(args[++i]); break;
+                default: throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+        byte[][] blocks = new byte[blockCount][];
+        for (int b = 0; b < blockCount; b++) blocks[b] = micBlock(b + 1, level);
+        byte[] dst = new byte[BLOCK_SAMPLES * 2];
+
+        System.out.println(String.format(Locale.US, "32-bit to 16-bit, %d blocks of 1 s (%d samples), 1 kHz tone at %.0f dBFS over a %.0f dBFS floor",
+                blockCount, BLOCK_SAMPLES, level, NOISE_FLOOR_DBFS));
+        System.out.println("Per block: median and worst-run us, Msamples/s, real-time factor, bytes allocated, samples clipped, error mean/RMS in LSB");
+        System.out.println(String.format(Locale.US, "%-22s | %8s %8s | %7s %9s | %5s | %7s | %6s %6s",
+                "setting", "median", "worst", "Msam/s", "realtime", "alloc", "clipped", "mean", "rms"));
+        report("shift only (before)", blocks, dst, ConverterBenchmark::shiftOnly, runs, 1.0 / (1 << 16), null);
+        for (Setting setting : SETTINGS) {
+            Pcm32To16Converter converter = new Pcm32To16Converter(setting.shift, setting.gain, setting.dither);
+            report(setting.name, blocks, dst, (src, out) -> converter.convert(src, 0, src.length, out, 0),
+                    runs, setting.gain / (double) (1L << setting.shift), converter::getClippedSamples);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.example.audio;
+
+/**
+ * Keeps the jitter buffer at its target depth when the sender's sample clock and the playback
+ * device's clock disagree (the ESP32's APLL and the phone's codec are each off by up to a few
+ * hundred ppm), instead of letting it drain into underruns or fill into trimmed frames.
+ *
+ * Sits between {@link JitterBuffer#poll} and the device: frames are pulled through a
+ * {@link FractionalResampler} whose ratio a PI controller steers from the buffered audio
+ * (jitter buffer plus resampler backlog), smoothed over a few seconds so network jitter does
+ * not modulate the pitch. The integral term converges on the clock offset itself and is kept
+ * across reconnects ({@link #getDriftPpm}); the total correction is clamped to
+ * {@link #MAX_CORRECTION_PPM}.
+ *
+ * Not thread-safe: owned by the playout thread, like the jitter buffer.
+ */
+public class DriftCompensator {
+
+    public static final double MAX_CORRECTION_PPM = 1000;
+    private static final double MAX_DRIFT_PPM = 800;        // Integral limit; leaves room to correct depth
+    private static final double LEVEL_SMOOTHING = 1.0 / 300; // Per frame: ~3 s at 10 ms frames
+    private static final double KP_PPM_PER_FRAME = 100;       // Depth error -> immediate correction
+    private static final double KI_PPM_PER_FRAME = 0.01;      // Per polled frame per frame of error
+    private static final double MAX_INTEGRATED_ERROR = 2;     // Frames; a target jump must not wind the integral up
+
+    private final JitterBuffer buffer;
+    private final FractionalResampler resampler;
+    private final int frameSamples;
+    private final byte[] input;
+
+    private double level = -1;        // Smoothed depth in frames, -1 until the first real frame
+    private double driftPpm = 0;
+    private double correctionPpm = 0;
+
+    public DriftCompensator(JitterBuffer buffer) {
+        if (buffer.getFrameBytes() % 2 != 0) throw new IllegalArgumentException("PCM16 frames required");
+        this.buffer = buffer;
+        this.frameSamples = buffer.getFrameBytes() / 2;
+        this.resampler = new FractionalResampler(2 * frameSamples);
+        this.input = new byte[buffer.getFrameBytes()];
+    }
+
+    /**
+     * Fills {@code dst} with one frame of the resampled stream, polling the jitter buffer as
+     * needed; returns the POLL_ result of the last frame taken from it.
+     */
+    public int poll(byte[] dst, int off) {
+        int result = JitterBuffer.POLL_FRAME;
+        int produced = resampler.read(dst, off, frameSamples);
+        while (produced < frameSamples) {
+            result = buffer.poll(input, 0);
+            resampler.write(input, 0, input.length);
+            update(result);
+            produced += resampler.read(dst, off + 2 * produced, frameSamples - produced);
+        }
+        return result;
+    }
+
+    private void update(int result) {
+        if (result != JitterBuffer.POLL_FRAME) {
+            level = -1; // Rebuffering or concealing: depth says nothing about the clocks
+            if (result == JitterBuffer.POLL_SILENCE) steer(driftPpm);
+            return;
+        }
+        double depth = buffer.getDepthFrames() + resampler.getBufferedSamples() / frameSamples;
+        level = level < 0 ? depth : level + (depth - level) * LEVEL_SMOOTHING;
+        double error = level - buffer.getTargetDepthFrames();
+        driftPpm += KI_PPM_PER_FRAME * Math.max(-MAX_INTEGRATED_ERROR, Math.min(MAX_INTEGRATED_ERROR, error));
+        driftPpm = Math.max(-MAX_DRIFT_PPM, Math.min(MAX_DRIFT_PPM, driftPpm));
+        steer(driftPpm + KP_PPM_PER_FRAME * error);
+    }
+
+    private void steer(double ppm) {
+        correctionPpm = Math.max(-MAX_CORRECTION_PPM, Math.min(MAX_CORRECTION_PPM, ppm));
+        resampler.setRatio(1.0 + correctionPpm * 1e-6);
+    }
+
+    /** Drops queued audio (e.g. with {@link JitterBuffer#reset}); the drift estimate is kept. */
+    public void reset() {
+        resampler.reset();
+        level = -1;
+        steer(driftPpm);
+    }
+
+    /** Estimated sender-minus-device clock offset in ppm (positive: sender runs fast). */
+    public double getDriftPpm() { return driftPpm; }
+    /** Ratio correction currently applied, drift estimate plus depth error term. */
+    public double getCorrectionPpm() { return correctionPpm; }
+    /** Smoothed buffered audio in frames, or -1 while the jitter buffer is not playing. */
+    public double getLevelFrames() { return level; }
+}
@@ -1,4 +1,5 @@
 #include <WiFi.h>
+#include <WiFiUdp.h>
 #include "driver/i2s.h"
 
 // --- Wi-Fi Settings ---
@@ -22,9 +23,70 @@ const char* password = "//"; // Replace with your Wi-Fi password
 
 WiFiServer server(TCP_PORT);
 WiFiClient client;
+WiFiUDP udp; // Low-latency mode: same port number, UDP
+
+// --- Wire Codec (must match WireCodec.java) ---
+#define CODEC_LEGACY       -1 // Raw 32-bit samples, no handshake (old app)
+#define CODEC_PCM16        0
+#define CODEC_ULAW         1
+#define CODEC_IMA_ADPCM    2
+#define PROTOCOL_VERSION   1
+#define FRAME_SYNC         0xA5
+#define FRAME_HEADER_BYTES 6
+#define HELLO_TIMEOUT_MS   300
+#define SAMPLES_PER_READ   (I2S_READ_BUFFER_SIZE / 4)
+
+// --- UDP Audio Packets (must match AudioPacket.java) ---
+#define PACKET_SYNC                 0xA6
+#define PACKET_HEADER_BYTES         10 // sync, codec, seq u16, timestamp u32, samples u16
+#define UDP_SUBSCRIPTION_TIMEOUT_MS 3000 // The app repeats its hello every second
+#define PARITY_SYNC                 0xA7
+#define PARITY_HEADER_BYTES         7 // sync, count, stride, base seq u16, xor of lengths u16
+#define MAX_FEC_GROUP               8
+#define MAX_FEC_DEPTH               4
+
+int wire_codec = CODEC_LEGACY;
+
+// UDP subscriber: whoever sent the last hello datagram
+IPAddress udp_peer;
+uint16_t udp_peer_port = 0;
+unsigned long udp_last_hello = 0;
+int udp_codec = CODEC_PCM16;
+uint16_t udp_seq = 0;
+uint32_t udp_timestamp = 0; // In samples
+int udp_fec_group = 0;      // Parity packet after this many packets, 0 = off (5th hello byte)
+int udp_fec_depth = 1;      // Interleaved groups; packet seq % depth picks the group (6th hello byte)
+int fec_count[MAX_FEC_DEPTH];
+uint16_t fec_base_seq[MAX_FEC_DEPTH];
+uint16_t fec_length_xor[MAX_FEC_DEPTH];
+size_t fec_max_length[MAX_FEC_DEPTH];
 
 // Buffer to hold audio data read from I2S
 int8_t i2s_read_buffer[I2S_READ_BUFFER_SIZE];
+int16_t pcm16_buffer[SAMPLES_PER_READ];
+uint8_t frame_buffer[PACKET_HEADER_BYTES + SAMPLES_PER_READ * 2]; // Room for either header
+uint8_t parity_buffer[MAX_FEC_DEPTH][PARITY_HEADER_BYTES + PACKET_HEADER_BYTES + SAMPLES_PER_READ * 2];
+
+// IMA-ADPCM encoder state (carried across frames, stored in each frame header)
+int adpcm_predictor = 0;
+int adpcm_index = 0;
+const int8_t adpcm_index_table[16] = { -1, -1, -1, -1, 2, 4, 6, 8, -1, -1, -1, -1, 2, 4, 6, 8 };
+const int16_t adpcm_step_table[89] = {
+  7, 8, 9, 10, 11, 12, 13, 14, 16, 17, 19, 21, 23, 25, 28, 31, 34, 37, 41, 45,
+  50, 55, 60, 66, 73, 80, 88, 97, 107, 118, 130, 143, 157, 173, 190, 209, 230, 253, 279, 307,
+  337, 371, 408, 449, 494, 544, 598, 658, 724, 796, 876, 963, 1060, 1166, 1282, 1411, 1552, 1707, 1878, 2066,
+  2272, 2499, 2749, 3024, 3327, 3660, 4026, 4428, 4871, 5358, 5894, 6484, 7132, 7845, 8630, 9493, 10442, 11487, 12635, 13899,
+  15289, 16818, 18500, 20350, 22385, 24623, 27086, 29794, 32767
+};
+
+// Function Prototypes
+int negotiate_codec();
+bool send_audio(const uint8_t* raw, size_t bytes);
+void poll_udp_hello();
+bool udp_subscribed();
+void send_audio_udp(const uint8_t* raw, size_t bytes);
+void reset_parity();
+void add_to_parity(const uint8_t* packet, size_t len, uint16_t seq);
 
 void setup() {
   Serial.begin(115200);
@@ -68,18 +130,24 @@ void setup() {
 
   // --- Start TCP Server ---
   server.begin();
-  Serial.printf("TCP Server started on port %d - waiting for Android client to connect...\n", TCP_PORT);
+  udp.begin(TCP_PORT);
+  Serial.printf("TCP Server started on port %d - waiting for Android client to connect (or a UDP hello)...\n", TCP_PORT);
 }
 
 void loop() {
+  poll_udp_hello();
+
   // Check if a client has connected
   if (!client.connected()) {
     client = server.available();
     if (client) {
       Serial.println("Client connected to send Mic data!");
       Serial.print("Client IP: "); Serial.println(client.remoteIP());
-      i2s_zero_dma_buffer(I2S_PORT); // Clear buffer on new connection
       client.setNoDelay(true); // Optional lower latency
+      wire_codec = negotiate_codec();
+      adpcm_predictor = 0; adpcm_index = 0;
+      Serial.printf("Wire codec: %d\n", wire_codec);
+      i2s_zero_dma_buffer(I2S_PORT); // Clear buffer on new connection
     }
   }
 
@@ -89,13 +157,10 @@ void loop() {
     esp_err_t result = i2s_read(I2S_PORT, i2s_read_buffer, I2S_READ_BUFFER_SIZE, &bytes_read, 100 / portTICK_PERIOD_MS); // Wait up to 100ms
 
     if (result == ESP_OK && bytes_read > 0) {
-      // Send the raw 32-bit audio data buffer to the client
-      size_t bytes_sent = client.write((const uint8_t*)i2s_read_buffer, bytes_read);
-      if (bytes_sent != bytes_read) {
-         Serial.printf("Warning: Sent %d / %d bytes!\n", bytes_sent, bytes_read);
+      // Send the audio buffer to the client (raw 32-bit for legacy clients, framed otherwise)
+      if (!send_audio((const uint8_t*)i2s_read_buffer, bytes_read)) {
          client.stop(); // Assume error
       }
-      // Serial.printf("Read %d bytes, Sent %d bytes\n", bytes_read, bytes_sent);
     } else if (result != ESP_OK && result != ESP_ERR_TIMEOUT) {
         Serial.printf("I2S Read Error: %d\n", result);
     }
@@ -105,7 +170,185 @@ void loop() {
         Serial.println("Client disconnected.");
         // client.stop(); // Already stopped
     }
+  } else if (udp_subscribed()) {
+    // No TCP client: stream packets to the UDP subscriber; nothing is retransmitted, so nothing queues up
+    size_t bytes_read = 0;
+    esp_err_t result = i2s_read(I2S_PORT, i2s_read_buffer, I2S_READ_BUFFER_SIZE, &bytes_read, 100 / portTICK_PERIOD_MS);
+    if (result == ESP_OK && bytes_read > 0) {
+      send_audio_udp((const uint8_t*)i2s_read_buffer, bytes_read);
+    } else if (result != ESP_OK && result != ESP_ERR_TIMEOUT) {
+        Serial.printf("I2S Read Error: %d\n", result);
+    }
   } else {
      delay(10); // Wait briefly if no client
   }
 }
+
+// --- UDP Audio ---
+// A hello datagram {'B','M',version,codec[,fec group,fec depth]} (re)subscribes its sender; packets go to the latest one
+void poll_udp_hello() {
+  int len;
+  while ((len = udp.parsePacket()) > 0) {
+    uint8_t hello[6];
+    int got = udp.read(hello, sizeof(hello));
+    if (got < 4 || got != len || hello[0] != 'B' || hello[1] != 'M' || hello[2] != PROTOCOL_VERSION) { continue; }
+    int codec = hello[3];
+    if (codec != CODEC_PCM16 && codec != CODEC_ULAW && codec != CODEC_IMA_ADPCM) { codec = CODEC_PCM16; }
+    bool fec_ok = got == 6 && hello[4] >= 2 && hello[4] <= MAX_FEC_GROUP && hello[5] >= 1 && hello[5] <= MAX_FEC_DEPTH;
+    int fec_group = fec_ok ? hello[4] : 0;
+    int fec_depth = fec_ok ? hello[5] : 1;
+    bool fresh = !udp_subscribed() || udp.remoteIP() != udp_peer || udp.remotePort() != udp_peer_port || codec != udp_codec
+        || fec_group != udp_fec_group || fec_depth != udp_fec_depth;
+    udp_peer = udp.remoteIP();
+    udp_peer_port = udp.remotePort();
+    udp_codec = codec;
+    udp_last_hello = millis();
+    if (fresh) {
+      udp_fec_group = fec_group;
+      udp_fec_depth = fec_depth;
+      reset_parity();
+      Serial.print("UDP subscriber: "); Serial.print(udp_peer); Serial.printf(":%d, codec %d, fec %dx%d\n", udp_peer_port, udp_codec, udp_fec_group, udp_fec_depth);
+      i2s_zero_dma_buffer(I2S_PORT);
+    }
+  }
+}
+
+void reset_parity() {
+  for (int g = 0; g < MAX_FEC_DEPTH; g++) { fec_count[g] = 0; }
+}
+
+// XORs a sent packet into its group's parity (group = seq % depth, members depth apart) and sends
+// the parity packet after the group's last member
+void add_to_parity(const uint8_t* packet, size_t len, uint16_t seq) {
+  int g = seq % udp_fec_depth;
+  uint8_t* parity = parity_buffer[g];
+  if (fec_count[g] > 0 && seq != (uint16_t) (fec_base_seq[g] + fec_count[g] * udp_fec_depth)) { fec_count[g] = 0; } // seq wrapped unevenly
+  if (fec_count[g] == 0) {
+    memset(parity + PARITY_HEADER_BYTES, 0, sizeof(parity_buffer[g]) - PARITY_HEADER_BYTES);
+    fec_base_seq[g] = seq; fec_length_xor[g] = 0; fec_max_length[g] = 0;
+  }
+  for (size_t i = 0; i < len; i++) { parity[PARITY_HEADER_BYTES + i] ^= packet[i]; }
+  fec_length_xor[g] ^= len;
+  if (len > fec_max_length[g]) { fec_max_length[g] = len; }
+  if (++fec_count[g] < udp_fec_group) { return; }
+  parity[0] = PARITY_SYNC;
+  parity[1] = fec_count[g];
+  parity[2] = udp_fec_depth;
+  parity[3] = fec_base_seq[g] & 0xFF; parity[4] = (fec_base_seq[g] >> 8) & 0xFF;
+  parity[5] = fec_length_xor[g] & 0xFF; parity[6] = (fec_length_xor[g] >> 8) & 0xFF;
+  fec_count[g] = 0;
+  if (!udp.beginPacket(udp_peer, udp_peer_port)) { return; }
+  udp.write(parity, PARITY_HEADER_BYTES + fec_max_length[g]);
+  udp.endPacket();
+}
+
+bool udp_subscribed() {
+  return udp_peer_port != 0 && millis() - udp_last_hello < UDP_SUBSCRIPTION_TIMEOUT_MS;
+}
+
+// --- Wire Codec ---
+// Waits briefly for the app's hello {'B','M',version,codec}; old apps send nothing and get raw audio
+int negotiate_codec() {
+  uint8_t hello[4];
+  size_t got = 0;
+  unsigned long start = millis();
+  while (got < sizeof(hello) && millis() - start < HELLO_TIMEOUT_MS) {
+    if (client.available()) { hello[got++] = client.read(); } else { delay(1); }
+  }
+  if (got < sizeof(hello) || hello[0] != 'B' || hello[1] != 'M' || hello[2] != PROTOCOL_VERSION) {
+    return CODEC_LEGACY;
+  }
+  int codec = hello[3];
+  if (codec != CODEC_PCM16 && codec != CODEC_ULAW && codec != CODEC_IMA_ADPCM) { codec = CODEC_PCM16; }
+  uint8_t reply[4] = { 'B', 'M', PROTOCOL_VERSION, (uint8_t)codec };
+  client.write(reply, sizeof(reply));
+  return codec;
+}
+
+uint8_t ulaw_encode(int16_t pcm) {
+  const int BIAS = 0x84, CLIP = 32635;
+  int sample = pcm;
+  int sign = (sample >> 8) & 0x80;
+  if (sign) { sample = -sample; }
+  if (sample > CLIP) { sample = CLIP; }
+  sample += BIAS;
+  int exponent = 7;
+  for (int mask = 0x4000; (sample & mask) == 0 && exponent > 0; mask >>= 1) { exponent--; }
+  int mantissa = (sample >> (exponent + 3)) & 0x0F;
+  return ~(sign | (exponent << 4) | mantissa);
+}
+
+size_t adpcm_encode(const int16_t* pcm, size_t samples, uint8_t* out) {
+  int predictor = adpcm_predictor, index = adpcm_index;
+  out[0] = predictor & 0xFF; out[1] = (predictor >> 8) & 0xFF; out[2] = index; out[3] = 0;
+  size_t o = 4;
+  for (size_t i = 0; i < samples; i++) {
+    int step = adpcm_step_table[index];
+    int diff = pcm[i] - predictor;
+    int nibble = 0;
+    if (diff < 0) { nibble = 8; diff = -diff; }
+    int delta = step >> 3;
+    if (diff >= step) { nibble |= 4; diff -= step; delta += step; }
+    step >>= 1;
+    if (diff >= step) { nibble |= 2; diff -= step; delta += step; }
+    step >>= 1;
+    if (diff >= step) { nibble |= 1; delta += step; }
+    predictor += (nibble & 8) ? -delta : delta;
+    predictor = constrain(predictor, -32768, 32767);
+    index = constrain(index + adpcm_index_table[nibble], 0, 88);
+    if ((i & 1) == 0) { out[o] = nibble; } else { out[o++] |= nibble << 4; }
+  }
+  if (samples & 1) { o++; }
+  adpcm_predictor = predictor; adpcm_index = index;
+  return o;
+}
+
+// Converts raw 32-bit I2S samples and encodes them with `codec` into `payload`; returns the payload length
+size_t encode_payload(const uint8_t* raw, size_t samples, int codec, uint8_t* payload) {
+  const int32_t* in = (const int32_t*)raw;
+  for (size_t i = 0; i < samples; i++) { pcm16_buffer[i] = in[i] >> 16; } // 24-bit left-justified -> 16-bit
+  if (codec == CODEC_ULAW) {
+    for (size_t i = 0; i < samples; i++) { payload[i] = ulaw_encode(pcm16_buffer[i]); }
+    return samples;
+  } else if (codec == CODEC_IMA_ADPCM) {
+    return adpcm_encode(pcm16_buffer, samples, payload); // Block header carries the predictor: each packet decodes alone
+  }
+  memcpy(payload, pcm16_buffer, samples * 2);
+  return samples * 2;
+}
+
+void send_audio_udp(const uint8_t* raw, size_t bytes) {
+  size_t samples = bytes / 4;
+  size_t payload_len = encode_payload(raw, samples, udp_codec, frame_buffer + PACKET_HEADER_BYTES);
+  frame_buffer[0] = PACKET_SYNC;
+  frame_buffer[1] = udp_codec;
+  frame_buffer[2] = udp_seq & 0xFF; frame_buffer[3] = (udp_seq >> 8) & 0xFF;
+  frame_buffer[4] = udp_timestamp & 0xFF; frame_buffer[5] = (udp_timestamp >> 8) & 0xFF;
+  frame_buffer[6] = (udp_timestamp >> 16) & 0xFF; frame_buffer[7] = (udp_timestamp >> 24) & 0xFF;
+  frame_buffer[8] = samples & 0xFF; frame_buffer[9] = (samples >> 8) & 0xFF;
+  uint16_t seq = udp_seq++;
+  udp_timestamp += samples; // Advances even if the send fails, so the receiver sees the gap
+  if (udp.beginPacket(udp_peer, udp_peer_port)) {
+    udp.write(frame_buffer, PACKET_HEADER_BYTES + payload_len);
+    udp.endPacket(); // A full Wi-Fi queue drops this packet; the app rebuilds or conceals it
+  }
+  if (udp_fec_group > 0) { add_to_parity(frame_buffer, PACKET_HEADER_BYTES + payload_len, seq); }
+}
+
+bool send_audio(const uint8_t* raw, size_t bytes) {
+  if (wire_codec == CODEC_LEGACY) {
+    size_t bytes_sent = client.write(raw, bytes);
+    if (bytes_sent != bytes) { Serial.printf("Warning: Sent %d / %d bytes!\n", bytes_sent, bytes); return false; }
+    return true;
+  }
+  size_t samples = bytes / 4;
+  size_t payload_len = encode_payload(raw, samples, wire_codec, frame_buffer + FRAME_HEADER_BYTES);
+  frame_buffer[0] = FRAME_SYNC;
+  frame_buffer[1] = wire_codec;
+  frame_buffer[2] = samples & 0xFF; frame_buffer[3] = (samples >> 8) & 0xFF;
+  frame_buffer[4] = payload_len & 0xFF; frame_buffer[5] = (payload_len >> 8) & 0xFF;
+  size_t frame_len = FRAME_HEADER_BYTES + payload_len;
+  size_t bytes_sent = client.write(frame_buffer, frame_len);
+  if (bytes_sent != frame_len) { Serial.printf("Warning: Sent %d / %d frame bytes!\n", bytes_sent, frame_len); return false; }
+  return true;
+}
@@ -1,4 +1,5 @@
 #include <WiFi.h>
+#include <WiFiUdp.h>
 #include "driver/i2s.h"
 #include <ESP32Servo.h> // <<< Include Servo library
 
@@ -12,6 +13,7 @@ const char* password = "//"; // <<< REPLACE
 
 WiFiServer audioServer(AUDIO_PORT);
 WiFiClient audioClient;
+WiFiUDP audioUdp; // Low-latency mode: same port number, UDP
 
 WiFiServer controlServer(CONTROL_PORT); // Server for control commands
 WiFiClient controlClient;            // Client for control commands
@@ -31,6 +33,88 @@ WiFiClient controlClient;            // Client for control commands
 #define NETWORK_RECEIVE_BUFFER_SIZE 1024
 uint8_t network_receive_buffer[NETWORK_RECEIVE_BUFFER_SIZE];
 
+// --- Wire Codec (must match WireCodec.java) ---
+#define CODEC_LEGACY       -1 // Raw 16-bit PCM, no handshake (old app)
+#define CODEC_PCM16        0
+#define CODEC_ULAW         1
+#define CODEC_IMA_ADPCM    2
+#define CODEC_COMFORT_NOISE 0x7F // Silence marker: no samples, payload = background RMS u16 LE
+#define COMFORT_NOISE_BYTES 2
+#define PROTOCOL_VERSION   1
+#define FRAME_SYNC         0xA5
+#define FRAME_HEADER_BYTES 6
+#define MAX_FRAME_SAMPLES  1024
+#define HELLO_TIMEOUT_MS   300
+
+int wire_codec = CODEC_LEGACY;
+uint8_t frame_buffer[FRAME_HEADER_BYTES + MAX_FRAME_SAMPLES * 2];
+size_t frame_fill = 0;
+size_t frame_needed = FRAME_HEADER_BYTES;
+int16_t decode_buffer[MAX_FRAME_SAMPLES];
+
+// --- Comfort Noise ---
+// The app stops sending while its mic hears nothing and announces each pause with a marker. By
+// default the pause is played as silence (the I2S DMA clears itself), which keeps the amp quiet;
+// a non-zero percentage fills it with hiss at that share of the room level the app measured.
+// When audio resumes the DMA is empty, so a short cushion goes out first to absorb network jitter
+// the way the backlog of a continuous stream does.
+#define COMFORT_NOISE_PERCENT  0
+#define RESUME_CUSHION_MS      30
+#define COMFORT_NOISE_BLOCK_MS 10
+#define COMFORT_NOISE_SAMPLES  (I2S_SAMPLE_RATE / 1000 * COMFORT_NOISE_BLOCK_MS)
+int comfort_noise_amplitude = 0; // Peak of the uniform noise, 0 = off
+unsigned long comfort_noise_next_ms = 0;
+uint32_t comfort_noise_seed = 22222;
+unsigned long comfort_noise_markers = 0;
+bool audio_paused = false; // Marker seen, no audio since
+
+// --- UDP Audio Packets (must match AudioPacket.java) ---
+#define PACKET_SYNC          0xA6
+#define PACKET_HEADER_BYTES  10 // sync, codec, seq u16, timestamp u32, samples u16
+#define PACKET_RESTART_DISTANCE 64 // Sequence jumps beyond this mean the app restarted
+#define PACKET_MAX_BYTES     (PACKET_HEADER_BYTES + MAX_FRAME_SAMPLES * 2)
+#define PACKET_REORDER_SLOTS 3 // Packets held ahead of a gap before it is skipped
+
+uint8_t packet_buffer[PACKET_MAX_BYTES];
+uint8_t held_packets[PACKET_REORDER_SLOTS][PACKET_MAX_BYTES];
+bool held_used[PACKET_REORDER_SLOTS];
+int held_count = 0;
+bool udp_started = false;
+uint16_t udp_expected_seq = 0;
+unsigned long udp_packets_late = 0;
+unsigned long udp_gaps_skipped = 0;
+
+const int8_t adpcm_index_table[16] = { -1, -1, -1, -1, 2, 4, 6, 8, -1, -1, -1, -1, 2, 4, 6, 8 };
+const int16_t adpcm_step_table[89] = {
+  7, 8, 9, 10, 11, 12, 13, 14, 16, 17, 19, 21, 23, 25, 28, 31, 34, 37, 41, 45,
+  50, 55, 60, 66, 73, 80, 88, 97, 107, 118, 130, 143, 157, 173, 190, 209, 230, 253, 279, 307,
+  337, 371, 408, 449, 494, 544, 598, 658, 724, 796, 876, 963, 1060, 1166, 1282, 1411, 1552, 1707, 1878, 2066,
+  2272, 2499, 2749, 3024, 3327, 3660, 4026, 4428, 4871, 5358, 5894, 6484, 7132, 7845, 8630, 9493, 10442, 11487, 12635, 13899,
+  15289, 16818, 18500, 20350, 22385, 24623, 27086, 29794, 32767
+};
+
+// --- Control Protocol (must match ControlProtocol.java) ---
+#define CTRL_HELLO_LINE          "BMCTL 1"
+#define CTRL_SYNC                0xC5
+#define CTRL_HEADER_BYTES        5
+#define CTRL_MAX_PAYLOAD         16
+#define CTRL_OP_SERVO            0x01
+#define CTRL_OP_PING             0x02
+#define CTRL_OP_VOLUME           0x03
+#define CTRL_OP_FORMAT           0x04
+#define CTRL_OP_ACK              0x80
+#define CTRL_STATUS_OK           0
+#define CTRL_STATUS_BAD_ARGUMENT 1
+#define CTRL_STATUS_UNSUPPORTED  2
+
+bool control_binary = false; // Set once the app sent the hello line
+uint8_t ctrl_frame[CTRL_HEADER_BYTES + CTRL_MAX_PAYLOAD + 1];
+size_t ctrl_fill = 0;
+size_t ctrl_needed = CTRL_HEADER_BYTES;
+int speaker_volume = 100; // Percent, applied before I2S
+int16_t volume_buffer[256];
+int pcm_carry = -1; // Odd trailing byte of a legacy PCM write, completed by the next one
+
 // --- Servo Configuration ---
 #define SERVO1_PIN 23 // GPIO pin for Servo 1
 #define SERVO2_PIN 18 // GPIO pin for Servo 2
@@ -42,6 +126,19 @@ Servo servo2; // Servo object 2
 void setup_i2s_speaker();
 void handleAudioClient();
 void handleControlClient();
+void write_pcm_to_i2s(const uint8_t* data, size_t len);
+int negotiate_codec();
+void feed_framed_audio(const uint8_t* data, size_t len);
+void handleAudioPackets();
+void play_frame(int codec, int samples, const uint8_t* payload);
+void play_packet(const uint8_t* packet);
+void start_comfort_noise(const uint8_t* payload);
+void play_comfort_noise();
+void drain_held_packets();
+void write_i2s_raw(const uint8_t* data, size_t len);
+bool set_servo(int servo, int angle);
+bool set_volume(int volume);
+void feed_control_byte(uint8_t b);
 
 // --- Setup ---
 void setup() {
@@ -75,7 +172,8 @@ void setup() {
 
   // --- Start TCP Servers ---
   audioServer.begin();
-  Serial.printf("Audio Server started on port %d\n", AUDIO_PORT);
+  audioUdp.begin(AUDIO_PORT);
+  Serial.printf("Audio Server started on port %d (TCP and UDP)\n", AUDIO_PORT);
   controlServer.begin();
   Serial.printf("Control Server started on port %d\n", CONTROL_PORT);
   Serial.println("Waiting for clients...");
@@ -116,6 +214,8 @@ void setup_i2s_speaker() {
 // --- Main Loop ---
 void loop() {
   handleAudioClient();    // Handle audio connection and data
+  handleAudioPackets();   // Handle UDP audio packets
+  play_comfort_noise();   // Fill pauses the app announced, if enabled
   handleControlClient();  // Handle control connection and commands
   delay(1); // Small delay to prevent tight loop hogging CPU
 }
@@ -129,6 +229,12 @@ void handleAudioClient() {
       Serial.print("Audio Client IP: "); Serial.println(audioClient.remoteIP());
       i2s_zero_dma_buffer(I2S_SPEAKER_PORT);
       audioClient.setNoDelay(true);
+      frame_fill = 0; frame_needed = FRAME_HEADER_BYTES;
+      comfort_noise_amplitude = 0;
+      audio_paused = false;
+      pcm_carry = -1;
+      wire_codec = negotiate_codec();
+      Serial.printf("Wire codec: %d\n", wire_codec);
     }
   }
   if (audioClient.connected()) {
@@ -137,11 +243,11 @@ void handleAudioClient() {
       size_t bytesToRead = min((size_t)availableBytes, sizeof(network_receive_buffer));
       size_t bytesRead = audioClient.read(network_receive_buffer, bytesToRead);
       if (bytesRead > 0) {
-        if (bytesRead % 2 != 0) { Serial.printf("Warning: Odd audio bytes (%d).\n", bytesRead); }
-        size_t bytes_written = 0;
-        esp_err_t result = i2s_write(I2S_SPEAKER_PORT, network_receive_buffer, bytesRead, &bytes_written, portMAX_DELAY);
-        if (result != ESP_OK) { Serial.printf("I2S Write Error: %d\n", result); }
-        if (bytes_written != bytesRead) { Serial.printf("Warning: I2S Write %d/%d\n", bytes_written, bytesRead); }
+        if (wire_codec == CODEC_LEGACY) {
+          write_pcm_to_i2s(network_receive_buffer, bytesRead);
+        } else {
+          feed_framed_audio(network_receive_buffer, bytesRead);
+        }
       }
     }
     if (!audioClient.connected()) { Serial.println("Audio client disconnected."); }
@@ -156,23 +262,327 @@ void handleControlClient() {
       Serial.println("Control client connected!");
       Serial.print("Control Client IP: "); Serial.println(controlClient.remoteIP());
       controlClient.setNoDelay(true);
+      control_binary = false;
+      ctrl_fill = 0;
+      ctrl_needed = CTRL_HEADER_BYTES;
     }
   }
   if (controlClient.connected()) {
-    if (controlClient.available()) {
+    if (control_binary) {
+      while (controlClient.available()) { feed_control_byte(controlClient.read()); }
+    } else if (controlClient.available()) {
       String command = controlClient.readStringUntil('\n');
       command.trim();
       Serial.print("Received command: "); Serial.println(command);
-      if (command.startsWith("S1=")) {
-        int angle = command.substring(3).toInt();
-        if (angle >= 0 && angle <= 180) { servo1.write(angle); Serial.print("Set Servo 1: "); Serial.println(angle); }
-        else { Serial.println("Invalid S1 angle."); }
+      if (command == CTRL_HELLO_LINE) {
+        controlClient.print(CTRL_HELLO_LINE "\n"); // Echo = binary frames from now on
+        control_binary = true;
+        Serial.println("Control: binary protocol.");
+      } else if (command.startsWith("S1=")) {
+        if (!set_servo(1, command.substring(3).toInt())) { Serial.println("Invalid S1 angle."); }
       } else if (command.startsWith("S2=")) {
-        int angle = command.substring(3).toInt();
-         if (angle >= 0 && angle <= 180) { servo2.write(angle); Serial.print("Set Servo 2: "); Serial.println(angle); }
-         else { Serial.println("Invalid S2 angle."); }
+        if (!set_servo(2, command.substring(3).toInt())) { Serial.println("Invalid S2 angle."); }
+      } else if (command.startsWith("VOL=")) {
+        if (!set_volume(command.substring(4).toInt())) { Serial.println("Invalid volume."); }
       } else { Serial.println("Unknown command."); }
     }
      if (!controlClient.connected()) { Serial.println("Control client disconnected."); }
   }
 }
+
+bool set_servo(int servo, int angle) {
+  if (angle < 0 || angle > 180) { return false; }
+  if (servo == 1) { servo1.write(angle); Serial.print("Set Servo 1: "); Serial.println(angle); return true; }
+  if (servo == 2) { servo2.write(angle); Serial.print("Set Servo 2: "); Serial.println(angle); return true; }
+  return false;
+}
+
+bool set_volume(int volume) {
+  if (volume < 0 || volume > 100) { return false; }
+  speaker_volume = volume;
+  Serial.print("Set Volume: "); Serial.println(volume);
+  return true;
+}
+
+// Binary frames: [0xC5][opcode][seq u16 LE][len][payload][xor checksum]; every frame is ACKed with the same seq
+void feed_control_byte(uint8_t b) {
+  if (ctrl_fill == 0 && b != CTRL_SYNC) { return; } // Resync on the next sync byte
+  ctrl_frame[ctrl_fill++] = b;
+  if (ctrl_fill == CTRL_HEADER_BYTES) {
+    if (ctrl_frame[4] > CTRL_MAX_PAYLOAD) { ctrl_fill = 0; return; }
+    ctrl_needed = CTRL_HEADER_BYTES + ctrl_frame[4] + 1;
+    return;
+  }
+  if (ctrl_fill < CTRL_HEADER_BYTES || ctrl_fill < ctrl_needed) { return; }
+
+  uint8_t x = 0;
+  for (size_t i = 0; i < ctrl_needed - 1; i++) { x ^= ctrl_frame[i]; }
+  uint8_t opcode = ctrl_frame[1];
+  uint8_t len = ctrl_frame[4];
+  const uint8_t* payload = ctrl_frame + CTRL_HEADER_BYTES;
+  bool valid = x == ctrl_frame[ctrl_needed - 1];
+  ctrl_fill = 0;
+  ctrl_needed = CTRL_HEADER_BYTES;
+  if (!valid) { Serial.println("Control: bad checksum."); return; }
+  if (opcode == CTRL_OP_ACK) { return; }
+
+  uint8_t status = CTRL_STATUS_OK;
+  if (opcode == CTRL_OP_SERVO) {
+    status = (len >= 2 && set_servo(payload[0], payload[1])) ? CTRL_STATUS_OK : CTRL_STATUS_BAD_ARGUMENT;
+  } else if (opcode == CTRL_OP_VOLUME) {
+    status = (len >= 1 && set_volume(payload[0])) ? CTRL_STATUS_OK : CTRL_STATUS_BAD_ARGUMENT;
+  } else if (opcode == CTRL_OP_FORMAT) {
+    status = (len >= 1 && (payload[0] == CODEC_PCM16 || payload[0] == CODEC_ULAW || payload[0] == CODEC_IMA_ADPCM)) ? CTRL_STATUS_OK : CTRL_STATUS_UNSUPPORTED;
+  } else if (opcode != CTRL_OP_PING) {
+    status = CTRL_STATUS_UNSUPPORTED;
+  }
+
+  uint8_t ack[CTRL_HEADER_BYTES + 3] = { CTRL_SYNC, CTRL_OP_ACK, ctrl_frame[2], ctrl_frame[3], 2, opcode, status, 0 };
+  for (size_t i = 0; i < sizeof(ack) - 1; i++) { ack[sizeof(ack) - 1] ^= ack[i]; }
+  controlClient.write(ack, sizeof(ack));
+}
+
+// --- Wire Codec ---
+// Applies the control-channel volume to little-endian PCM16. A TCP read can end mid-sample: the
+// odd byte is kept in pcm_carry and put in front of the next write, so samples stay aligned.
+void write_pcm_to_i2s(const uint8_t* data, size_t len) {
+  if (len == 0) { return; }
+  if (pcm_carry >= 0) {
+    uint8_t sample[2] = { (uint8_t)pcm_carry, data[0] };
+    pcm_carry = -1;
+    write_pcm_to_i2s(sample, 2);
+    data++;
+    len--;
+  }
+  if (len % 2 != 0) { pcm_carry = data[--len]; }
+  if (len == 0) { return; }
+  if (speaker_volume >= 100) { write_i2s_raw(data, len); return; }
+  int gain_q8 = speaker_volume * 256 / 100;
+  size_t samples = len / 2;
+  while (samples > 0) {
+    size_t n = min(samples, sizeof(volume_buffer) / sizeof(volume_buffer[0]));
+    for (size_t i = 0; i < n; i++) {
+      int16_t sample = (int16_t)(data[2 * i] | (data[2 * i + 1] << 8));
+      volume_buffer[i] = (int16_t)((sample * gain_q8) >> 8);
+    }
+    write_i2s_raw((const uint8_t*)volume_buffer, n * 2);
+    data += n * 2;
+    samples -= n;
+  }
+}
+
+void write_i2s_raw(const uint8_t* data, size_t len) {
+  size_t bytes_written = 0;
+  esp_err_t result = i2s_write(I2S_SPEAKER_PORT, data, len, &bytes_written, portMAX_DELAY);
+  if (result != ESP_OK) { Serial.printf("I2S Write Error: %d\n", result); }
+  if (bytes_written != len) { Serial.printf("Warning: I2S Write %d/%d\n", bytes_written, len); }
+}
+
+// Waits briefly for the app's hello {'B','M',version,codec}. Old apps start with raw PCM instead,
+// which is played as-is.
+int negotiate_codec() {
+  uint8_t hello[4];
+  size_t got = 0;
+  unsigned long start = millis();
+  while (got < sizeof(hello) && millis() - start < HELLO_TIMEOUT_MS) {
+    if (audioClient.available()) { hello[got++] = audioClient.read(); } else { delay(1); }
+  }
+  if (got < sizeof(hello) || hello[0] != 'B' || hello[1] != 'M' || hello[2] != PROTOCOL_VERSION) {
+    if (got > 0) { write_pcm_to_i2s(hello, got); }
+    return CODEC_LEGACY;
+  }
+  int codec = hello[3];
+  if (codec != CODEC_PCM16 && codec != CODEC_ULAW && codec != CODEC_IMA_ADPCM) { codec = CODEC_PCM16; }
+  uint8_t reply[4] = { 'B', 'M', PROTOCOL_VERSION, (uint8_t)codec };
+  audioClient.write(reply, sizeof(reply));
+  return codec;
+}
+
+int payload_bytes(int codec, int samples) {
+  if (codec == CODEC_PCM16) { return samples * 2; }
+  if (codec == CODEC_ULAW) { return samples; }
+  if (codec == CODEC_IMA_ADPCM) { return 4 + (samples + 1) / 2; }
+  return -1;
+}
+
+int16_t ulaw_decode(uint8_t u) {
+  u = ~u;
+  int sign = u & 0x80, exponent = (u >> 4) & 0x07, mantissa = u & 0x0F;
+  int magnitude = (((mantissa << 3) + 0x84) << exponent) - 0x84;
+  return sign ? -magnitude : magnitude;
+}
+
+void adpcm_decode(const uint8_t* in, size_t samples, int16_t* out) {
+  int predictor = (int16_t)(in[0] | (in[1] << 8));
+  int index = min((int)in[2], 88);
+  in += 4;
+  for (size_t i = 0; i < samples; i++) {
+    int nibble = (i & 1) == 0 ? (*in & 0x0F) : ((*in++ >> 4) & 0x0F);
+    int step = adpcm_step_table[index];
+    int delta = step >> 3;
+    if (nibble & 4) { delta += step; }
+    if (nibble & 2) { delta += step >> 1; }
+    if (nibble & 1) { delta += step >> 2; }
+    predictor += (nibble & 8) ? -delta : delta;
+    predictor = constrain(predictor, -32768, 32767);
+    index = constrain(index + adpcm_index_table[nibble], 0, 88);
+    out[i] = predictor;
+  }
+}
+
+// Reassembles frames from arbitrary TCP reads, decodes them and plays them
+void feed_framed_audio(const uint8_t* data, size_t len) {
+  while (len > 0) {
+    if (frame_fill == 0 && data[0] != FRAME_SYNC) { data++; len--; continue; } // Resync
+    size_t n = min(len, frame_needed - frame_fill);
+    memcpy(frame_buffer + frame_fill, data, n);
+    frame_fill += n; data += n; len -= n;
+    if (frame_fill < frame_needed) { break; }
+
+    int codec = frame_buffer[1];
+    int samples = frame_buffer[2] | (frame_buffer[3] << 8);
+    if (frame_needed == FRAME_HEADER_BYTES) {
+      int payload = frame_buffer[4] | (frame_buffer[5] << 8);
+      bool marker = codec == CODEC_COMFORT_NOISE && samples == 0 && payload == COMFORT_NOISE_BYTES;
+      if (!marker && (samples == 0 || samples > MAX_FRAME_SAMPLES || payload != payload_bytes(codec, samples))) {
+        Serial.println("Warning: Bad audio frame header.");
+        frame_fill = 0;
+        continue;
+      }
+      frame_needed = FRAME_HEADER_BYTES + payload;
+      continue;
+    }
+
+    play_frame(codec, samples, frame_buffer + FRAME_HEADER_BYTES);
+    frame_fill = 0;
+    frame_needed = FRAME_HEADER_BYTES;
+  }
+}
+
+void play_frame(int codec, int samples, const uint8_t* payload) {
+  if (codec == CODEC_COMFORT_NOISE) { start_comfort_noise(payload); return; }
+  comfort_noise_amplitude = 0; // Audio is back
+  if (audio_paused) {
+    audio_paused = false;
+    memset(decode_buffer, 0, sizeof(decode_buffer));
+    write_pcm_to_i2s((const uint8_t*)decode_buffer, I2S_SAMPLE_RATE / 1000 * RESUME_CUSHION_MS * 2);
+  }
+  if (codec == CODEC_ULAW) {
+    for (int i = 0; i < samples; i++) { decode_buffer[i] = ulaw_decode(payload[i]); }
+  } else if (codec == CODEC_IMA_ADPCM) {
+    adpcm_decode(payload, samples, decode_buffer);
+  } else {
+    memcpy(decode_buffer, payload, samples * 2);
+  }
+  write_pcm_to_i2s((const uint8_t*)decode_buffer, samples * 2);
+}
+
+// Start of a pause in the app's audio; nothing follows until it talks again
+void start_comfort_noise(const uint8_t* payload) {
+  int rms = payload[0] | (payload[1] << 8);
+  comfort_noise_markers++;
+  audio_paused = true;
+  comfort_noise_amplitude = (int)((long)rms * COMFORT_NOISE_PERCENT * 173 / 10000); // Uniform noise: peak = RMS * sqrt(3)
+  comfort_noise_next_ms = millis();
+}
+
+// One block per COMFORT_NOISE_BLOCK_MS while a pause lasts, so the DMA never holds much of it
+void play_comfort_noise() {
+  if (comfort_noise_amplitude <= 0) { return; }
+  unsigned long now = millis();
+  if ((long)(now - comfort_noise_next_ms) < 0) { return; }
+  if (now - comfort_noise_next_ms > 5 * COMFORT_NOISE_BLOCK_MS) { comfort_noise_next_ms = now; } // Fell behind: don't burst
+  comfort_noise_next_ms += COMFORT_NOISE_BLOCK_MS;
+  int span = 2 * comfort_noise_amplitude + 1;
+  for (int i = 0; i < COMFORT_NOISE_SAMPLES; i++) {
+    comfort_noise_seed = comfort_noise_seed * 1664525u + 1013904223u;
+    decode_buffer[i] = (int16_t)((int)((comfort_noise_seed >> 16) % span) - comfort_noise_amplitude);
+  }
+  write_pcm_to_i2s((const uint8_t*)decode_buffer, COMFORT_NOISE_SAMPLES * 2);
+}
+
+// --- UDP Audio ---
+// One frame per datagram: [0xA6][codec][seq u16 LE][timestamp u32 LE][samples u16 LE][payload], or a
+// comfort-noise marker (codec 0x7F, 0 samples) in sequence like any other packet.
+// Packets are played in sequence order. A packet ahead of a gap is held (up to PACKET_REORDER_SLOTS)
+// in case the missing one was only reordered; once the slots are full the gap is skipped. Anything
+// older than the last played packet is dropped.
+void handleAudioPackets() {
+  int len;
+  while ((len = audioUdp.parsePacket()) > 0) {
+    if (audioClient.connected()) { audioUdp.flush(); continue; } // TCP stream has the speaker
+    if (len > (int)sizeof(packet_buffer)) { audioUdp.flush(); continue; }
+    int got = audioUdp.read(packet_buffer, sizeof(packet_buffer));
+    if (got < PACKET_HEADER_BYTES || packet_buffer[0] != PACKET_SYNC) { continue; }
+    int codec = packet_buffer[1];
+    uint16_t seq = packet_buffer[2] | (packet_buffer[3] << 8);
+    int samples = packet_buffer[8] | (packet_buffer[9] << 8);
+    bool marker = codec == CODEC_COMFORT_NOISE && samples == 0 && got - PACKET_HEADER_BYTES == COMFORT_NOISE_BYTES;
+    if (!marker && (samples == 0 || samples > MAX_FRAME_SAMPLES || got - PACKET_HEADER_BYTES != payload_bytes(codec, samples))) {
+      Serial.println("Warning: Bad audio packet.");
+      continue;
+    }
+    int16_t distance = (int16_t)(seq - udp_expected_seq);
+    if (!udp_started || distance > PACKET_RESTART_DISTANCE || distance < -PACKET_RESTART_DISTANCE) {
+      if (!udp_started) { Serial.print("UDP audio from "); Serial.println(audioUdp.remoteIP()); }
+      else { Serial.printf("UDP audio restarted (late %lu, gaps %lu)\n", udp_packets_late, udp_gaps_skipped); }
+      udp_started = true;
+      udp_expected_seq = seq;
+      for (int i = 0; i < PACKET_REORDER_SLOTS; i++) { held_used[i] = false; }
+      held_count = 0;
+      distance = 0;
+    }
+    if (distance < 0) { udp_packets_late++; continue; } // Late or duplicate
+    if (distance == 0) {
+      play_packet(packet_buffer);
+    } else {
+      int slot = -1;
+      bool duplicate = false;
+      for (int i = 0; i < PACKET_REORDER_SLOTS; i++) {
+        if (!held_used[i]) { if (slot < 0) { slot = i; } continue; }
+        if ((held_packets[i][2] | (held_packets[i][3] << 8)) == seq) { duplicate = true; }
+      }
+      if (duplicate) { udp_packets_late++; continue; }
+      if (slot < 0) {
+        // Slots full: give up on the gap and continue from the oldest held packet
+        int oldest = 0;
+        for (int i = 1; i < PACKET_REORDER_SLOTS; i++) {
+          if ((int16_t)((held_packets[i][2] | (held_packets[i][3] << 8)) - (held_packets[oldest][2] | (held_packets[oldest][3] << 8))) < 0) { oldest = i; }
+        }
+        udp_gaps_skipped++;
+        udp_expected_seq = held_packets[oldest][2] | (held_packets[oldest][3] << 8);
+        drain_held_packets();
+        for (int i = 0; i < PACKET_REORDER_SLOTS; i++) { if (!held_used[i]) { slot = i; break; } }
+        if ((int16_t)(seq - udp_expected_seq) < 0) { udp_packets_late++; continue; }
+        if ((int16_t)(seq - udp_expected_seq) == 0) { play_packet(packet_buffer); drain_held_packets(); continue; }
+      }
+      memcpy(held_packets[slot], packet_buffer, got);
+      held_used[slot] = true;
+      held_count++;
+    }
+    drain_held_packets();
+  }
+}
+
+void play_packet(const uint8_t* packet) {
+  int samples = packet[8] | (packet[9] << 8);
+  udp_expected_seq = (packet[2] | (packet[3] << 8)) + 1;
+  play_frame(packet[1], samples, packet + PACKET_HEADER_BYTES);
+}
+
+// Plays held packets that have become next in sequence
+void drain_held_packets() {
+  bool found = true;
+  while (held_count > 0 && found) {
+    found = false;
+    for (int i = 0; i < PACKET_REORDER_SLOTS; i++) {
+      if (held_used[i] && (uint16_t)(held_packets[i][2] | (held_packets[i][3] << 8)) == udp_expected_seq) {
+        held_used[i] = false;
+        held_count--;
+        play_packet(held_packets[i]);
+        found = true;
+        break;
+      }
+    }
+  }
+}
@@ -0,0 +1,364 @@
+package com.example.audio;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * The {@link EchoCanceller} against synthetic echo paths, on one core of a plain JVM.
+ *
+ * Each scene is 30 s of 16 kHz audio. The far end (what the speaker plays) is the voice of
+ * {@link VadBenchmark}; the echo is that played through a room impulse response (a direct path
+ * and an exponentially decaying tail) after a bulk delay: tens of ms from a phone's own speaker,
+ * hundreds over the network and back from a mic board's. The near end adds the room's noise and,
+ * in some scenes, someone talking or the crying of {@link SoundEventBenchmark} over the echo
+ * (double talk). Some scenes change the echo path or the delay halfway. Audio goes through the
+ * canceller 10 ms at a time, as capture delivers it.
+ *
+ * Because echo and near speech are generated apart, the echo left in the output is known
+ * exactly. Per scene: the delay found and when, ERLE (echo over residual echo) while only the far
+ * end talks in a few windows, when it first reaches {@value #CONVERGED_DB} dB (and again after a
+ * change), and during double talk the near speech to echo ratio before and after (near speech
+ * damaged by the filter counts as echo). With no far end the output must be the input.
+ *
+ * Then the cost per 10 ms for a few tail and delay lengths (median and worst of several runs, and
+ * the share of one core), and the heap one canceller takes.
+ *
+ * Usage: EchoBenchmark [--runs N] [--seed S]
+ */
+public class EchoBenchmark {
+
+    private static final int SAMPLE_RATE = 16000;
+    private static final int FRAME_SAMPLES = 160; // 10 ms, as capture and playout deliver
+    private static final int FRAME_MS = 10;
+    private static final int SCENE_SECONDS = 30;
+    private static final int CHANGE_SECOND = 15;
+    private static final double CONVERGED_DB = 10;
+    private static final double ECHO_ACTIVE_DBFS = -55;
+    private static final int LOCKED_MILLIS = 16; // Delay found within two blocks
+    private static final int WARMUP_RUNS = 3;
+    private static final float DC_RADIUS = 0.995f; // As the canceller's notch, applied to the references
+
+    private static final double[][] WINDOWS = { { 0, 1 }, { 1, 3 }, { 3, 10 }, { 10, 15 }, { 15, 17 }, { 17, 30 } };
+
+    private static final class Scene {
+        final String name;
+        final int tailMillis;
+        final int maxDelayMillis;
+        final int delayMillis;    // True bulk delay, before any change
+        int delayAfterMillis;     // After CHANGE_SECOND
+        double[] far;
+        double[] echo;            // At the mic
+        double[] clean;           // Everything else at the mic
+        boolean[] nearTalk;       // Per frame
+        boolean change;
+
+        Scene(String name, int tailMillis, int maxDelayMillis, int delayMillis) {
+            this.name = name;
+            this.tailMillis = tailMillis;
+            this.maxDelayMillis = maxDelayMillis;
+            this.delayMillis = delayMillis;
+            this.delayAfterMillis = delayMillis;
+        }
+    }
+
+    // Direct path plus an exponential tail with the given reverberation time; scaled to the echo path's gain
+    static double[] roomResponse(Random random, int millis, double t60Millis, double gainDb) {
+        double[] h = new double[SAMPLE_RATE * millis / 1000];
+        double decay = Math.pow(10, -3.0 / (t60Millis * SAMPLE_RATE / 1000)); // -60 dB over t60, in amplitude
+        double env = 1;
+        h[0] = 1;
+        for (int i = 1 + SAMPLE_RATE / 1000; i < h.length; i++) { // Reflections from 1 ms on
+            env *= decay;
+            h[i] = 0.3 * env * random.nextGaussian();
+        }
+        double sum = 0;
+        for (double v : h) sum += v * v;
+        double scale = Math.pow(10, gainDb / 20) / Math.sqrt(sum);
+        for (int i = 0; i < h.length; i++) h[i] *= scale;
+        return h;
+    }
+
+    // 'far' through 'h' after 'delay' samples, into y[from .. to)
+    static void convolve(double[] far, double[] h, int delay, double[] y, int from, int to) {
+        for (int n = from; n < to; n++) {
+            double s = 0;
+            int last = Math.min(h.length - 1, n - delay);
+            for (int j = 0; j <= last; j++) s += h[j] * far[n - delay - j];
+            y[n] = s;
+        }
+    }
+
+    static double[] talk(Random random, int samples, double dbfs, boolean[] frames, int offsetMillis) {
+        double[] raw = new double[samples + SAMPLE_RATE * 6];
+        boolean[] marks = new boolean[raw.length / FRAME_SAMPLES + 1];
+        VadBenchmark.addVoice(random, raw, marks, dbfs);
+        int offset = SAMPLE_RATE * offsetMillis / 1000;
+        double[] y = new double[samples];
+        System.arraycopy(raw, (SAMPLE_RATE * 6 - offset) % (SAMPLE_RATE * 6), y, 0, samples);
+        if (frames != null) {
+            int shift = (SAMPLE_RATE * 6 - offset) % (SAMPLE_RATE * 6) / FRAME_SAMPLES;
+            for (int f = 0; f < frames.length; f++) frames[f] |= marks[f + shift];
+        }
+        return y;
+    }
+
+    private static List<Scene> scenes(long seed) {
+        List<Scene> scenes = new ArrayList<>();
+        int samples = SCENE_SECONDS * SAMPLE_RATE;
+        int frames = samples / FRAME_SAMPLES;
+        int change = CHANGE_SECOND * SAMPLE_RATE;
+
+        // Phone on speaker: its own speaker is loud at its mic, the bulk delay is the audio buffers
+        for (int variant = 0; variant < 5; variant++) {
+            Random random = new Random(seed + variant);
+            String[] names = { "phone: far end only", "phone: double talk 1 s in 6", "phone: echo path changes", "phone: delay jumps +120 ms", "phone: speech louder than echo" };
+            Scene s = new Scene(names[variant], EchoCanceller.DEFAULT_TAIL_MILLIS, 500, 60);
+            s.far = mergeTalk(random, samples, -20);
+            double[] h = roomResponse(random, 60, 150, -6);
+            s.echo = new double[samples];
+            s.nearTalk = new boolean[frames];
+            s.clean = VadBenchmark.noise(random, samples, -60, true);
+            if (variant == 2) {
+                convolve(s.far, h, delay(s.delayMillis), s.echo, 0, change);
+                convolve(s.far, roomResponse(random, 60, 150, -6), delay(s.delayMillis), s.echo, change, samples);
+                s.change = true;
+            } else if (variant == 3) {
+                s.delayAfterMillis = s.delayMillis + 120;
+                convolve(s.far, h, delay(s.delayMillis), s.echo, 0, change);
+                convolve(s.far, h, delay(s.delayAfterMillis), s.echo, change, samples);
+                s.change = true;
+            } else {
+                convolve(s.far, h, delay(s.delayMillis), s.echo, 0, samples);
+            }
+            if (variant == 1 || variant == 4) {
+                double[] voice = talk(new Random(seed + 100 + variant), samples, variant == 1 ? -26 : -14, s.nearTalk, 1000);
+                for (int i = 0; i < samples; i++) s.clean[i] += voice[i];
+            }
+            scenes.add(s);
+        }
+
+        // Talk-back through a mic board: its speaker into its own mic, back over the network and jitter buffers
+        {
+            Random random = new Random(seed + 10);
+            Scene s = new Scene("board: talk-back loop, 420 ms", EchoCanceller.DEFAULT_TAIL_MILLIS, 1000, 420);
+            s.far = mergeTalk(random, samples, -20);
+            s.echo = new double[samples];
+            convolve(s.far, roomResponse(random, 100, 250, -12), delay(s.delayMillis), s.echo, 0, samples);
+            s.clean = VadBenchmark.noise(random, samples, -50, true);
+            s.nearTalk = new boolean[frames];
+            scenes.add(s);
+        }
+        {
+            Random random = new Random(seed + 11);
+            Scene s = new Scene("board: baby crying under talk-back", EchoCanceller.DEFAULT_TAIL_MILLIS, 1000, 420);
+            s.far = mergeTalk(random, samples, -20);
+            s.echo = new double[samples];
+            convolve(s.far, roomResponse(random, 100, 250, -12), delay(s.delayMillis), s.echo, 0, samples);
+            s.clean = VadBenchmark.noise(random, samples, -50, true);
+            s.nearTalk = new boolean[frames];
+            double[] cry = new double[samples];
+            SoundEventBenchmark.addCry(random, cry, s.nearTalk, 5, 25, -28);
+            for (int i = 0; i < samples; i++) s.clean[i] += cry[i];
+            scenes.add(s);
+        }
+        {
+            Random random = new Random(seed + 12);
+            Scene s = new Scene("no far end: near passes through", EchoCanceller.DEFAULT_TAIL_MILLIS, 500, 60);
+            s.far = new double[samples];
+            s.echo = new double[samples];
+            s.nearTalk = new boolean[frames];
+            s.clean = VadBenchmark.noise(random, samples, -60, true);
+            double[] voice = talk(random, samples, -26, s.nearTalk, 0);
+            for (int i = 0; i < samples; i++) s.clean[i] += voice[i];
+            scenes.add(s);
+        }
+        return scenes;
+    }
+
+    // Voice bursts 2 s in every 3: two talkers' bursts interleaved
+    private static double[] mergeTalk(Random random, int samples, double dbfs) {
+        double[] a = talk(random, samples, dbfs, null, 0);
+        double[] b = talk(random, samples, dbfs, null, 3000);
+        for (int i = 0; i < samples; i++) a[i] += b[i];
+        return a;
+    }
+
+    private static int delay(int millis) { return SAMPLE_RATE * millis / 1000; }
+
+    private static byte[] pcm(double[] y) {
+        byte[] out = new byte[y.length * 2];
+        for (int i = 0; i < y.length; i++) {
+            int v = (int) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, Math.round(y[i])));
+            out[2 * i] = (byte) v;
+            out[2 * i + 1] = (byte) (v >> 8);
+        }
+        return out;
+    }
+
+    private static double[] notch(double[] x) {
+        double[] y = new double[x.length];
+        float in = 0f, out = 0f;
+        for (int i = 0; i < x.length; i++) {
+            float v = (float) x[i];
+            out = v - in + DC_RADIUS * out;
+            in = v;
+            y[i] = out;
+        }
+        return y;
+    }
+
+    private static void run(Scene s) {
+        int samples = s.far.length;
+        double[] nearMix = new double[samples];
+        for (int i = 0; i < samples; i++) nearMix[i] = s.echo[i] + s.clean[i];
+        byte[] near = pcm(nearMix);
+        byte[] far = pcm(s.far);
+        // What the output should be with every bit of echo gone, and the echo as the canceller sees it
+        double[] clean = notch(s.clean);
+        double[] echo = notch(s.echo);
+
+        EchoCanceller aec = new EchoCanceller(SAMPLE_RATE, s.tailMillis, s.maxDelayMillis);
+        int latency = EchoCanceller.BLOCK_SAMPLES;
+        int frames = samples / FRAME_SAMPLES;
+        double[] residual = new double[samples];
+        double lockSecond = -1, relockSecond = -1;
+        int lastDelay = -1;
+        for (int f = 0; f < frames; f++) {
+            int off = f * FRAME_SAMPLES * 2;
+            aec.process(near, off, far, off, FRAME_SAMPLES);
+            for (int i = 0; i < FRAME_SAMPLES; i++) {
+                int n = f * FRAME_SAMPLES + i - latency;
+                if (n < 0) continue;
+                int p = off + 2 * i;
+                residual[n] = (short) ((near[p] & 0xFF) | (near[p + 1] << 8)) - clean[n];
+            }
+            int d = aec.getDelayMillis();
+            double t = (f + 1) * FRAME_MS / 1000.0;
+            if (d >= 0 && lockSecond < 0 && Math.abs(d - s.delayMillis) <= LOCKED_MILLIS) lockSecond = t;
+            if (d >= 0 && s.change && relockSecond < 0 && t >= CHANGE_SECOND && Math.abs(d - s.delayAfterMillis) <= LOCKED_MILLIS) relockSecond = t;
+            lastDelay = d;
+        }
+
+        // Far-only and double-talk frames by the true echo and near talk
+        StringBuilder erle = new StringBuilder();
+        for (double[] w : WINDOWS) erle.append(String.format(Locale.US, " %5s", fmt(erle(echo, residual, s, (int) (w[0] * 100), (int) (w[1] * 100), false))));
+        double converged = -1, recovered = -1;
+        for (int f = 0; f + 50 <= frames - latency / FRAME_SAMPLES - 1; f += 25) { // 0.5 s windows, 0.25 s apart
+            double e = erle(echo, residual, s, f, f + 50, false);
+            double t = (f + 50) / 100.0;
+            if (Double.isNaN(e) || e < CONVERGED_DB) continue;
+            if (converged < 0) converged = t;
+            if (s.change && recovered < 0 && f >= CHANGE_SECOND * 100) recovered = t;
+        }
+        double[] dt = doubleTalk(echo, clean, residual, s);
+        String delay = s.far[0] == 0 && aec.getFarActiveBlocks() == 0 ? "-" : String.format(Locale.US, "%d/%d %s", s.delayAfterMillis, lastDelay, lockSecond < 0 ? "-" : fmtTime(lockSecond) + (s.change ? "," + (relockSecond < 0 ? "-" : fmtTime(relockSecond)) : ""));
+        String dtText = Double.isNaN(dt[0]) ? "-" : String.format(Locale.US, "%5.1f>%5.1f", dt[0], dt[1]);
+        String through = aec.getFarActiveBlocks() == 0 ? String.format(Locale.US, " out-in %.1f dB", db(sum(residual, 0, samples - latency)) - db(sum(clean, 0, samples - latency))) : "";
+        System.out.println(String.format(Locale.US, "%-36s | %-16s |%s | %5s %5s | %-11s | %4d %2d%s",
+                s.name, delay, erle, converged < 0 ? "-" : fmtTime(converged), recovered < 0 ? "-" : fmtTime(recovered), dtText,
+                aec.getDoubleTalkBlocks(), aec.getResets(), through));
+    }
+
+    // Echo over residual, in dB, over the frames of [from, to) with echo and (or without) near talk
+    private static double erle(double[] echo, double[] residual, Scene s, int from, int to, boolean withTalk) {
+        double e = 0, r = 0;
+        for (int f = from; f < to && f < s.nearTalk.length; f++) {
+            if (s.nearTalk[f] != withTalk) continue;
+            double fe = 0, fr = 0;
+            for (int i = f * FRAME_SAMPLES; i < (f + 1) * FRAME_SAMPLES; i++) { fe += echo[i] * echo[i]; fr += residual[i] * residual[i]; }
+            if (10 * Math.log10(fe / FRAME_SAMPLES / (32768.0 * 32768.0) + 1e-12) < ECHO_ACTIVE_DBFS) continue;
+            e += fe;
+            r += fr;
+        }
+        return e == 0 ? Double.NaN : 10 * Math.log10(e / Math.max(r, 1e-9));
+    }
+
+    // Near speech over echo before the canceller, and over what is left of the echo (and any damage) after
+    private static double[] doubleTalk(double[] echo, double[] clean, double[] residual, Scene s) {
+        double c = 0, e = 0, r = 0;
+        for (int f = 0; f < s.nearTalk.length; f++) {
+            if (!s.nearTalk[f]) continue;
+            double fe = 0;
+            for (int i = f * FRAME_SAMPLES; i < (f + 1) * FRAME_SAMPLES; i++) fe += echo[i] * echo[i];
+            if (10 * Math.log10(fe / FRAME_SAMPLES / (32768.0 * 32768.0) + 1e-12) < ECHO_ACTIVE_DBFS) continue;
+            for (int i = f * FRAME_SAMPLES; i < (f + 1) * FRAME_SAMPLES; i++) { c += clean[i] * clean[i]; r += residual[i] * residual[i]; }
+            e += fe;
+        }
+        if (e == 0) return new double[] { Double.NaN, Double.NaN };
+        return new double[] { 10 * Math.log10(c / e), 10 * Math.log10(c / Math.max(r, 1e-9)) };
+    }
+
+    private static double sum(double[] y, int from, int to) { double s = 0; for (int i = from; i < to; i++) s += y[i] * y[i]; return s; }
+    private static double db(double energy) { return energy == 0 ? -96 : 10 * Math.log10(energy); }
+    private static String fmt(double db) { return Double.isNaN(db) ? "-" : String.format(Locale.US, "%.1f", db); }
+    private static String fmtTime(double s) { return String.format(Locale.US, "%.2f", s); }
+
+    // Time per 10 ms frame with speech in and echo on
+    private static void cost(int tailMillis, int maxDelayMillis, int runs, byte[] near, byte[] far) {
+        List<Double> times = new ArrayList<>();
+        int frames = near.length / (FRAME_SAMPLES * 2);
+        byte[] work = new byte[near.length];
+        for (int run = 0; run < WARMUP_RUNS + runs; run++) {
+            System.arraycopy(near, 0, work, 0, near.length);
+            EchoCanceller aec = new EchoCanceller(SAMPLE_RATE, tailMillis, maxDelayMillis);
+            long busy = 0;
+            for (int f = 0; f < frames; f++) {
+                long start = System.nanoTime();
+                aec.process(work, f * FRAME_SAMPLES * 2, far, f * FRAME_SAMPLES * 2, FRAME_SAMPLES);
+                busy += System.nanoTime() - start;
+            }
+            if (run >= WARMUP_RUNS) times.add(busy / (double) frames);
+        }
+        Collections.sort(times);
+        double median = times.get(times.size() / 2);
+        System.out.println(String.format(Locale.US, "%4d %5d | %7.0f %7.0f | %6.2f%%", tailMillis, maxDelayMillis, median, times.get(times.size() - 1), 100 * median / (FRAME_MS * 1_000_000.0)));
+    }
+
+    private static long usedHeap() {
+        Runtime rt = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) System.gc();
+        return rt.totalMemory() - rt.freeMemory();
+    }
+
+    public static void main(String[] args) {
+        int runs = 7;
+        long seed = 1;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--runs": runs = Integer.parseInt(args[++i]); break;
+                case "--seed": seed = Long.parseLong(args[++i]); break;
+                default: throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+        System.out.println("Per scene: true/last delay (ms), when first within " + LOCKED_MILLIS + " ms (s, and after the change); ERLE far end only (dB) per window (s);");
+        System.out.println("first 0.5 s at " + (int) CONVERGED_DB + " dB (s), and after the change; double talk near/echo in>out (dB); double-talk blocks, resets");
+        StringBuilder head = new StringBuilder();
+        for (double[] w : WINDOWS) head.append(String.format(Locale.US, " %5s", (int) w[0] + "-" + (int) w[1]));
+        System.out.println(String.format(Locale.US, "%-36s | %-16s |%s | %5s %5s | %-11s | %4s %2s", "scene", "delay", head, "conv", "recov", "dbl talk", "dt", "rs"));
+        List<Scene> scenes = scenes(seed);
+        for (Scene s : scenes) run(s);
+
+        System.out.println();
+        System.out.println("Per 10 ms: median and worst-run ns, share of one core");
+        System.out.println(String.format(Locale.US, "%4s %5s | %7s %7s | %7s", "tail", "delay", "median", "worst", "core"));
+        Scene busy = scenes.get(1);
+        double[] nearMix = new double[busy.far.length];
+        for (int i = 0; i < nearMix.length; i++) nearMix[i] = busy.echo[i] + busy.clean[i];
+        byte[] near = pcm(nearMix), far = pcm(busy.far);
+        cost(64, 500, runs, near, far);
+        cost(EchoCanceller.DEFAULT_TAIL_MILLIS, 500, runs, near, far);
+        cost(EchoCanceller.DEFAULT_TAIL_MILLIS, 1000, runs, near, far);
+        cost(256, 1000, runs, near, far);
+
+        int count = 8;
+        long before = usedHeap();
+        EchoCanceller[] aecs = new EchoCanceller[count];
+        for (int i = 0; i < count; i++) aecs[i] = new EchoCanceller(SAMPLE_RATE, EchoCanceller.DEFAULT_TAIL_MILLIS, 1000);
+        long after = usedHeap();
+        System.out.println();
+        System.out.println(String.format(Locale.US, "Heap per canceller (%d ms tail, 1 s of delay): %d KB (%d measured)", EchoCanceller.DEFAULT_TAIL_MILLIS, (after - before) / count / 1024, aecs.length));
+    }
+}
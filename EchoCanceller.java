@@ -0,0 +1,472 @@
+package com.example.audio;
+
+import java.util.Arrays;
+
+/**
+ * Acoustic echo canceller: takes what a speaker played (the far end) out of what a mic next to it
+ * picked up (the near end), so a parent can talk back while listening without hearing themselves
+ * come back, and without the speaker-mic-speaker loop between a phone and a mic board building up.
+ *
+ * A frequency-domain adaptive filter with partitioned blocks (MDF): the echo path, up to
+ * {@code tailMillis} long, is modelled as {@code K} partitions of {@link #BLOCK_SAMPLES} taps
+ * each, applied by overlap-save to the far end and subtracted from the near end. Each partition
+ * adapts as a normalized LMS in the frequency domain, with a step per bin that follows the
+ * estimated share of residual echo in the error: fast while the filter is learning, slow when the
+ * error is mostly someone talking in the room. An explicit double-talk check, error far above
+ * what the filter's own echo estimate leaves room for, freezes adaptation altogether for a while.
+ * The approach, and the step control, are those of Valin's MDF as in Speex.
+ *
+ * The echo comes back later than the reference by buffers, network and air. An
+ * {@link EchoDelayEstimator} finds that bulk delay and the reference is read that much later from
+ * a history of up to {@code maxDelayMillis}, so the filter only has to cover the room; when the
+ * estimate moves, the partitions move with it instead of learning again.
+ *
+ * A filter that makes things worse is caught: output louder than the input is replaced by the
+ * input, and a filter that keeps doing it, or blows up, is reset. There is no residual echo
+ * suppression on top; what the linear filter misses stays in.
+ *
+ * Works on PCM16 LE in any amounts; output lags input by exactly one block. Not thread-safe,
+ * except for the stats.
+ */
+public class EchoCanceller {
+
+    public static final int BLOCK_SAMPLES = 128;             // 8 ms at 16 kHz
+    public static final int DEFAULT_TAIL_MILLIS = 128;
+    public static final float FAR_ACTIVE_DBFS = -50f;
+
+    private static final int FFT_SIZE = 2 * BLOCK_SAMPLES;
+    private static final int BINS = BLOCK_SAMPLES + 1;
+    private static final int DELAY_MARGIN_BLOCKS = 2;         // Taps kept before the estimated delay
+    private static final float DC_RADIUS = 0.995f;
+    private static final float MIN_LEAK = 0.005f;
+    private static final float DOUBLE_TALK_RATIO = 4f;        // Mic energy over the echo estimate's
+    private static final float ECHO_ONLY_RATIO = 2f;
+    private static final long DOUBLE_TALK_HOLD_MILLIS = 1000;  // Longest freeze; a changed echo path looks the same
+    private static final int DIVERGED_BLOCKS = 10;
+    private static final long ERLE_MILLIS = 2000;
+    private static final long CANCELLING_MILLIS = 500;
+    private static final float CANCELLING_DB = 6f;            // Doing this well, the filter is not moved for a new delay
+
+    private final int sampleRate;
+    private final int partitions;
+    private final RealFft fft = new RealFft(FFT_SIZE);
+    private final EchoDelayEstimator estimator;
+
+    // Far-end history, as played, long enough for the largest delay plus every partition
+    private final float[] history;
+    private final int historyMask;
+    private long historyEnd = 0;      // Samples written so far
+    private int delaySamples = 0;
+
+    // Partitioned spectra: X[p] is the far block p blocks back, W[p] its taps; circular, newest at xHead
+    private final float[][] xRe, xIm, wRe, wIm;
+    private int xHead = 0;
+    private final float[] prop;       // Step share of each partition
+    private final float[] power = new float[BINS];   // Smoothed far-end power
+    private final float[] power1 = new float[BINS];  // Step per bin
+    private final float[] xf = new float[BINS];
+    private final float[] yf = new float[BINS];
+    private final float[] rf = new float[BINS];
+    private final float[] eh = new float[BINS];
+    private final float[] yh = new float[BINS];
+    private float pey = 1f, pyy = 1f;
+    private float sumAdapt = 0f;
+    private boolean adapted = false;
+
+    // Working buffers
+    private final float[] time = new float[FFT_SIZE];
+    private final float[] re = new float[BINS], im = new float[BINS];
+    private final float[] eRe = new float[BINS], eIm = new float[BINS];
+    private final float[] farPower = new float[BINS], nearPower = new float[BINS];
+    private final float[] farWindow = new float[FFT_SIZE];
+    private final float[] nearWindow = new float[FFT_SIZE];
+    private final float[] y = new float[BLOCK_SAMPLES];
+    private final float[] e = new float[BLOCK_SAMPLES];
+
+    // Sample FIFO between callers' amounts and blocks
+    private final float[] nearBlock = new float[BLOCK_SAMPLES];
+    private final float[] farBlock = new float[BLOCK_SAMPLES];
+    private final short[] outBlock = new short[BLOCK_SAMPLES];
+    private int fill = 0;
+    private float dcIn = 0f, dcOut = 0f;
+
+    private final float farActiveEnergy;
+    private final int doubleTalkHoldBlocks;
+    private final float erleRate;
+    private final float cancellingRate;
+    private final float cancellingRatio;
+    private int doubleTalkRun = 0;
+    private int divergedRun = 0;
+    private long blockCount = 0;
+    private float nearEcho = 0f, outEcho = 0f;  // Smoothed energies over blocks with a reference
+    private float nearFast = 0f, outFast = 0f;  // The same, shorter, and only while the mic hears nothing but echo
+    private boolean cancelling = false;
+
+    private volatile boolean converged = false;
+    private volatile float erleDb = 0f;
+    private volatile int delayMillis = -1;
+    private volatile long blocks = 0;
+    private volatile long farActiveBlocks = 0;
+    private volatile long doubleTalkBlocks = 0;
+    private volatile long delayChanges = 0;
+    private volatile long resets = 0;
+    private volatile long bypassedBlocks = 0;
+
+    public EchoCanceller(int sampleRate, int tailMillis, int maxDelayMillis) {
+        this.sampleRate = sampleRate;
+        this.partitions = Math.max(1, (int) ((long) tailMillis * sampleRate / 1000 / BLOCK_SAMPLES));
+        int maxDelayBlocks = Math.max(1, (int) ((long) maxDelayMillis * sampleRate / 1000 / BLOCK_SAMPLES));
+        this.estimator = new EchoDelayEstimator(sampleRate, FFT_SIZE, maxDelayBlocks);
+        int historySize = Integer.highestOneBit((maxDelayBlocks + partitions + 2) * BLOCK_SAMPLES) * 2;
+        this.history = new float[historySize];
+        this.historyMask = historySize - 1;
+        this.xRe = new float[partitions][BINS];
+        this.xIm = new float[partitions][BINS];
+        this.wRe = new float[partitions][BINS];
+        this.wIm = new float[partitions][BINS];
+        this.prop = new float[partitions];
+        float rms = (float) (32768 * Math.pow(10, FAR_ACTIVE_DBFS / 20));
+        this.farActiveEnergy = BLOCK_SAMPLES * rms * rms;
+        long blockMillis = Math.max(1, BLOCK_SAMPLES * 1000L / sampleRate);
+        this.doubleTalkHoldBlocks = (int) (DOUBLE_TALK_HOLD_MILLIS / blockMillis);
+        this.erleRate = blockMillis / (float) ERLE_MILLIS;
+        this.cancellingRate = blockMillis / (float) CANCELLING_MILLIS;
+        this.cancellingRatio = (float) Math.pow(10, CANCELLING_DB / 10);
+        reset();
+    }
+
+    /** Forgets the echo path and the delay, as for a new session. */
+    public void reset() {
+        Arrays.fill(history, 0f);
+        historyEnd = 0;
+        delaySamples = 0;
+        resetFilter();
+        estimator.reset();
+        delayMillis = -1;
+        fill = 0;
+        Arrays.fill(outBlock, (short) 0);
+        dcIn = dcOut = 0f;
+        nearEcho = outEcho = 0f;
+        nearFast = outFast = 0f;
+        erleDb = 0f;
+    }
+
+    private void resetFilter() {
+        for (int p = 0; p < partitions; p++) {
+            Arrays.fill(wRe[p], 0f);
+            Arrays.fill(wIm[p], 0f);
+            Arrays.fill(xRe[p], 0f);
+            Arrays.fill(xIm[p], 0f);
+        }
+        // Earlier taps carry most of an echo path: start the step shares decaying
+        float decay = (float) Math.exp(-2.4 / partitions);
+        float sum = 0f;
+        for (int p = 0; p < partitions; p++) { prop[p] = p == 0 ? 0.7f : prop[p - 1] * decay; sum += prop[p]; }
+        for (int p = 0; p < partitions; p++) prop[p] = 0.8f * prop[p] / sum;
+        Arrays.fill(power, 0f);
+        Arrays.fill(power1, 0f);
+        Arrays.fill(eh, 0f);
+        Arrays.fill(yh, 0f);
+        pey = pyy = 1f;
+        sumAdapt = 0f;
+        adapted = false;
+        converged = false;
+        doubleTalkRun = 0;
+        divergedRun = 0;
+        nearFast = outFast = 0f;
+        cancelling = false;
+        rebuildSpectra(historyEnd);
+    }
+
+    /**
+     * Cancels the echo of {@code far} in {@code near}, in place: {@code samples} PCM16 LE samples
+     * each, the far end being what was played at the time the near end was captured. The result
+     * is the near end of one block earlier.
+     */
+    public void process(byte[] near, int nearOff, byte[] far, int farOff, int samples) {
+        for (int i = 0; i < samples; i++) {
+            int n = nearOff + 2 * i, f = farOff + 2 * i;
+            float x = (short) ((near[n] & 0xFF) | (near[n + 1] << 8));
+            float r = (short) ((far[f] & 0xFF) | (far[f + 1] << 8));
+            short out = outBlock[fill];
+            near[n] = (byte) out;
+            near[n + 1] = (byte) (out >> 8);
+            dcOut = x - dcIn + DC_RADIUS * dcOut; // Notch: the filter cannot model an offset that is not in the reference
+            dcIn = x;
+            nearBlock[fill] = dcOut;
+            farBlock[fill] = r;
+            if (++fill == BLOCK_SAMPLES) {
+                fill = 0;
+                processBlock();
+            }
+        }
+    }
+
+    // --- One block ---
+
+    private void processBlock() {
+        blockCount++;
+        float sxx = 0f;
+        for (int i = 0; i < BLOCK_SAMPLES; i++) {
+            history[(int) (historyEnd + i) & historyMask] = farBlock[i];
+            sxx += farBlock[i] * farBlock[i];
+        }
+        historyEnd += BLOCK_SAMPLES;
+        boolean farActive = sxx > farActiveEnergy;
+
+        // Bulk delay, on the undelayed reference
+        System.arraycopy(farWindow, BLOCK_SAMPLES, farWindow, 0, BLOCK_SAMPLES);
+        System.arraycopy(farBlock, 0, farWindow, BLOCK_SAMPLES, BLOCK_SAMPLES);
+        System.arraycopy(nearWindow, BLOCK_SAMPLES, nearWindow, 0, BLOCK_SAMPLES);
+        System.arraycopy(nearBlock, 0, nearWindow, BLOCK_SAMPLES, BLOCK_SAMPLES);
+        fft.powerSpectrum(farWindow, farPower);
+        fft.powerSpectrum(nearWindow, nearPower);
+        int delayBlocks = estimator.update(farPower, nearPower, farActive && doubleTalkRun == 0); // Near speech hides the echo's shape
+        if (delayBlocks != EchoDelayEstimator.UNKNOWN) {
+            delayMillis = (int) ((long) delayBlocks * BLOCK_SAMPLES * 1000 / sampleRate);
+            // Only when the echo starts before the taps do, or its tail no longer fits after them: the estimate wobbles by a block or two
+            int current = delaySamples / BLOCK_SAMPLES;
+            if (!cancelling && (delayBlocks < current + DELAY_MARGIN_BLOCKS || delayBlocks > current + Math.max(DELAY_MARGIN_BLOCKS, partitions / 2))) {
+                int applied = Math.max(0, delayBlocks - DELAY_MARGIN_BLOCKS) * BLOCK_SAMPLES;
+                if (applied != delaySamples) moveDelay(applied);
+            }
+        }
+
+        // Newest far spectrum, from the delayed reference
+        xHead = xHead == 0 ? partitions - 1 : xHead - 1;
+        farSpectrum(historyEnd - delaySamples, xRe[xHead], xIm[xHead]);
+        sxx = 0f;
+        for (int i = BLOCK_SAMPLES; i < FFT_SIZE; i++) sxx += time[i] * time[i];
+        boolean echoActive = sxx > farActiveEnergy; // The reference the filter works on
+        for (int k = 0; k < BINS; k++) xf[k] = xRe[xHead][k] * xRe[xHead][k] + xIm[xHead][k] * xIm[xHead][k];
+
+        // Echo estimate and error
+        Arrays.fill(re, 0f);
+        Arrays.fill(im, 0f);
+        for (int p = 0; p < partitions; p++) {
+            float[] xr = xRe[slot(p)], xi = xIm[slot(p)], wr = wRe[p], wi = wIm[p];
+            for (int k = 0; k < BINS; k++) {
+                re[k] += wr[k] * xr[k] - wi[k] * xi[k];
+                im[k] += wr[k] * xi[k] + wi[k] * xr[k];
+            }
+        }
+        inverse(re, im, time);
+        float see = 0f, syy = 0f, sey = 0f, snn = 0f;
+        for (int i = 0; i < BLOCK_SAMPLES; i++) {
+            y[i] = time[BLOCK_SAMPLES + i];
+            e[i] = nearBlock[i] - y[i];
+            see += e[i] * e[i];
+            syy += y[i] * y[i];
+            sey += e[i] * y[i];
+            snn += nearBlock[i] * nearBlock[i];
+        }
+        blocks++;
+        if (echoActive) farActiveBlocks++;
+
+        if (!(see >= 0 && syy >= 0 && sxx >= 0) || syy > FFT_SIZE * 1e9f || Float.isNaN(syy)) {
+            restart(); // Blew up
+            return;
+        }
+        if (adapted && see > 4f * snn + FFT_SIZE * 100f) {
+            if (++divergedRun >= DIVERGED_BLOCKS) { restart(); return; }
+        } else {
+            divergedRun = 0;
+        }
+
+        // Never louder than the input: a filter that is off the path only adds to it
+        boolean bypass = see > snn;
+        for (int i = 0; i < BLOCK_SAMPLES; i++) outBlock[i] = toPcm(bypass ? nearBlock[i] : e[i]);
+        if (bypass) bypassedBlocks++;
+        // The mic hears far more than a working filter makes of the echo: someone is talking (a changed path does not look like this)
+        boolean doubleTalk = cancelling && echoActive && snn > DOUBLE_TALK_RATIO * syy + FFT_SIZE * 100f;
+        doubleTalkRun = doubleTalk ? doubleTalkRun + 1 : 0;
+        if (doubleTalk) doubleTalkBlocks++;
+        if (echoActive) {
+            float out = bypass ? snn : see;
+            nearEcho += erleRate * (snn - nearEcho);
+            outEcho += erleRate * (out - outEcho);
+            erleDb = outEcho > 0f ? (float) (10 * Math.log10((nearEcho + 1f) / (outEcho + 1f))) : 0f;
+            if (!cancelling || snn < ECHO_ONLY_RATIO * syy) { // Only echo in the mic, as far as the filter can tell
+                nearFast += cancellingRate * (snn - nearFast);
+                outFast += cancellingRate * (out - outFast);
+            }
+        }
+        cancelling = adapted && nearFast > cancellingRatio * outFast;
+
+        // Spectra of the padded echo estimate and error
+        Arrays.fill(time, 0, BLOCK_SAMPLES, 0f);
+        System.arraycopy(y, 0, time, BLOCK_SAMPLES, BLOCK_SAMPLES);
+        forward(time, re, im);
+        for (int k = 0; k < BINS; k++) yf[k] = re[k] * re[k] + im[k] * im[k];
+        System.arraycopy(e, 0, time, BLOCK_SAMPLES, BLOCK_SAMPLES);
+        forward(time, eRe, eIm);
+        for (int k = 0; k < BINS; k++) rf[k] = eRe[k] * eRe[k] + eIm[k] * eIm[k];
+
+        updateStep(sxx, see, syy, sey);
+        if (doubleTalk && doubleTalkRun <= doubleTalkHoldBlocks) return; // Keep the filter as it is
+
+        adaptProp();
+        int constrained = partitions > 1 ? 1 + (int) (blockCount % (partitions - 1)) : 0;
+        for (int p = 0; p < partitions; p++) {
+            float[] xr = xRe[slot(p)], xi = xIm[slot(p)], wr = wRe[p], wi = wIm[p];
+            float step = prop[p];
+            for (int k = 0; k < BINS; k++) {
+                // W += mu * conj(X) * E
+                float g = step * power1[k];
+                wr[k] += g * (xr[k] * eRe[k] + xi[k] * eIm[k]);
+                wi[k] += g * (xr[k] * eIm[k] - xi[k] * eRe[k]);
+            }
+            if (p == 0 || p == constrained) constrain(p); // One partition a block keeps the taps in range; enough
+        }
+    }
+
+    // Step per bin from the residual echo estimate: how much of the error the filter could still explain
+    private void updateStep(float sxx, float see, float syy, float sey) {
+        float ss = 0.35f / partitions;
+        see = Math.max(see, FFT_SIZE * 100f);
+        for (int k = 0; k < BINS; k++) power[k] = (1f - ss) * power[k] + 1f + ss * xf[k];
+
+        float specAverage = BLOCK_SAMPLES / (float) sampleRate;
+        float peyCur = 0f, pyyCur = 0f;
+        for (int k = 0; k < BINS; k++) {
+            float ehCur = rf[k] - eh[k], yhCur = yf[k] - yh[k];
+            peyCur += ehCur * yhCur;
+            pyyCur += yhCur * yhCur;
+            eh[k] = (1f - specAverage) * eh[k] + specAverage * rf[k];
+            yh[k] = (1f - specAverage) * yh[k] + specAverage * yf[k];
+        }
+        pyyCur = (float) Math.sqrt(pyyCur);
+        peyCur = pyyCur > 0f ? peyCur / pyyCur : 0f;
+        float beta0 = 2f * BLOCK_SAMPLES / sampleRate, betaMax = 0.5f * BLOCK_SAMPLES / sampleRate;
+        float alpha = Math.min(beta0 * syy, betaMax * see) / see;
+        pey = (1f - alpha) * pey + alpha * peyCur;
+        pyy = (1f - alpha) * pyy + alpha * pyyCur;
+        if (pyy < 1f) pyy = 1f;
+        if (pey < MIN_LEAK * pyy) pey = MIN_LEAK * pyy;
+        if (pey > pyy) pey = pyy;
+        float leak = pey / pyy;
+
+        float rer = (0.0001f * sxx + 3f * leak * syy) / see;
+        float correlated = sey * sey / (1f + see * syy);
+        if (rer < correlated) rer = correlated;
+        if (rer > 0.5f) rer = 0.5f;
+
+        if (!adapted && sumAdapt > partitions && leak > 0.03f) { adapted = true; converged = true; }
+        if (adapted) {
+            for (int k = 0; k < BINS; k++) {
+                float r = leak * yf[k], er = rf[k] + 1f;
+                if (r > 0.5f * er) r = 0.5f * er;
+                r = 0.7f * r + 0.3f * rer * er;
+                power1[k] = r / (er * (power[k] + 10f));
+            }
+        } else {
+            float rate = 0f;
+            if (sxx > FFT_SIZE * 1000f) rate = Math.min(0.25f * sxx, 0.25f * see) / see;
+            for (int k = 0; k < BINS; k++) power1[k] = rate / (power[k] + 10f);
+            sumAdapt += rate;
+        }
+    }
+
+    // Step shares follow where the filter's energy is, with a floor so no partition stops learning
+    private void adaptProp() {
+        float max = 1f, sum = 0f;
+        for (int p = 0; p < partitions; p++) {
+            float t = 1f;
+            for (int k = 0; k < BINS; k++) t += wRe[p][k] * wRe[p][k] + wIm[p][k] * wIm[p][k];
+            prop[p] = (float) Math.sqrt(t);
+            if (prop[p] > max) max = prop[p];
+        }
+        for (int p = 0; p < partitions; p++) { prop[p] += 0.1f * max; sum += prop[p]; }
+        for (int p = 0; p < partitions; p++) prop[p] = 0.99f * prop[p] / sum;
+    }
+
+    // Zeroes the second half of a partition's taps, which overlap-save would wrap around
+    private void constrain(int p) {
+        inverse(wRe[p], wIm[p], time);
+        Arrays.fill(time, BLOCK_SAMPLES, FFT_SIZE, 0f);
+        forward(time, wRe[p], wIm[p]);
+    }
+
+    // The estimate moved: read the reference from the new delay and shift the taps along with it
+    private void moveDelay(int applied) {
+        int shift = (applied - delaySamples) / BLOCK_SAMPLES;
+        delaySamples = applied;
+        delayChanges++;
+        if (shift > 0) {
+            for (int p = 0; p < partitions; p++) {
+                int from = p + shift;
+                if (from < partitions) { System.arraycopy(wRe[from], 0, wRe[p], 0, BINS); System.arraycopy(wIm[from], 0, wIm[p], 0, BINS); }
+                else { Arrays.fill(wRe[p], 0f); Arrays.fill(wIm[p], 0f); }
+            }
+        } else {
+            for (int p = partitions - 1; p >= 0; p--) {
+                int from = p + shift;
+                if (from >= 0) { System.arraycopy(wRe[from], 0, wRe[p], 0, BINS); System.arraycopy(wIm[from], 0, wIm[p], 0, BINS); }
+                else { Arrays.fill(wRe[p], 0f); Arrays.fill(wIm[p], 0f); }
+            }
+        }
+        if (Math.abs(shift) >= partitions / 2) { // Most of what was learnt fell off the end: learn again, at the fast rate
+            adapted = false;
+            converged = false;
+            cancelling = false;
+            sumAdapt = 0f;
+        }
+        rebuildSpectra(historyEnd - BLOCK_SAMPLES); // The block in hand is added next
+    }
+
+    // Far spectra of every partition from the history, at the current delay, as they were after the block ending at {@code end}
+    private void rebuildSpectra(long end) {
+        for (int p = 0; p < partitions; p++) farSpectrum(end - delaySamples - (long) p * BLOCK_SAMPLES, xRe[slot(p)], xIm[slot(p)]);
+    }
+
+    private void restart() {
+        resets++;
+        resetFilter();
+        Arrays.fill(outBlock, (short) 0);
+        for (int i = 0; i < BLOCK_SAMPLES; i++) outBlock[i] = toPcm(nearBlock[i]);
+    }
+
+    // The two blocks of reference ending at {@code end}, transformed; they stay in time
+    private void farSpectrum(long end, float[] outRe, float[] outIm) {
+        for (int i = 0; i < FFT_SIZE; i++) {
+            long s = end - FFT_SIZE + i;
+            time[i] = s >= 0 ? history[(int) s & historyMask] : 0f;
+        }
+        forward(time, outRe, outIm);
+    }
+
+    private int slot(int p) { int s = xHead + p; return s >= partitions ? s - partitions : s; }
+
+    // Transforms scaled 1 / N forward and 1 backward, the convention the step control's constants assume
+    private void forward(float[] signal, float[] outRe, float[] outIm) {
+        fft.forward(signal, outRe, outIm);
+        float scale = 1f / FFT_SIZE;
+        for (int k = 0; k < BINS; k++) { outRe[k] *= scale; outIm[k] *= scale; }
+    }
+
+    private void inverse(float[] inRe, float[] inIm, float[] signal) {
+        fft.inverse(inRe, inIm, signal);
+        for (int i = 0; i < FFT_SIZE; i++) signal[i] *= FFT_SIZE;
+    }
+
+    private static short toPcm(float v) {
+        int s = Math.round(v);
+        return (short) (s > Short.MAX_VALUE ? Short.MAX_VALUE : s < Short.MIN_VALUE ? Short.MIN_VALUE : s);
+    }
+
+    // --- Stats (any thread) ---
+
+    /** Whether the filter has found the echo path since the last reset. */
+    public boolean isConverged() { return converged; }
+    /** Echo return loss enhancement: input over output energy while the far end plays, smoothed over a couple of seconds. */
+    public float getErleDb() { return erleDb; }
+    /** The bulk delay of the echo behind the reference, or -1 before one was found. */
+    public int getDelayMillis() { return delayMillis; }
+    public int getTailMillis() { return (int) ((long) partitions * BLOCK_SAMPLES * 1000 / sampleRate); }
+    public long getBlocks() { return blocks; }
+    public long getFarActiveBlocks() { return farActiveBlocks; }
+    public long getDoubleTalkBlocks() { return doubleTalkBlocks; }
+    public long getDelayChanges() { return delayChanges; }
+    public long getResets() { return resets; }
+    public long getBypassedBlocks() { return bypassedBlocks; }
+}
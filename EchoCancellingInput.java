@@ -0,0 +1,32 @@
+package com.example.audio;
+
+/**
+ * {@link AudioInput} with the echo of what this phone plays taken out: each read takes the
+ * matching amount of the playout from an {@link EchoReference} and runs both through an
+ * {@link EchoCanceller}. Wraps the input at the wire rate, the playout's rate (a
+ * {@link ResamplingInput} if the device runs at another). Adds the canceller's one block of
+ * latency.
+ */
+public class EchoCancellingInput implements AudioInput {
+
+    private final AudioInput input;
+    private final EchoCanceller canceller;
+    private final EchoReference reference;
+    private byte[] far = new byte[0];
+
+    public EchoCancellingInput(AudioInput input, EchoCanceller canceller, EchoReference reference) {
+        this.input = input;
+        this.canceller = canceller;
+        this.reference = reference;
+    }
+
+    @Override
+    public int read(byte[] data, int off, int len) {
+        int n = input.read(data, off, len);
+        if (n <= 0) return n; // Whole samples: PCM16 devices never return half of one
+        if (far.length < n) far = new byte[n]; // Once: reads are the capture chunk or a little more
+        reference.read(far, 0, n);
+        canceller.process(data, off, far, 0, n / 2);
+        return n;
+    }
+}
@@ -0,0 +1,136 @@
+package com.example.audio;
+
+import java.util.Arrays;
+
+/**
+ * Finds the bulk delay between the far-end reference (what was played) and the near-end capture
+ * (what the mic picked up, echo included), in blocks, so the echo canceller's filter can be spent
+ * on the room's reverberation rather than on the trip through buffers, network and air.
+ *
+ * Each block's spectrum is reduced to one bit per band: set when the band is above that stream's
+ * own running mean. Against every candidate delay the near bits are compared with the far bits of
+ * that many blocks ago; the number of differing bits, smoothed over the blocks in which the far
+ * end is playing, is lowest at the true delay. Comparing shapes, not levels, makes it indifferent
+ * to how loud the echo is and to the speaker's and mic's frequency responses.
+ *
+ * A delay is only reported once it stands clearly below the average candidate and has stayed put
+ * for a while; a later change must stay put for longer and match clearly better than the delay it
+ * replaces, so that a stretch of someone talking over the echo does not move it. Not thread-safe.
+ */
+public class EchoDelayEstimator {
+
+    public static final int UNKNOWN = -1;
+
+    private static final int BANDS = 32;
+    private static final float LOW_HZ = 250f;
+    private static final float HIGH_HZ = 6000f;
+    private static final float MEAN_RATE = 0.02f;     // Per-band threshold, over a few hundred blocks
+    private static final float DISTANCE_RATE = 0.05f; // Per-candidate distance, over a few dozen active blocks
+    private static final float LOCK_MARGIN_BITS = 3f; // Best candidate this far under the average
+    private static final int STABLE_UPDATES = 25;     // And the best for this many active blocks in a row
+    private static final int CHANGE_UPDATES = 100;    // Moving away from a delay found takes longer,
+    private static final float CHANGE_MARGIN_BITS = 1f; // and a clearly better match
+
+    private final int[] bandStart = new int[BANDS + 1];
+    private final float[] farMean = new float[BANDS];
+    private final float[] nearMean = new float[BANDS];
+    private final int[] farBits;   // Circular, newest at farHead
+    private final float[] distance;
+    private final int maxDelayBlocks;
+    private int farHead = 0;
+    private long farBlocks = 0;
+    private int best = UNKNOWN;
+    private int bestSince = 0;
+    private int delay = UNKNOWN;
+    private long updates = 0;
+    private long changes = 0;
+
+    /** Spectra of {@code fftSize} at {@code sampleRate}; delays from 0 to {@code maxDelayBlocks}. */
+    public EchoDelayEstimator(int sampleRate, int fftSize, int maxDelayBlocks) {
+        int bins = fftSize / 2;
+        float hzPerBin = sampleRate / (float) fftSize;
+        int lo = Math.max(1, Math.round(LOW_HZ / hzPerBin));
+        int hi = Math.min(bins, Math.max(lo + BANDS, Math.round(Math.min(HIGH_HZ, sampleRate * 0.45f) / hzPerBin)));
+        for (int b = 0; b <= BANDS; b++) bandStart[b] = lo + (int) ((long) (hi - lo) * b / BANDS);
+        this.maxDelayBlocks = maxDelayBlocks;
+        this.farBits = new int[maxDelayBlocks + 1];
+        this.distance = new float[maxDelayBlocks + 1];
+        reset();
+    }
+
+    public void reset() {
+        Arrays.fill(farMean, 0f);
+        Arrays.fill(nearMean, 0f);
+        Arrays.fill(farBits, 0);
+        Arrays.fill(distance, BANDS / 2f);
+        farHead = 0;
+        farBlocks = 0;
+        best = UNKNOWN;
+        bestSince = 0;
+        delay = UNKNOWN;
+    }
+
+    /**
+     * Takes one block's power spectra ({@code fftSize / 2 + 1} bins each) and returns the delay
+     * in blocks, or {@link #UNKNOWN}. Only blocks in which {@code farActive} (the far end is
+     * playing something) move the estimate.
+     */
+    public int update(float[] farPower, float[] nearPower, boolean farActive) {
+        farHead = farHead == maxDelayBlocks ? 0 : farHead + 1;
+        farBits[farHead] = farActive ? binarize(farPower, farMean) : 0;
+        farBlocks++;
+        if (!farActive) return delay;
+        int near = binarize(nearPower, nearMean);
+        int candidates = (int) Math.min(maxDelayBlocks + 1, farBlocks);
+        int min = 0;
+        float sum = 0f;
+        for (int d = 0, i = farHead; d < candidates; d++, i = i == 0 ? maxDelayBlocks : i - 1) {
+            distance[d] += DISTANCE_RATE * (Integer.bitCount(near ^ farBits[i]) - distance[d]);
+            sum += distance[d];
+            if (distance[d] < distance[min]) min = d;
+        }
+        updates++;
+        float mean = sum / candidates;
+        if (best != UNKNOWN && Math.abs(min - best) <= 1) {
+            bestSince++;
+            if (distance[best] > distance[min]) best = min;
+        } else {
+            best = min;
+            bestSince = 0;
+        }
+        boolean clear = distance[best] < mean - LOCK_MARGIN_BITS;
+        if (!clear || best == delay) return delay;
+        if (delay == UNKNOWN ? bestSince >= STABLE_UPDATES
+                : bestSince >= CHANGE_UPDATES && distance[best] < distance[delay] - CHANGE_MARGIN_BITS) {
+            delay = best;
+            changes++;
+        }
+        return delay;
+    }
+
+    // One bit per band above the stream's running mean; the mean follows only active blocks
+    private int binarize(float[] power, float[] mean) {
+        int bits = 0;
+        for (int b = 0; b < BANDS; b++) {
+            float p = 0f;
+            for (int k = bandStart[b]; k < bandStart[b + 1]; k++) p += power[k];
+            if (p > mean[b]) bits |= 1 << b;
+            mean[b] += MEAN_RATE * (p - mean[b]);
+        }
+        return bits;
+    }
+
+    /** The delay in blocks, or {@link #UNKNOWN} until one has stood out. */
+    public int getDelayBlocks() { return delay; }
+    public int getMaxDelayBlocks() { return maxDelayBlocks; }
+    /** How far the reported delay stands under the average candidate, in bits; 0 while unknown. */
+    public float getConfidenceBits() {
+        if (delay == UNKNOWN) return 0f;
+        int candidates = (int) Math.min(maxDelayBlocks + 1, farBlocks);
+        float sum = 0f;
+        for (int d = 0; d < candidates; d++) sum += distance[d];
+        return sum / candidates - distance[delay];
+    }
+    public long getUpdates() { return updates; }
+    public long getChanges() { return changes; }
+}
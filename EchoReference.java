@@ -0,0 +1,86 @@
+package com.example.audio;
+
+import java.util.Arrays;
+
+/**
+ * The far end of an {@link EchoCanceller}, handed from the thread that gives audio to a speaker to
+ * the thread that reads the mic near it: PCM16 LE, sample for sample, through a
+ * {@link ByteRingBuffer}.
+ *
+ * The reader always gets as many samples as it asks for, so the two streams stay in step; the
+ * canceller's delay estimate takes care of how far apart they are. Like {@link RingBufferSource}
+ * it waits for {@code primeMillis} before starting (and again after running dry), so that the
+ * writer's bursts do not make it run dry every time and slip, and it drops the oldest audio when
+ * more than {@code maxMillis} piles up, going back to the primed depth, which keeps the delay
+ * within what the canceller searches. Nothing written (no talk-back, the speaker link down) reads
+ * as silence.
+ *
+ * One writer, one reader.
+ */
+public class EchoReference {
+
+    private static final byte[] SILENCE = new byte[1024];
+
+    private final ByteRingBuffer ring;
+    private final int primeBytes;
+    private final int maxQueuedBytes;
+    private final byte[] drain = new byte[1024];
+    private boolean primed = false;
+
+    private volatile long underruns = 0;
+    private volatile long droppedBytes = 0;
+
+    public EchoReference(int sampleRate, int primeMillis, int maxMillis) {
+        int bytesPerMilli = sampleRate / 1000 * 2;
+        this.primeBytes = primeMillis * bytesPerMilli;
+        this.maxQueuedBytes = Math.max(primeMillis, maxMillis) * bytesPerMilli;
+        this.ring = new ByteRingBuffer(maxQueuedBytes * 2);
+    }
+
+    // --- Writer ---
+
+    /** What the speaker is given, as it is given. A full ring drops it, counted by the ring. */
+    public void offer(byte[] pcm, int off, int len) {
+        ring.offer(pcm, off, len);
+    }
+
+    /** {@code samples} of silence, for frames the speaker gets nothing of (or only comfort noise). */
+    public void offerSilence(int samples) {
+        for (int left = samples * 2; left > 0; left -= SILENCE.length) ring.offer(SILENCE, 0, Math.min(left, SILENCE.length));
+    }
+
+    // --- Reader ---
+
+    /** Fills {@code dst[off, off + len)} with the reference to go with {@code len} bytes of mic audio. */
+    public void read(byte[] dst, int off, int len) {
+        int available = ring.available();
+        if (!primed) {
+            if (available < primeBytes + len) { Arrays.fill(dst, off, off + len, (byte) 0); return; }
+            primed = true;
+        }
+        if (available - len > maxQueuedBytes) { // Back to the primed depth: the reference must not run ever further ahead
+            int excess;
+            while ((excess = Math.min(drain.length, (available - len - primeBytes) & ~1)) > 0) {
+                droppedBytes += ring.read(drain, 0, excess);
+                available = ring.available();
+            }
+        }
+        int n = ring.read(dst, off, len);
+        if (n < len) {
+            Arrays.fill(dst, off + n, off + len, (byte) 0);
+            underruns++;
+            primed = false;
+        }
+    }
+
+    /** Reader side: forgets everything queued, as at the start of a session. */
+    public void clear() {
+        ring.clear();
+        primed = false;
+    }
+
+    public int getQueuedBytes() { return ring.available(); }
+    public long getUnderruns() { return underruns; }
+    public long getDroppedBytes() { return droppedBytes; }
+    public long getOverruns() { return ring.getOverruns(); }
+}
@@ -0,0 +1,867 @@
+package com.example.audio;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Plain-JVM stand-in for the two ESP32 boards, for running the streaming core on Linux.
+ *
+ * ESP1mic (port 8080): answers the {@link WireCodec} hello (or stays silent like legacy firmware)
+ * and streams 256-sample I2S chunks in real time, as raw 32-bit words or as frames.
+ * ESP2speaker (port 8081): decodes what the phone sends into a modelled I2S DMA buffer that drains
+ * at the sample rate; a full buffer blocks the reader like {@code i2s_write} does, so back-pressure
+ * reaches the phone through TCP; after a comfort-noise marker the buffer runs dry without that
+ * counting as an underrun, and the next audio starts behind a short silent cushion. ESP2speaker
+ * control (port 8082): text lines, or the binary {@link ControlProtocol} with ACKs after the
+ * hello line.
+ *
+ * Each direction can be degraded with a {@link LinkProfile}. TCP never loses data, so a lost
+ * segment shows up the way it does on the phone: everything behind it stalls for a retransmit
+ * timeout (head-of-line blocking). Jitter never reorders, and bandwidth is a token bucket.
+ *
+ * With {@code udpAudio} both audio boards also listen for {@link AudioPacket} datagrams on the same
+ * port numbers: the mic streams to the last sender of a hello datagram, the speaker plays packets
+ * in arrival order and drops late ones. There the same profile really drops packets, jitter
+ * reorders them, and a saturated bandwidth budget tail-drops instead of queueing.
+ *
+ * Blocking sockets with a few threads per board; this simulates the boards, it is not meant to be
+ * efficient.
+ */
+public class Esp32Simulator implements Closeable {
+
+    /** Produces the mic board's audio; {@code firstSampleNanos} is when pcm[0] was captured. */
+    public interface MicSignal {
+        void fill(short[] pcm, int samples, long firstSampleNanos);
+    }
+
+    /** Sees every block the speaker board plays; {@code firstSampleNanos} is when pcm[0] is heard. */
+    public interface SpeakerTap {
+        void onPlayed(short[] pcm, int samples, long firstSampleNanos);
+    }
+
+    /**
+     * Degradation of one link direction. Loss follows a two-state (Gilbert-Elliott) model: in the
+     * bad state every write is lost, and bad periods last {@code meanBurstWrites} writes on average,
+     * with the long-run loss rate kept at {@code lossPercent}. A mean burst of 1 is independent loss.
+     */
+    public static final class LinkProfile {
+        public static final LinkProfile CLEAN = new LinkProfile(0, 0, 0, 0, 200);
+
+        public final double lossPercent;          // Long-run share of writes lost (TCP: retransmitted)
+        public final int jitterMs;                // Uniform extra delay 0..jitterMs, order preserved
+        public final long bandwidthBytesPerSecond; // 0 = unlimited
+        public final int baseDelayMs;
+        public final int retransmitMs;            // Stall caused by one lost segment
+        public final double meanBurstWrites;      // Average length of a loss burst, >= 1
+
+        public LinkProfile(double lossPercent, int jitterMs, long bandwidthBytesPerSecond, int baseDelayMs, int retransmitMs) {
+            this(lossPercent, jitterMs, bandwidthBytesPerSecond, baseDelayMs, retransmitMs, 1);
+        }
+
+        public LinkProfile(double lossPercent, int jitterMs, long bandwidthBytesPerSecond, int baseDelayMs, int retransmitMs, double meanBurstWrites) {
+            this.lossPercent = lossPercent;
+            this.jitterMs = jitterMs;
+            this.bandwidthBytesPerSecond = bandwidthBytesPerSecond;
+            this.baseDelayMs = baseDelayMs;
+            this.retransmitMs = retransmitMs;
+            this.meanBurstWrites = Math.max(1, meanBurstWrites);
+        }
+
+        @Override public String toString() {
+            return "loss=" + lossPercent + "%" + (meanBurstWrites > 1 ? " (bursts of " + meanBurstWrites + ")" : "") + " jitter=" + jitterMs + "ms bw="
+                    + (bandwidthBytesPerSecond > 0 ? bandwidthBytesPerSecond + "B/s" : "unlimited") + " delay=" + baseDelayMs + "ms";
+        }
+    }
+
+    /** Per-link state of the {@link LinkProfile} loss model. */
+    private static final class LossModel {
+        private final double enterBad;  // P(good -> bad) per write
+        private final double leaveBad;  // P(bad -> good) per write
+        private boolean bad = false;
+
+        LossModel(LinkProfile profile) {
+            double p = Math.min(profile.lossPercent / 100, 0.99);
+            this.leaveBad = 1 / profile.meanBurstWrites;
+            this.enterBad = p * leaveBad / (1 - p); // Stationary share of bad writes = p
+        }
+
+        boolean lose(Random random) {
+            if (enterBad <= 0) return false;
+            bad = bad ? random.nextDouble() >= leaveBad : random.nextDouble() < enterBad;
+            return bad;
+        }
+    }
+
+    public static final class Config {
+        public InetAddress bindAddress = InetAddress.getLoopbackAddress();
+        public int micPort = 8080;           // 0 = ephemeral
+        public int speakerPort = 8081;
+        public int controlPort = 8082;
+        public int sampleRate = 16000;
+        public int micChunkSamples = 256;
+        public double micClockPpm = 0;       // Mic crystal error against the phone's clock
+        public int i2sDmaSamples = 2048;     // Both boards: 8 DMA buffers x 256 samples
+        public boolean framedFirmware = true;  // Answers the audio hello
+        public boolean binaryControl = true;   // Answers the control hello
+        public boolean udpAudio = true;        // Also serves AudioPacket datagrams on the audio port numbers
+        public LinkProfile uplink = LinkProfile.CLEAN;   // Boards -> phone
+        public LinkProfile downlink = LinkProfile.CLEAN; // Phone -> boards
+        public long seed = 1;
+        public MicSignal micSignal = null;   // Silence if null
+        public SpeakerTap speakerTap = null;
+    }
+
+    private static final int HELLO_TIMEOUT_MS = 300;
+    private static final int LINK_QUEUE_BYTES = 64 * 1024; // Roughly the TCP window the phone can fill
+    private static final int SPEAKER_REORDER_SLOTS = 3;    // PACKET_REORDER_SLOTS in ESP2speaker.ino
+    private static final int SPEAKER_RESUME_CUSHION_MS = 30; // RESUME_CUSHION_MS in ESP2speaker.ino
+
+    private final Config config;
+    private final ServerSocket micServer;
+    private final ServerSocket speakerServer;
+    private final ServerSocket controlServer;
+    private final DatagramSocket micUdp;     // Null unless udpAudio
+    private final DatagramSocket speakerUdp;
+    private final Random random;
+    private final Object clientLock = new Object();
+    private Socket micClient;     // Guarded by clientLock
+    private Socket speakerClient; // Guarded by clientLock
+    private Socket controlClient; // Guarded by clientLock
+    private volatile SocketAddress micSubscriber = null;
+    private volatile int micSubscriberCodec = WireCodec.CODEC_PCM16;
+    private volatile int micSubscriberFecGroup = 0;
+    private volatile int micSubscriberFecDepth = 1;
+    private volatile long micSubscribedNanos = 0;
+    private volatile boolean running = true;
+
+    private final AtomicLong micChunksSent = new AtomicLong();
+    private final AtomicLong speakerSamplesPlayed = new AtomicLong();
+    private final AtomicLong speakerUnderruns = new AtomicLong();
+    private final AtomicLong controlCommands = new AtomicLong();
+    private final AtomicLong lostSegments = new AtomicLong();
+    private final AtomicLong droppedDatagrams = new AtomicLong();
+    private final AtomicLong lateDatagrams = new AtomicLong();
+    private final AtomicLong comfortNoiseMarkers = new AtomicLong();
+
+    public Esp32Simulator(Config config) throws IOException {
+        this.config = config;
+        this.random = new Random(config.seed);
+        this.micServer = bind(config.micPort);
+        this.speakerServer = bind(config.speakerPort);
+        this.controlServer = bind(config.controlPort);
+        this.micUdp = config.udpAudio ? new DatagramSocket(new InetSocketAddress(config.bindAddress, micServer.getLocalPort())) : null;
+        this.speakerUdp = config.udpAudio ? new DatagramSocket(new InetSocketAddress(config.bindAddress, speakerServer.getLocalPort())) : null;
+    }
+
+    private ServerSocket bind(int port) throws IOException {
+        ServerSocket server = new ServerSocket();
+        server.setReuseAddress(true);
+        server.bind(new InetSocketAddress(config.bindAddress, port));
+        return server;
+    }
+
+    public void start() {
+        startThread("sim-mic-accept", () -> acceptLoop(micServer, 0));
+        startThread("sim-speaker-accept", () -> acceptLoop(speakerServer, 1));
+        startThread("sim-control-accept", () -> acceptLoop(controlServer, 2));
+        if (config.udpAudio) {
+            startThread("sim-mic-udp-hello", this::receiveMicHellos);
+            startThread("sim-mic-udp", this::serveMicUdp);
+            startThread("sim-speaker-udp", this::serveSpeakerUdp);
+        }
+    }
+
+    private static Thread startThread(String name, Runnable task) {
+        Thread t = new Thread(task, name);
+        t.setDaemon(true);
+        t.start();
+        return t;
+    }
+
+    // One client per board port, like the firmware: a new connection replaces the old one
+    private void acceptLoop(ServerSocket server, int board) {
+        while (running) {
+            Socket socket;
+            try { socket = server.accept(); } catch (IOException e) { return; }
+            try { socket.setTcpNoDelay(true); } catch (IOException ignore) {}
+            Socket previous;
+            synchronized (clientLock) {
+                if (board == 0) { previous = micClient; micClient = socket; }
+                else if (board == 1) { previous = speakerClient; speakerClient = socket; }
+                else { previous = controlClient; controlClient = socket; }
+            }
+            closeQuietly(previous);
+            if (board == 0) startThread("sim-mic", () -> serveMic(socket));
+            else if (board == 1) startThread("sim-speaker", () -> serveSpeaker(socket));
+            else startThread("sim-control", () -> serveControl(socket));
+        }
+    }
+
+    /** Drops every board connection at once, like a reboot; the servers keep accepting. */
+    public void dropClients() {
+        synchronized (clientLock) {
+            closeQuietly(micClient);
+            closeQuietly(speakerClient);
+            closeQuietly(controlClient);
+        }
+        micSubscriber = null;
+    }
+
+    private static void closeQuietly(Closeable c) {
+        if (c != null) try { c.close(); } catch (IOException ignore) {}
+    }
+
+    // --- Audio hello ---
+
+    // Reads the phone's hello; framed firmware answers it, legacy firmware ignores it
+    private int acceptHello(Socket socket, InputStream in, OutputStream out) throws IOException {
+        byte[] hello = new byte[WireCodec.HELLO_BYTES];
+        int got = 0;
+        socket.setSoTimeout(HELLO_TIMEOUT_MS);
+        try {
+            while (got < hello.length) {
+                int n = in.read(hello, got, hello.length - got);
+                if (n < 0) throw new IOException("Closed during hello");
+                got += n;
+            }
+        } catch (SocketTimeoutException e) {
+            // Phone did not offer one
+        } finally {
+            socket.setSoTimeout(0);
+        }
+        if (!config.framedFirmware) return WireCodec.CODEC_LEGACY;
+        int offered = WireCodec.parseHello(hello, got);
+        if (offered == WireCodec.CODEC_LEGACY) return WireCodec.CODEC_LEGACY;
+        out.write(WireCodec.hello(offered));
+        out.flush();
+        return offered;
+    }
+
+    // --- ESP1mic ---
+
+    private void serveMic(Socket socket) {
+        ShapedLink link = null;
+        try {
+            InputStream in = socket.getInputStream();
+            OutputStream raw = socket.getOutputStream();
+            int codec = acceptHello(socket, in, raw);
+            link = new ShapedLink("sim-mic-link", config.uplink, raw::write, randomSeed());
+            OutputStream linkOut = link.asOutputStream();
+            OutputStream audioOut = codec == WireCodec.CODEC_LEGACY ? linkOut : new FramedAudioOutputStream(linkOut, codec, config.micChunkSamples);
+            int chunk = config.micChunkSamples;
+            int wireBytes = codec == WireCodec.CODEC_LEGACY ? 4 : 2;
+            short[] pcm = new short[chunk];
+            byte[] bytes = new byte[chunk * wireBytes];
+            long periodNanos = (long) (chunk * 1e9 / (config.sampleRate * (1 + config.micClockPpm / 1e6)));
+            long dmaNanos = (long) config.i2sDmaSamples * 1_000_000_000L / config.sampleRate;
+            long next = System.nanoTime() + periodNanos;
+            while (running && !socket.isClosed()) {
+                if (!parkUntil(next)) break;
+                long now = System.nanoTime();
+                if (now - next > dmaNanos) next = now; // I2S DMA overflowed while the socket blocked: that audio is gone
+                if (config.micSignal != null) config.micSignal.fill(pcm, chunk, next - periodNanos);
+                if (codec == WireCodec.CODEC_LEGACY) {
+                    for (int i = 0; i < chunk; i++) { int w = pcm[i] << 16; bytes[4 * i] = (byte) w; bytes[4 * i + 1] = (byte) (w >> 8); bytes[4 * i + 2] = (byte) (w >> 16); bytes[4 * i + 3] = (byte) (w >> 24); }
+                } else {
+                    for (int i = 0; i < chunk; i++) { bytes[2 * i] = (byte) pcm[i]; bytes[2 * i + 1] = (byte) (pcm[i] >> 8); }
+                }
+                audioOut.write(bytes, 0, bytes.length);
+                micChunksSent.incrementAndGet();
+                next += periodNanos;
+            }
+        } catch (IOException e) {
+            // Phone went away
+        } finally {
+            if (link != null) link.close();
+            closeQuietly(socket);
+        }
+    }
+
+    // --- ESP1mic UDP ---
+
+    // A hello datagram (re)subscribes its sender, like the firmware
+    private void receiveMicHellos() {
+        byte[] buffer = new byte[64];
+        DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+        while (running) {
+            try { micUdp.receive(packet); } catch (IOException e) { return; }
+            int codec = WireCodec.parseHello(buffer, Math.min(packet.getLength(), WireCodec.HELLO_BYTES));
+            if (codec == WireCodec.CODEC_LEGACY) continue;
+            micSubscriberCodec = codec;
+            micSubscriberFecGroup = AudioPacket.subscribedFecGroup(buffer, packet.getLength());
+            micSubscriberFecDepth = AudioPacket.subscribedFecDepth(buffer, packet.getLength());
+            micSubscribedNanos = System.nanoTime();
+            micSubscriber = packet.getSocketAddress();
+        }
+    }
+
+    private boolean micSubscribed() {
+        return micSubscriber != null && System.nanoTime() - micSubscribedNanos < AudioPacket.SUBSCRIPTION_TIMEOUT_MS * 1_000_000L;
+    }
+
+    private void serveMicUdp() {
+        int chunk = config.micChunkSamples;
+        short[] pcm = new short[chunk];
+        byte[] bytes = new byte[chunk * 2];
+        long periodNanos = (long) (chunk * 1e9 / (config.sampleRate * (1 + config.micClockPpm / 1e6)));
+        DatagramLink link = new DatagramLink("sim-mic-udp-link", config.uplink, (b, off, len) -> {
+            SocketAddress to = micSubscriber;
+            if (to != null) micUdp.send(new DatagramPacket(b, off, len, to));
+        }, randomSeed());
+        try {
+            while (running) {
+                if (!micSubscribed()) {
+                    if (!parkUntil(System.nanoTime() + 10_000_000L)) return;
+                    continue;
+                }
+                SocketAddress subscriber = micSubscriber;
+                int codec = micSubscriberCodec;
+                int fecGroup = micSubscriberFecGroup;
+                int fecDepth = micSubscriberFecDepth;
+                OutputStream packets = fecGroup > 0 ? new ParityFecOutputStream(link.asOutputStream(), fecGroup, fecDepth) : link.asOutputStream();
+                AudioPacketOutputStream audioOut = new AudioPacketOutputStream(packets, codec, chunk);
+                long next = System.nanoTime() + periodNanos;
+                while (running && micSubscribed() && subscriber.equals(micSubscriber) && codec == micSubscriberCodec && fecGroup == micSubscriberFecGroup && fecDepth == micSubscriberFecDepth) {
+                    if (!parkUntil(next)) return;
+                    if (config.micSignal != null) config.micSignal.fill(pcm, chunk, next - periodNanos);
+                    for (int i = 0; i < chunk; i++) { bytes[2 * i] = (byte) pcm[i]; bytes[2 * i + 1] = (byte) (pcm[i] >> 8); }
+                    audioOut.write(bytes, 0, bytes.length); // Never blocks: a full link drops
+                    micChunksSent.incrementAndGet();
+                    next += periodNanos;
+                }
+            }
+        } catch (IOException e) {
+            // Socket closed
+        } finally {
+            link.close();
+        }
+    }
+
+    // --- ESP2speaker audio ---
+
+    private void serveSpeaker(Socket socket) {
+        ShapedLink link = null;
+        try {
+            InputStream in = socket.getInputStream();
+            int codec = acceptHello(socket, in, socket.getOutputStream());
+            SpeakerPlayer player = new SpeakerPlayer(codec);
+            link = new ShapedLink("sim-speaker-link", config.downlink, player::play, randomSeed());
+            byte[] buffer = new byte[4096];
+            int n;
+            while (running && (n = in.read(buffer)) >= 0) {
+                link.send(buffer, 0, n); // Blocks while the DMA buffer is full
+            }
+        } catch (IOException e) {
+            // Phone went away
+        } finally {
+            if (link != null) link.close();
+            closeQuietly(socket);
+        }
+    }
+
+    // --- ESP2speaker UDP ---
+
+    private void serveSpeakerUdp() {
+        SpeakerPlayer player = new SpeakerPlayer(WireCodec.CODEC_PCM16);
+        DatagramLink link = new DatagramLink("sim-speaker-udp-link", config.downlink, player::playPacket, randomSeed());
+        byte[] buffer = new byte[AudioPacket.MAX_PACKET_BYTES];
+        DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+        try {
+            while (running) {
+                speakerUdp.receive(packet);
+                link.send(buffer, 0, packet.getLength());
+            }
+        } catch (IOException e) {
+            // Socket closed
+        } finally {
+            link.close();
+        }
+    }
+
+    private final class SpeakerPlayer {
+        private final FrameDecoder decoder;
+        private final DmaBuffer dma = new DmaBuffer(config.sampleRate, config.i2sDmaSamples);
+        private final byte[] decoded = new byte[FrameDecoder.maxDecodedBytes(4096)];
+        private final short[] pcm = new short[256];
+        private int carry = -1; // Odd byte of the legacy PCM16 stream
+        private final byte[][] held = new byte[SPEAKER_REORDER_SLOTS][AudioPacket.MAX_PACKET_BYTES];
+        private final boolean[] heldUsed = new boolean[SPEAKER_REORDER_SLOTS];
+        private boolean packetsStarted = false;
+        private int expectedSeq;
+        private boolean paused = false; // Comfort-noise marker seen, audio not back yet
+
+        SpeakerPlayer(int codec) { this.decoder = codec == WireCodec.CODEC_LEGACY ? null : new FrameDecoder(); }
+
+        void play(byte[] src, int off, int len) {
+            int bytes;
+            if (decoder != null) {
+                long markers = decoder.getComfortNoiseMarkers();
+                bytes = decoder.decode(src, off, len, decoded, 0);
+                if (decoder.getComfortNoiseMarkers() != markers) {
+                    output(bytes); // Audio ahead of the marker, then the announced silence
+                    comfortNoiseMarkers.addAndGet(decoder.getComfortNoiseMarkers() - markers);
+                    pause();
+                    return;
+                }
+            } else {
+                bytes = 0;
+                if (carry >= 0 && len > 0) { decoded[bytes++] = (byte) carry; carry = -1; }
+                System.arraycopy(src, off, decoded, bytes, len);
+                bytes += len;
+                if ((bytes & 1) != 0) carry = decoded[--bytes] & 0xFF;
+            }
+            output(bytes);
+        }
+
+        // Sequence order with a few packets held ahead of a gap, then the gap is skipped: what ESP2speaker.ino does
+        void playPacket(byte[] src, int off, int len) {
+            if (!AudioPacket.isValid(src, off, len) && !AudioPacket.isComfortNoise(src, off, len)) return;
+            int seq = AudioPacket.seq(src, off);
+            int distance = AudioPacket.seqDistance(seq, expectedSeq);
+            if (!packetsStarted || distance > 64 || distance < -64) {
+                packetsStarted = true;
+                expectedSeq = seq;
+                Arrays.fill(heldUsed, false);
+                distance = 0;
+            }
+            if (distance < 0) { lateDatagrams.incrementAndGet(); return; }
+            if (distance == 0) { playInOrder(src, off); drainHeld(); return; }
+            int slot = -1;
+            for (int i = 0; i < held.length; i++) {
+                if (!heldUsed[i]) { if (slot < 0) slot = i; continue; }
+                if (AudioPacket.seq(held[i], 0) == seq) { lateDatagrams.incrementAndGet(); return; }
+            }
+            if (slot < 0) {
+                int oldest = 0;
+                for (int i = 1; i < held.length; i++) if (AudioPacket.seqDistance(AudioPacket.seq(held[i], 0), AudioPacket.seq(held[oldest], 0)) < 0) oldest = i;
+                expectedSeq = AudioPacket.seq(held[oldest], 0);
+                drainHeld();
+                playPacket(src, off, len);
+                return;
+            }
+            System.arraycopy(src, off, held[slot], 0, len);
+            heldUsed[slot] = true;
+        }
+
+        private void drainHeld() {
+            for (int i = 0; i < held.length; i++) {
+                if (heldUsed[i] && AudioPacket.seq(held[i], 0) == expectedSeq) {
+                    heldUsed[i] = false;
+                    playInOrder(held[i], 0);
+                    i = -1;
+                }
+            }
+        }
+
+        private void playInOrder(byte[] src, int off) {
+            expectedSeq = (AudioPacket.seq(src, off) + 1) & 0xFFFF;
+            if (AudioPacket.codec(src, off) == WireCodec.CODEC_COMFORT_NOISE) { comfortNoiseMarkers.incrementAndGet(); pause(); return; }
+            output(WireCodec.decodePayload(AudioPacket.codec(src, off), src, off + AudioPacket.HEADER_BYTES, AudioPacket.samples(src, off), decoded, 0));
+        }
+
+        private void pause() {
+            dma.idle();
+            paused = true;
+        }
+
+        private void output(int bytes) {
+            if (paused && bytes > 0) { // The DMA ran dry: rebuild the cushion the stream had before playing on
+                paused = false;
+                if (dma.write(config.sampleRate / 1000 * SPEAKER_RESUME_CUSHION_MS) < 0) return;
+            }
+            for (int p = 0; p < bytes; ) {
+                int n = Math.min(pcm.length, (bytes - p) / 2);
+                for (int i = 0; i < n; i++, p += 2) pcm[i] = (short) ((decoded[p] & 0xFF) | (decoded[p + 1] << 8));
+                long playNanos = dma.write(n);
+                if (playNanos < 0) return;
+                speakerSamplesPlayed.addAndGet(n);
+                SpeakerTap tap = config.speakerTap;
+                if (tap != null) tap.onPlayed(pcm, n, playNanos);
+            }
+            speakerUnderruns.set(dma.getUnderruns());
+        }
+    }
+
+    /**
+     * Output device model: a buffer of {@code capacitySamples} drained at the sample rate. Also
+     * used by the benchmark for the phone's AudioTrack.
+     */
+    public static final class DmaBuffer {
+        private final long nanosPerSample;
+        private final long capacityNanos;
+        private long playedUntilNanos = 0;
+        private long underruns = 0;
+        private boolean idle = false; // The sender announced silence: the next gap is not an underrun
+
+        public DmaBuffer(int sampleRate, int capacitySamples) {
+            this.nanosPerSample = 1_000_000_000L / sampleRate;
+            this.capacityNanos = capacitySamples * nanosPerSample;
+        }
+
+        /** Blocks until {@code samples} fit; returns when the first of them is heard, or -1 if interrupted. */
+        public synchronized long write(int samples) {
+            long duration = samples * nanosPerSample;
+            long now = System.nanoTime();
+            if (playedUntilNanos < now) {
+                if (playedUntilNanos != 0 && !idle) underruns++;
+                playedUntilNanos = now;
+            }
+            idle = false;
+            if (!parkUntil(playedUntilNanos + duration - capacityNanos)) return -1;
+            long start = playedUntilNanos;
+            playedUntilNanos += duration;
+            return start;
+        }
+
+        /** Marks the end of the audio until the next write, like a comfort-noise marker does. */
+        public synchronized void idle() { idle = true; }
+
+        public synchronized long getUnderruns() { return underruns; }
+    }
+
+    // --- ESP2speaker control ---
+
+    private void serveControl(Socket socket) {
+        ShapedLink link = null;
+        try {
+            InputStream in = socket.getInputStream();
+            OutputStream out = socket.getOutputStream();
+            ControlPeer peer = new ControlPeer(out);
+            link = new ShapedLink("sim-control-link", config.downlink, peer::feed, randomSeed());
+            byte[] buffer = new byte[512];
+            int n;
+            while (running && (n = in.read(buffer)) >= 0) link.send(buffer, 0, n);
+        } catch (IOException e) {
+            // Phone went away
+        } finally {
+            if (link != null) link.close();
+            closeQuietly(socket);
+        }
+    }
+
+    private final class ControlPeer {
+        private final OutputStream out;
+        private final StringBuilder line = new StringBuilder();
+        private final byte[] rx = new byte[ControlProtocol.MAX_FRAME_BYTES];
+        private final byte[] ack = new byte[ControlProtocol.MAX_FRAME_BYTES];
+        private final byte[] ackPayload = new byte[2];
+        private boolean binary = false;
+        private int rxFill = 0;
+        private int rxNeeded = ControlProtocol.HEADER_BYTES;
+
+        ControlPeer(OutputStream out) { this.out = out; }
+
+        void feed(byte[] src, int off, int len) throws IOException {
+            for (int i = off; i < off + len; i++) {
+                byte b = src[i];
+                if (!binary) {
+                    if (b != '\n') { line.append((char) b); continue; }
+                    String command = line.toString().trim();
+                    line.setLength(0);
+                    if (command.equals(ControlProtocol.HELLO_LINE) && config.binaryControl) {
+                        out.write((ControlProtocol.HELLO_LINE + "\n").getBytes(StandardCharsets.US_ASCII));
+                        out.flush();
+                        binary = true;
+                    } else if (!command.isEmpty()) {
+                        controlCommands.incrementAndGet();
+                    }
+                    continue;
+                }
+                if (rxFill == 0 && (b & 0xFF) != ControlProtocol.SYNC) continue;
+                rx[rxFill++] = b;
+                if (rxFill < rxNeeded) continue;
+                if (rxNeeded == ControlProtocol.HEADER_BYTES) {
+                    int plen = rx[4] & 0xFF;
+                    if (plen > ControlProtocol.MAX_PAYLOAD) { rxFill = 0; continue; }
+                    rxNeeded = ControlProtocol.HEADER_BYTES + plen + 1;
+                    continue;
+                }
+                int x = 0;
+                for (int k = 0; k < rxNeeded - 1; k++) x ^= rx[k];
+                if ((byte) x == rx[rxNeeded - 1]) answer(rx[1] & 0xFF, (rx[2] & 0xFF) | ((rx[3] & 0xFF) << 8), rx[4] & 0xFF);
+                rxFill = 0;
+                rxNeeded = ControlProtocol.HEADER_BYTES;
+            }
+        }
+
+        private void answer(int opcode, int seq, int plen) throws IOException {
+            int p = ControlProtocol.HEADER_BYTES;
+            int status = ControlProtocol.STATUS_OK;
+            switch (opcode) {
+                case ControlProtocol.OP_SERVO: if (plen < 2 || (rx[p] != 1 && rx[p] != 2) || (rx[p + 1] & 0xFF) > 180) status = ControlProtocol.STATUS_BAD_ARGUMENT; break;
+                case ControlProtocol.OP_VOLUME: if (plen < 1 || (rx[p] & 0xFF) > 100) status = ControlProtocol.STATUS_BAD_ARGUMENT; break;
+                case ControlProtocol.OP_FORMAT: if (plen < 1 || !WireCodec.isSupported(rx[p])) status = ControlProtocol.STATUS_UNSUPPORTED; break;
+                case ControlProtocol.OP_PING: break;
+                default: status = ControlProtocol.STATUS_UNSUPPORTED; break;
+            }
+            if (opcode != ControlProtocol.OP_PING) controlCommands.incrementAndGet();
+            ackPayload[0] = (byte) opcode;
+            ackPayload[1] = (byte) status;
+            int n = ControlProtocol.encodeFrame(ack, 0, ControlProtocol.OP_ACK, seq, ackPayload, 2);
+            synchronized (out) { out.write(ack, 0, n); out.flush(); }
+        }
+    }
+
+    // --- Link shaping ---
+
+    private synchronized long randomSeed() { return random.nextLong(); }
+
+    /**
+     * One degraded direction of a TCP connection: writes are queued with a release time and
+     * delivered in order by a thread. The queue is bounded, so a slow consumer blocks the writer.
+     */
+    private final class ShapedLink {
+        private final LinkProfile profile;
+        private final Sink sink;
+        private final Random random;
+        private final ArrayDeque<Object[]> queue = new ArrayDeque<>(); // {byte[], Long release}; guarded by this
+        private final LossModel loss;
+        private final Thread thread;
+        private int queuedBytes = 0;
+        private long lastReleaseNanos = 0;
+        private long lastTxEndNanos = 0;
+        private volatile boolean closed = false;
+
+        ShapedLink(String name, LinkProfile profile, Sink sink, long seed) {
+            this.profile = profile;
+            this.sink = sink;
+            this.random = new Random(seed);
+            this.loss = new LossModel(profile);
+            this.thread = startThread(name, this::run);
+        }
+
+        OutputStream asOutputStream() {
+            return new OutputStream() {
+                @Override public void write(int b) throws IOException { send(new byte[] { (byte) b }, 0, 1); }
+                @Override public void write(byte[] b, int off, int len) throws IOException { send(b, off, len); }
+            };
+        }
+
+        synchronized void send(byte[] b, int off, int len) throws IOException {
+            while (!closed && queuedBytes > 0 && queuedBytes + len > LINK_QUEUE_BYTES) {
+                try { wait(); } catch (InterruptedException e) { Thread.currentThread().interrupt(); throw new IOException("Interrupted"); }
+            }
+            if (closed) throw new IOException("Link closed");
+            long now = System.nanoTime();
+            long release = now + profile.baseDelayMs * 1_000_000L;
+            if (profile.jitterMs > 0) release += (long) (random.nextDouble() * profile.jitterMs * 1_000_000L);
+            if (loss.lose(random)) {
+                release += profile.retransmitMs * 1_000_000L;
+                lostSegments.incrementAndGet();
+            }
+            if (profile.bandwidthBytesPerSecond > 0) {
+                lastTxEndNanos = Math.max(now, lastTxEndNanos) + len * 1_000_000_000L / profile.bandwidthBytesPerSecond;
+                release = Math.max(release, lastTxEndNanos);
+            }
+            release = Math.max(release, lastReleaseNanos); // TCP delivers in order
+            lastReleaseNanos = release;
+            byte[] copy = new byte[len];
+            System.arraycopy(b, off, copy, 0, len);
+            queue.add(new Object[] { copy, release });
+            queuedBytes += len;
+            notifyAll();
+        }
+
+        private void run() {
+            try {
+                while (true) {
+                    Object[] head;
+                    synchronized (this) {
+                        while (!closed && queue.isEmpty()) wait();
+                        if (closed) return;
+                        head = queue.peek();
+                    }
+                    if (!parkUntil((Long) head[1])) return;
+                    byte[] data = (byte[]) head[0];
+                    sink.deliver(data, 0, data.length);
+                    synchronized (this) {
+                        queue.poll();
+                        queuedBytes -= data.length;
+                        notifyAll();
+                    }
+                }
+            } catch (IOException | InterruptedException e) {
+                close();
+            }
+        }
+
+        void close() {
+            synchronized (this) {
+                closed = true;
+                notifyAll();
+            }
+            if (Thread.currentThread() != thread) thread.interrupt();
+        }
+    }
+
+    /**
+     * One degraded direction of a UDP flow: each datagram is lost, delayed or dropped on its own.
+     * Jitter reorders, and datagrams that would wait longer than the link queue allows behind the
+     * bandwidth budget are tail-dropped; the sender never blocks.
+     */
+    private final class DatagramLink {
+        private final LinkProfile profile;
+        private final Sink sink;
+        private final Random random;
+        private final PriorityQueue<Object[]> queue = new PriorityQueue<>((a, b) -> Long.compare((Long) a[1], (Long) b[1])); // {byte[], Long release}; guarded by this
+        private final LossModel loss;
+        private final Thread thread;
+        private long lastTxEndNanos = 0;
+        private volatile boolean closed = false;
+
+        DatagramLink(String name, LinkProfile profile, Sink sink, long seed) {
+            this.profile = profile;
+            this.sink = sink;
+            this.random = new Random(seed);
+            this.loss = new LossModel(profile);
+            this.thread = startThread(name, this::run);
+        }
+
+        OutputStream asOutputStream() {
+            return new OutputStream() {
+                @Override public void write(int b) throws IOException { send(new byte[] { (byte) b }, 0, 1); }
+                @Override public void write(byte[] b, int off, int len) throws IOException { send(b, off, len); }
+            };
+        }
+
+        synchronized void send(byte[] b, int off, int len) throws IOException {
+            if (closed) throw new IOException("Link closed");
+            long now = System.nanoTime();
+            if (loss.lose(random)) { droppedDatagrams.incrementAndGet(); return; }
+            long release = now + profile.baseDelayMs * 1_000_000L;
+            if (profile.jitterMs > 0) release += (long) (random.nextDouble() * profile.jitterMs * 1_000_000L);
+            if (profile.bandwidthBytesPerSecond > 0) {
+                long txEnd = Math.max(now, lastTxEndNanos) + len * 1_000_000_000L / profile.bandwidthBytesPerSecond;
+                if (txEnd - now > LINK_QUEUE_BYTES * 1_000_000_000L / profile.bandwidthBytesPerSecond) { droppedDatagrams.incrementAndGet(); return; }
+                lastTxEndNanos = txEnd;
+                release = Math.max(release, txEnd);
+            }
+            byte[] copy = new byte[len];
+            System.arraycopy(b, off, copy, 0, len);
+            queue.add(new Object[] { copy, release });
+            notifyAll();
+        }
+
+        private void run() {
+            try {
+                while (true) {
+                    byte[] data;
+                    synchronized (this) {
+                        while (!closed && queue.isEmpty()) wait();
+                        if (closed) return;
+                        long wait = (Long) queue.peek()[1] - System.nanoTime();
+                        if (wait > 0) { wait(wait / 1_000_000L, (int) (wait % 1_000_000L)); continue; } // An earlier datagram may arrive meanwhile
+                        data = (byte[]) queue.poll()[0];
+                    }
+                    sink.deliver(data, 0, data.length);
+                }
+            } catch (IOException | InterruptedException e) {
+                close();
+            }
+        }
+
+        void close() {
+            synchronized (this) {
+                closed = true;
+                notifyAll();
+            }
+            if (Thread.currentThread() != thread) thread.interrupt();
+        }
+    }
+
+    private interface Sink {
+        void deliver(byte[] b, int off, int len) throws IOException;
+    }
+
+    /** Sleeps until {@code deadlineNanos}; false if interrupted. */
+    static boolean parkUntil(long deadlineNanos) {
+        long wait;
+        while ((wait = deadlineNanos - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(wait);
+            if (Thread.currentThread().isInterrupted()) return false;
+        }
+        return true;
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        closeQuietly(micServer);
+        closeQuietly(speakerServer);
+        closeQuietly(controlServer);
+        closeQuietly(micUdp);
+        closeQuietly(speakerUdp);
+        dropClients();
+    }
+
+    public int getMicPort() { return micServer.getLocalPort(); }
+    public int getSpeakerPort() { return speakerServer.getLocalPort(); }
+    public int getControlPort() { return controlServer.getLocalPort(); }
+    public long getMicChunksSent() { return micChunksSent.get(); }
+    public long getSpeakerSamplesPlayed() { return speakerSamplesPlayed.get(); }
+    public long getSpeakerUnderruns() { return speakerUnderruns.get(); }
+    public long getControlCommands() { return controlCommands.get(); }
+    public long getLostSegments() { return lostSegments.get(); }
+    public long getDroppedDatagrams() { return droppedDatagrams.get(); }
+    public long getLateDatagrams() { return lateDatagrams.get(); }
+    public long getComfortNoiseMarkers() { return comfortNoiseMarkers.get(); }
+
+    /**
+     * Runs both boards on the real ports so the app can be pointed at this machine.
+     * Options: --loss PCT, --burst WRITES, --jitter MS, --bandwidth BYTES_PER_S, --delay MS, --legacy, --text-control, --no-udp.
+     */
+    public static void main(String[] args) throws Exception {
+        Config config = new Config();
+        config.bindAddress = InetAddress.getByName("0.0.0.0");
+        double loss = 0;
+        double burst = 1;
+        int jitter = 0;
+        int delay = 0;
+        long bandwidth = 0;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--loss": loss = Double.parseDouble(args[++i]); break;
+                case "--burst": burst = Double.parseDouble(args[++i]); break;
+                case "--jitter": jitter = Integer.parseInt(args[++i]); break;
+                case "--bandwidth": bandwidth = Long.parseLong(args[++i]); break;
+                case "--delay": delay = Integer.parseInt(args[++i]); break;
+                case "--legacy": config.framedFirmware = false; break;
+                case "--text-control": config.binaryControl = false; break;
+                case "--no-udp": config.udpAudio = false; break;
+                default: throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+        config.uplink = config.downlink = new LinkProfile(loss, jitter, bandwidth, delay, 200, burst);
+        double step = 2 * Math.PI * 440 / config.sampleRate;
+        double[] phase = new double[1];
+        config.micSignal = (pcm, samples, firstSampleNanos) -> {
+            for (int i = 0; i < samples; i++) { pcm[i] = (short) (Math.sin(phase[0]) * 6000); phase[0] += step; }
+        };
+        try (Esp32Simulator simulator = new Esp32Simulator(config)) {
+            simulator.start();
+            System.out.println("ESP32 simulator on ports " + simulator.getMicPort() + "/" + simulator.getSpeakerPort() + "/" + simulator.getControlPort() + ", links: " + config.uplink);
+            while (true) {
+                Thread.sleep(1000);
+                System.out.println("mic chunks=" + simulator.getMicChunksSent() + " speaker samples=" + simulator.getSpeakerSamplesPlayed()
+                        + " underruns=" + simulator.getSpeakerUnderruns() + " control=" + simulator.getControlCommands() + " lost=" + simulator.getLostSegments() + " dropped datagrams=" + simulator.getDroppedDatagrams());
+            }
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.example.audio;
+
+/**
+ * Incremental parser for framed wire audio (see {@link WireCodec}). Accepts socket reads of any
+ * size, keeps partial frames in a preallocated buffer and emits little-endian PCM16. Comfort-noise
+ * markers produce no PCM; they are counted and their level kept.
+ */
+public class FrameDecoder {
+
+    private final byte[] frame = new byte[WireCodec.MAX_FRAME_BYTES];
+    private int fill = 0;
+    private int needed = WireCodec.FRAME_HEADER_BYTES;
+    private int codec;
+    private int samples;
+
+    private long framesDecoded = 0;
+    private long badFrames = 0;
+    private long skippedBytes = 0;
+    private long comfortNoiseMarkers = 0;
+    private int comfortNoiseRms = 0;
+
+    /** Worst-case PCM output for {@code inputLen} bytes of input (ADPCM expands ~4x). */
+    public static int maxDecodedBytes(int inputLen) {
+        return (inputLen + WireCodec.MAX_FRAME_BYTES) * 4;
+    }
+
+    /** Consumes {@code len} bytes and returns the number of PCM bytes written to {@code pcm}. */
+    public int decode(byte[] src, int off, int len, byte[] pcm, int pcmOff) {
+        int o = pcmOff;
+        while (len > 0) {
+            if (fill == 0 && (src[off] & 0xFF) != WireCodec.FRAME_SYNC) {
+                off++;
+                len--;
+                skippedBytes++;
+                continue;
+            }
+            int n = Math.min(len, needed - fill);
+            System.arraycopy(src, off, frame, fill, n);
+            fill += n;
+            off += n;
+            len -= n;
+            if (fill < needed) break;
+
+            if (needed == WireCodec.FRAME_HEADER_BYTES) {
+                codec = frame[1] & 0xFF;
+                samples = (frame[2] & 0xFF) | ((frame[3] & 0xFF) << 8);
+                int payload = (frame[4] & 0xFF) | ((frame[5] & 0xFF) << 8);
+                if (WireCodec.isComfortNoise(codec, samples, payload)) {
+                    needed = WireCodec.FRAME_HEADER_BYTES + payload;
+                    continue;
+                }
+                if (!WireCodec.isSupported(codec) || samples == 0 || samples > WireCodec.MAX_FRAME_SAMPLES
+                        || payload != WireCodec.payloadBytes(codec, samples)) {
+                    badFrames++;
+                    skippedBytes++; // Not a header after all: resync past the false sync byte only
+                    System.arraycopy(frame, 1, frame, 0, --fill);
+                    resync();
+                    continue;
+                }
+                needed = WireCodec.FRAME_HEADER_BYTES + payload;
+                continue;
+            }
+
+            if (codec == WireCodec.CODEC_COMFORT_NOISE) {
+                comfortNoiseRms = WireCodec.comfortNoiseRms(frame, WireCodec.FRAME_HEADER_BYTES);
+                comfortNoiseMarkers++;
+            } else {
+                o += WireCodec.decodePayload(codec, frame, WireCodec.FRAME_HEADER_BYTES, samples, pcm, o);
+                framesDecoded++;
+            }
+            fill = 0;
+            needed = WireCodec.FRAME_HEADER_BYTES;
+        }
+        return o - pcmOff;
+    }
+
+    // Keeps only the held bytes from the next sync byte on, which may be the real frame's
+    private void resync() {
+        int i = 0;
+        while (i < fill && (frame[i] & 0xFF) != WireCodec.FRAME_SYNC) i++;
+        skippedBytes += i;
+        System.arraycopy(frame, i, frame, 0, fill - i);
+        fill -= i;
+    }
+
+    public void reset() {
+        fill = 0;
+        needed = WireCodec.FRAME_HEADER_BYTES;
+    }
+
+    public long getFramesDecoded() { return framesDecoded; }
+    public long getBadFrames() { return badFrames; }
+    public long getSkippedBytes() { return skippedBytes; }
+    public long getComfortNoiseMarkers() { return comfortNoiseMarkers; }
+    /** Background level of the last comfort-noise marker, PCM16 RMS. */
+    public int getComfortNoiseRms() { return comfortNoiseRms; }
+}
@@ -0,0 +1,126 @@
+package com.example.audio;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Accepts little-endian PCM16 and writes it as encoded frames (see {@link WireCodec}).
+ * Writes are synchronized so the mic sender and the melody sender can share one socket
+ * without splitting a frame.
+ */
+public class FramedAudioOutputStream extends OutputStream {
+
+    private final OutputStream out;
+    private final int codec;
+    private final int frameBytes;
+    private final byte[] pcm;
+    private final byte[] frame;
+    private final byte[] marker;
+    private final int headerBytes;
+    private final ImaAdpcmCodec adpcm = new ImaAdpcmCodec();
+    private int fill = 0;
+
+    public FramedAudioOutputStream(OutputStream out, int codec, int frameSamples) {
+        this(out, codec, frameSamples, WireCodec.FRAME_HEADER_BYTES);
+    }
+
+    /** For other framings of the same payloads; subclasses write the header in {@link #writeHeader}. */
+    protected FramedAudioOutputStream(OutputStream out, int codec, int frameSamples, int headerBytes) {
+        if (!WireCodec.isSupported(codec)) throw new IllegalArgumentException("Unsupported codec: " + codec);
+        if (frameSamples <= 0 || frameSamples > WireCodec.MAX_FRAME_SAMPLES) throw new IllegalArgumentException("Invalid frame size: " + frameSamples);
+        this.out = out;
+        this.codec = codec;
+        this.frameBytes = frameSamples * 2;
+        this.pcm = new byte[frameBytes];
+        this.headerBytes = headerBytes;
+        this.frame = new byte[headerBytes + WireCodec.payloadBytes(codec, frameSamples)];
+        this.marker = new byte[headerBytes + WireCodec.COMFORT_NOISE_PAYLOAD_BYTES];
+    }
+
+    public int getCodec() { return codec; }
+
+    @Override
+    public synchronized void write(int b) throws IOException {
+        pcm[fill++] = (byte) b;
+        if (fill == frameBytes) writeFrame(frameBytes);
+    }
+
+    @Override
+    public synchronized void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            int n = Math.min(len, frameBytes - fill);
+            System.arraycopy(b, off, pcm, fill, n);
+            fill += n;
+            off += n;
+            len -= n;
+            if (fill == frameBytes) writeFrame(frameBytes);
+        }
+    }
+
+    /** Sends any buffered whole samples as a short frame, then flushes the socket. */
+    @Override
+    public synchronized void flush() throws IOException {
+        int whole = fill & ~1;
+        if (whole > 0) {
+            writeFrame(whole);
+        }
+        out.flush();
+    }
+
+    private void writeFrame(int bytes) throws IOException {
+        int samples = bytes / 2;
+        int payload;
+        int p = headerBytes;
+        switch (codec) {
+            case WireCodec.CODEC_ULAW:
+                payload = MuLawCodec.encode(pcm, 0, samples, frame, p);
+                break;
+            case WireCodec.CODEC_IMA_ADPCM:
+                payload = adpcm.encode(pcm, 0, samples, frame, p);
+                break;
+            default:
+                System.arraycopy(pcm, 0, frame, p, bytes);
+                payload = bytes;
+                break;
+        }
+        writeHeader(frame, codec, samples, payload);
+        out.write(frame, 0, p + payload); // One write per frame
+        // Keep an odd trailing byte (only possible after flush) for the next frame
+        int rest = fill - bytes;
+        if (rest > 0) System.arraycopy(pcm, bytes, pcm, 0, rest);
+        fill = rest;
+    }
+
+    /**
+     * Stands in for {@code samples} of suppressed silence, between whole frames: the first call of
+     * a silent stretch ({@code start}) sends a comfort-noise marker with the background level
+     * {@code noiseRms}, later ones send nothing.
+     */
+    public synchronized void writeSilence(int samples, int noiseRms, boolean start) throws IOException {
+        if (start) {
+            int rms = Math.max(0, Math.min(0xFFFF, noiseRms));
+            writeHeader(marker, WireCodec.CODEC_COMFORT_NOISE, 0, WireCodec.COMFORT_NOISE_PAYLOAD_BYTES);
+            marker[headerBytes] = (byte) rms;
+            marker[headerBytes + 1] = (byte) (rms >> 8);
+            out.write(marker, 0, marker.length);
+        }
+        onSilence(samples);
+    }
+
+    /** Fills {@code frame[0 .. headerBytes)} for a frame of {@code samples} samples. */
+    protected void writeHeader(byte[] frame, int codec, int samples, int payloadBytes) {
+        WireCodec.writeHeader(frame, 0, codec, samples, payloadBytes);
+    }
+
+    /** Called with the samples a silent stretch skipped; framings with a media clock advance it. */
+    protected void onSilence(int samples) {}
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            out.close();
+        }
+    }
+}
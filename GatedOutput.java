@@ -0,0 +1,60 @@
+package com.example.audio;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * {@link AudioOutput} that can be shut. While open, writes go through to the device. While shut,
+ * they are dropped and paced by the system clock instead, so the {@link PlayoutLoop} in front
+ * keeps draining the jitter buffer (and feeding its analysis ring) in real time while the device
+ * itself is paused. The pause and resume hooks run on the writing thread, at the first write
+ * after a change.
+ */
+public class GatedOutput implements AudioOutput {
+
+    private static final long MAX_LAG_NANOS = 100_000_000L; // Further behind the clock than this, resync
+
+    private final AudioOutput device;
+    private final int bytesPerSecond;
+    private final Runnable pauseDevice;
+    private final Runnable resumeDevice;
+    private volatile boolean open;
+    private boolean deviceOpen = true; // As the writing thread last left it
+    private long nextDueNanos = 0;
+    private volatile long bytesDropped = 0;
+
+    /** {@code pauseDevice} and {@code resumeDevice} may be null; the device is assumed running at first. */
+    public GatedOutput(AudioOutput device, int sampleRate, int bytesPerSample, boolean open, Runnable pauseDevice, Runnable resumeDevice) {
+        this.device = device;
+        this.bytesPerSecond = sampleRate * bytesPerSample;
+        this.open = open;
+        this.pauseDevice = pauseDevice;
+        this.resumeDevice = resumeDevice;
+    }
+
+    /** Opens or shuts the gate from any thread; takes effect at the next write. */
+    public void setOpen(boolean open) { this.open = open; }
+    public boolean isOpen() { return open; }
+    public long getBytesDropped() { return bytesDropped; }
+
+    @Override
+    public int write(byte[] data, int off, int len) {
+        boolean wanted = open;
+        if (wanted != deviceOpen) {
+            deviceOpen = wanted;
+            if (wanted) {
+                if (resumeDevice != null) resumeDevice.run();
+            } else {
+                if (pauseDevice != null) pauseDevice.run();
+                nextDueNanos = System.nanoTime();
+            }
+        }
+        if (deviceOpen) return device.write(data, off, len);
+
+        nextDueNanos += len * 1_000_000_000L / bytesPerSecond;
+        long wait;
+        while ((wait = nextDueNanos - System.nanoTime()) > 0 && !Thread.currentThread().isInterrupted()) LockSupport.parkNanos(this, wait);
+        if (-wait > MAX_LAG_NANOS) nextDueNanos = System.nanoTime(); // Descheduled for a while: do not burst to catch up
+        bytesDropped += len;
+        return len;
+    }
+}
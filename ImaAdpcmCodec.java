@@ -0,0 +1,98 @@
+package com.example.audio;
+
+/**
+ * IMA-ADPCM, 4 bits per 16-bit sample.
+ *
+ * Every encoded block starts with the predictor (int16 LE) and step index (u8, plus one pad
+ * byte), so blocks decode independently and a dropped block does not corrupt the next one.
+ * Nibbles are packed low nibble first, as in IMA WAV files.
+ */
+public final class ImaAdpcmCodec {
+
+    public static final int BLOCK_HEADER_BYTES = 4;
+
+    private static final int[] INDEX_TABLE = { -1, -1, -1, -1, 2, 4, 6, 8, -1, -1, -1, -1, 2, 4, 6, 8 };
+
+    private static final int[] STEP_TABLE = {
+            7, 8, 9, 10, 11, 12, 13, 14, 16, 17, 19, 21, 23, 25, 28, 31, 34, 37, 41, 45,
+            50, 55, 60, 66, 73, 80, 88, 97, 107, 118, 130, 143, 157, 173, 190, 209, 230, 253, 279, 307,
+            337, 371, 408, 449, 494, 544, 598, 658, 724, 796, 876, 963, 1060, 1166, 1282, 1411, 1552, 1707, 1878, 2066,
+            2272, 2499, 2749, 3024, 3327, 3660, 4026, 4428, 4871, 5358, 5894, 6484, 7132, 7845, 8630, 9493, 10442, 11487, 12635, 13899,
+            15289, 16818, 18500, 20350, 22385, 24623, 27086, 29794, 32767
+    };
+
+    // Encoder state carried across blocks for continuity; each block still records it
+    private int encPredictor = 0;
+    private int encIndex = 0;
+
+    public static int encodedBytes(int samples) {
+        return BLOCK_HEADER_BYTES + (samples + 1) / 2;
+    }
+
+    /** Encodes little-endian PCM16 bytes into one block; returns bytes written. */
+    public int encode(byte[] pcm, int off, int samples, byte[] dst, int dstOff) {
+        int predictor = encPredictor;
+        int index = encIndex;
+        dst[dstOff] = (byte) predictor;
+        dst[dstOff + 1] = (byte) (predictor >> 8);
+        dst[dstOff + 2] = (byte) index;
+        dst[dstOff + 3] = 0;
+        int o = dstOff + BLOCK_HEADER_BYTES;
+        for (int i = 0; i < samples; i++, off += 2) {
+            int sample = (short) ((pcm[off] & 0xFF) | (pcm[off + 1] << 8));
+            int step = STEP_TABLE[index];
+            int diff = sample - predictor;
+            int nibble = 0;
+            if (diff < 0) { nibble = 8; diff = -diff; }
+            int delta = step >> 3;
+            if (diff >= step) { nibble |= 4; diff -= step; delta += step; }
+            step >>= 1;
+            if (diff >= step) { nibble |= 2; diff -= step; delta += step; }
+            step >>= 1;
+            if (diff >= step) { nibble |= 1; delta += step; }
+            predictor += (nibble & 8) != 0 ? -delta : delta;
+            if (predictor > Short.MAX_VALUE) predictor = Short.MAX_VALUE;
+            else if (predictor < Short.MIN_VALUE) predictor = Short.MIN_VALUE;
+            index += INDEX_TABLE[nibble];
+            if (index < 0) index = 0;
+            else if (index > 88) index = 88;
+            if ((i & 1) == 0) dst[o] = (byte) nibble;
+            else dst[o++] |= (byte) (nibble << 4);
+        }
+        if ((samples & 1) != 0) o++;
+        encPredictor = predictor;
+        encIndex = index;
+        return o - dstOff;
+    }
+
+    /** Decodes one block of {@code samples} samples to little-endian PCM16; returns bytes written. */
+    public static int decode(byte[] src, int off, int samples, byte[] pcm, int pcmOff) {
+        int predictor = (short) ((src[off] & 0xFF) | (src[off + 1] << 8));
+        int index = src[off + 2] & 0xFF;
+        if (index > 88) index = 88;
+        int in = off + BLOCK_HEADER_BYTES;
+        int o = pcmOff;
+        for (int i = 0; i < samples; i++) {
+            int nibble = (i & 1) == 0 ? src[in] & 0x0F : (src[in++] >> 4) & 0x0F;
+            int step = STEP_TABLE[index];
+            int delta = step >> 3;
+            if ((nibble & 4) != 0) delta += step;
+            if ((nibble & 2) != 0) delta += step >> 1;
+            if ((nibble & 1) != 0) delta += step >> 2;
+            predictor += (nibble & 8) != 0 ? -delta : delta;
+            if (predictor > Short.MAX_VALUE) predictor = Short.MAX_VALUE;
+            else if (predictor < Short.MIN_VALUE) predictor = Short.MIN_VALUE;
+            index += INDEX_TABLE[nibble];
+            if (index < 0) index = 0;
+            else if (index > 88) index = 88;
+            pcm[o++] = (byte) predictor;
+            pcm[o++] = (byte) (predictor >> 8);
+        }
+        return o - pcmOff;
+    }
+
+    public void reset() {
+        encPredictor = 0;
+        encIndex = 0;
+    }
+}
@@ -0,0 +1,261 @@
+package com.example.audio;
+
+/**
+ * Adaptive jitter buffer for the incoming mic stream.
+ *
+ * Socket reads of any size are cut into fixed PCM frames and queued in a preallocated ring.
+ * The target depth follows the measured inter-arrival jitter (RFC 3550 style estimate plus a
+ * slowly decaying peak), so a clean link plays with a few frames of latency while a bursty one
+ * gets more headroom. Underruns are concealed by repeating the last frame with a fade, frames
+ * that arrive after their slot was concealed are dropped, and excess depth is trimmed.
+ *
+ * Not thread-safe: owned by the playout thread, which feeds it from the receive ring.
+ * Pure Java (no Android classes) so it can be driven from the JVM with synthetic arrival traces.
+ */
+public class JitterBuffer {
+
+    // poll() results
+    public static final int POLL_FRAME = 0;      // Real audio frame
+    public static final int POLL_CONCEALED = 1;  // Underrun, faded repeat of the last frame
+    public static final int POLL_SILENCE = 2;    // Buffering or concealment exhausted
+
+    private static final int JITTER_GAIN_SHIFT = 4;     // RFC 3550: J += (|D| - J) / 16
+    private static final double PEAK_DECAY = 0.999;     // ~7 s half-life at 10 ms frames
+    private static final int JITTER_MULTIPLIER = 3;
+    private static final int SHRINK_AFTER_POLLS = 200;  // Sustained excess before trimming a frame
+    private static final int MAX_CONCEALED_FRAMES = 5;  // Then fall back to silence and rebuffer
+
+    private final int frameBytes;
+    private final int bytesPerSample;
+    private final long frameNanos;
+    private final int minDepth;
+    private final int maxDepth;
+    private final byte[][] ring;
+
+    private int head = 0;   // Next frame to play
+    private int count = 0;  // Frames queued
+
+    private final byte[] staging;
+    private int stagingFill = 0;
+
+    private final byte[] lastFrame;
+    private boolean haveLastFrame = false;
+    private int consecutiveConcealed = 0;
+    private int concealedDebt = 0;  // Frames played as concealment whose real data may still arrive
+    private boolean buffering = true;
+    private int excessPolls = 0;
+
+    private long lastArrivalNanos = -1;     // The arrival before the current one
+    private long currentArrivalNanos = -1;
+    private int arrivalFrames = 0;          // Frames the current arrival completed so far
+    private boolean arrivalOutage = false;
+    private long baseJitterNanos = 0;       // Estimates before the current arrival was counted
+    private double basePeakNanos = 0;
+    private long jitterNanos = 0;
+    private double peakNanos = 0;
+    private int targetDepth;
+
+    // Stats
+    private long framesIn = 0;
+    private long framesPlayed = 0;
+    private long framesConcealed = 0;
+    private long framesDroppedLate = 0;
+    private long framesDroppedOverflow = 0;
+    private long underruns = 0;
+
+    public JitterBuffer(int frameBytes, int bytesPerSample, int frameDurationMs, int minDepthFrames, int maxDepthFrames, int capacityFrames) {
+        if (frameBytes <= 0 || frameBytes % bytesPerSample != 0) throw new IllegalArgumentException("Invalid frame size: " + frameBytes);
+        if (bytesPerSample != 2 && bytesPerSample != 4) throw new IllegalArgumentException("Unsupported sample width: " + bytesPerSample);
+        if (minDepthFrames < 1 || maxDepthFrames < minDepthFrames || capacityFrames < maxDepthFrames) throw new IllegalArgumentException("Invalid depth limits");
+        this.frameBytes = frameBytes;
+        this.bytesPerSample = bytesPerSample;
+        this.frameNanos = frameDurationMs * 1_000_000L;
+        this.minDepth = minDepthFrames;
+        this.maxDepth = maxDepthFrames;
+        this.ring = new byte[capacityFrames][frameBytes];
+        this.staging = new byte[frameBytes];
+        this.lastFrame = new byte[frameBytes];
+        this.targetDepth = minDepthFrames;
+    }
+
+    /**
+     * Appends raw stream bytes received at {@code arrivalNanos}. Completed frames are queued,
+     * a trailing partial frame is kept until the next call. Each distinct time is one arrival:
+     * pass the time of the socket read the bytes came from, the same for every piece of it.
+     */
+    public void offer(byte[] src, int off, int len, long arrivalNanos) {
+        boolean outage = buffering;
+        int frames = 0;
+        while (len > 0) {
+            int n = Math.min(len, frameBytes - stagingFill);
+            System.arraycopy(src, off, staging, stagingFill, n);
+            stagingFill += n;
+            off += n;
+            len -= n;
+            if (stagingFill == frameBytes) {
+                stagingFill = 0;
+                commitFrame();
+                frames++;
+            }
+        }
+        if (frames > 0) updateJitter(arrivalNanos, frames, outage);
+    }
+
+    private void commitFrame() {
+        framesIn++;
+
+        // Its slot was already filled by concealment: playing it now would only add latency
+        if (concealedDebt > 0) {
+            concealedDebt--;
+            if (count >= targetDepth) {
+                framesDroppedLate++;
+                return;
+            }
+        }
+        if (count >= maxDepth) {
+            // Drop the oldest frame to keep latency bounded
+            head = (head + 1) % ring.length;
+            count--;
+            framesDroppedOverflow++;
+        }
+        System.arraycopy(staging, 0, ring[(head + count) % ring.length], 0, frameBytes);
+        count++;
+        if (buffering && count >= targetDepth) {
+            buffering = false;
+        }
+    }
+
+    // Once per arrival, against the media time of the frames it completed: a read carrying several
+    // frames is one late arrival, not several arrivals a frame early. More of the same arrival
+    // (offered in pieces) redoes its update with the larger frame count
+    private void updateJitter(long arrivalNanos, int frames, boolean outage) {
+        boolean next = arrivalNanos != currentArrivalNanos;
+        if (next) {
+            lastArrivalNanos = currentArrivalNanos;
+            currentArrivalNanos = arrivalNanos;
+            arrivalFrames = 0;
+            arrivalOutage = outage;
+            baseJitterNanos = jitterNanos;
+            basePeakNanos = peakNanos;
+        }
+        arrivalFrames += frames;
+        // Gaps while rebuffering are outages (e.g. a reconnect), not jitter
+        if (lastArrivalNanos >= 0 && !arrivalOutage) {
+            long d = Math.abs((arrivalNanos - lastArrivalNanos) - arrivalFrames * frameNanos);
+            jitterNanos = baseJitterNanos + ((d - baseJitterNanos) >> JITTER_GAIN_SHIFT);
+            peakNanos = Math.max(d, basePeakNanos * PEAK_DECAY);
+        }
+        long spread = Math.max(JITTER_MULTIPLIER * jitterNanos, (long) peakNanos);
+        int wanted = 1 + (int) ((spread + frameNanos - 1) / frameNanos);
+        int clamped = Math.max(minDepth, Math.min(maxDepth, wanted));
+        if (clamped > targetDepth) {
+            targetDepth = clamped; // Grow immediately
+        } else if (clamped < targetDepth && next) {
+            targetDepth--;         // Shrink one step at a time
+        }
+    }
+
+    /**
+     * Fills {@code dst} with exactly one frame of playout and returns one of the POLL_ constants.
+     */
+    public int poll(byte[] dst, int off) {
+        if (buffering) {
+            fillSilence(dst, off);
+            return POLL_SILENCE;
+        }
+        if (count == 0) {
+            return conceal(dst, off);
+        }
+
+        if (count > targetDepth + 1) {
+            if (++excessPolls >= SHRINK_AFTER_POLLS) {
+                head = (head + 1) % ring.length;
+                count--;
+                framesDroppedOverflow++;
+                excessPolls = 0;
+            }
+        } else {
+            excessPolls = 0;
+        }
+
+        byte[] frame = ring[head];
+        System.arraycopy(frame, 0, dst, off, frameBytes);
+        System.arraycopy(frame, 0, lastFrame, 0, frameBytes);
+        haveLastFrame = true;
+        head = (head + 1) % ring.length;
+        count--;
+        consecutiveConcealed = 0;
+        framesPlayed++;
+        return POLL_FRAME;
+    }
+
+    private int conceal(byte[] dst, int off) {
+        if (consecutiveConcealed == 0) underruns++;
+        consecutiveConcealed++;
+        if (!haveLastFrame || consecutiveConcealed > MAX_CONCEALED_FRAMES) {
+            // Link is gone for now; rebuffer to the target depth instead of chasing stale frames
+            buffering = true;
+            concealedDebt = 0;
+            fillSilence(dst, off);
+            return POLL_SILENCE;
+        }
+        attenuate(lastFrame);
+        System.arraycopy(lastFrame, 0, dst, off, frameBytes);
+        concealedDebt++;
+        framesConcealed++;
+        return POLL_CONCEALED;
+    }
+
+    // Halves every little-endian sample in place
+    private void attenuate(byte[] frame) {
+        if (bytesPerSample == 2) {
+            for (int i = 0; i < frameBytes; i += 2) {
+                int s = (short) ((frame[i] & 0xFF) | (frame[i + 1] << 8)) >> 1;
+                frame[i] = (byte) s;
+                frame[i + 1] = (byte) (s >> 8);
+            }
+        } else {
+            for (int i = 0; i < frameBytes; i += 4) {
+                int s = ((frame[i] & 0xFF) | ((frame[i + 1] & 0xFF) << 8) | ((frame[i + 2] & 0xFF) << 16) | (frame[i + 3] << 24)) >> 1;
+                frame[i] = (byte) s;
+                frame[i + 1] = (byte) (s >> 8);
+                frame[i + 2] = (byte) (s >> 16);
+                frame[i + 3] = (byte) (s >> 24);
+            }
+        }
+    }
+
+    private void fillSilence(byte[] dst, int off) {
+        java.util.Arrays.fill(dst, off, off + frameBytes, (byte) 0);
+    }
+
+    /** Drops all queued audio and estimator state, e.g. after a reconnect. */
+    public void reset() {
+        head = 0;
+        count = 0;
+        stagingFill = 0;
+        haveLastFrame = false;
+        consecutiveConcealed = 0;
+        concealedDebt = 0;
+        buffering = true;
+        excessPolls = 0;
+        lastArrivalNanos = -1;
+        currentArrivalNanos = -1;
+        arrivalFrames = 0;
+        jitterNanos = 0;
+        peakNanos = 0;
+        targetDepth = minDepth;
+    }
+
+    public int getFrameBytes() { return frameBytes; }
+    public long getFrameNanos() { return frameNanos; }
+    public int getDepthFrames() { return count; }
+    public int getTargetDepthFrames() { return targetDepth; }
+    public long getJitterNanos() { return jitterNanos; }
+    public long getFramesIn() { return framesIn; }
+    public long getFramesPlayed() { return framesPlayed; }
+    public long getFramesConcealed() { return framesConcealed; }
+    public long getFramesDroppedLate() { return framesDroppedLate; }
+    public long getFramesDroppedOverflow() { return framesDroppedOverflow; }
+    public long getUnderruns() { return underruns; }
+}
@@ -0,0 +1,77 @@
+package com.example.audio;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * HDR-style latency histogram in nanoseconds: 16 linear sub-buckets per power of two, so every
+ * recorded value is kept to within ~6% from 1 ns up to ~18 minutes in a fixed 608-slot array.
+ *
+ * {@link #record} is lock-free and allocation-free and may be called from any thread.
+ * Percentiles are read from a copy of the counts ({@link #copyCounts}), normally taken once per
+ * snapshot interval by {@link MetricsRegistry}.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_EXPONENT = 40;
+    public static final int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(long nanos) {
+        if (nanos < 0) nanos = 0;
+        counts.incrementAndGet(bucketOf(nanos));
+        long m;
+        while (nanos > (m = max.get()) && !max.compareAndSet(m, nanos)) { /* Retry */ }
+    }
+
+    static int bucketOf(long v) {
+        if (v < SUB_BUCKETS) return (int) v;
+        int exp = 63 - Long.numberOfLeadingZeros(v);
+        if (exp > MAX_EXPONENT) return BUCKETS - 1;
+        int sub = (int) (v >>> (exp - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exp - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    /** Smallest value that lands in {@code bucket}. */
+    static long lowerBound(int bucket) {
+        if (bucket < SUB_BUCKETS) return bucket;
+        int exp = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        return (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << (exp - SUB_BUCKET_BITS);
+    }
+
+    /** Middle of {@code bucket}, the value reported for a percentile that falls in it. */
+    static long midpoint(int bucket) {
+        long lo = lowerBound(bucket);
+        long hi = bucket + 1 < BUCKETS ? lowerBound(bucket + 1) : lo;
+        return lo + (hi - lo) / 2;
+    }
+
+    /** Copies the cumulative counts into {@code dst} (length {@link #BUCKETS}). */
+    public void copyCounts(long[] dst) {
+        for (int i = 0; i < BUCKETS; i++) dst[i] = counts.get(i);
+    }
+
+    /** Largest value recorded since creation. */
+    public long getMax() { return max.get(); }
+
+    /**
+     * Value at {@code percentile} (0..100) of the distribution {@code counts[i] - base[i]},
+     * or 0 if it is empty. Pass a zero-filled {@code base} for the all-time distribution.
+     */
+    public static long percentile(long[] counts, long[] base, double percentile) {
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) total += counts[i] - base[i];
+        if (total == 0) return 0;
+        long target = Math.max(1, (long) Math.ceil(total * percentile / 100.0));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i] - base[i];
+            if (seen >= target) return midpoint(i);
+        }
+        return midpoint(BUCKETS - 1);
+    }
+}
@@ -0,0 +1,75 @@
+package com.example.audio;
+
+import java.util.function.Supplier;
+
+/**
+ * Hands video frames from one thread to another, keeping only the newest: from the network thread
+ * to the decode thread, or to the motion analysis.
+ *
+ * Three frames rotate: one being written, one pending, one being read. Publishing a frame while
+ * the previous one is still pending replaces it (counted as dropped), so when the reader falls
+ * behind it skips ahead instead of queueing up: what is shown is never more than one frame plus
+ * one decode behind the camera, and a slow analysis skips frames without holding anything up.
+ *
+ * One producer, one consumer.
+ */
+public class LatestFrameExchange<F> {
+
+    private F writing; // Producer only
+    private F pending;
+    private F reading; // Consumer only
+    private boolean hasPending = false;
+    private boolean wakeUp = false;
+    private long published = 0;
+    private long dropped = 0;
+
+    public LatestFrameExchange(Supplier<F> factory) {
+        this.writing = factory.get();
+        this.pending = factory.get();
+        this.reading = factory.get();
+    }
+
+    /** Producer side: the frame to fill next. Only valid until the next {@link #publish}. */
+    public F writable() { return writing; }
+
+    /** Producer side: makes the frame just filled the pending one. */
+    public synchronized void publish() {
+        F t = pending;
+        pending = writing;
+        writing = t;
+        if (hasPending) dropped++;
+        hasPending = true;
+        published++;
+        notifyAll();
+    }
+
+    /**
+     * Consumer side: the newest frame not yet taken, waiting up to {@code timeoutNanos} for one.
+     * Returns null on timeout or {@link #wakeUp}. The frame stays the consumer's until its next
+     * call.
+     */
+    public synchronized F take(long timeoutNanos) throws InterruptedException {
+        long deadline = System.nanoTime() + timeoutNanos;
+        while (!hasPending && !wakeUp) {
+            long left = deadline - System.nanoTime();
+            if (left <= 0) return null;
+            wait(left / 1_000_000L, (int) (left % 1_000_000L));
+        }
+        wakeUp = false;
+        if (!hasPending) return null;
+        F t = reading;
+        reading = pending;
+        pending = t;
+        hasPending = false;
+        return reading;
+    }
+
+    /** Makes a waiting (or the next) {@link #take} return null at once, e.g. to redraw. */
+    public synchronized void wakeUp() {
+        wakeUp = true;
+        notifyAll();
+    }
+
+    public synchronized long getPublished() { return published; }
+    public synchronized long getDropped() { return dropped; }
+}
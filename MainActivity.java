@@ -5,10 +5,6 @@ import androidx.activity.result.contract.ActivityResultContracts;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.core.app.ActivityCompat;
 import androidx.core.content.ContextCompat;
-import androidx.localbroadcastmanager.content.LocalBroadcastManager;
-import android.content.BroadcastReceiver;
-import android.content.Context;
-import android.content.IntentFilter;
 
 import android.Manifest;
 import android.annotation.SuppressLint;
@@ -23,24 +19,40 @@ import android.util.Log;
 import android.view.GestureDetector;
 import android.view.MotionEvent;
 import android.view.View;
-import android.webkit.WebSettings;
-import android.webkit.WebView;
-import android.webkit.WebViewClient;
 import android.widget.Button;
+import android.widget.CheckBox;
 import android.widget.EditText;
+import android.widget.LinearLayout;
 import android.widget.SeekBar;
 import android.widget.TextView;
 import android.widget.Toast;
 
+import java.util.Locale;
+
 
 public class MainActivity extends AppCompatActivity {
 
     private static final String TAG = "MainActivity";
     private static final String CAMERA_STREAM_URL = "http://192.168.1.33:81/stream"; // !!! REPLACE !!!
+    // Where motion counts, as {left, top, right, bottom} in 0..1 of the picture; none = all of it.
+    // E.g. { { 0f, 0.25f, 1f, 1f } } ignores a curtain or window along the top.
+    private static final float[][] MOTION_REGIONS = {};
+    private static final long ROOMS_REFRESH_MS = 250; // Room levels in the mic rooms panel
 
     private EditText editTextEspMicSenderIpAddress;
     private EditText editTextEspSpeakerReceiverIpAddress;
     private Button buttonStartStopAll;
+    private CheckBox checkBoxUdpAudio;
+    private CheckBox checkBoxListenOnAlert;
+    private CheckBox checkBoxMotionAlerts;
+    private CheckBox checkBoxRelay;
+    private CheckBox checkBoxRecord;
+    private CheckBox checkBoxAutoFocus;
+    private CheckBox checkBoxEchoCancel;
+    private LinearLayout layoutRooms;
+    private CheckBox[] roomViews = new CheckBox[0]; // Checked = heard; the text carries the level
+    private RoomMixer shownRooms = null;
+    private final Runnable roomsRefresher = this::refreshRooms;
     private Button buttonPlayMelody;
     private TextView textViewStatusReceive;
     private TextView textViewStatusSend;
@@ -50,19 +62,19 @@ public class MainActivity extends AppCompatActivity {
     private TextView textViewServo1Value;
     private TextView textViewServo2Value;
     private TextView textViewControlStatus;
-    private WebView cameraWebView;
+    private MjpegView cameraView;
+    private TextView textViewCameraStats;
     private SeekBar zoomSeekBar;
 
     // State reflecting service status
     private boolean isServiceRunning = false; // User's intent to run/stop
-    private boolean isControlActuallyConnected = false; // Updated by broadcasts
+    private boolean isControlActuallyConnected = false; // Updated from the status bus
     private boolean isReceiveConnected = false;
     private boolean isSendConnected = false;
     private boolean isMelodyPlaying = false; // <<< ADDED: Track melody state
 
-    private float scaleFactor = 1.0f;
-    private float posX = 0, posY = 0;
     private GestureDetector gestureDetector;
+    private boolean cameraMotion = false; // Latest state from the motion detector
 
     private final Handler uiHandler = new Handler(Looper.getMainLooper());
 
@@ -91,20 +103,11 @@ public class MainActivity extends AppCompatActivity {
     private ActivityResultLauncher<String> requestNotificationPermissionLauncher;
     private boolean notificationPermissionRequested = false;
 
-    private BroadcastReceiver statusUpdateReceiver = new BroadcastReceiver() {
-        @Override
-        public void onReceive(Context context, Intent intent) {
-            if (intent != null && StreamingService.ACTION_STATUS_UPDATE.equals(intent.getAction())) { // Corrected Service Name
-                String type = intent.getStringExtra(StreamingService.EXTRA_STATUS_TYPE);
-                String message = intent.getStringExtra(StreamingService.EXTRA_STATUS_MESSAGE);
-                Log.d(TAG, "Receiver got status: Type=" + type + ", Msg=" + message);
-
-                if (type != null && message != null) {
-                    updateStatusText(type, message);
-                    updateComponentState(type, message);
-                }
-            }
-        }
+    // Latest state per channel, delivered on the main thread at the bus's throttled rate
+    private final StatusBus.Listener statusListener = event -> {
+        Log.d(TAG, "Status: " + event);
+        updateStatusText(event);
+        updateComponentState(event);
     };
 
     @SuppressLint("ClickableViewAccessibility")
@@ -127,6 +130,14 @@ public class MainActivity extends AppCompatActivity {
 
         editTextEspMicSenderIpAddress = findViewById(R.id.editTextEspMicSenderIpAddress);
         editTextEspSpeakerReceiverIpAddress = findViewById(R.id.editTextEspSpeakerReceiverIpAddress);
+        checkBoxUdpAudio = findViewById(R.id.checkBoxUdpAudio);
+        checkBoxListenOnAlert = findViewById(R.id.checkBoxListenOnAlert);
+        checkBoxMotionAlerts = findViewById(R.id.checkBoxMotionAlerts);
+        checkBoxRelay = findViewById(R.id.checkBoxRelay);
+        checkBoxRecord = findViewById(R.id.checkBoxRecord);
+        checkBoxAutoFocus = findViewById(R.id.checkBoxAutoFocus);
+        checkBoxEchoCancel = findViewById(R.id.checkBoxEchoCancel);
+        layoutRooms = findViewById(R.id.layoutRooms);
         buttonStartStopAll = findViewById(R.id.buttonStartStopAll);
         buttonPlayMelody = findViewById(R.id.buttonPlayMelody);
         textViewStatusReceive = findViewById(R.id.textViewStatusReceive);
@@ -137,7 +148,8 @@ public class MainActivity extends AppCompatActivity {
         textViewServo1Value = findViewById(R.id.textViewServo1Value);
         textViewServo2Value = findViewById(R.id.textViewServo2Value);
         textViewControlStatus = findViewById(R.id.textViewControlStatus);
-        cameraWebView = findViewById(R.id.cameraWebView);
+        cameraView = findViewById(R.id.cameraView);
+        textViewCameraStats = findViewById(R.id.textViewCameraStats);
         zoomSeekBar = findViewById(R.id.zoomSeekBar);
 
         buttonStartStopAll.setOnClickListener(v -> {
@@ -155,7 +167,7 @@ public class MainActivity extends AppCompatActivity {
         });
 
         // --- Modified: Melody Button sends Intent ---
-        buttonPlayMelody.setEnabled(false); // Start disabled, enabled by broadcast
+        buttonPlayMelody.setEnabled(false); // Start disabled, enabled by control status
         buttonPlayMelody.setOnClickListener(v -> {
             if (isServiceRunning && isControlActuallyConnected && !isMelodyPlaying) {
                 Log.d(TAG, "Requesting Melody Playback via Service Intent");
@@ -169,8 +181,12 @@ public class MainActivity extends AppCompatActivity {
             }
         });
 
+        checkBoxAutoFocus.setOnCheckedChangeListener((b, checked) -> {
+            if (isServiceRunning) sendRoomControl(-1, StreamingService.EXTRA_AUTO_FOCUS, checked);
+        });
+
         setupServoSeekBarListeners();
-        setupCameraWebView();
+        setupCameraView();
         updateUiForStreamingState();
         resetStatusTextViews();
     }
@@ -178,16 +194,17 @@ public class MainActivity extends AppCompatActivity {
     @Override
     protected void onStart() {
         super.onStart();
-        Log.d(TAG, "onStart - Registering receiver");
-        LocalBroadcastManager.getInstance(this).registerReceiver(statusUpdateReceiver,
-                new IntentFilter(StreamingService.ACTION_STATUS_UPDATE)); // Corrected Service Name
+        Log.d(TAG, "onStart - Subscribing to service status");
+        StreamingService.getStatusBus().addListener(statusListener); // Replays the current state of every channel
+        uiHandler.post(roomsRefresher);
     }
 
     @Override
     protected void onStop() {
         super.onStop();
-        Log.d(TAG, "onStop - Unregistering receiver");
-        LocalBroadcastManager.getInstance(this).unregisterReceiver(statusUpdateReceiver);
+        Log.d(TAG, "onStop - Unsubscribing from service status");
+        StreamingService.getStatusBus().removeListener(statusListener);
+        uiHandler.removeCallbacks(roomsRefresher);
     }
 
 
@@ -234,6 +251,12 @@ public class MainActivity extends AppCompatActivity {
         serviceIntent.setAction(StreamingService.ACTION_START); // Corrected Service Name
         serviceIntent.putExtra(StreamingService.EXTRA_MIC_SENDER_IP, micIp); // Corrected Service Name
         serviceIntent.putExtra(StreamingService.EXTRA_SPEAKER_RECEIVER_IP, speakerIp); // Corrected Service Name
+        serviceIntent.putExtra(StreamingService.EXTRA_AUDIO_TRANSPORT, checkBoxUdpAudio.isChecked() ? StreamingService.TRANSPORT_UDP : StreamingService.TRANSPORT_TCP);
+        serviceIntent.putExtra(StreamingService.EXTRA_LISTEN_ON_ALERT, checkBoxListenOnAlert.isChecked());
+        serviceIntent.putExtra(StreamingService.EXTRA_RELAY, checkBoxRelay.isChecked());
+        serviceIntent.putExtra(StreamingService.EXTRA_RECORD, checkBoxRecord.isChecked());
+        serviceIntent.putExtra(StreamingService.EXTRA_AUTO_FOCUS, checkBoxAutoFocus.isChecked());
+        serviceIntent.putExtra(StreamingService.EXTRA_ECHO_CANCEL, checkBoxEchoCancel.isChecked());
 
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
             startForegroundService(serviceIntent);
@@ -261,6 +284,7 @@ public class MainActivity extends AppCompatActivity {
     }
 
     private void sendCommandToService(String command) {
+        long issuedNanos = System.nanoTime(); // Start of the end-to-end command latency
         if (!isServiceRunning) {
             Log.w(TAG, "Attempted to send command, but service stop initiated.");
             showToast("Start the stream first");
@@ -269,40 +293,30 @@ public class MainActivity extends AppCompatActivity {
         Intent serviceIntent = new Intent(this, StreamingService.class); // Corrected Service Name
         serviceIntent.setAction(StreamingService.ACTION_SEND_COMMAND); // Corrected Service Name
         serviceIntent.putExtra(StreamingService.EXTRA_COMMAND, command); // Corrected Service Name
+        serviceIntent.putExtra(StreamingService.EXTRA_COMMAND_TIME_NANOS, issuedNanos);
         startService(serviceIntent);
     }
 
-    @SuppressLint("SetJavaScriptEnabled")
-    private void setupCameraWebView() {
-        if (cameraWebView == null || zoomSeekBar == null) {
-            Log.e(TAG, "Camera WebView or Zoom SeekBar is null in setupCameraWebView");
+    private void setupCameraView() {
+        if (cameraView == null || zoomSeekBar == null) {
+            Log.e(TAG, "Camera view or Zoom SeekBar is null in setupCameraView");
             showToast("Error initializing camera view");
             return;
         }
 
-        WebSettings webSettings = cameraWebView.getSettings();
-        webSettings.setJavaScriptEnabled(true);
-        webSettings.setLoadWithOverviewMode(true);
-        webSettings.setUseWideViewPort(true);
-        webSettings.setBuiltInZoomControls(false);
-        webSettings.setSupportZoom(false);
+        cameraView.setStatsListener((fps, decodeMillis, dropped, bitmapBytes) -> uiHandler.post(() -> {
+            if (textViewCameraStats != null) textViewCameraStats.setText(String.format(Locale.US, "%.1f fps, decode %.1f ms, %d dropped/s, bitmap %d KB%s", fps, decodeMillis, dropped, bitmapBytes / 1024, cameraMotion ? ", MOTION" : ""));
+        }));
 
-        cameraWebView.setWebViewClient(new WebViewClient());
-        cameraWebView.loadUrl(CAMERA_STREAM_URL);
+        MotionDetector motionDetector = new MotionDetector();
+        motionDetector.setRegions(MOTION_REGIONS);
+        motionDetector.setListener((moving, share) -> uiHandler.post(() -> onCameraMotionChanged(moving)));
+        cameraView.setMotionDetector(motionDetector);
 
         gestureDetector = new GestureDetector(this, new GestureDetector.SimpleOnGestureListener() {
             @Override
             public boolean onScroll(MotionEvent e1, MotionEvent e2, float distanceX, float distanceY) {
-                if (scaleFactor > 1.0f) {
-                    float maxPosX = (cameraWebView.getWidth() * (scaleFactor - 1)) / 2;
-                    float maxPosY = (cameraWebView.getHeight() * (scaleFactor - 1)) / 2;
-                    posX -= distanceX;
-                    posY -= distanceY;
-                    posX = Math.max(-maxPosX, Math.min(maxPosX, posX));
-                    posY = Math.max(-maxPosY, Math.min(maxPosY, posY));
-                    cameraWebView.setTranslationX(posX);
-                    cameraWebView.setTranslationY(posY);
-                }
+                cameraView.panBy(-distanceX, -distanceY);
                 return true;
             }
             @Override
@@ -314,26 +328,80 @@ public class MainActivity extends AppCompatActivity {
         zoomSeekBar.setOnSeekBarChangeListener(new SeekBar.OnSeekBarChangeListener() {
             @Override
             public void onProgressChanged(SeekBar seekBar, int progress, boolean fromUser) {
-                scaleFactor = 1.0f + (progress / 100.0f);
-                cameraWebView.setScaleX(scaleFactor);
-                cameraWebView.setScaleY(scaleFactor);
-                if (scaleFactor <= 1.01f) {
-                    posX = 0; posY = 0;
-                    cameraWebView.setTranslationX(0); cameraWebView.setTranslationY(0);
-                }
+                cameraView.setZoom(1.0f + (progress / 100.0f));
             }
             @Override public void onStartTrackingTouch(SeekBar seekBar) {}
             @Override public void onStopTrackingTouch(SeekBar seekBar) {}
         });
 
-        cameraWebView.setOnTouchListener((v, event) -> {
+        cameraView.setOnTouchListener((v, event) -> {
             boolean handled = gestureDetector.onTouchEvent(event);
             return handled || v.onTouchEvent(event);
         });
 
-        scaleFactor = 1.0f; posX = 0; posY = 0;
-        cameraWebView.setScaleX(scaleFactor); cameraWebView.setScaleY(scaleFactor);
-        cameraWebView.setTranslationX(posX); cameraWebView.setTranslationY(posY);
+        cameraView.setZoom(1.0f);
+    }
+
+    // Motion goes to the service's alerting, next to the sound alerts; only while it streams, which is when alerts are on
+    private void onCameraMotionChanged(boolean moving) {
+        cameraMotion = moving;
+        Log.d(TAG, "[Motion] " + (moving ? "Started" : "Ended"));
+        if (!isServiceRunning || checkBoxMotionAlerts == null || !checkBoxMotionAlerts.isChecked()) return;
+        Intent serviceIntent = new Intent(this, StreamingService.class);
+        serviceIntent.setAction(StreamingService.ACTION_MOTION);
+        serviceIntent.putExtra(StreamingService.EXTRA_MOTION, moving);
+        startService(serviceIntent);
+    }
+
+    // --- Mic rooms ---
+    // With several mic boards the service mixes them; one row per room: heard or muted, level, focus, solo
+
+    private void refreshRooms() {
+        RoomMixer rooms = StreamingService.getRoomMixer();
+        if (rooms != shownRooms) buildRoomRows(rooms); // A session started or stopped
+        for (int i = 0; i < roomViews.length; i++) {
+            RoomMixer.Room room = rooms.getRoom(i);
+            roomViews[i].setText(String.format(Locale.US, "%s  %d dB%s", room.name, Math.round(room.getLevelDb()), room.isFocused() ? "  (focus)" : ""));
+        }
+        uiHandler.postDelayed(roomsRefresher, ROOMS_REFRESH_MS);
+    }
+
+    private void buildRoomRows(RoomMixer rooms) {
+        shownRooms = rooms;
+        layoutRooms.removeAllViews();
+        if (rooms == null || rooms.getRoomCount() < 2) {
+            roomViews = new CheckBox[0];
+            layoutRooms.setVisibility(View.GONE);
+            return;
+        }
+        roomViews = new CheckBox[rooms.getRoomCount()];
+        for (int i = 0; i < roomViews.length; i++) {
+            final int index = i;
+            RoomMixer.Room room = rooms.getRoom(i);
+            LinearLayout row = new LinearLayout(this);
+            row.setOrientation(LinearLayout.HORIZONTAL);
+            CheckBox heard = new CheckBox(this);
+            heard.setChecked(!room.isMuted());
+            heard.setOnCheckedChangeListener((b, checked) -> sendRoomControl(index, StreamingService.EXTRA_ROOM_MUTED, !checked));
+            CheckBox solo = new CheckBox(this);
+            solo.setText("Solo");
+            solo.setChecked(room.isSolo());
+            solo.setOnCheckedChangeListener((b, checked) -> sendRoomControl(index, StreamingService.EXTRA_ROOM_SOLO, checked));
+            row.addView(heard);
+            row.addView(solo);
+            layoutRooms.addView(row);
+            roomViews[i] = heard;
+        }
+        layoutRooms.setVisibility(View.VISIBLE);
+    }
+
+    // index -1: a setting of the whole mix (auto focus)
+    private void sendRoomControl(int index, String extra, boolean value) {
+        Intent serviceIntent = new Intent(this, StreamingService.class);
+        serviceIntent.setAction(StreamingService.ACTION_SET_ROOM);
+        if (index >= 0) serviceIntent.putExtra(StreamingService.EXTRA_ROOM_INDEX, index);
+        serviceIntent.putExtra(extra, value);
+        startService(serviceIntent);
     }
 
     private void setupServoSeekBarListeners() {
@@ -371,68 +439,64 @@ public class MainActivity extends AppCompatActivity {
         });
     }
 
-    private void updateStatusText(String type, String message) {
-        uiHandler.post(() -> {
-            switch (type) {
-                case StreamingService.TYPE_RECEIVE: // Corrected Service Name
-                    if (textViewStatusReceive != null) textViewStatusReceive.setText("Receiving: " + message);
-                    break;
-                case StreamingService.TYPE_SEND: // Corrected Service Name
-                    if (textViewStatusSend != null) textViewStatusSend.setText("Sending: " + message);
-                    break;
-                case StreamingService.TYPE_CONTROL: // Corrected Service Name
-                    if (textViewControlStatus != null) textViewControlStatus.setText("Control: " + message);
-                    break;
-                case StreamingService.TYPE_MELODY: // Corrected Service Name
-                    if (textViewMelodyStatus != null) textViewMelodyStatus.setText("Melody: " + message);
-                    break;
-                case StreamingService.TYPE_GENERAL: // Corrected Service Name
-                    if (message.toLowerCase().contains("error")) {
-                        showToast("Service Error: " + message);
-                    } else if ("Stopped".equalsIgnoreCase(message) || "Service Stopped".equalsIgnoreCase(message)) {
-                        resetStatusTextViews();
-                    }
-                    break;
-            }
-        });
+    private void updateStatusText(StatusBus.Event event) {
+        String label = event.label();
+        switch (event.channel) {
+            case RECEIVE:
+                if (textViewStatusReceive != null) textViewStatusReceive.setText("Receiving: " + label);
+                break;
+            case SEND:
+                if (textViewStatusSend != null) textViewStatusSend.setText("Sending: " + label);
+                break;
+            case CONTROL:
+                if (textViewControlStatus != null) textViewControlStatus.setText("Control: " + label);
+                break;
+            case MELODY:
+                if (textViewMelodyStatus != null) textViewMelodyStatus.setText("Melody: " + label);
+                break;
+            case GENERAL:
+                if (event.state == StatusBus.State.ERROR) {
+                    showToast("Service " + label);
+                } else if (event.state == StatusBus.State.STOPPED) {
+                    resetStatusTextViews();
+                }
+                break;
+        }
     }
 
-    private void updateComponentState(String type, String message) {
+    private void updateComponentState(StatusBus.Event event) {
         boolean needsUiUpdate = false;
-        boolean wasMelodyPlaying = isMelodyPlaying; // Track previous state
+        boolean up = event.state.isUp();
 
-        if (StreamingService.TYPE_CONTROL.equals(type)) { // Corrected Service Name
-            boolean newControlState = "Connected".equalsIgnoreCase(message);
-            if (isControlActuallyConnected != newControlState) {
-                isControlActuallyConnected = newControlState;
-                needsUiUpdate = true;
-            }
-        } else if (StreamingService.TYPE_RECEIVE.equals(type)) { // Corrected Service Name
-            boolean newReceiveState = "Connected".equalsIgnoreCase(message) || "Receiving/Playing".equalsIgnoreCase(message);
-            if (isReceiveConnected != newReceiveState) {
-                isReceiveConnected = newReceiveState;
-            }
-        } else if (StreamingService.TYPE_SEND.equals(type)) { // Corrected Service Name
-            boolean newSendState = "Connected".equalsIgnoreCase(message) || "Recording/Sending".equalsIgnoreCase(message);
-            if (isSendConnected != newSendState) {
-                isSendConnected = newSendState;
-            }
-        } else if (StreamingService.TYPE_MELODY.equals(type)) { // Corrected Service Name <<< ADDED Melody State Update
-            isMelodyPlaying = "Playing...".equalsIgnoreCase(message);
-            if (wasMelodyPlaying != isMelodyPlaying) { // Update UI if playing state changed
-                needsUiUpdate = true;
-            }
-        }
-        else if (StreamingService.TYPE_GENERAL.equals(type)) { // Corrected Service Name
-            if ("Stopped".equalsIgnoreCase(message) || "Service Stopped".equalsIgnoreCase(message)) {
-                if (isControlActuallyConnected || isReceiveConnected || isSendConnected || isMelodyPlaying) {
+        switch (event.channel) {
+            case CONTROL:
+                if (isControlActuallyConnected != up) {
+                    isControlActuallyConnected = up;
+                    needsUiUpdate = true;
+                }
+                break;
+            case RECEIVE:
+                isReceiveConnected = up;
+                break;
+            case SEND:
+                isSendConnected = up;
+                break;
+            case MELODY:
+                boolean playing = event.state == StatusBus.State.PLAYING;
+                if (isMelodyPlaying != playing) { // Update UI if playing state changed
+                    isMelodyPlaying = playing;
+                    needsUiUpdate = true;
+                }
+                break;
+            case GENERAL:
+                if (event.state == StatusBus.State.STOPPED && (isControlActuallyConnected || isReceiveConnected || isSendConnected || isMelodyPlaying)) {
                     isControlActuallyConnected = false;
                     isReceiveConnected = false;
                     isSendConnected = false;
                     isMelodyPlaying = false;
                     needsUiUpdate = true;
                 }
-            }
+                break;
         }
 
         if (needsUiUpdate) {
@@ -452,6 +516,11 @@ public class MainActivity extends AppCompatActivity {
             buttonStartStopAll.setText(isServiceRunning ? "Stop Streams" : "Start Streams");
             editTextEspMicSenderIpAddress.setEnabled(!isServiceRunning);
             editTextEspSpeakerReceiverIpAddress.setEnabled(!isServiceRunning);
+            checkBoxUdpAudio.setEnabled(!isServiceRunning);
+            checkBoxListenOnAlert.setEnabled(!isServiceRunning);
+            checkBoxRelay.setEnabled(!isServiceRunning);
+            checkBoxRecord.setEnabled(!isServiceRunning);
+            checkBoxEchoCancel.setEnabled(!isServiceRunning);
 
             seekBarServo1.setEnabled(isServiceRunning && isControlActuallyConnected);
             seekBarServo2.setEnabled(isServiceRunning && isControlActuallyConnected);
@@ -482,8 +551,12 @@ public class MainActivity extends AppCompatActivity {
     protected void onPause() {
         super.onPause();
         Log.d(TAG,"onPause called.");
-        if (cameraWebView != null) {
-            cameraWebView.onPause();
+        if (cameraView != null) {
+            if (isServiceRunning && checkBoxMotionAlerts != null && checkBoxMotionAlerts.isChecked()) {
+                cameraView.setDisplayEnabled(false); // Motion alerts go on behind the screen; only the picture stops
+            } else {
+                cameraView.stop(); // No video in the background: the audio service keeps running on its own
+            }
         }
     }
 
@@ -491,8 +564,9 @@ public class MainActivity extends AppCompatActivity {
     protected void onResume() {
         super.onResume();
         Log.d(TAG,"onResume called.");
-        if (cameraWebView != null) {
-            cameraWebView.onResume();
+        if (cameraView != null) {
+            cameraView.start(CAMERA_STREAM_URL); // No-op if it went on analysing in the background
+            cameraView.setDisplayEnabled(true);
         }
         updateUiForStreamingState();
     }
@@ -502,15 +576,9 @@ public class MainActivity extends AppCompatActivity {
         super.onDestroy();
         Log.d(TAG,"onDestroy called.");
 
-        if (cameraWebView != null) {
-            Log.d(TAG,"Destroying Camera WebView.");
-            cameraWebView.stopLoading();
-            cameraWebView.onPause();
-            cameraWebView.clearHistory();
-            cameraWebView.clearCache(true);
-            cameraWebView.clearFormData();
-            cameraWebView.destroy();
-            cameraWebView = null;
+        if (cameraView != null) {
+            cameraView.stop();
+            cameraView = null;
         }
         Log.d(TAG, "onDestroy finished.");
     }
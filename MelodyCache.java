@@ -0,0 +1,79 @@
+package com.example.audio;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Memory-bounded LRU cache of decoded melodies (mono PCM16 at the speaker rate), keyed by
+ * resource id. Each melody is read and decoded once; replays only copy out of the cached buffer.
+ */
+public class MelodyCache {
+
+    /** Opens the raw WAV bytes for a melody id, e.g. via Resources.openRawResource. */
+    public interface Source {
+        InputStream open(int melodyId) throws IOException;
+    }
+
+    private final Source source;
+    private final int sampleRate;
+    private final long maxBytes;
+    private final LinkedHashMap<Integer, ByteBuffer> entries = new LinkedHashMap<>(8, 0.75f, true);
+    private long cachedBytes = 0;
+
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+
+    public MelodyCache(Source source, int sampleRate, long maxBytes) {
+        this.source = source;
+        this.sampleRate = sampleRate;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Returns a read-only view positioned at the start of the melody, decoding it first if
+     * needed. A melody larger than the whole cache is returned but not kept.
+     */
+    public synchronized ByteBuffer get(int melodyId) throws IOException {
+        ByteBuffer pcm = entries.get(melodyId);
+        if (pcm != null) {
+            hits++;
+            return pcm.asReadOnlyBuffer();
+        }
+        misses++;
+        try (InputStream in = source.open(melodyId)) {
+            pcm = WavDecoder.decode(in, sampleRate);
+        }
+        if (pcm.capacity() <= maxBytes) {
+            entries.put(melodyId, pcm);
+            cachedBytes += pcm.capacity();
+            evictToFit();
+        }
+        return pcm.asReadOnlyBuffer();
+    }
+
+    private void evictToFit() {
+        Iterator<Map.Entry<Integer, ByteBuffer>> it = entries.entrySet().iterator();
+        while (cachedBytes > maxBytes && it.hasNext()) {
+            cachedBytes -= it.next().getValue().capacity();
+            it.remove();
+            evictions++;
+        }
+    }
+
+    public synchronized boolean contains(int melodyId) { return entries.containsKey(melodyId); }
+
+    public synchronized void clear() {
+        entries.clear();
+        cachedBytes = 0;
+    }
+
+    public synchronized long getCachedBytes() { return cachedBytes; }
+    public synchronized long getHits() { return hits; }
+    public synchronized long getMisses() { return misses; }
+    public synchronized long getEvictions() { return evictions; }
+}
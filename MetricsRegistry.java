@@ -0,0 +1,203 @@
+package com.example.audio;
+
+import java.util.ArrayList;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Hot-path metrics: counters and latency histograms that audio and network threads update without
+ * locks or allocation, plus gauges that are only polled when a snapshot is taken.
+ *
+ * Everything is registered up front; {@link #start} freezes the set and then takes a
+ * {@link Snapshot} every interval on the given scheduler (rates per second, per-interval
+ * percentiles, gauge values). The cost is fixed per interval, independent of packet rate.
+ * Two snapshot buffers alternate, so readers ({@link #latest}, the UI, dumpsys) never block the
+ * writers and the sampler never allocates.
+ */
+public class MetricsRegistry {
+
+    /** Monotonic count (bytes, events); reported as total and rate per second. */
+    public static final class Counter {
+        private final AtomicLong value = new AtomicLong();
+        public void add(long n) { value.addAndGet(n); }
+        public void increment() { value.incrementAndGet(); }
+        public long get() { return value.get(); }
+    }
+
+    /**
+     * Values as of one sampling interval. Owned by the registry and rewritten two intervals after
+     * it was published: read it promptly, or compare {@link #sequence} before and after.
+     */
+    public static final class Snapshot {
+        public final String[] counterNames;
+        public final long[] counterTotals;
+        public final double[] counterRates;
+        public final String[] gaugeNames;
+        public final long[] gaugeValues;
+        public final String[] histogramNames;
+        public final long[] histogramCounts; // Samples in this interval
+        public final long[] p50Nanos;
+        public final long[] p90Nanos;
+        public final long[] p99Nanos;
+        public final long[] maxNanos;
+        public volatile long sequence;
+        public long uptimeMillis;
+        public double intervalSeconds;
+
+        Snapshot(String[] counterNames, String[] gaugeNames, String[] histogramNames) {
+            this.counterNames = counterNames;
+            this.counterTotals = new long[counterNames.length];
+            this.counterRates = new double[counterNames.length];
+            this.gaugeNames = gaugeNames;
+            this.gaugeValues = new long[gaugeNames.length];
+            this.histogramNames = histogramNames;
+            this.histogramCounts = new long[histogramNames.length];
+            this.p50Nanos = new long[histogramNames.length];
+            this.p90Nanos = new long[histogramNames.length];
+            this.p99Nanos = new long[histogramNames.length];
+            this.maxNanos = new long[histogramNames.length];
+        }
+
+        /** One metric per line; allocates, so for readers only. */
+        @Override public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(String.format(Locale.US, "metrics #%d uptime=%.1fs interval=%.2fs%n", sequence, uptimeMillis / 1000.0, intervalSeconds));
+            for (int i = 0; i < counterNames.length; i++) {
+                sb.append(String.format(Locale.US, "  %-28s %12d  %10.1f/s%n", counterNames[i], counterTotals[i], counterRates[i]));
+            }
+            for (int i = 0; i < gaugeNames.length; i++) {
+                sb.append(String.format(Locale.US, "  %-28s %12d%n", gaugeNames[i], gaugeValues[i]));
+            }
+            for (int i = 0; i < histogramNames.length; i++) {
+                sb.append(String.format(Locale.US, "  %-28s n=%-7d p50=%.1fus p90=%.1fus p99=%.1fus max=%.1fus%n", histogramNames[i], histogramCounts[i],
+                        p50Nanos[i] / 1000.0, p90Nanos[i] / 1000.0, p99Nanos[i] / 1000.0, maxNanos[i] / 1000.0));
+            }
+            return sb.toString();
+        }
+    }
+
+    private final ArrayList<String> counterNameList = new ArrayList<>();
+    private final ArrayList<Counter> counterList = new ArrayList<>();
+    private final ArrayList<String> gaugeNameList = new ArrayList<>();
+    private final ArrayList<LongSupplier> gaugeList = new ArrayList<>();
+    private final ArrayList<String> histogramNameList = new ArrayList<>();
+    private final ArrayList<LatencyHistogram> histogramList = new ArrayList<>();
+
+    // Frozen by start(); sampler thread only after that
+    private Counter[] counters;
+    private LongSupplier[] gauges;
+    private LatencyHistogram[] histograms;
+    private long[] previousCounterTotals;
+    private long[][] previousHistogramCounts;
+    private long[] histogramScratch;
+    private Snapshot[] buffers;
+    private long startNanos;
+    private long lastSampleNanos;
+    private long sequence = 0;
+
+    private ConnectionSupervisor.Scheduler scheduler;
+    private long intervalMs;
+    private volatile boolean running = false;
+    private volatile Snapshot latest = null;
+
+    public synchronized Counter counter(String name) {
+        checkNotStarted();
+        Counter counter = new Counter();
+        counterNameList.add(name);
+        counterList.add(counter);
+        return counter;
+    }
+
+    /** {@code gauge} is called once per interval on the scheduler's thread. */
+    public synchronized void gauge(String name, LongSupplier gauge) {
+        checkNotStarted();
+        gaugeNameList.add(name);
+        gaugeList.add(gauge);
+    }
+
+    public synchronized LatencyHistogram histogram(String name) {
+        checkNotStarted();
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogramNameList.add(name);
+        histogramList.add(histogram);
+        return histogram;
+    }
+
+    private void checkNotStarted() {
+        if (counters != null) throw new IllegalStateException("Metrics already started");
+    }
+
+    /** Freezes the registered metrics and samples every {@code intervalMs} until {@link #stop}. */
+    public synchronized void start(ConnectionSupervisor.Scheduler scheduler, long intervalMs) {
+        checkNotStarted();
+        counters = counterList.toArray(new Counter[0]);
+        gauges = gaugeList.toArray(new LongSupplier[0]);
+        histograms = histogramList.toArray(new LatencyHistogram[0]);
+        String[] counterNames = counterNameList.toArray(new String[0]);
+        String[] gaugeNames = gaugeNameList.toArray(new String[0]);
+        String[] histogramNames = histogramNameList.toArray(new String[0]);
+        previousCounterTotals = new long[counters.length];
+        previousHistogramCounts = new long[histograms.length][LatencyHistogram.BUCKETS];
+        histogramScratch = new long[LatencyHistogram.BUCKETS];
+        buffers = new Snapshot[] { new Snapshot(counterNames, gaugeNames, histogramNames), new Snapshot(counterNames, gaugeNames, histogramNames) };
+        this.scheduler = scheduler;
+        this.intervalMs = intervalMs;
+        startNanos = lastSampleNanos = System.nanoTime();
+        running = true;
+        scheduler.schedule(this::tick, intervalMs);
+    }
+
+    /** Takes a final snapshot and stops sampling; the last snapshot stays readable. */
+    public void stop() {
+        if (!running) return;
+        running = false;
+        sample();
+    }
+
+    private void tick() {
+        if (!running) return;
+        sample();
+        scheduler.schedule(this::tick, intervalMs);
+    }
+
+    private synchronized void sample() {
+        long now = System.nanoTime();
+        Snapshot s = buffers[(int) (sequence & 1)];
+        s.sequence = -1; // Being rewritten
+        double seconds = Math.max(1e-9, (now - lastSampleNanos) / 1e9);
+        s.intervalSeconds = seconds;
+        s.uptimeMillis = (now - startNanos) / 1_000_000L;
+        lastSampleNanos = now;
+
+        for (int i = 0; i < counters.length; i++) {
+            long total = counters[i].get();
+            s.counterTotals[i] = total;
+            s.counterRates[i] = (total - previousCounterTotals[i]) / seconds;
+            previousCounterTotals[i] = total;
+        }
+        for (int i = 0; i < gauges.length; i++) {
+            long value;
+            try { value = gauges[i].getAsLong(); } catch (RuntimeException e) { value = -1; } // Source already torn down
+            s.gaugeValues[i] = value;
+        }
+        for (int i = 0; i < histograms.length; i++) {
+            long[] current = histogramScratch;
+            long[] previous = previousHistogramCounts[i];
+            histograms[i].copyCounts(current);
+            long n = 0;
+            for (int b = 0; b < LatencyHistogram.BUCKETS; b++) n += current[b] - previous[b];
+            s.histogramCounts[i] = n;
+            s.p50Nanos[i] = LatencyHistogram.percentile(current, previous, 50);
+            s.p90Nanos[i] = LatencyHistogram.percentile(current, previous, 90);
+            s.p99Nanos[i] = LatencyHistogram.percentile(current, previous, 99);
+            s.maxNanos[i] = LatencyHistogram.percentile(current, previous, 100);
+            System.arraycopy(current, 0, previous, 0, LatencyHistogram.BUCKETS);
+        }
+        s.sequence = ++sequence;
+        latest = s;
+    }
+
+    /** Most recent snapshot, or null before the first interval has elapsed. */
+    public Snapshot latest() { return latest; }
+}
@@ -0,0 +1,147 @@
+package com.example.audio;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Throughput and ducking of the {@link AudioMixer} kernel on one core of a plain JVM.
+ *
+ * Throughput: a mic (the key source) that talks in bursts is mixed frame by frame with ducked
+ * melody sources, filling up to all {@link AudioMixer#MAX_SOURCES} slots. For each frame size and source count it
+ * reports the median of several timed runs (after warmup, so the JIT has compiled the kernel) in
+ * ns per frame, the real-time factor for one send path, and the bytes allocated per frame in the
+ * run that allocated least, where the JVM can count them (the kernel must not allocate).
+ *
+ * Ducking: how many frames the melody takes to reach the ducked gain once the mic starts
+ * talking, and to come back once it stops, and the largest jump between neighbouring output
+ * samples of a steady melody across those gain changes (the ramps should keep it near the
+ * melody's own).
+ *
+ * Usage: MixerBenchmark [--seconds S] [--runs N]
+ */
+public class MixerBenchmark {
+
+    private static final int SAMPLE_RATE = 16000;
+    private static final int[] FRAME_SAMPLES = { SAMPLE_RATE / 100, SAMPLE_RATE / 50 }; // 10 and 20 ms
+    private static final int[] SOURCE_COUNTS = { 1, 2, 4, AudioMixer.MAX_SOURCES };
+    private static final float DUCK_THRESHOLD = 600f; // As the service
+    private static final float DUCK_GAIN = 0.25f;
+    private static final int TALK_MS = 1500;          // Mic bursts: talk, then as long quiet
+    private static final int WARMUP_RUNS = 3;
+
+    /** Loops a preallocated buffer forever. */
+    private static final class LoopSource implements AudioMixer.Source {
+        private final short[] pcm;
+        private int pos = 0;
+        LoopSource(short[] pcm) { this.pcm = pcm; }
+
+        @Override public int read(short[] dst, int samples) {
+            for (int i = 0; i < samples; i++) {
+                dst[i] = pcm[pos];
+                if (++pos == pcm.length) pos = 0;
+            }
+            return samples;
+        }
+    }
+
+    private static short[] melody(double hz, int amplitude) {
+        short[] pcm = new short[SAMPLE_RATE];
+        for (int i = 0; i < pcm.length; i++) pcm[i] = (short) (amplitude * Math.sin(2 * Math.PI * hz * i / SAMPLE_RATE));
+        return pcm;
+    }
+
+    private static short[] talk(Random random) {
+        int burst = SAMPLE_RATE * TALK_MS / 1000;
+        short[] pcm = new short[2 * burst];
+        for (int i = 0; i < burst; i++) pcm[i] = (short) (4000 * random.nextGaussian());
+        return pcm;
+    }
+
+    private static AudioMixer mixer(int frameSamples, int sources, long seed) {
+        AudioMixer mixer = new AudioMixer(frameSamples, DUCK_THRESHOLD, DUCK_GAIN);
+        mixer.addSource(new LoopSource(talk(new Random(seed))), 1.0f, true, false);
+        for (int s = 1; s < sources; s++) mixer.addSource(new LoopSource(melody(220 * s, 8000 / sources)), 0.8f, false, true);
+        return mixer;
+    }
+
+    // --- Throughput ---
+
+    private static void throughput(int frameSamples, int sources, int seconds, int runs) {
+        AudioMixer mixer = mixer(frameSamples, sources, 1);
+        short[] out = new short[frameSamples];
+        int frames = seconds * SAMPLE_RATE / frameSamples;
+        List<Double> times = new ArrayList<>();
+        long allocated = Long.MAX_VALUE;
+        for (int r = 0; r < WARMUP_RUNS + runs; r++) {
+            long bytesBefore = BenchmarkSupport.allocatedBytes();
+            long start = System.nanoTime();
+            for (int f = 0; f < frames; f++) mixer.mix(out);
+            long elapsed = System.nanoTime() - start;
+            long bytesAfter = BenchmarkSupport.allocatedBytes();
+            if (r < WARMUP_RUNS) continue;
+            times.add(elapsed / (double) frames);
+            allocated = bytesBefore < 0 ? -1 : Math.min(allocated, bytesAfter - bytesBefore); // A recompile can allocate once; a frame would every run
+        }
+        Collections.sort(times);
+        double ns = times.get(times.size() / 2);
+        double frameNanos = frameSamples * 1e9 / SAMPLE_RATE;
+        System.out.println(String.format(Locale.US, "%5d ms | %7d | %7.0f %7.0f | %8.0fx | %s",
+                frameSamples * 1000 / SAMPLE_RATE, sources, ns, times.get(times.size() - 1), frameNanos / ns,
+                allocated < 0 ? "-" : String.format(Locale.US, "%.1f", allocated / (double) frames)));
+    }
+
+    // --- Ducking ---
+
+    private static void ducking(int frameSamples) {
+        AudioMixer mixer = mixer(frameSamples, 2, 1);
+        short[] out = new short[frameSamples];
+        int burstFrames = SAMPLE_RATE * TALK_MS / 1000 / frameSamples;
+        int attack = -1, release = -1;
+        int maxStep = 0;
+        short previous = 0;
+        for (int f = 0; f < 2 * burstFrames; f++) {
+            mixer.mix(out);
+            float level = mixer.getDuckLevel();
+            if (attack < 0 && f < burstFrames && level <= DUCK_GAIN + 0.1f * (1 - DUCK_GAIN)) attack = f + 1;
+            if (release < 0 && f >= burstFrames && level >= 1 - 0.1f * (1 - DUCK_GAIN)) release = f + 1 - burstFrames;
+            if (f < burstFrames) continue; // Only the melody plays in the quiet half
+            for (int i = 0; i < frameSamples; i++) {
+                maxStep = Math.max(maxStep, Math.abs(out[i] - previous));
+                previous = out[i];
+            }
+        }
+        // The melody on its own at full gain, for comparison
+        short[] tone = melody(220, 4000);
+        int toneStep = 0;
+        for (int i = 1; i < tone.length; i++) toneStep = Math.max(toneStep, Math.abs(tone[i] - tone[i - 1]));
+        System.out.println(String.format(Locale.US, "%5d ms | %4d frames (%3d ms) | %4d frames (%4d ms) | %5d (melody alone %d)",
+                frameSamples * 1000 / SAMPLE_RATE, attack, attack * frameSamples * 1000 / SAMPLE_RATE,
+                release, release * frameSamples * 1000 / SAMPLE_RATE, maxStep, Math.round(toneStep * 0.8f)));
+    }
+
+    public static void main(String[] args) {
+        int seconds = 60;
+        int runs = 9;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--seconds": seconds = Integer.parseInt(args[++i]); break;
+                case "--runs": runs = Integer.parseInt(args[++i]); break;
+                default: throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+
+        System.out.println("Mix of one talking mic and ducked melodies, " + seconds + " s of audio per run:");
+        System.out.println("median and worst-run ns per frame, real-time factor for one send path, bytes allocated per frame");
+        System.out.println(String.format(Locale.US, "%8s | %7s | %7s %7s | %9s | %s", "frame", "sources", "median", "worst", "realtime", "alloc"));
+        for (int frameSamples : FRAME_SAMPLES) for (int sources : SOURCE_COUNTS) throughput(frameSamples, sources, seconds, runs);
+        System.out.println();
+
+        System.out.println(String.format(Locale.US, "Ducking to %.2f: frames until the melody is within 10%% of the ducked gain and back,", DUCK_GAIN));
+        System.out.println("and the largest step between neighbouring samples while the gain moves back");
+        System.out.println(String.format(Locale.US, "%8s | %20s | %21s | %s", "frame", "attack", "release", "max step"));
+        for (int frameSamples : FRAME_SAMPLES) ducking(frameSamples);
+    }
+}
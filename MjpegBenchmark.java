@@ -0,0 +1,193 @@
+package com.example.audio;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import javax.imageio.ImageIO;
+
+/**
+ * Cost and behaviour of the MJPEG path of {@link MjpegView} ({@link MjpegStreamParser},
+ * {@link MjpegClient}, {@link LatestFrameExchange}) on one core of a plain JVM.
+ *
+ * Synthetic 640x480 JPEGs (a moving gradient with sensor noise, about the size the ESP32-CAM
+ * sends) are served the way its {@code /stream} handler does: multipart/x-mixed-replace, one
+ * boundary, Content-Type, Content-Length and X-Timestamp per part. Reports:
+ * - parser cost per frame, with and without Content-Length, and its share of one core at the
+ *   stream rate;
+ * - end to end over a loopback HTTP connection, with ImageIO standing in for BitmapFactory:
+ *   frames shown per second, decode time, frames dropped and the age of each shown frame (from
+ *   its last byte arriving to its decode finishing); once with decoding keeping up and once with
+ *   every decode slowed past the frame interval, next to how far behind a FIFO queue would be;
+ * - the memory the view holds: three JPEG buffers and one RGB_565 bitmap.
+ * Android's decoder, the TextureView and a WebView cannot be measured here; on a phone compare
+ * the view's stats line and its log with {@code dumpsys meminfo} against the WebView build.
+ *
+ * Usage: MjpegBenchmark [--fps F] [--seconds S] [--slow-ms M] [--seed S]
+ */
+public class MjpegBenchmark {
+
+    private static final int WIDTH = 640;
+    private static final int HEIGHT = 480;
+    private static final int FRAMES = 8;
+    private static final String BOUNDARY = "123456789000000000000987654321"; // As in the ESP32-CAM example
+    private static final int PARSE_PARTS = 2000;
+
+    private static List<byte[]> jpegs(long seed) throws IOException {
+        Random random = new Random(seed);
+        List<byte[]> out = new ArrayList<>();
+        BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+        for (int f = 0; f < FRAMES; f++) {
+            for (int y = 0; y < HEIGHT; y++) {
+                for (int x = 0; x < WIDTH; x++) {
+                    int v = ((x + 8 * f) * 255 / WIDTH + y * 128 / HEIGHT) & 0xFF;
+                    int n = (int) (random.nextGaussian() * 6);
+                    int r = clamp(v + n), g = clamp(v * 3 / 4 + n), b = clamp(255 - v + n);
+                    image.setRGB(x, y, (r << 16) | (g << 8) | b);
+                }
+            }
+            ByteArrayOutputStream jpeg = new ByteArrayOutputStream();
+            ImageIO.write(image, "jpg", jpeg);
+            out.add(jpeg.toByteArray());
+        }
+        return out;
+    }
+
+    private static int clamp(int v) { return Math.max(0, Math.min(255, v)); }
+
+    private static byte[] part(byte[] jpeg, boolean contentLength, long millis) {
+        String headers = "\r\n--" + BOUNDARY + "\r\nContent-Type: image/jpeg\r\n"
+                + (contentLength ? "Content-Length: " + jpeg.length + "\r\n" : "")
+                + String.format(Locale.US, "X-Timestamp: %d.%06d\r\n\r\n", millis / 1000, (millis % 1000) * 1000);
+        byte[] h = headers.getBytes(StandardCharsets.US_ASCII);
+        byte[] out = new byte[h.length + jpeg.length];
+        System.arraycopy(h, 0, out, 0, h.length);
+        System.arraycopy(jpeg, 0, out, h.length, jpeg.length);
+        return out;
+    }
+
+    // --- Parser alone ---
+
+    private static double parseMicrosPerFrame(List<byte[]> jpegs, boolean contentLength) throws IOException {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        for (int i = 0; i < PARSE_PARTS; i++) stream.write(part(jpegs.get(i % jpegs.size()), contentLength, i * 50L));
+        byte[] bytes = stream.toByteArray();
+        MjpegStreamParser.Frame frame = new MjpegStreamParser.Frame();
+        double best = Double.MAX_VALUE;
+        for (int run = 0; run < 7; run++) { // Best of several runs: the first ones compile
+            MjpegStreamParser parser = new MjpegStreamParser(new ByteArrayInputStream(bytes), 512 * 1024);
+            long start = System.nanoTime();
+            int n = 0;
+            while (parser.readFrame(frame)) n++;
+            if (n != PARSE_PARTS) throw new IllegalStateException("Parsed " + n + " of " + PARSE_PARTS + " parts");
+            best = Math.min(best, (System.nanoTime() - start) / 1000.0 / n);
+        }
+        return best;
+    }
+
+    // --- End to end ---
+
+    // Serves the stream like the ESP32-CAM at 'fps' until 'seconds' have passed
+    private static Thread serve(ServerSocket server, List<byte[]> jpegs, int fps, int seconds) {
+        Thread t = new Thread(() -> {
+            try (Socket socket = server.accept(); OutputStream out = socket.getOutputStream()) {
+                socket.getInputStream().read(new byte[4096]); // The request; its content doesn't matter
+                out.write(("HTTP/1.1 200 OK\r\nContent-Type: multipart/x-mixed-replace;boundary=" + BOUNDARY + "\r\nConnection: close\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+                long start = System.nanoTime(), interval = 1_000_000_000L / fps;
+                for (int f = 0; f < fps * seconds; f++) {
+                    long due = start + f * interval;
+                    long wait = due - System.nanoTime();
+                    if (wait > 0) Thread.sleep(wait / 1_000_000L, (int) (wait % 1_000_000L));
+                    out.write(part(jpegs.get(f % jpegs.size()), true, (System.nanoTime() - start) / 1_000_000L));
+                    out.flush();
+                }
+            } catch (IOException | InterruptedException e) {
+                System.out.println("server: " + e);
+            }
+        }, "MjpegServer");
+        t.start();
+        return t;
+    }
+
+    private static void endToEnd(String name, List<byte[]> jpegs, int fps, int seconds, long slowMillis) throws Exception {
+        try (ServerSocket server = new ServerSocket(0)) {
+            Thread serverThread = serve(server, jpegs, fps, seconds);
+            LatestFrameExchange<MjpegStreamParser.Frame> exchange = new LatestFrameExchange<>(MjpegStreamParser.Frame::new);
+            final boolean[] running = { true };
+            MjpegClient client = new MjpegClient("http://127.0.0.1:" + server.getLocalPort() + "/stream", exchange, () -> running[0]);
+            Thread clientThread = new Thread(client, "MjpegNetwork");
+            clientThread.start();
+
+            List<Double> decodeMillis = new ArrayList<>(), ageMillis = new ArrayList<>();
+            long first = 0, last = 0;
+            while (serverThread.isAlive() || exchange.getPublished() > decodeMillis.size() + exchange.getDropped()) {
+                MjpegStreamParser.Frame frame = exchange.take(200_000_000L);
+                if (frame == null) continue;
+                long start = System.nanoTime();
+                BufferedImage image = ImageIO.read(new ByteArrayInputStream(frame.data, 0, frame.length));
+                if (image == null || image.getWidth() != WIDTH) throw new IllegalStateException("Bad frame " + frame.sequence);
+                if (slowMillis > 0) Thread.sleep(slowMillis); // A slower phone, or a busy one
+                long end = System.nanoTime();
+                decodeMillis.add((end - start) / 1e6);
+                ageMillis.add((end - frame.receivedNanos) / 1e6);
+                if (first == 0) first = end;
+                last = end;
+            }
+            running[0] = false;
+            client.close();
+            clientThread.join(2000);
+
+            Collections.sort(decodeMillis);
+            List<Double> ages = new ArrayList<>(ageMillis);
+            Collections.sort(ages);
+            int shown = decodeMillis.size();
+            double service = decodeMillis.get(shown / 2);
+            double fifoBehind = Math.max(0, seconds * (fps * service - 1000)); // A queue gets (service - interval) further behind per frame sent
+            System.out.println(String.format(Locale.US, "%-14s | %5d %5d %5d | %5.1f | %6.1f %6.1f | %6.1f %6.1f | %8.0f",
+                    name, client.getFramesReceived(), shown, exchange.getDropped(), (shown - 1) * 1e9 / Math.max(1, last - first),
+                    service, decodeMillis.get(shown - 1), ages.get(ages.size() / 2), ages.get(ages.size() - 1), fifoBehind));
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int fps = 20, seconds = 10;
+        long slowMillis = 80, seed = 1;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--fps": fps = Integer.parseInt(args[++i]); break;
+                case "--seconds": seconds = Integer.parseInt(args[++i]); break;
+                case "--slow-ms": slowMillis = Long.parseLong(args[++i]); break;
+                case "--seed": seed = Long.parseLong(args[++i]); break;
+                default: throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+        List<byte[]> jpegs = jpegs(seed);
+        int maxJpeg = 0;
+        long total = 0;
+        for (byte[] j : jpegs) { maxJpeg = Math.max(maxJpeg, j.length); total += j.length; }
+        System.out.println(String.format(Locale.US, "%dx%d JPEGs, %.1f KB average, %d fps (%.0f KB/s)", WIDTH, HEIGHT, total / 1024.0 / jpegs.size(), fps, total / 1024.0 / jpegs.size() * fps));
+
+        for (boolean contentLength : new boolean[] { true, false }) {
+            double micros = parseMicrosPerFrame(jpegs, contentLength);
+            System.out.println(String.format(Locale.US, "parse %-22s: %6.1f us per frame, %.3f%% of one core at %d fps",
+                    contentLength ? "with Content-Length" : "scanning for EOI", micros, 100 * micros * fps / 1e6, fps));
+        }
+
+        System.out.println("End to end over loopback, ImageIO decode; ms: decode median/worst, frame age median/worst, FIFO backlog at the end");
+        System.out.println(String.format(Locale.US, "%-14s | %5s %5s %5s | %5s | %6s %6s | %6s %6s | %8s", "decoder", "recv", "shown", "drop", "fps", "dec", "worst", "age", "worst", "fifo"));
+        endToEnd("keeping up", jpegs, fps, seconds, 0);
+        endToEnd("+" + slowMillis + " ms/frame", jpegs, fps, seconds, slowMillis);
+
+        System.out.println(String.format(Locale.US, "memory: 3 JPEG buffers %.0f KB + RGB_565 bitmap %.0f KB = %.0f KB, reused for the whole stream",
+                3 * maxJpeg / 1024.0, WIDTH * HEIGHT * 2 / 1024.0, (3 * maxJpeg + WIDTH * HEIGHT * 2) / 1024.0));
+    }
+}
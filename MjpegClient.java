@@ -0,0 +1,121 @@
+package com.example.audio;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Locale;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Network side of the camera view: keeps an HTTP connection to an MJPEG stream open, parses it
+ * with {@link MjpegStreamParser} and publishes every JPEG into a {@link LatestFrameExchange}, and
+ * a copy into an optional second one for analysis (the ESP32-CAM serves one client at a time, so
+ * display and analysis share the connection).
+ *
+ * Runs on its own thread until {@code running} turns false or {@link #close} is called, which
+ * also unblocks a pending read. A dropped or refused connection is retried after a backoff that
+ * doubles up to {@link #MAX_BACKOFF_MS} and starts over once a connection delivered frames.
+ */
+public class MjpegClient implements Runnable {
+
+    private static final int CONNECT_TIMEOUT_MS = 3000;
+    private static final int READ_TIMEOUT_MS = 5000; // The camera sends several frames a second; silence this long is a dead link
+    private static final int MAX_FRAME_BYTES = 512 * 1024;
+    private static final long INITIAL_BACKOFF_MS = 500;
+    private static final long MAX_BACKOFF_MS = 5000;
+
+    private final String url;
+    private final LatestFrameExchange<MjpegStreamParser.Frame> exchange;
+    private final LatestFrameExchange<MjpegStreamParser.Frame> analysis;
+    private final BooleanSupplier running;
+    private volatile boolean closed = false;
+    private volatile HttpURLConnection connection;
+
+    private volatile long framesReceived = 0;
+    private volatile long bytesReceived = 0;
+    private volatile long badParts = 0;
+    private volatile int connects = 0;
+    private volatile IOException lastError = null;
+
+    public MjpegClient(String url, LatestFrameExchange<MjpegStreamParser.Frame> exchange, BooleanSupplier running) {
+        this(url, exchange, null, running);
+    }
+
+    /** {@code analysis} may be null. */
+    public MjpegClient(String url, LatestFrameExchange<MjpegStreamParser.Frame> exchange, LatestFrameExchange<MjpegStreamParser.Frame> analysis, BooleanSupplier running) {
+        this.url = url;
+        this.exchange = exchange;
+        this.analysis = analysis;
+        this.running = running;
+    }
+
+    @Override
+    public void run() {
+        long backoff = INITIAL_BACKOFF_MS;
+        while (isRunning()) {
+            long framesBefore = framesReceived;
+            try {
+                stream();
+            } catch (IOException e) {
+                if (isRunning()) lastError = e;
+            } finally {
+                HttpURLConnection c = connection;
+                connection = null;
+                if (c != null) c.disconnect();
+            }
+            if (framesReceived != framesBefore) backoff = INITIAL_BACKOFF_MS;
+            if (!isRunning()) break;
+            try { Thread.sleep(backoff); } catch (InterruptedException e) { Thread.currentThread().interrupt(); break; }
+            backoff = Math.min(MAX_BACKOFF_MS, backoff * 2);
+        }
+    }
+
+    private void stream() throws IOException {
+        HttpURLConnection c = (HttpURLConnection) new URL(url).openConnection();
+        connection = c;
+        if (closed) return;
+        c.setConnectTimeout(CONNECT_TIMEOUT_MS);
+        c.setReadTimeout(READ_TIMEOUT_MS);
+        c.setUseCaches(false);
+        int status = c.getResponseCode();
+        if (status != HttpURLConnection.HTTP_OK) throw new IOException("MJPEG stream: HTTP " + status);
+        String contentType = c.getContentType();
+        if (contentType == null || !contentType.toLowerCase(Locale.ROOT).startsWith("multipart/") || MjpegStreamParser.boundaryOf(contentType) == null) {
+            throw new IOException("MJPEG stream: not multipart (" + contentType + ")");
+        }
+        connects++;
+        try (InputStream in = c.getInputStream()) {
+            MjpegStreamParser parser = new MjpegStreamParser(in, MAX_FRAME_BYTES);
+            long bytesBefore = 0, badBefore = 0;
+            while (isRunning() && parser.readFrame(exchange.writable())) {
+                if (analysis != null) { // A memcpy of a few tens of KB; decoding it is the analysis thread's business
+                    analysis.writable().copyFrom(exchange.writable());
+                    analysis.publish();
+                }
+                exchange.publish();
+                framesReceived++;
+                bytesReceived += parser.getBytesRead() - bytesBefore;
+                badParts += parser.getBadParts() - badBefore;
+                bytesBefore = parser.getBytesRead();
+                badBefore = parser.getBadParts();
+            }
+        }
+    }
+
+    private boolean isRunning() { return !closed && running.getAsBoolean() && !Thread.currentThread().isInterrupted(); }
+
+    /** Stops the client; safe from any thread. */
+    public void close() {
+        closed = true;
+        HttpURLConnection c = connection;
+        if (c != null) c.disconnect(); // Closes the socket under a blocked read
+    }
+
+    public long getFramesReceived() { return framesReceived; }
+    public long getBytesReceived() { return bytesReceived; }
+    public long getBadParts() { return badParts; }
+    public int getConnects() { return connects; }
+    /** The error that ended the last connection, or null. */
+    public IOException getLastError() { return lastError; }
+}
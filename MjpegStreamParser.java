@@ -0,0 +1,166 @@
+package com.example.audio;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Streaming parser for the {@code multipart/x-mixed-replace} MJPEG stream of the ESP32-CAM
+ * ({@code /stream}): each part is a boundary line, a few headers, a blank line and one JPEG.
+ *
+ * Parts with a {@code Content-Length} header (the ESP32-CAM always sends one) are read with a
+ * single bulk copy; parts without one are scanned for the JPEG end-of-image marker. Each JPEG goes
+ * into a caller-owned {@link Frame} whose array only grows, so a steady stream allocates nothing.
+ * Not thread-safe; one parser per connection.
+ */
+public class MjpegStreamParser {
+
+    private static final int BUFFER_BYTES = 16 * 1024;
+    private static final int MAX_LINE_BYTES = 1024;
+
+    /** One JPEG as received; {@code data} is reused from frame to frame. */
+    public static final class Frame {
+        public byte[] data = new byte[0];
+        public int length;
+        public long receivedNanos; // When its last byte arrived
+        public long sequence;      // Counts parts of the connection, so gaps show frames dropped downstream
+
+        /** Makes this a copy of {@code other}, growing the array if needed. */
+        public void copyFrom(Frame other) {
+            if (data.length < other.length) data = new byte[other.data.length];
+            System.arraycopy(other.data, 0, data, 0, other.length);
+            length = other.length;
+            receivedNanos = other.receivedNanos;
+            sequence = other.sequence;
+        }
+
+        void ensureCapacity(int bytes) {
+            if (data.length < bytes) data = Arrays.copyOf(data, Math.max(bytes, data.length + data.length / 2)); // Keeps what a scan has copied so far
+        }
+    }
+
+    private final InputStream in;
+    private final int maxFrameBytes;
+    private final byte[] buffer = new byte[BUFFER_BYTES];
+    private final byte[] line = new byte[MAX_LINE_BYTES];
+    private int pos = 0;
+    private int limit = 0;
+    private long parts = 0;
+    private long badParts = 0;
+    private long bytesRead = 0;
+
+    public MjpegStreamParser(InputStream in, int maxFrameBytes) {
+        this.in = in;
+        this.maxFrameBytes = maxFrameBytes;
+    }
+
+    /**
+     * Reads the next JPEG into {@code frame}. Returns false at the end of the stream; parts that
+     * do not hold a JPEG are skipped (counted by {@link #getBadParts}).
+     */
+    public boolean readFrame(Frame frame) throws IOException {
+        while (true) {
+            int contentLength = readHeaders();
+            if (contentLength == -2) return false;
+            boolean complete = contentLength >= 0 ? readBody(frame, contentLength) : scanBody(frame);
+            if (!complete) return false;
+            parts++;
+            if (frame.length < 4 || (frame.data[0] & 0xFF) != 0xFF || (frame.data[1] & 0xFF) != 0xD8) { badParts++; continue; }
+            frame.receivedNanos = System.nanoTime();
+            frame.sequence = parts;
+            return true;
+        }
+    }
+
+    // --- Part headers ---
+
+    // Skips to the next boundary line and reads the headers after it; -1 if no Content-Length, -2 at end of stream
+    private int readHeaders() throws IOException {
+        int n;
+        do {
+            n = readLine();
+            if (n < 0) return -2;
+        } while (n < 2 || line[0] != '-' || line[1] != '-'); // Blank lines and any preamble before the boundary
+        int contentLength = -1;
+        while ((n = readLine()) > 0) {
+            String header = new String(line, 0, n, StandardCharsets.US_ASCII);
+            int colon = header.indexOf(':');
+            if (colon > 0 && header.substring(0, colon).trim().equalsIgnoreCase("Content-Length")) {
+                try { contentLength = Integer.parseInt(header.substring(colon + 1).trim()); } catch (NumberFormatException e) { contentLength = -1; }
+            }
+        }
+        if (n < 0) return -2;
+        if (contentLength > maxFrameBytes) throw new IOException("MJPEG part too large: " + contentLength + " bytes");
+        return contentLength;
+    }
+
+    // Length of the next line without its CR LF, or -1 at end of stream
+    private int readLine() throws IOException {
+        int n = 0;
+        while (true) {
+            if (pos == limit && !fill()) return n > 0 ? n : -1;
+            byte b = buffer[pos++];
+            if (b == '\n') return n > 0 && line[n - 1] == '\r' ? n - 1 : n;
+            if (n == MAX_LINE_BYTES) throw new IOException("MJPEG header line too long");
+            line[n++] = b;
+        }
+    }
+
+    // --- Part bodies ---
+
+    private boolean readBody(Frame frame, int length) throws IOException {
+        frame.ensureCapacity(length);
+        int done = Math.min(length, limit - pos);
+        System.arraycopy(buffer, pos, frame.data, 0, done);
+        pos += done;
+        while (done < length) { // Large reads go straight into the frame, past the line buffer
+            int n = in.read(frame.data, done, length - done);
+            if (n < 0) return false;
+            done += n;
+            bytesRead += n;
+        }
+        frame.length = length;
+        return true;
+    }
+
+    // No Content-Length: the JPEG runs from SOI (FF D8) to EOI (FF D9); entropy-coded data never holds FF D9
+    private boolean scanBody(Frame frame) throws IOException {
+        int n = 0;
+        int previous = -1;
+        while (true) {
+            if (pos == limit && !fill()) return false;
+            int b = buffer[pos++] & 0xFF;
+            if (n == maxFrameBytes) throw new IOException("MJPEG part too large: no end of image within " + maxFrameBytes + " bytes");
+            frame.ensureCapacity(n + 1);
+            frame.data[n++] = (byte) b;
+            if (previous == 0xFF && b == 0xD9) break;
+            previous = b;
+        }
+        frame.length = n;
+        return true;
+    }
+
+    private boolean fill() throws IOException {
+        int n = in.read(buffer, 0, buffer.length);
+        if (n <= 0) return false;
+        pos = 0;
+        limit = n;
+        bytesRead += n;
+        return true;
+    }
+
+    /** The {@code boundary} parameter of a multipart Content-Type, or null. */
+    public static String boundaryOf(String contentType) {
+        if (contentType == null) return null;
+        for (String param : contentType.split(";")) {
+            String p = param.trim();
+            if (p.regionMatches(true, 0, "boundary=", 0, 9)) return p.substring(9).replace("\"", "");
+        }
+        return null;
+    }
+
+    public long getParts() { return parts; }
+    public long getBadParts() { return badParts; }
+    public long getBytesRead() { return bytesRead; }
+}
@@ -0,0 +1,323 @@
+package com.example.audio;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.SurfaceTexture;
+import android.util.AttributeSet;
+import android.util.Log;
+import android.view.TextureView;
+
+import java.io.IOException;
+import java.util.Locale;
+
+/**
+ * Shows the ESP32-CAM MJPEG stream without a WebView: an {@link MjpegClient} thread receives the
+ * JPEGs, a decode thread decodes the newest one into a reused {@link Bitmap} ({@code inBitmap})
+ * and draws it on this TextureView through a {@link Matrix} that fits the picture and applies
+ * zoom and pan. Frames that arrive while a decode is running replace each other
+ * ({@link LatestFrameExchange}), so a slow phone shows fewer frames rather than older ones.
+ *
+ * With a {@link MotionDetector} set, a third thread gets a copy of every JPEG through its own
+ * exchange, decodes it at 1/8 scale or so (the JPEG decoder then only needs the DC coefficients)
+ * into a small reused bitmap and feeds its luma to the detector. It runs at the lowest priority
+ * and skips whatever arrives while it is busy, so the shown picture never waits for it; with the
+ * display disabled it goes on while the activity is in the background.
+ *
+ * {@link #start} / {@link #stop} and the setters are called on the main thread.
+ */
+public class MjpegView extends TextureView implements TextureView.SurfaceTextureListener {
+
+    private static final String TAG = "MjpegView";
+    private static final long TAKE_TIMEOUT_NANOS = 500_000_000L;
+    private static final long STATS_INTERVAL_NANOS = 1_000_000_000L;
+    private static final long JOIN_TIMEOUT_MS = 1000;
+    private static final int MOTION_TARGET_WIDTH = 80; // Analysed width; the sample size adapts to the camera resolution
+
+    /** Called on the decode thread about once a second while frames are shown. */
+    public interface StatsListener {
+        void onStats(float fps, float decodeMillis, long dropped, int bitmapBytes);
+    }
+
+    private final Object surfaceLock = new Object();
+    private final Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final Matrix matrix = new Matrix();
+    private boolean surfaceReady = false; // Under surfaceLock
+
+    private volatile boolean running = false;
+    private volatile boolean redrawRequested = false;
+    private volatile float zoom = 1.0f;
+    private volatile float panX = 0, panY = 0;
+    private volatile StatsListener statsListener;
+    private volatile boolean displayEnabled = true;
+    private MotionDetector motionDetector;
+
+    private LatestFrameExchange<MjpegStreamParser.Frame> exchange;
+    private LatestFrameExchange<MjpegStreamParser.Frame> motionExchange;
+    private MjpegClient client;
+    private Thread networkThread;
+    private Thread decodeThread;
+    private Thread motionThread;
+    private volatile long motionFrames = 0;
+    private volatile long motionBusyNanos = 0;
+
+    public MjpegView(Context context) {
+        super(context);
+        setSurfaceTextureListener(this);
+    }
+
+    public MjpegView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        setSurfaceTextureListener(this);
+    }
+
+    public void setStatsListener(StatsListener listener) { statsListener = listener; }
+
+    /** Detector fed from the next {@link #start} on; null for none. */
+    public void setMotionDetector(MotionDetector detector) { motionDetector = detector; }
+
+    /** False stops decoding and drawing but keeps the stream and any motion analysis running. */
+    public void setDisplayEnabled(boolean enabled) {
+        displayEnabled = enabled;
+        if (enabled) requestRedraw();
+    }
+
+    // --- Lifecycle ---
+
+    public void start(String url) {
+        if (running) return;
+        running = true;
+        exchange = new LatestFrameExchange<>(MjpegStreamParser.Frame::new);
+        final MotionDetector detector = motionDetector;
+        motionExchange = detector != null ? new LatestFrameExchange<>(MjpegStreamParser.Frame::new) : null;
+        client = new MjpegClient(url, exchange, motionExchange, () -> running);
+        final LatestFrameExchange<MjpegStreamParser.Frame> ex = exchange, motionEx = motionExchange;
+        networkThread = new Thread(client, "MjpegNetwork");
+        decodeThread = new Thread(() -> decodeLoop(ex), "MjpegDecode");
+        decodeThread.setPriority(Thread.NORM_PRIORITY - 1); // Audio threads come first
+        networkThread.start();
+        decodeThread.start();
+        if (detector != null) {
+            motionThread = new Thread(() -> motionLoop(motionEx, detector), "MjpegMotion");
+            motionThread.setPriority(Thread.MIN_PRIORITY);
+            motionThread.start();
+        }
+        Log.d(TAG, "[Camera] Streaming from " + url);
+    }
+
+    /**
+     * Returns at once: closing the client unblocks the network read and the interrupts wake the
+     * other threads, which a short-lived thread then joins before logging what they did, so the
+     * main thread never waits on a slow socket or a decode in progress.
+     */
+    public void stop() {
+        if (!running) return;
+        running = false;
+        final MjpegClient c = client;
+        final LatestFrameExchange<MjpegStreamParser.Frame> ex = exchange, motionEx = motionExchange;
+        final Thread network = networkThread, decode = decodeThread, motion = motionThread;
+        final MotionDetector detector = motionDetector;
+        c.close();
+        network.interrupt(); // Ends a reconnect backoff
+        decode.interrupt();
+        if (motion != null) motion.interrupt();
+        networkThread = null; decodeThread = null; motionThread = null; client = null; exchange = null; motionExchange = null;
+        Thread reaper = new Thread(() -> {
+            try {
+                network.join(JOIN_TIMEOUT_MS);
+                decode.join(JOIN_TIMEOUT_MS);
+                if (motion != null) motion.join(JOIN_TIMEOUT_MS);
+            } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+            if (network.isAlive() || decode.isAlive() || (motion != null && motion.isAlive())) Log.d(TAG, "[Camera] A stream thread is still running after stop");
+            IOException error = c.getLastError();
+            Log.d(TAG, "[Camera] Stopped: connects=" + c.getConnects() + ", frames=" + c.getFramesReceived() + ", bytes=" + c.getBytesReceived()
+                    + ", dropped=" + ex.getDropped() + ", badParts=" + c.getBadParts() + (error != null ? ", lastError=" + error.getMessage() : ""));
+            if (motionEx != null) {
+                long frames = motionFrames;
+                Log.d(TAG, String.format(Locale.US, "[Motion] Analysed %d frames (%d skipped), %.2f ms average, %d motion events, %d lighting changes",
+                        frames, motionEx.getDropped(), frames > 0 ? motionBusyNanos / 1e6 / frames : 0.0, detector.getMotionEvents(), detector.getLightingChanges()));
+            }
+        }, "MjpegStop");
+        reaper.setDaemon(true);
+        reaper.start();
+    }
+
+    // --- Zoom and pan ---
+
+    /** Zoom around the centre; 1 shows the whole picture. Resets the pan when back at 1. */
+    public void setZoom(float zoom) {
+        this.zoom = Math.max(1.0f, zoom);
+        if (this.zoom <= 1.01f) { panX = 0; panY = 0; }
+        clampPan();
+        requestRedraw();
+    }
+
+    public float getZoom() { return zoom; }
+
+    /** Moves the zoomed picture by a drag of {@code dx, dy} pixels; limited to the picture's edges. */
+    public void panBy(float dx, float dy) {
+        if (zoom <= 1.0f) return;
+        panX += dx;
+        panY += dy;
+        clampPan();
+        requestRedraw();
+    }
+
+    private void clampPan() {
+        float maxX = getWidth() * (zoom - 1) / 2;
+        float maxY = getHeight() * (zoom - 1) / 2;
+        panX = Math.max(-maxX, Math.min(maxX, panX));
+        panY = Math.max(-maxY, Math.min(maxY, panY));
+    }
+
+    private void requestRedraw() {
+        redrawRequested = true;
+        LatestFrameExchange<MjpegStreamParser.Frame> ex = exchange;
+        if (ex != null) ex.wakeUp();
+    }
+
+    // --- Decode and draw ---
+
+    private void decodeLoop(LatestFrameExchange<MjpegStreamParser.Frame> exchange) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inMutable = true; // Required for inBitmap
+        options.inPreferredConfig = Bitmap.Config.RGB_565; // JPEG has no alpha: half the memory of ARGB_8888
+        Bitmap bitmap = null;
+        long intervalStart = System.nanoTime(), decodeNanos = 0, frames = 0, droppedBefore = 0, shown = 0, decodeTotalNanos = 0, decodeErrors = 0;
+        try {
+            while (running && !Thread.currentThread().isInterrupted()) { // Interrupted by stop(), even if start() already set running again
+                MjpegStreamParser.Frame frame = exchange.take(TAKE_TIMEOUT_NANOS);
+                if (!displayEnabled) continue; // Taken and thrown away: nobody is looking
+                if (frame != null) {
+                    long start = System.nanoTime();
+                    options.inBitmap = bitmap;
+                    Bitmap decoded;
+                    try {
+                        decoded = BitmapFactory.decodeByteArray(frame.data, 0, frame.length, options);
+                    } catch (IllegalArgumentException e) { // Resolution changed: the old bitmap can't hold it
+                        options.inBitmap = null;
+                        decoded = BitmapFactory.decodeByteArray(frame.data, 0, frame.length, options);
+                    }
+                    long elapsed = System.nanoTime() - start;
+                    if (decoded == null) { decodeErrors++; continue; }
+                    if (bitmap != null && decoded != bitmap) bitmap.recycle();
+                    bitmap = decoded;
+                    decodeNanos += elapsed;
+                    decodeTotalNanos += elapsed;
+                    frames++;
+                    shown++;
+                    draw(bitmap);
+                } else if (redrawRequested && bitmap != null) {
+                    draw(bitmap);
+                }
+                long now = System.nanoTime();
+                if (now - intervalStart >= STATS_INTERVAL_NANOS && frames > 0) {
+                    StatsListener listener = statsListener;
+                    long dropped = exchange.getDropped();
+                    if (listener != null) listener.onStats(frames * 1e9f / (now - intervalStart), decodeNanos / 1e6f / frames, dropped - droppedBefore, bitmap.getAllocationByteCount());
+                    intervalStart = now; decodeNanos = 0; frames = 0; droppedBefore = dropped;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            Log.d(TAG, String.format(Locale.US, "[Camera] Decoded %d frames, %.1f ms average, %d decode errors, bitmap %d bytes",
+                    shown, shown > 0 ? decodeTotalNanos / 1e6 / shown : 0.0, decodeErrors, bitmap != null ? bitmap.getAllocationByteCount() : 0));
+            if (bitmap != null) bitmap.recycle();
+        }
+    }
+
+    // --- Motion analysis ---
+
+    private void motionLoop(LatestFrameExchange<MjpegStreamParser.Frame> exchange, MotionDetector detector) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inMutable = true;
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888; // RGB_565 would leave 5-6 bits of luma
+        options.inSampleSize = 8; // VGA to 80x60; adjusted below for other resolutions
+        Bitmap small = null;
+        int[] pixels = new int[0];
+        byte[] luma = new byte[0];
+        try {
+            while (running && !Thread.currentThread().isInterrupted()) {
+                MjpegStreamParser.Frame frame = exchange.take(TAKE_TIMEOUT_NANOS);
+                if (frame == null) continue;
+                long start = System.nanoTime();
+                options.inBitmap = small;
+                Bitmap decoded;
+                try {
+                    decoded = BitmapFactory.decodeByteArray(frame.data, 0, frame.length, options);
+                } catch (IllegalArgumentException e) {
+                    options.inBitmap = null;
+                    decoded = BitmapFactory.decodeByteArray(frame.data, 0, frame.length, options);
+                }
+                if (decoded == null) continue;
+                if (small != null && decoded != small) small.recycle();
+                small = decoded;
+                int w = small.getWidth(), h = small.getHeight(), n = w * h;
+                if (w >= 2 * MOTION_TARGET_WIDTH) options.inSampleSize *= 2; // Powers of two only: the decoder rounds others down
+                else if (w < MOTION_TARGET_WIDTH && options.inSampleSize > 1) options.inSampleSize /= 2;
+                if (pixels.length != n) { pixels = new int[n]; luma = new byte[n]; }
+                small.getPixels(pixels, 0, w, 0, 0, w, h);
+                for (int i = 0; i < n; i++) {
+                    int p = pixels[i];
+                    luma[i] = (byte) ((77 * ((p >> 16) & 0xFF) + 150 * ((p >> 8) & 0xFF) + 29 * (p & 0xFF)) >> 8); // BT.601
+                }
+                detector.process(luma, w, h, frame.receivedNanos / 1_000_000L);
+                motionBusyNanos += System.nanoTime() - start;
+                motionFrames++;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (small != null) small.recycle();
+        }
+    }
+
+    private void draw(Bitmap bitmap) {
+        redrawRequested = false;
+        synchronized (surfaceLock) {
+            if (!surfaceReady) return;
+            Canvas canvas = lockCanvas();
+            if (canvas == null) return;
+            try {
+                int w = getWidth(), h = getHeight();
+                float fit = Math.min(w / (float) bitmap.getWidth(), h / (float) bitmap.getHeight());
+                matrix.setScale(fit, fit);
+                matrix.postTranslate((w - bitmap.getWidth() * fit) / 2, (h - bitmap.getHeight() * fit) / 2);
+                matrix.postScale(zoom, zoom, w / 2f, h / 2f);
+                matrix.postTranslate(panX, panY);
+                canvas.drawColor(Color.BLACK);
+                canvas.drawBitmap(bitmap, matrix, paint);
+            } finally {
+                unlockCanvasAndPost(canvas);
+            }
+        }
+    }
+
+    // --- SurfaceTextureListener ---
+
+    @Override
+    public void onSurfaceTextureAvailable(SurfaceTexture surface, int width, int height) {
+        synchronized (surfaceLock) { surfaceReady = true; }
+        requestRedraw();
+    }
+
+    @Override
+    public void onSurfaceTextureSizeChanged(SurfaceTexture surface, int width, int height) {
+        clampPan();
+        requestRedraw();
+    }
+
+    @Override
+    public boolean onSurfaceTextureDestroyed(SurfaceTexture surface) {
+        synchronized (surfaceLock) { surfaceReady = false; } // No draw holds the canvas past this point
+        return true;
+    }
+
+    @Override
+    public void onSurfaceTextureUpdated(SurfaceTexture surface) {}
+}
@@ -0,0 +1,140 @@
+package com.example.audio;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Cost and accuracy of the {@link MotionDetector} on one core of a plain JVM.
+ *
+ * Each scene is 120 s of synthetic 80x60 luma at 10 fps (what the camera view analyses: the
+ * ESP32-CAM's VGA JPEGs decoded at 1/8 scale): a room with a cot (a gradient and bars) and sensor
+ * noise, brighter and noisier by day or by infrared night. On top of it: nothing, a slow exposure
+ * drift, the light switched on and off, a baby moving for 10 s and then 3 s, or a curtain moving
+ * at the top of the picture all the time, with the regions of interest set to the cot or to the
+ * whole picture. For each it reports the median and worst time per frame over several runs
+ * (after warmup), the share of one core that is at 10 fps, the lighting changes relearnt and
+ * every motion event with its start and end time, against the seconds the baby actually moved.
+ *
+ * Usage: MotionBenchmark [--runs N] [--seed S]
+ */
+public class MotionBenchmark {
+
+    private static final int WIDTH = 80;
+    private static final int HEIGHT = 60;
+    private static final int FPS = 10;
+    private static final int SCENE_SECONDS = 120;
+    private static final int WARMUP_RUNS = 5;
+    private static final float[] COT_REGION = { 0f, 0.25f, 1f, 1f }; // Everything below the curtain
+
+    private static final class Scene {
+        final String name;
+        final byte[][] frames = new byte[SCENE_SECONDS * FPS][WIDTH * HEIGHT];
+        final boolean[] moving = new boolean[SCENE_SECONDS * FPS];
+        final float[][] regions;
+        Scene(String name, float[]... regions) { this.name = name; this.regions = regions; }
+    }
+
+    private static final int NONE = 0, DRIFT = 1, SWITCH = 2, BABY = 3, CURTAIN = 4;
+
+    private static Scene scene(String name, Random random, double noise, double light, int event, double contrast, float[]... regions) {
+        Scene s = new Scene(name, regions);
+        double bx = 40, by = 38;
+        for (int f = 0; f < s.frames.length; f++) {
+            double t = f / (double) FPS;
+            double gain = 1;
+            if (event == DRIFT) gain = 1 + 0.5 * t / SCENE_SECONDS;   // Exposure creeping up by half
+            if (event == SWITCH && t >= 30 && t < 80) gain = 2.2;      // Lamp on: bright parts brighten most
+            if (event == BABY && ((t >= 40 && t < 50) || (t >= 80 && t < 83))) { // Turning over, then a kick
+                bx = 40 + 14 * Math.sin(t * 1.3);
+                by = 38 + 6 * Math.sin(t * 0.9);
+                s.moving[f] = true;
+            }
+            for (int y = 0; y < HEIGHT; y++) {
+                for (int x = 0; x < WIDTH; x++) {
+                    double v = light * (0.6 + 0.3 * x / WIDTH + 0.2 * y / HEIGHT);
+                    if (y > HEIGHT / 3 && x % 10 < 2) v *= 0.7; // Cot bars
+                    if (event == BABY || event == NONE) { // Baby in the cot, still unless moving
+                        double ex = (x - bx) / 7, ey = (y - by) / 5;
+                        if (ex * ex + ey * ey < 1) v += contrast;
+                    }
+                    if (event == CURTAIN && y < HEIGHT / 5) v += contrast * Math.sin(x * 0.4 + t * 2.1) * Math.sin(t * 0.7);
+                    v = v * gain + random.nextGaussian() * noise;
+                    s.frames[f][y * WIDTH + x] = (byte) Math.max(0, Math.min(255, Math.round(v)));
+                }
+            }
+        }
+        return s;
+    }
+
+    private static List<Scene> scenes(long seed) {
+        Random random = new Random(seed);
+        List<Scene> scenes = new ArrayList<>();
+        scenes.add(scene("still room, day", random, 2, 160, NONE, 30));
+        scenes.add(scene("still room, IR night", random, 5, 90, NONE, 20));
+        scenes.add(scene("exposure drift", random, 3, 120, DRIFT, 30));
+        scenes.add(scene("light switched", random, 3, 80, SWITCH, 30));
+        scenes.add(scene("baby moving, day", random, 2, 160, BABY, 30));
+        scenes.add(scene("baby moving, IR night", random, 5, 90, BABY, 20));
+        scenes.add(scene("curtain, cot region", random, 3, 120, CURTAIN, 30, COT_REGION));
+        scenes.add(scene("curtain, whole picture", random, 3, 120, CURTAIN, 30));
+        return scenes;
+    }
+
+    private static MotionDetector run(Scene scene, StringBuilder events) {
+        MotionDetector detector = new MotionDetector();
+        detector.setRegions(scene.regions);
+        final long[] now = { 0 };
+        if (events != null) detector.setListener((moving, share) -> events.append(String.format(Locale.US, moving ? " %.1f-" : "%.1f", now[0] / 1000.0)));
+        for (int f = 0; f < scene.frames.length; f++) {
+            now[0] = f * 1000L / FPS;
+            detector.process(scene.frames[f], WIDTH, HEIGHT, now[0]);
+        }
+        if (events != null && detector.isMoving()) events.append("end");
+        return detector;
+    }
+
+    private static String truth(Scene scene) {
+        StringBuilder out = new StringBuilder();
+        for (int f = 0; f < scene.moving.length; f++) {
+            if (scene.moving[f] && (f == 0 || !scene.moving[f - 1])) out.append(String.format(Locale.US, " %.1f-", f / (double) FPS));
+            if (!scene.moving[f] && f > 0 && scene.moving[f - 1]) out.append(String.format(Locale.US, "%.1f", f / (double) FPS));
+        }
+        return out.length() == 0 ? " -" : out.toString();
+    }
+
+    private static void measure(Scene scene, int runs) {
+        List<Double> times = new ArrayList<>();
+        for (int r = 0; r < runs; r++) {
+            long start = System.nanoTime();
+            run(scene, null);
+            times.add((System.nanoTime() - start) / 1000.0 / scene.frames.length);
+        }
+        Collections.sort(times);
+        StringBuilder events = new StringBuilder();
+        MotionDetector detector = run(scene, events);
+        double median = times.get(times.size() / 2);
+        System.out.println(String.format(Locale.US, "%-24s | %5.1f %5.1f | %6.3f%% | %3d | %-22s |%s",
+                scene.name, median, times.get(times.size() - 1), 100 * median * FPS / 1e6, detector.getLightingChanges(),
+                events.length() == 0 ? " -" : events.toString(), truth(scene)));
+    }
+
+    public static void main(String[] args) {
+        int runs = 9;
+        long seed = 1;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--runs": runs = Integer.parseInt(args[++i]); break;
+                case "--seed": seed = Long.parseLong(args[++i]); break;
+                default: throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+        System.out.println("Per " + WIDTH + "x" + HEIGHT + " frame: median and worst-run us, share of one core at " + FPS + " fps, lighting changes relearnt, motion events (s), actual motion (s)");
+        System.out.println(String.format(Locale.US, "%-24s | %5s %5s | %7s | %3s | %-22s | %s", "scene", "med", "worst", "core", "lit", "events", "truth"));
+        List<Scene> scenes = scenes(seed);
+        for (int r = 0; r < WARMUP_RUNS; r++) for (Scene scene : scenes) run(scene, null);
+        for (Scene scene : scenes) measure(scene, runs);
+    }
+}
@@ -0,0 +1,259 @@
+package com.example.audio;
+
+import java.util.Arrays;
+
+/**
+ * Watches the camera picture for movement, one small luma plane (about 80x60) at a time, so the
+ * parent can be alerted without watching the screen.
+ *
+ * Every pixel has a background value and a typical deviation from it, both running averages.
+ * A pixel has changed when it is further from its background than a fixed step and a multiple of
+ * its deviation, after taking out the average change of the whole picture (auto exposure, dusk).
+ * Changed pixels only count when at least two of their eight neighbours changed too, so sensor
+ * noise and JPEG artifacts don't add up. Unchanged pixels update their background quickly and
+ * changed ones slowly, but a changed pixel that has held its new value for a second (a blanket
+ * that moved and stays, or the spot the baby moved away from) becomes background at once, so
+ * motion ends soon after the movement does. When most of the picture changes at once (a light
+ * switched, the camera's IR mode) the background is learnt again instead of reporting motion.
+ *
+ * Only pixels inside the regions of interest count, as a share of the regions' area. Motion
+ * starts once the share has stayed above a start threshold for a moment and ends after the share
+ * has stayed below a lower end threshold for a while, so one bout of movement is one event.
+ *
+ * Configuration can be changed from any thread; {@link #process} is for one thread only, and the
+ * listener is called on it.
+ */
+public class MotionDetector {
+
+    public static final float DEFAULT_PIXEL_THRESHOLD = 12f;   // Luma steps, of 255
+    public static final float DEFAULT_NOISE_FACTOR = 4f;       // Times the pixel's usual deviation
+    public static final float DEFAULT_START_SHARE = 0.015f;    // Of the regions' area
+    public static final float DEFAULT_END_SHARE = 0.005f;
+    public static final long DEFAULT_START_MILLIS = 300;
+    public static final long DEFAULT_END_MILLIS = 5000;
+
+    /** Called on the thread running {@link #process} when motion starts or ends. */
+    public interface Listener {
+        void onMotionChanged(boolean moving, float share);
+    }
+
+    private static final float BACKGROUND_RATE = 0.05f; // Per frame, for still pixels
+    private static final float ABSORB_RATE = 0.003f;    // Per frame, for changed pixels
+    private static final float MIN_DEVIATION = 1f;
+    private static final float LIGHTING_SHARE = 0.6f;   // Of the picture changing at once: lighting, not motion
+    private static final int MIN_NEIGHBOURS = 2;
+    private static final long RELEARN_GAP_MILLIS = 10_000; // A background this old is stale
+    private static final long SETTLE_MILLIS = 1000;        // A changed pixel holding still this long is background
+
+    private volatile float pixelThreshold = DEFAULT_PIXEL_THRESHOLD;
+    private volatile float noiseFactor = DEFAULT_NOISE_FACTOR;
+    private volatile float startShare = DEFAULT_START_SHARE;
+    private volatile float endShare = DEFAULT_END_SHARE;
+    private volatile long startMillis = DEFAULT_START_MILLIS;
+    private volatile long endMillis = DEFAULT_END_MILLIS;
+    private volatile float[][] regions = new float[0][]; // Replaced, never changed in place
+    private volatile Listener listener;
+
+    private int width = 0;
+    private int height = 0;
+    private float[] background;
+    private float[] deviation;
+    private byte[] previous;
+    private long[] stillSinceMillis;
+    private boolean[] changed;
+    private boolean[] mask;
+    private int maskCount;
+    private float[][] maskRegions; // The regions the mask was built from
+    private long lastFrameMillis = Long.MIN_VALUE;
+    private long aboveSinceMillis = -1;
+    private int framesAbove = 0;
+    private long lastActiveMillis = 0;
+
+    private volatile boolean moving = false;
+    private volatile float lastShare = 0f;
+    private volatile long framesProcessed = 0;
+    private volatile long motionEvents = 0;
+    private volatile long lightingChanges = 0;
+
+    // --- Configuration ---
+
+    public void setListener(Listener listener) { this.listener = listener; }
+    /** Smallest luma change (0..255) that can count as a changed pixel. */
+    public void setPixelThreshold(float steps) { pixelThreshold = Math.max(1f, steps); }
+    /** A pixel must also change by this many times its usual deviation. */
+    public void setNoiseFactor(float factor) { noiseFactor = Math.max(0f, factor); }
+    /** Share of the regions that must change for motion to start, and below which it ends. */
+    public void setShares(float start, float end) { startShare = start; endShare = Math.min(start, end); }
+    /** How long the share must stay above the start share to start, and below the end share to end. */
+    public void setHoldMillis(long start, long end) { startMillis = Math.max(0, start); endMillis = Math.max(0, end); }
+
+    /**
+     * Regions of interest as {@code {left, top, right, bottom}} in 0..1 of the picture; motion
+     * elsewhere is ignored. No regions means the whole picture.
+     */
+    public void setRegions(float[]... regions) {
+        float[][] copy = new float[regions.length][];
+        for (int i = 0; i < regions.length; i++) {
+            if (regions[i].length != 4) throw new IllegalArgumentException("Region needs left, top, right, bottom: " + Arrays.toString(regions[i]));
+            copy[i] = regions[i].clone();
+        }
+        this.regions = copy;
+    }
+
+    public float getPixelThreshold() { return pixelThreshold; }
+    public float getNoiseFactor() { return noiseFactor; }
+    public float getStartShare() { return startShare; }
+    public float getEndShare() { return endShare; }
+    public long getStartMillis() { return startMillis; }
+    public long getEndMillis() { return endMillis; }
+
+    // --- Processing ---
+
+    /**
+     * Analyses one {@code width} x {@code height} luma plane (row by row, unsigned bytes) taken at
+     * {@code timeMillis}. Returns whether there is motion.
+     */
+    public boolean process(byte[] luma, int width, int height, long timeMillis) {
+        int n = width * height;
+        if (width != this.width || height != this.height) {
+            this.width = width;
+            this.height = height;
+            background = new float[n];
+            deviation = new float[n];
+            previous = new byte[n];
+            stillSinceMillis = new long[n];
+            changed = new boolean[n];
+            mask = new boolean[n];
+            maskRegions = null;
+            lastFrameMillis = Long.MIN_VALUE;
+        }
+        framesProcessed++;
+        if (maskRegions != regions) buildMask();
+        if (lastFrameMillis == Long.MIN_VALUE || timeMillis - lastFrameMillis > RELEARN_GAP_MILLIS) {
+            learn(luma, timeMillis);
+            lastFrameMillis = timeMillis;
+            return moving;
+        }
+        lastFrameMillis = timeMillis;
+
+        // Average change over the regions: lighting, not motion
+        double sum = 0;
+        for (int i = 0; i < n; i++) if (mask[i]) sum += (luma[i] & 0xFF) - background[i];
+        float shift = maskCount > 0 ? (float) (sum / maskCount) : 0f;
+
+        float threshold = pixelThreshold, factor = noiseFactor;
+        int lit = 0;
+        for (int i = 0; i < n; i++) {
+            int v = luma[i] & 0xFF;
+            float limit = Math.max(threshold, factor * deviation[i]);
+            boolean c = Math.abs(v - background[i] - shift) > limit;
+            changed[i] = c;
+            if (mask[i] && Math.abs(v - background[i]) > limit) lit++; // Before taking out the shift: a lamp changes nearly every pixel
+            if (Math.abs(v - (previous[i] & 0xFF)) > limit) stillSinceMillis[i] = timeMillis; // Moved since the last frame
+            previous[i] = luma[i];
+        }
+        if (lit > LIGHTING_SHARE * maskCount) {
+            lightingChanges++;
+            learn(luma, timeMillis);
+            return moving;
+        }
+
+        int counted = 0;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int i = y * width + x;
+                if (!changed[i] || !mask[i]) continue;
+                int neighbours = 0;
+                for (int dy = -1; dy <= 1; dy++) {
+                    int yy = y + dy;
+                    if (yy < 0 || yy >= height) continue;
+                    for (int dx = -1; dx <= 1; dx++) {
+                        int xx = x + dx;
+                        if ((dx != 0 || dy != 0) && xx >= 0 && xx < width && changed[yy * width + xx]) neighbours++;
+                    }
+                }
+                if (neighbours >= MIN_NEIGHBOURS) counted++;
+            }
+        }
+
+        for (int i = 0; i < n; i++) {
+            float d = (luma[i] & 0xFF) - background[i];
+            if (changed[i]) {
+                background[i] += timeMillis - stillSinceMillis[i] >= SETTLE_MILLIS ? d : d * ABSORB_RATE;
+            } else {
+                background[i] += d * BACKGROUND_RATE;
+                deviation[i] += (Math.max(MIN_DEVIATION, Math.abs(d - shift)) - deviation[i]) * BACKGROUND_RATE;
+            }
+        }
+
+        float share = maskCount > 0 ? counted / (float) maskCount : 0f;
+        lastShare = share;
+        updateState(share, timeMillis);
+        return moving;
+    }
+
+    private void updateState(float share, long timeMillis) {
+        if (!moving) {
+            if (share < startShare) { aboveSinceMillis = -1; framesAbove = 0; return; }
+            if (aboveSinceMillis < 0) aboveSinceMillis = timeMillis;
+            framesAbove++;
+            if (framesAbove >= 2 && timeMillis - aboveSinceMillis >= startMillis) { // Two frames at least: one bad JPEG is not motion
+                lastActiveMillis = timeMillis;
+                setMoving(true, share);
+            }
+        } else if (share >= endShare) {
+            lastActiveMillis = timeMillis;
+        } else if (timeMillis - lastActiveMillis >= endMillis) {
+            aboveSinceMillis = -1;
+            framesAbove = 0;
+            setMoving(false, share);
+        }
+    }
+
+    private void setMoving(boolean moving, float share) {
+        this.moving = moving;
+        if (moving) motionEvents++;
+        Listener l = listener;
+        if (l != null) l.onMotionChanged(moving, share);
+    }
+
+    // Takes the picture as the background; deviations start at the minimum and grow to the real noise
+    private void learn(byte[] luma, long timeMillis) {
+        for (int i = 0; i < background.length; i++) background[i] = luma[i] & 0xFF;
+        System.arraycopy(luma, 0, previous, 0, previous.length);
+        Arrays.fill(deviation, MIN_DEVIATION * 2);
+        Arrays.fill(stillSinceMillis, timeMillis);
+        aboveSinceMillis = -1;
+        framesAbove = 0;
+    }
+
+    private void buildMask() {
+        float[][] r = regions;
+        maskRegions = r;
+        maskCount = 0;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                float fx = (x + 0.5f) / width, fy = (y + 0.5f) / height;
+                boolean in = r.length == 0;
+                for (float[] region : r) in |= fx >= region[0] && fx < region[2] && fy >= region[1] && fy < region[3];
+                mask[y * width + x] = in;
+                if (in) maskCount++;
+            }
+        }
+    }
+
+    /** Forgets the background and ends any motion without telling the listener. */
+    public void reset() {
+        width = 0;
+        height = 0;
+        moving = false;
+        lastShare = 0f;
+    }
+
+    public boolean isMoving() { return moving; }
+    /** Share of the regions that changed in the last frame. */
+    public float getLastShare() { return lastShare; }
+    public long getFramesProcessed() { return framesProcessed; }
+    public long getMotionEvents() { return motionEvents; }
+    public long getLightingChanges() { return lightingChanges; }
+}
@@ -0,0 +1,57 @@
+package com.example.audio;
+
+/**
+ * G.711 mu-law sample codec: one byte per 16-bit sample. Static tables, no allocation.
+ */
+public final class MuLawCodec {
+
+    private static final int BIAS = 0x84;
+    private static final int CLIP = 32635;
+    private static final short[] DECODE_TABLE = new short[256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            int u = ~i & 0xFF;
+            int sign = u & 0x80;
+            int exponent = (u >> 4) & 0x07;
+            int mantissa = u & 0x0F;
+            int magnitude = (((mantissa << 3) + BIAS) << exponent) - BIAS;
+            DECODE_TABLE[i] = (short) (sign != 0 ? -magnitude : magnitude);
+        }
+    }
+
+    private MuLawCodec() {}
+
+    public static byte encode(int sample) {
+        int sign = (sample >> 8) & 0x80;
+        if (sign != 0) sample = -sample;
+        if (sample > CLIP) sample = CLIP;
+        sample += BIAS;
+        int exponent = 7;
+        for (int mask = 0x4000; (sample & mask) == 0 && exponent > 0; mask >>= 1) exponent--;
+        int mantissa = (sample >> (exponent + 3)) & 0x0F;
+        return (byte) ~(sign | (exponent << 4) | mantissa);
+    }
+
+    public static short decode(byte encoded) {
+        return DECODE_TABLE[encoded & 0xFF];
+    }
+
+    /** Encodes little-endian PCM16 bytes; returns bytes written (one per sample). */
+    public static int encode(byte[] pcm, int off, int samples, byte[] dst, int dstOff) {
+        for (int i = 0; i < samples; i++, off += 2) {
+            dst[dstOff + i] = encode((short) ((pcm[off] & 0xFF) | (pcm[off + 1] << 8)));
+        }
+        return samples;
+    }
+
+    /** Decodes to little-endian PCM16 bytes; returns bytes written. */
+    public static int decode(byte[] src, int off, int samples, byte[] pcm, int pcmOff) {
+        for (int i = 0; i < samples; i++) {
+            short s = DECODE_TABLE[src[off + i] & 0xFF];
+            pcm[pcmOff++] = (byte) s;
+            pcm[pcmOff++] = (byte) (s >> 8);
+        }
+        return samples * 2;
+    }
+}
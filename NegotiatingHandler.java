@@ -0,0 +1,63 @@
+package com.example.audio;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Start of every audio connection: sends the {@link WireCodec} hello, then waits briefly for the
+ * firmware's answer without blocking the transport loop. Legacy firmware stays silent (or starts
+ * streaming raw audio right away); either way the session falls back to the legacy format and
+ * any bytes that were not a hello are handed on as stream data.
+ *
+ * The supervisor session counts as connected once the format is settled.
+ */
+public abstract class NegotiatingHandler implements NioTransport.Handler {
+
+    protected final ConnectionSupervisor.Session session;
+    protected final boolean firstAttempt;
+    private final ConnectionSupervisor.Scheduler scheduler;
+    private final int preferredCodec;
+    private final int timeoutMs;
+    private final byte[] reply = new byte[WireCodec.HELLO_BYTES];
+    private int replyFill = 0;
+    private boolean negotiating = false;
+    protected boolean linked = false;
+
+    protected NegotiatingHandler(ConnectionSupervisor.Scheduler scheduler, ConnectionSupervisor.Session session, int preferredCodec, int timeoutMs) {
+        this.scheduler = scheduler;
+        this.session = session;
+        this.firstAttempt = session.attempt() == 1;
+        this.preferredCodec = preferredCodec;
+        this.timeoutMs = timeoutMs;
+    }
+
+    @Override public void onConnected(NioTransport.Connection connection) {
+        negotiating = true;
+        byte[] hello = WireCodec.hello(preferredCodec);
+        connection.send(hello, 0, hello.length);
+        scheduler.schedule(() -> { if (negotiating && connection.isOpen()) finishNegotiation(connection, WireCodec.CODEC_LEGACY); }, timeoutMs);
+    }
+
+    @Override public void onData(NioTransport.Connection connection, ByteBuffer data) {
+        if (negotiating) {
+            int n = Math.min(data.remaining(), reply.length - replyFill);
+            data.get(reply, replyFill, n);
+            replyFill += n;
+            if (replyFill < reply.length) return;
+            finishNegotiation(connection, WireCodec.parseHello(reply, replyFill));
+        }
+        if (linked && data.hasRemaining()) onStreamData(connection, data);
+    }
+
+    private void finishNegotiation(NioTransport.Connection connection, int codec) {
+        negotiating = false;
+        linked = true;
+        session.connected();
+        onLinked(connection, codec);
+        // Not a hello after all: those bytes were the start of a legacy raw stream
+        if (codec == WireCodec.CODEC_LEGACY && replyFill > 0) onStreamData(connection, ByteBuffer.wrap(reply, 0, replyFill));
+    }
+
+    protected abstract void onLinked(NioTransport.Connection connection, int codec);
+
+    protected abstract void onStreamData(NioTransport.Connection connection, ByteBuffer data);
+}
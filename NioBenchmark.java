@@ -0,0 +1,434 @@
+package com.example.audio;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * The phone's three board channels over {@link NioTransport} against the blocking-socket design it
+ * replaced, on loopback.
+ *
+ * Stand-in boards serve the three channels the way the service uses them: the mic board streams a
+ * 10 ms PCM16 chunk every 10 ms, the speaker board reads the phone's 10 ms chunks, and the control
+ * board echoes each command. Every chunk and command carries the sender's System.nanoTime, so the
+ * receiver knows how long it took. The phone side is either one NioTransport (one selector thread
+ * for every channel of every board, pacers on its timers) or the old design: a thread per channel
+ * with blocking reads under a timeout and a sleep-paced send loop.
+ *
+ * Per design and board count it reports latency in us (median/p99) of mic chunks (board write to
+ * the phone having the whole chunk), of the phone's chunks (phone write to the board having it)
+ * and of control round trips, the phone-side threads, their CPU per second of audio per board,
+ * and how long stopping every channel took. Board threads are not counted.
+ *
+ * Usage: NioBenchmark [--seconds N] [--boards N]
+ */
+public class NioBenchmark {
+
+    private static final int SAMPLE_RATE = 16000;
+    private static final int CHUNK_MS = 10;
+    private static final int CHUNK_BYTES = SAMPLE_RATE / 1000 * CHUNK_MS * 2;
+    private static final int COMMAND_BYTES = 16;
+    private static final int CONTROL_INTERVAL_MS = 100;
+    private static final long WARMUP_NANOS = 1_000_000_000L;
+
+    // Same as StreamingService
+    private static final int RECEIVE_READ_BUFFER_BYTES = 8 * 1024;
+    private static final int SEND_QUEUE_BYTES = 16 * 1024;
+    private static final int CONTROL_QUEUE_BYTES = 4 * 1024;
+    private static final int SMALL_READ_BUFFER_BYTES = 256;
+    // As the blocking design had them
+    private static final int RECEIVE_READ_TIMEOUT_MS = 500;
+    private static final int CONTROL_POLL_TIMEOUT_MS = 1000;
+
+    private static final String PHONE_THREAD_PREFIX = "phone-";
+
+    private static final class Histograms {
+        final LatencyHistogram receive = new LatencyHistogram();
+        final LatencyHistogram send = new LatencyHistogram();
+        final LatencyHistogram control = new LatencyHistogram();
+        final long startNanos = System.nanoTime();
+
+        void record(LatencyHistogram h, long stampNanos) {
+            long now = System.nanoTime();
+            if (now - startNanos > WARMUP_NANOS) h.record(now - stampNanos);
+        }
+    }
+
+    private static void putStamp(byte[] b, long nanos) {
+        for (int i = 0; i < 8; i++) b[i] = (byte) (nanos >>> (8 * i));
+    }
+
+    private static long stamp(byte[] b) {
+        long v = 0;
+        for (int i = 0; i < 8; i++) v |= (b[i] & 0xFFL) << (8 * i);
+        return v;
+    }
+
+    private static void readFully(InputStream in, byte[] b) throws IOException {
+        for (int got = 0; got < b.length; ) {
+            int n = in.read(b, got, b.length - got);
+            if (n < 0) throw new IOException("Closed");
+            got += n;
+        }
+    }
+
+    // --- Boards ---
+
+    /** Three listening sockets with a blocking thread per accepted connection, like {@link Esp32Simulator}. */
+    private static final class Boards implements AutoCloseable {
+        final ServerSocket mic = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        final ServerSocket speaker = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        final ServerSocket control = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        private final List<Socket> clients = new ArrayList<>();
+        volatile Histograms histograms;
+
+        Boards() throws IOException {
+            accept(mic, this::serveMic);
+            accept(speaker, this::serveSpeaker);
+            accept(control, this::serveControl);
+        }
+
+        private interface Serve { void run(Socket socket) throws IOException; }
+
+        private void accept(ServerSocket server, Serve serve) {
+            startThread("board-accept", () -> {
+                while (true) {
+                    Socket socket;
+                    try { socket = server.accept(); socket.setTcpNoDelay(true); } catch (IOException e) { return; }
+                    synchronized (clients) { clients.add(socket); }
+                    startThread("board", () -> {
+                        try { serve.run(socket); } catch (IOException e) { /* Phone went away */ }
+                        try { socket.close(); } catch (IOException ignore) {}
+                    });
+                }
+            });
+        }
+
+        private void serveMic(Socket socket) throws IOException {
+            OutputStream out = socket.getOutputStream();
+            byte[] chunk = new byte[CHUNK_BYTES];
+            long period = CHUNK_MS * 1_000_000L;
+            for (long next = System.nanoTime() + period; Esp32Simulator.parkUntil(next); next += period) {
+                putStamp(chunk, System.nanoTime());
+                out.write(chunk);
+            }
+        }
+
+        private void serveSpeaker(Socket socket) throws IOException {
+            InputStream in = socket.getInputStream();
+            byte[] chunk = new byte[CHUNK_BYTES];
+            while (true) {
+                readFully(in, chunk);
+                Histograms h = histograms;
+                h.record(h.send, stamp(chunk));
+            }
+        }
+
+        private void serveControl(Socket socket) throws IOException {
+            InputStream in = socket.getInputStream();
+            OutputStream out = socket.getOutputStream();
+            byte[] command = new byte[COMMAND_BYTES];
+            while (true) {
+                readFully(in, command);
+                out.write(command);
+            }
+        }
+
+        // The phone closes its end between runs; closing ours as well ends the board threads
+        void dropClients() {
+            synchronized (clients) {
+                for (Socket s : clients) try { s.close(); } catch (IOException ignore) {}
+                clients.clear();
+            }
+        }
+
+        @Override public void close() throws IOException {
+            mic.close();
+            speaker.close();
+            control.close();
+            dropClients();
+        }
+    }
+
+    private static Thread startThread(String name, Runnable task) {
+        Thread t = new Thread(task, name);
+        t.setDaemon(true);
+        t.start();
+        return t;
+    }
+
+    private interface Phone {
+        /** Stops every channel; returns once they are all closed. */
+        void stop() throws Exception;
+    }
+
+    // --- Blocking sockets, a thread per channel ---
+
+    private static final class BlockingPhone implements Phone {
+        private final List<Socket> sockets = new ArrayList<>();
+        private final List<Thread> threads = new ArrayList<>();
+        private volatile boolean running = true;
+
+        BlockingPhone(Boards boards, int count, Histograms h) throws IOException {
+            for (int b = 0; b < count; b++) {
+                Socket receive = connect(boards.mic, RECEIVE_READ_TIMEOUT_MS);
+                Socket send = connect(boards.speaker, 0);
+                Socket control = connect(boards.control, CONTROL_POLL_TIMEOUT_MS);
+                threads.add(startThread(PHONE_THREAD_PREFIX + "receive-" + b, () -> receive(receive, h)));
+                threads.add(startThread(PHONE_THREAD_PREFIX + "send-" + b, () -> send(send)));
+                threads.add(startThread(PHONE_THREAD_PREFIX + "control-" + b, () -> control(control, h)));
+            }
+        }
+
+        private Socket connect(ServerSocket server, int readTimeoutMs) throws IOException {
+            Socket socket = new Socket();
+            socket.setTcpNoDelay(true);
+            socket.setSoTimeout(readTimeoutMs);
+            socket.connect(server.getLocalSocketAddress(), 1000);
+            sockets.add(socket);
+            return socket;
+        }
+
+        private void receive(Socket socket, Histograms h) {
+            byte[] buffer = new byte[RECEIVE_READ_BUFFER_BYTES];
+            byte[] chunk = new byte[CHUNK_BYTES];
+            int fill = 0;
+            try {
+                InputStream in = socket.getInputStream();
+                while (running) {
+                    int n;
+                    try { n = in.read(buffer); } catch (SocketTimeoutException e) { continue; }
+                    if (n < 0) return;
+                    for (int p = 0; p < n; ) {
+                        int take = Math.min(n - p, CHUNK_BYTES - fill);
+                        System.arraycopy(buffer, p, chunk, fill, take);
+                        p += take;
+                        fill += take;
+                        if (fill == CHUNK_BYTES) { h.record(h.receive, stamp(chunk)); fill = 0; }
+                    }
+                }
+            } catch (IOException e) {
+                // Closed by stop
+            }
+        }
+
+        private void send(Socket socket) {
+            byte[] chunk = new byte[CHUNK_BYTES];
+            long period = CHUNK_MS * 1_000_000L;
+            try {
+                OutputStream out = socket.getOutputStream();
+                for (long next = System.nanoTime() + period; running; next += period) {
+                    long wait = next - System.nanoTime();
+                    if (wait > 0) Thread.sleep(wait / 1_000_000, (int) (wait % 1_000_000));
+                    putStamp(chunk, System.nanoTime());
+                    out.write(chunk);
+                }
+            } catch (IOException | InterruptedException e) {
+                // Closed by stop
+            }
+        }
+
+        private void control(Socket socket, Histograms h) {
+            byte[] command = new byte[COMMAND_BYTES];
+            byte[] reply = new byte[COMMAND_BYTES];
+            try {
+                InputStream in = socket.getInputStream();
+                OutputStream out = socket.getOutputStream();
+                while (running) {
+                    Thread.sleep(CONTROL_INTERVAL_MS);
+                    putStamp(command, System.nanoTime());
+                    out.write(command);
+                    readFully(in, reply);
+                    h.record(h.control, stamp(reply));
+                }
+            } catch (IOException | InterruptedException e) {
+                // Closed by stop
+            }
+        }
+
+        @Override public void stop() throws InterruptedException {
+            running = false;
+            for (Socket s : sockets) try { s.close(); } catch (IOException ignore) {}
+            for (Thread t : threads) t.join();
+        }
+    }
+
+    // --- One NioTransport ---
+
+    private static final class NioPhone implements Phone {
+        private final NioTransport transport = new NioTransport(PHONE_THREAD_PREFIX + "nio");
+        private volatile boolean running = true;
+
+        NioPhone(Boards boards, int count, Histograms h) throws IOException {
+            transport.start();
+            for (int b = 0; b < count; b++) {
+                transport.connect((InetSocketAddress) boards.mic.getLocalSocketAddress(), 1000, RECEIVE_READ_BUFFER_BYTES, SMALL_READ_BUFFER_BYTES,
+                        new Reassembler(CHUNK_BYTES, h, h.receive));
+                transport.connect((InetSocketAddress) boards.speaker.getLocalSocketAddress(), 1000, SMALL_READ_BUFFER_BYTES, SEND_QUEUE_BYTES,
+                        new Pacer(CHUNK_BYTES, CHUNK_MS, null, null));
+                transport.connect((InetSocketAddress) boards.control.getLocalSocketAddress(), 1000, SMALL_READ_BUFFER_BYTES, CONTROL_QUEUE_BYTES,
+                        new Pacer(COMMAND_BYTES, CONTROL_INTERVAL_MS, h, h.control));
+            }
+        }
+
+        // Collects stamped chunks of a fixed size and records their age
+        private class Reassembler implements NioTransport.Handler {
+            private final byte[] chunk;
+            private final Histograms h;
+            private final LatencyHistogram latency;
+            private int fill = 0;
+
+            Reassembler(int bytes, Histograms h, LatencyHistogram latency) {
+                this.chunk = new byte[bytes];
+                this.h = h;
+                this.latency = latency;
+            }
+
+            @Override public void onConnected(NioTransport.Connection connection) {}
+
+            @Override public void onData(NioTransport.Connection connection, ByteBuffer data) {
+                while (data.hasRemaining()) {
+                    int take = Math.min(data.remaining(), chunk.length - fill);
+                    data.get(chunk, fill, take);
+                    fill += take;
+                    if (fill == chunk.length) { h.record(latency, stamp(chunk)); fill = 0; }
+                }
+            }
+
+            @Override public void onClosed(NioTransport.Connection connection, Throwable error) {}
+        }
+
+        // Sends a stamped chunk every period on the loop's timers, against absolute deadlines like the service's pacer
+        private final class Pacer extends Reassembler {
+            private final byte[] out;
+            private final long periodNanos;
+            private long next;
+
+            Pacer(int bytes, int periodMs, Histograms h, LatencyHistogram replies) {
+                super(bytes, h, replies);
+                this.out = new byte[bytes];
+                this.periodNanos = periodMs * 1_000_000L;
+            }
+
+            @Override public void onConnected(NioTransport.Connection connection) {
+                next = System.nanoTime() + periodNanos;
+                transport.schedule(() -> tick(connection), periodNanos / 1_000_000);
+            }
+
+            private void tick(NioTransport.Connection connection) {
+                if (!running || !connection.isOpen()) return;
+                putStamp(out, System.nanoTime());
+                connection.send(out, 0, out.length);
+                next += periodNanos;
+                transport.schedule(() -> tick(connection), Math.max(0, (next - System.nanoTime() + 999_999) / 1_000_000));
+            }
+        }
+
+        @Override public void stop() {
+            running = false;
+            transport.close();
+        }
+    }
+
+    // --- Runs ---
+
+    private static final class Result {
+        Histograms histograms;
+        int threads;
+        double cpuMsPerAudioSecond;
+        double stopMs;
+    }
+
+    private interface PhoneFactory {
+        Phone start(Boards boards, int count, Histograms h) throws IOException;
+    }
+
+    private static List<Thread> phoneThreads() {
+        List<Thread> threads = new ArrayList<>();
+        for (Thread t : Thread.getAllStackTraces().keySet()) if (t.getName().startsWith(PHONE_THREAD_PREFIX) && t.isAlive()) threads.add(t);
+        return threads;
+    }
+
+    private static long cpuNanos(ThreadMXBean cpu, List<Thread> threads) {
+        long total = 0;
+        for (Thread t : threads) total += Math.max(0, cpu.getThreadCpuTime(t.getId()));
+        return total;
+    }
+
+    private static Result run(Boards boards, PhoneFactory factory, int count, int seconds, ThreadMXBean cpu) throws Exception {
+        Histograms h = new Histograms();
+        boards.histograms = h;
+        Phone phone = factory.start(boards, count, h);
+        Result result = new Result();
+        try {
+            Thread.sleep(WARMUP_NANOS / 1_000_000);
+            List<Thread> threads = phoneThreads();
+            long cpuBefore = cpuNanos(cpu, threads);
+            long start = System.nanoTime();
+            Thread.sleep(seconds * 1000L);
+            long cpuUsed = cpuNanos(cpu, threads) - cpuBefore;
+            double audioSeconds = (System.nanoTime() - start) / 1e9 * count;
+            result.histograms = h;
+            result.threads = threads.size();
+            result.cpuMsPerAudioSecond = cpuUsed / 1e6 / audioSeconds;
+        } finally {
+            long stopStart = System.nanoTime();
+            phone.stop();
+            result.stopMs = (System.nanoTime() - stopStart) / 1e6;
+            boards.dropClients();
+        }
+        return result;
+    }
+
+    private static String latency(LatencyHistogram h) {
+        long[] counts = new long[LatencyHistogram.BUCKETS], zero = new long[LatencyHistogram.BUCKETS];
+        h.copyCounts(counts);
+        return String.format(Locale.US, "%6.0f/%6.0f", LatencyHistogram.percentile(counts, zero, 50) / 1e3, LatencyHistogram.percentile(counts, zero, 99) / 1e3);
+    }
+
+    private static void report(String name, int count, Result r) {
+        Histograms h = r.histograms;
+        System.out.println(String.format(Locale.US, "%-16s | %6d | %s | %s | %s | %7d | %8.2f ms | %7.1f ms",
+                name, count, latency(h.receive), latency(h.send), latency(h.control), r.threads, r.cpuMsPerAudioSecond, r.stopMs));
+    }
+
+    public static void main(String[] args) throws Exception {
+        int seconds = 10;
+        int[] boardCounts = { 1, 8 };
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--seconds": seconds = Integer.parseInt(args[++i]); break;
+                case "--boards": boardCounts = new int[] { Integer.parseInt(args[++i]) }; break;
+                default: throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+        ThreadMXBean cpu = ManagementFactory.getThreadMXBean();
+        PhoneFactory blocking = BlockingPhone::new;
+        PhoneFactory nio = NioPhone::new;
+        try (Boards boards = new Boards()) {
+            run(boards, blocking, 1, 2, cpu); // Warmup
+            run(boards, nio, 1, 2, cpu);
+
+            System.out.println("Per board: " + CHUNK_BYTES + "-byte chunk every " + CHUNK_MS + " ms each way, a " + COMMAND_BYTES + "-byte command every "
+                    + CONTROL_INTERVAL_MS + " ms; " + seconds + " s per run on loopback");
+            System.out.println("Latency in us (median/p99); phone-side threads, their CPU per second of audio per board, time to stop every channel");
+            System.out.println(String.format(Locale.US, "%-16s | %6s | %-13s | %-13s | %-13s | %7s | %11s | %10s",
+                    "transport", "boards", "mic chunks", "phone chunks", "control rtt", "threads", "cpu", "stop"));
+            for (int count : boardCounts) {
+                report("blocking sockets", count, run(boards, blocking, count, seconds, cpu));
+                report("NioTransport", count, run(boards, nio, count, seconds, cpu));
+            }
+        }
+    }
+}
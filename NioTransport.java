@@ -0,0 +1,545 @@
+package com.example.audio;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.UnresolvedAddressException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+/**
+ * Non-blocking TCP transport: every connection is a SocketChannel served by one Selector thread.
+ *
+ * Handlers and timers run on that thread, so per-connection state needs no locking. Reads land in
+ * a per-connection direct buffer that is lent to {@link Handler#onData}. Writes are queued in a
+ * bounded direct buffer and flushed as the socket drains; a write that does not fit is rejected
+ * whole (backpressure) instead of blocking the caller. {@link #close} closes every channel at once.
+ *
+ * {@link #openDatagram} gives the same Connection API over a connected UDP channel: every send is
+ * one datagram written straight to the socket (dropped, not queued, if it is full), every onData
+ * one received datagram, and an ICMP port-unreachable closes the connection with an error.
+ *
+ * {@link #listen} accepts incoming TCP connections on the same thread; each accepted one is a
+ * Connection like any other, connected from the start.
+ *
+ * Pure Java; can be pointed at loopback ServerSocket stand-ins.
+ */
+public class NioTransport implements ConnectionSupervisor.Scheduler, Closeable {
+
+    /** Connection callbacks, all invoked on the transport thread. */
+    public interface Handler {
+        void onConnected(Connection connection);
+        /** {@code data} is only valid during the call. */
+        void onData(Connection connection, ByteBuffer data);
+        /** Called once. {@code error} is null for EOF or a local close. */
+        void onClosed(Connection connection, Throwable error);
+    }
+
+    /** Optional per-connection instrumentation, called on the transport thread; must not block or allocate. */
+    public interface IoObserver {
+        void onRead(int bytes, long nanos);
+        void onWrite(int bytes, long nanos);
+    }
+
+    public final class Connection {
+        private final SelectableChannel channel;
+        private final ByteChannel io;
+        private final boolean datagram;
+        private final Handler handler;
+        private final ByteBuffer readBuffer;
+        private final ByteBuffer pending;  // Guarded by itself, kept in write mode
+        private final AtomicBoolean flushRequested = new AtomicBoolean();
+        private SelectionKey key;
+        private volatile IoObserver observer = null;
+        private volatile boolean connected = false;
+        private volatile boolean closed = false;
+
+        private volatile long bytesRead = 0;      // Transport thread only
+        private volatile long bytesWritten = 0;   // Updated under pending
+        private volatile long rejectedWrites = 0; // Updated under pending
+
+        <C extends SelectableChannel & ByteChannel> Connection(C channel, Handler handler, int readBufferBytes, int sendBufferBytes) {
+            this.channel = channel;
+            this.io = channel;
+            this.datagram = channel instanceof DatagramChannel;
+            this.handler = handler;
+            this.readBuffer = ByteBuffer.allocateDirect(readBufferBytes);
+            this.pending = ByteBuffer.allocateDirect(sendBufferBytes);
+        }
+
+        /**
+         * Queues {@code len} bytes, all or nothing. Returns false if the connection is not up or
+         * the send queue cannot take the whole chunk. Safe from any thread.
+         */
+        public boolean send(byte[] src, int off, int len) {
+            if (datagram) return sendDatagram(src, off, len);
+            synchronized (pending) {
+                if (!connected || closed || pending.remaining() < len) {
+                    rejectedWrites++;
+                    return false;
+                }
+                pending.put(src, off, len);
+            }
+            if (inEventLoop()) {
+                flush(this);
+            } else if (flushRequested.compareAndSet(false, true)) {
+                execute(() -> { flushRequested.set(false); flush(this); });
+            }
+            return true;
+        }
+
+        // Straight to the socket: a datagram that does not fit now is stale by the time it would
+        private boolean sendDatagram(byte[] src, int off, int len) {
+            int n = 0;
+            IOException error = null;
+            synchronized (pending) {
+                if (!connected || closed || pending.capacity() < len) {
+                    rejectedWrites++;
+                    return false;
+                }
+                pending.clear();
+                pending.put(src, off, len);
+                pending.flip();
+                IoObserver observer = this.observer;
+                long start = observer != null ? System.nanoTime() : 0;
+                try { n = io.write(pending); } catch (IOException e) { error = e; }
+                if (observer != null) observer.onWrite(n, System.nanoTime() - start);
+                pending.clear();
+                if (error == null && n == 0) rejectedWrites++;
+                bytesWritten += n;
+            }
+            if (error != null) {
+                close(error); // Typically an ICMP port unreachable from an earlier datagram
+                return false;
+            }
+            return n > 0;
+        }
+
+        /** Adapter for stream encoders; chunks that do not fit are dropped and counted. */
+        public OutputStream asOutputStream() {
+            return new OutputStream() {
+                private final byte[] one = new byte[1];
+                @Override public void write(int b) { one[0] = (byte) b; send(one, 0, 1); }
+                @Override public void write(byte[] b, int off, int len) { send(b, off, len); }
+                @Override public void close() { Connection.this.close(); }
+            };
+        }
+
+        public int pendingBytes() {
+            if (datagram) return 0;
+            synchronized (pending) { return pending.position(); }
+        }
+
+        public void close() { close(null); }
+
+        /** Closes from any thread; the handler sees {@code reason} in onClosed. */
+        public void close(Throwable reason) {
+            if (inEventLoop()) closeConnection(this, reason);
+            else execute(() -> closeConnection(this, reason));
+        }
+
+        /** Times every socket read and write of this connection from now on. */
+        public void setObserver(IoObserver observer) { this.observer = observer; }
+
+        public boolean isOpen() { return connected && !closed; }
+        public boolean isDatagram() { return datagram; }
+        public long getBytesRead() { return bytesRead; }
+        public long getBytesWritten() { return bytesWritten; }
+        public long getRejectedWrites() { return rejectedWrites; }
+    }
+
+    /** A listening socket from {@link #listen}. */
+    public final class Server implements Closeable {
+        private final ServerSocketChannel channel;
+        private final int readBufferBytes;
+        private final int sendBufferBytes;
+        private final Supplier<Handler> handlers;
+        private SelectionKey key;
+        private volatile int socketSendBufferBytes = 0;
+        private volatile boolean closed = false;
+        private volatile long accepted = 0;
+        private volatile long acceptErrors = 0;
+
+        Server(ServerSocketChannel channel, int readBufferBytes, int sendBufferBytes, Supplier<Handler> handlers) {
+            this.channel = channel;
+            this.readBufferBytes = readBufferBytes;
+            this.sendBufferBytes = sendBufferBytes;
+            this.handlers = handlers;
+        }
+
+        public int getLocalPort() { return channel.socket().getLocalPort(); }
+
+        /**
+         * Fixes the kernel send buffer of connections accepted from now on (0 = the system's,
+         * which autotunes to megabytes). Keep it small when the send queue is meant to be the
+         * bound: a slow peer then fills the queue instead of seconds of kernel buffer.
+         */
+        public void setSocketSendBufferBytes(int bytes) { socketSendBufferBytes = Math.max(0, bytes); }
+
+        /** Stops accepting, from any thread; connections already accepted stay open. */
+        @Override public void close() {
+            if (inEventLoop()) closeServer(this);
+            else execute(() -> closeServer(this));
+        }
+
+        public boolean isOpen() { return !closed; }
+        public long getAccepted() { return accepted; }
+        public long getAcceptErrors() { return acceptErrors; }
+    }
+
+    private static final class Timer implements Comparable<Timer> {
+        final long deadlineNanos;
+        final long seq;
+        final Runnable task;
+        Timer(long deadlineNanos, long seq, Runnable task) { this.deadlineNanos = deadlineNanos; this.seq = seq; this.task = task; }
+        @Override public int compareTo(Timer o) {
+            if (deadlineNanos != o.deadlineNanos) return deadlineNanos < o.deadlineNanos ? -1 : 1;
+            return Long.compare(seq, o.seq);
+        }
+    }
+
+    private static final int MAX_DATAGRAMS_PER_READ = 16;
+    private static final int MAX_ACCEPTS_PER_SELECT = 16;
+
+    private final String name;
+    private final Selector selector;
+    private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final PriorityQueue<Timer> timers = new PriorityQueue<>(); // Loop thread only
+    private final ArrayList<Connection> connections = new ArrayList<>(); // Loop thread only
+    private final ArrayList<Server> servers = new ArrayList<>(); // Loop thread only
+    private long timerSeq = 0;
+    private volatile long taskErrors = 0;
+    private volatile Throwable lastTaskError = null;
+    private volatile boolean running = false;
+    private volatile Thread thread;
+
+    public NioTransport(String name) throws IOException {
+        this.name = name;
+        this.selector = Selector.open();
+    }
+
+    public void start() {
+        running = true;
+        thread = new Thread(this::loop, name);
+        thread.start();
+    }
+
+    public boolean inEventLoop() { return Thread.currentThread() == thread; }
+
+    /** Runs {@code task} on the transport thread. */
+    public void execute(Runnable task) {
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    @Override
+    public void schedule(Runnable task, long delayMillis) {
+        long deadline = System.nanoTime() + Math.max(0, delayMillis) * 1_000_000L;
+        if (inEventLoop()) timers.add(new Timer(deadline, timerSeq++, task));
+        else execute(() -> timers.add(new Timer(deadline, timerSeq++, task)));
+    }
+
+    /**
+     * Starts a non-blocking connect. The handler gets onConnected, or onClosed with a
+     * SocketTimeoutException if the connect has not completed after {@code timeoutMs}, or with
+     * whatever else failed, an unresolved address included. Resolve {@code address} first: a
+     * lookup on the transport thread would stall every connection.
+     */
+    public Connection connect(InetSocketAddress address, int timeoutMs, int readBufferBytes, int sendBufferBytes, Handler handler) throws IOException {
+        SocketChannel channel = SocketChannel.open();
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+        Connection connection = new Connection(channel, handler, readBufferBytes, sendBufferBytes);
+        execute(() -> {
+            try {
+                connections.add(connection);
+                if (channel.connect(address)) {
+                    connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+                    finishConnect(connection);
+                } else {
+                    connection.key = channel.register(selector, SelectionKey.OP_CONNECT, connection);
+                    schedule(() -> {
+                        if (!connection.connected) closeConnection(connection, new SocketTimeoutException("Connect timed out after " + timeoutMs + " ms"));
+                    }, timeoutMs);
+                }
+            } catch (IOException | RuntimeException e) { // UnresolvedAddressException and friends are unchecked
+                closeConnection(connection, connectError(address, e));
+            }
+        });
+        return connection;
+    }
+
+    /**
+     * Opens a UDP "connection" to {@code address}. There is no handshake: the handler gets
+     * onConnected right away, and a dead peer shows up as onClosed with a PortUnreachableException
+     * once the ICMP error comes back, or not at all.
+     */
+    public Connection openDatagram(InetSocketAddress address, int maxDatagramBytes, Handler handler) throws IOException {
+        DatagramChannel channel = DatagramChannel.open();
+        channel.configureBlocking(false);
+        Connection connection = new Connection(channel, handler, maxDatagramBytes, maxDatagramBytes);
+        execute(() -> {
+            try {
+                connections.add(connection);
+                channel.connect(address);
+                connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+                finishConnect(connection);
+            } catch (IOException | RuntimeException e) {
+                closeConnection(connection, connectError(address, e));
+            }
+        });
+        return connection;
+    }
+
+    // The unchecked exception has no message; handlers log and show the host that failed
+    private static Throwable connectError(InetSocketAddress address, Exception e) {
+        return e instanceof UnresolvedAddressException ? new UnknownHostException(address.getHostString()) : e;
+    }
+
+    /**
+     * Listens on {@code address} (port 0 for any free one). Every accepted connection gets a
+     * handler from {@code handlers}, called on the transport thread, and then onConnected. The
+     * socket is bound before this returns, so a port in use throws here.
+     */
+    public Server listen(InetSocketAddress address, int readBufferBytes, int sendBufferBytes, Supplier<Handler> handlers) throws IOException {
+        ServerSocketChannel channel = ServerSocketChannel.open();
+        try {
+            channel.configureBlocking(false);
+            channel.socket().setReuseAddress(true); // A restarted session rebinds while old sockets sit in TIME_WAIT
+            channel.bind(address);
+        } catch (IOException e) {
+            try { channel.close(); } catch (IOException ignore) {}
+            throw e;
+        }
+        Server server = new Server(channel, readBufferBytes, sendBufferBytes, handlers);
+        execute(() -> {
+            if (server.closed) return;
+            try {
+                servers.add(server);
+                server.key = channel.register(selector, SelectionKey.OP_ACCEPT, server);
+            } catch (IOException | RuntimeException e) {
+                closeServer(server);
+            }
+        });
+        return server;
+    }
+
+    private void loop() {
+        try {
+            while (running) {
+                long timeoutMs = 0; // Block until woken
+                Timer next = timers.peek();
+                if (next != null) {
+                    long waitNanos = next.deadlineNanos - System.nanoTime();
+                    if (waitNanos <= 0) timeoutMs = -1;
+                    else timeoutMs = (waitNanos + 999_999) / 1_000_000;
+                }
+                if (timeoutMs < 0) selector.selectNow();
+                else selector.select(timeoutMs);
+                if (!running) break;
+
+                Runnable task;
+                while ((task = tasks.poll()) != null) runGuarded(task);
+                long now = System.nanoTime();
+                while ((next = timers.peek()) != null && next.deadlineNanos <= now) {
+                    timers.poll();
+                    runGuarded(next.task);
+                }
+
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    if (key.attachment() instanceof Server) {
+                        if (key.isValid() && key.isAcceptable()) accept((Server) key.attachment());
+                        continue;
+                    }
+                    Connection connection = (Connection) key.attachment();
+                    if (!key.isValid() || connection.closed) continue;
+                    try {
+                        if (key.isConnectable()) {
+                            if (((SocketChannel) connection.channel).finishConnect()) {
+                                key.interestOps(SelectionKey.OP_READ);
+                                finishConnect(connection);
+                            }
+                            continue;
+                        }
+                        if (key.isReadable()) read(connection);
+                        if (key.isValid() && key.isWritable()) flush(connection);
+                    } catch (IOException | RuntimeException e) {
+                        closeConnection(connection, e);
+                    }
+                }
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            // Closing; fall through
+        } finally {
+            // A handler throwing from onClosed must not leave the other channels, or the selector, open
+            for (Server s : new ArrayList<>(servers)) runGuarded(() -> closeServer(s));
+            for (Connection c : new ArrayList<>(connections)) runGuarded(() -> closeConnection(c, null));
+            timers.clear();
+            tasks.clear();
+            try { selector.close(); } catch (IOException ignore) {}
+        }
+    }
+
+    // A throwing task must not take the loop (and every other connection) down with it; counted, as it is a bug
+    private void runGuarded(Runnable task) {
+        try {
+            task.run();
+        } catch (RuntimeException e) {
+            taskErrors++;
+            lastTaskError = e; // The stack trace names the task
+        }
+    }
+
+    // Bounded like datagram reads, so a connect storm cannot starve the open connections
+    private void accept(Server server) {
+        for (int i = 0; i < MAX_ACCEPTS_PER_SELECT && !server.closed; i++) {
+            SocketChannel channel;
+            try {
+                channel = server.channel.accept();
+                if (channel == null) return;
+            } catch (IOException e) {
+                server.acceptErrors++; // Out of file descriptors, or the peer gave up already
+                return;
+            }
+            Connection connection = null;
+            try {
+                channel.configureBlocking(false);
+                channel.socket().setTcpNoDelay(true);
+                if (server.socketSendBufferBytes > 0) channel.socket().setSendBufferSize(server.socketSendBufferBytes);
+                connection = new Connection(channel, server.handlers.get(), server.readBufferBytes, server.sendBufferBytes);
+                connections.add(connection);
+                connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+                server.accepted++;
+                finishConnect(connection);
+            } catch (IOException | RuntimeException e) {
+                server.acceptErrors++;
+                if (connection != null) closeConnection(connection, e);
+                else try { channel.close(); } catch (IOException ignore) {}
+            }
+        }
+    }
+
+    private void closeServer(Server server) {
+        if (server.closed) return;
+        server.closed = true;
+        servers.remove(server);
+        if (server.key != null) server.key.cancel();
+        try { server.channel.close(); } catch (IOException ignore) {}
+    }
+
+    private void finishConnect(Connection connection) {
+        connection.connected = true;
+        connection.handler.onConnected(connection);
+        flush(connection); // Anything queued during onConnected
+    }
+
+    private void read(Connection connection) throws IOException {
+        if (connection.datagram) {
+            readDatagrams(connection);
+            return;
+        }
+        ByteBuffer buffer = connection.readBuffer;
+        buffer.clear();
+        IoObserver observer = connection.observer;
+        long start = observer != null ? System.nanoTime() : 0;
+        int n = connection.io.read(buffer);
+        if (observer != null) observer.onRead(Math.max(n, 0), System.nanoTime() - start);
+        if (n < 0) {
+            closeConnection(connection, null);
+            return;
+        }
+        if (n > 0) {
+            connection.bytesRead += n;
+            buffer.flip();
+            connection.handler.onData(connection, buffer);
+        }
+    }
+
+    // One onData per datagram; bounded so a flood cannot starve the other connections
+    private void readDatagrams(Connection connection) throws IOException {
+        ByteBuffer buffer = connection.readBuffer;
+        for (int i = 0; i < MAX_DATAGRAMS_PER_READ && !connection.closed; i++) {
+            buffer.clear();
+            IoObserver observer = connection.observer;
+            long start = observer != null ? System.nanoTime() : 0;
+            int n = connection.io.read(buffer);
+            if (observer != null) observer.onRead(n, System.nanoTime() - start);
+            if (n <= 0) return;
+            connection.bytesRead += n;
+            buffer.flip();
+            connection.handler.onData(connection, buffer);
+        }
+    }
+
+    // Writes as much as the socket takes; waits for OP_WRITE only when it is full
+    private void flush(Connection connection) {
+        if (connection.closed || !connection.connected || connection.datagram) return;
+        try {
+            boolean drained;
+            synchronized (connection.pending) {
+                ByteBuffer pending = connection.pending;
+                pending.flip();
+                IoObserver observer = connection.observer;
+                long start = observer != null ? System.nanoTime() : 0;
+                int n = connection.io.write(pending);
+                if (observer != null) observer.onWrite(n, System.nanoTime() - start);
+                connection.bytesWritten += n;
+                pending.compact();
+                drained = pending.position() == 0;
+            }
+            SelectionKey key = connection.key;
+            if (key != null && key.isValid()) {
+                key.interestOps(drained ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            }
+        } catch (IOException e) {
+            closeConnection(connection, e);
+        }
+    }
+
+    private void closeConnection(Connection connection, Throwable error) {
+        if (connection.closed) return;
+        connection.closed = true;
+        connections.remove(connection);
+        if (connection.key != null) connection.key.cancel();
+        try { connection.channel.close(); } catch (IOException ignore) {}
+        connection.handler.onClosed(connection, error);
+    }
+
+    /** Stops the loop and closes every server and connection; handlers see onClosed on the way out. */
+    @Override
+    public void close() {
+        running = false;
+        selector.wakeup();
+        Thread t = thread;
+        if (t == null) {
+            try { selector.close(); } catch (IOException ignore) {}
+        } else if (t != Thread.currentThread()) {
+            try { t.join(1000); } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+        }
+    }
+
+    /** Tasks and timers that threw; each is a bug, since connection failures go to the handler. */
+    public long getTaskErrors() { return taskErrors; }
+
+    /** The exception the latest failed task or timer threw, or null. */
+    public Throwable getLastTaskError() { return lastTaskError; }
+}
@@ -0,0 +1,213 @@
+package com.example.audio;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Receive direction of the UDP audio mode: {@link AudioPacket} datagrams in, PCM16 in sequence
+ * order out into the playout ring.
+ *
+ * Packets that arrive ahead of a gap are held (up to {@code maxReorderPackets}) in case the
+ * missing one is only reordered. Once the window is full the gap is declared lost and filled with
+ * as many samples as its timestamps say are missing: a fading repeat of the last packet, then
+ * silence, so the playout clock never slips. Packets older than the next expected one (late or
+ * duplicate) are dropped. A large sequence jump in either direction means the sender restarted.
+ *
+ * Parity packets (see {@link ParityFecOutputStream}) are fed to a {@link ParityFecDecoder}; a
+ * rebuilt packet goes down the same path as a received one. Once the sender uses FEC the reorder
+ * window is at least what its groups span minus one: enough for the parity (never held itself) to
+ * arrive when a group's first packet is the lost one, without holding audio any longer than that.
+ *
+ * One instance per connection; used on the transport thread only.
+ */
+public class PacketReceivePath {
+
+    private static final int RESTART_DISTANCE = 64;        // Packets; further off = new stream
+    private static final int MAX_CONCEAL_SAMPLES = 16000;  // Longer gaps are left to the jitter buffer
+    private static final int CONCEAL_REPEATS = 3;          // Faded copies of the last packet, then silence
+
+    private final ByteRingBuffer ring;
+    private final int maxReorderPackets;
+    private final byte[][] held;
+    private final int[] heldLength;
+    private final boolean[] heldUsed;
+    private final byte[] pcm = new byte[WireCodec.MAX_FRAME_SAMPLES * 2];
+    private final byte[] last = new byte[WireCodec.MAX_FRAME_SAMPLES * 2];
+    private final byte[] packet = new byte[AudioPacket.MAX_PARITY_BYTES];
+    private final byte[] rebuilt = new byte[AudioPacket.MAX_PARITY_BYTES];
+    private final ParityFecDecoder fec = new ParityFecDecoder();
+    private int lastBytes = 0;
+    private long arrivalNanos = ByteRingBuffer.NO_ARRIVAL; // Of the datagram being handled; stamps all it releases
+    private int heldCount = 0;
+    private boolean started = false;
+    private int expectedSeq;
+    private long expectedTimestamp;
+
+    private volatile long packetsReceived = 0;
+    private volatile long packetsLost = 0;
+    private volatile long packetsReordered = 0;
+    private volatile long packetsLate = 0;
+    private volatile long badPackets = 0;
+    private volatile long concealedSamples = 0;
+    private volatile long restarts = 0;
+    private volatile long packetsRecovered = 0;
+    private volatile long packetsDuplicate = 0;
+    private volatile long packetsRebuiltEarly = 0; // Rebuilt, then the original arrived after all
+    private volatile long parityPackets = 0;
+
+    public PacketReceivePath(ByteRingBuffer ring, int maxReorderPackets) {
+        this.ring = ring;
+        this.maxReorderPackets = Math.max(1, maxReorderPackets);
+        this.held = new byte[Math.max(this.maxReorderPackets, AudioPacket.MAX_FEC_GROUP * AudioPacket.MAX_FEC_DEPTH) + 1][AudioPacket.MAX_PACKET_BYTES];
+        this.heldLength = new int[held.length];
+        this.heldUsed = new boolean[held.length];
+    }
+
+    /** Feeds one datagram, just read from the socket. */
+    public void onPacket(ByteBuffer data) {
+        arrivalNanos = System.nanoTime();
+        int len = Math.min(data.remaining(), packet.length);
+        data.get(packet, 0, len);
+        data.position(data.limit());
+        if (AudioPacket.isParity(packet, 0, len)) {
+            parityPackets++;
+            fec.onParity(packet, len);
+        } else if (AudioPacket.isValid(packet, 0, len)) {
+            packetsReceived++;
+            int seq = AudioPacket.seq(packet, 0);
+            if (fec.wasRebuilt(seq)) { packetsRecovered--; packetsRebuiltEarly++; fec.onPacket(packet, len, false); return; } // Only delayed
+            if (fec.contains(seq)) { packetsDuplicate++; return; }
+            fec.onPacket(packet, len, false);
+            accept(packet, len, false);
+        } else {
+            badPackets++;
+            return;
+        }
+        if (!started) return;
+        int n;
+        while ((n = fec.recover(rebuilt, expectedSeq)) > 0) {
+            packetsRecovered++;
+            fec.onPacket(rebuilt, n, true);
+            accept(rebuilt, n, true);
+        }
+    }
+
+    private void accept(byte[] src, int len, boolean recovered) {
+        int seq = AudioPacket.seq(src, 0);
+        if (!started) restart(seq, AudioPacket.timestamp(src, 0));
+
+        int distance = AudioPacket.seqDistance(seq, expectedSeq);
+        if (distance < -RESTART_DISTANCE || distance > RESTART_DISTANCE) {
+            restarts++;
+            restart(seq, AudioPacket.timestamp(src, 0));
+            distance = 0;
+        }
+        if (distance < 0) { packetsLate++; return; }
+        if (distance == 0) {
+            if (heldCount > 0 && !recovered) packetsReordered++; // Filled a gap we were waiting on
+            play(src, len);
+            drainHeld();
+            return;
+        }
+        hold(src, len, seq);
+        if (heldCount > Math.max(maxReorderPackets, fec.getHoldPackets())) {
+            // Waited long enough: the gap up to the oldest held packet is lost
+            int oldest = oldestHeld();
+            int oldestSeq = AudioPacket.seq(held[oldest], 0);
+            packetsLost += AudioPacket.seqDistance(oldestSeq, expectedSeq);
+            conceal(AudioPacket.timestamp(held[oldest], 0) - expectedTimestamp);
+            expectedSeq = oldestSeq;
+            expectedTimestamp = AudioPacket.timestamp(held[oldest], 0);
+            drainHeld();
+        }
+    }
+
+    private void restart(int seq, long timestamp) {
+        started = true;
+        expectedSeq = seq;
+        expectedTimestamp = timestamp;
+        for (int i = 0; i < held.length; i++) heldUsed[i] = false;
+        heldCount = 0;
+    }
+
+    private void hold(byte[] src, int len, int seq) {
+        int free = -1;
+        for (int i = 0; i < held.length; i++) {
+            if (!heldUsed[i]) { if (free < 0) free = i; continue; }
+            if (AudioPacket.seq(held[i], 0) == seq) { packetsLate++; return; } // Duplicate
+        }
+        System.arraycopy(src, 0, held[free], 0, len);
+        heldLength[free] = len;
+        heldUsed[free] = true;
+        heldCount++;
+    }
+
+    private int oldestHeld() {
+        int oldest = -1;
+        int best = Integer.MAX_VALUE;
+        for (int i = 0; i < held.length; i++) {
+            if (!heldUsed[i]) continue;
+            int d = AudioPacket.seqDistance(AudioPacket.seq(held[i], 0), expectedSeq);
+            if (d < best) { best = d; oldest = i; }
+        }
+        return oldest;
+    }
+
+    private void drainHeld() {
+        boolean found = true;
+        while (heldCount > 0 && found) {
+            found = false;
+            for (int i = 0; i < held.length; i++) {
+                if (heldUsed[i] && AudioPacket.seq(held[i], 0) == expectedSeq) {
+                    heldUsed[i] = false;
+                    heldCount--;
+                    play(held[i], heldLength[i]);
+                    found = true;
+                    break;
+                }
+            }
+        }
+    }
+
+    private void play(byte[] src, int len) {
+        int samples = AudioPacket.samples(src, 0);
+        int bytes = WireCodec.decodePayload(AudioPacket.codec(src, 0), src, AudioPacket.HEADER_BYTES, samples, pcm, 0);
+        ring.offer(pcm, 0, bytes, arrivalNanos); // Overruns are counted by the ring
+        System.arraycopy(pcm, 0, last, 0, bytes);
+        lastBytes = bytes;
+        expectedSeq = (expectedSeq + 1) & 0xFFFF;
+        expectedTimestamp = AudioPacket.timestamp(src, 0) + samples;
+    }
+
+    // Fills a lost stretch with fading copies of the last packet so the stream keeps its length
+    private void conceal(long missingSamples) {
+        missingSamples &= 0xFFFFFFFFL; // Timestamps wrap at 2^32
+        if (missingSamples <= 0 || missingSamples > MAX_CONCEAL_SAMPLES || lastBytes == 0) return;
+        int lastSamples = lastBytes / 2;
+        int repeat = 0;
+        long remaining = missingSamples;
+        while (remaining > 0) {
+            int n = (int) Math.min(remaining, lastSamples);
+            int shift = ++repeat;
+            for (int i = 0; i < n; i++) {
+                int s = repeat > CONCEAL_REPEATS ? 0 : (short) ((last[2 * i] & 0xFF) | (last[2 * i + 1] << 8)) >> shift;
+                pcm[2 * i] = (byte) s;
+                pcm[2 * i + 1] = (byte) (s >> 8);
+            }
+            ring.offer(pcm, 0, n * 2, arrivalNanos);
+            remaining -= n;
+        }
+        concealedSamples += missingSamples;
+    }
+
+    public long getPacketsReceived() { return packetsReceived; }
+    public long getPacketsLost() { return packetsLost; }
+    public long getPacketsReordered() { return packetsReordered; }
+    public long getPacketsLate() { return packetsLate; }
+    public long getBadPackets() { return badPackets; }
+    public long getConcealedSamples() { return concealedSamples; }
+    public long getRestarts() { return restarts; }
+    public long getPacketsRecovered() { return packetsRecovered; }
+    public long getPacketsDuplicate() { return packetsDuplicate; }
+    public long getPacketsRebuiltEarly() { return packetsRebuiltEarly; }
+    public long getParityPackets() { return parityPackets; }
+}
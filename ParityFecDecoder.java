@@ -0,0 +1,102 @@
+package com.example.audio;
+
+/**
+ * Receive side of {@link ParityFecOutputStream}: keeps the last packets seen and the pending
+ * parity packets, and rebuilds a packet once exactly one member of a parity group is missing.
+ *
+ * Preallocated; used by {@link PacketReceivePath} on the transport thread only.
+ */
+public class ParityFecDecoder {
+
+    private static final int HISTORY = 2 * AudioPacket.MAX_FEC_GROUP * AudioPacket.MAX_FEC_DEPTH; // Packets remembered by seq
+    private static final int PARITY_SLOTS = 2 * AudioPacket.MAX_FEC_DEPTH;
+
+    private final byte[][] history = new byte[HISTORY][AudioPacket.MAX_PACKET_BYTES];
+    private final int[] historyLength = new int[HISTORY];
+    private final int[] historySeq = new int[HISTORY];
+    private final boolean[] historyRebuilt = new boolean[HISTORY];
+    private final byte[][] parity = new byte[PARITY_SLOTS][AudioPacket.MAX_PARITY_BYTES];
+    private final int[] parityLength = new int[PARITY_SLOTS];
+    private final boolean[] parityUsed = new boolean[PARITY_SLOTS];
+    private int holdPackets = 0;
+
+    public ParityFecDecoder() {
+        for (int i = 0; i < HISTORY; i++) historySeq[i] = -1;
+    }
+
+    /** Packets a receiver must hold ahead of a gap to rebuild it with the sender's groups; 0 until a parity packet was seen. */
+    public int getHoldPackets() { return holdPackets; }
+
+    /** Remembers a valid audio packet as a possible group member; {@code rebuilt} if it came from {@link #recover}. */
+    public void onPacket(byte[] packet, int len, boolean rebuilt) {
+        int slot = AudioPacket.seq(packet, 0) % HISTORY;
+        System.arraycopy(packet, 0, history[slot], 0, len);
+        historyLength[slot] = len;
+        historySeq[slot] = AudioPacket.seq(packet, 0);
+        historyRebuilt[slot] = rebuilt;
+    }
+
+    /** True if packet {@code seq} was received or rebuilt recently. */
+    public boolean contains(int seq) { return historySeq[seq % HISTORY] == seq; }
+
+    /** True if packet {@code seq} is remembered and was rebuilt rather than received. */
+    public boolean wasRebuilt(int seq) { return contains(seq) && historyRebuilt[seq % HISTORY]; }
+
+    /** Stores a parity packet, replacing the oldest pending one if all slots are taken. */
+    public void onParity(byte[] packet, int len) {
+        holdPackets = AudioPacket.parityCount(packet, 0) * AudioPacket.parityStride(packet, 0) - 1;
+        int slot = -1;
+        for (int i = 0; i < PARITY_SLOTS && slot < 0; i++) if (!parityUsed[i]) slot = i;
+        if (slot < 0) {
+            slot = 0;
+            for (int i = 1; i < PARITY_SLOTS; i++) {
+                if (AudioPacket.seqDistance(AudioPacket.parityBaseSeq(parity[i], 0), AudioPacket.parityBaseSeq(parity[slot], 0)) < 0) slot = i;
+            }
+        }
+        System.arraycopy(packet, 0, parity[slot], 0, len);
+        parityLength[slot] = len;
+        parityUsed[slot] = true;
+    }
+
+    /**
+     * Rebuilds one missing packet into {@code out} if some pending group allows it, and returns its
+     * length; 0 if none can be rebuilt. Groups entirely before {@code expectedSeq}, complete
+     * groups and groups whose missing packet is already late are dropped.
+     */
+    public int recover(byte[] out, int expectedSeq) {
+        for (int s = 0; s < PARITY_SLOTS; s++) {
+            if (!parityUsed[s]) continue;
+            byte[] p = parity[s];
+            int base = AudioPacket.parityBaseSeq(p, 0);
+            int count = AudioPacket.parityCount(p, 0);
+            int stride = AudioPacket.parityStride(p, 0);
+            int missing = -1;
+            int missingCount = 0;
+            for (int k = 0; k < count; k++) {
+                int seq = (base + k * stride) & 0xFFFF;
+                if (historySeq[seq % HISTORY] != seq) { missing = seq; missingCount++; }
+            }
+            if (missingCount == 0 || (missingCount == 1 && AudioPacket.seqDistance(missing, expectedSeq) < 0)
+                    || AudioPacket.seqDistance((base + (count - 1) * stride) & 0xFFFF, expectedSeq) < 0) {
+                parityUsed[s] = false;
+                continue;
+            }
+            if (missingCount > 1) continue; // Maybe more arrive; otherwise the loss stands
+
+            parityUsed[s] = false;
+            int bytes = parityLength[s] - AudioPacket.PARITY_HEADER_BYTES;
+            System.arraycopy(p, AudioPacket.PARITY_HEADER_BYTES, out, 0, bytes);
+            int len = AudioPacket.parityLengthXor(p, 0);
+            for (int k = 0; k < count; k++) {
+                int seq = (base + k * stride) & 0xFFFF;
+                if (seq == missing) continue;
+                int h = seq % HISTORY;
+                byte[] member = history[h];
+                for (int i = 0; i < historyLength[h]; i++) out[i] ^= member[i];
+                len ^= historyLength[h];
+            }
+            if (len > 0 && len <= bytes && AudioPacket.isValid(out, 0, len) && AudioPacket.seq(out, 0) == missing) return len;
+        }
+        return 0;
+    }
+}
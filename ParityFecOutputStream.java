@@ -0,0 +1,86 @@
+package com.example.audio;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Sits below an {@link AudioPacketOutputStream} and adds XOR parity packets (see
+ * {@link AudioPacket}): {@code depth} interleaved groups of {@code groupPackets} packets each, so
+ * the receiver can rebuild one lost packet per group, or a burst of up to {@code depth}. Overhead
+ * is one packet in {@code groupPackets}.
+ *
+ * Each {@code write} must be exactly one packet, which is how AudioPacketOutputStream writes.
+ * Anything that is not an audio packet is passed through and restarts the groups.
+ */
+public class ParityFecOutputStream extends OutputStream {
+
+    private final OutputStream out;
+    private final int groupPackets;
+    private final int depth;
+    private final byte[][] parity;
+    private final int[] count;
+    private final int[] baseSeq;
+    private final int[] lengthXor;
+    private final int[] maxLength;
+    private long parityPackets = 0;
+
+    public ParityFecOutputStream(OutputStream out, int groupPackets, int depth) {
+        if (!AudioPacket.isValidFec(groupPackets, depth)) throw new IllegalArgumentException("Invalid FEC group/depth: " + groupPackets + "/" + depth);
+        this.out = out;
+        this.groupPackets = groupPackets;
+        this.depth = depth;
+        this.parity = new byte[depth][AudioPacket.MAX_PARITY_BYTES];
+        this.count = new int[depth];
+        this.baseSeq = new int[depth];
+        this.lengthXor = new int[depth];
+        this.maxLength = new int[depth];
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public synchronized void write(byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len);
+        if (!AudioPacket.isValid(b, off, len)) {
+            for (int g = 0; g < depth; g++) reset(g);
+            return;
+        }
+        int seq = AudioPacket.seq(b, off);
+        int g = seq % depth;
+        if (count[g] > 0 && seq != ((baseSeq[g] + count[g] * depth) & 0xFFFF)) reset(g); // Sender restarted numbering, or a depth of 3 hit the 2^16 wrap
+        if (count[g] == 0) baseSeq[g] = seq;
+        byte[] p = parity[g];
+        int h = AudioPacket.PARITY_HEADER_BYTES;
+        for (int i = 0; i < len; i++) p[h + i] ^= b[off + i];
+        lengthXor[g] ^= len;
+        maxLength[g] = Math.max(maxLength[g], len);
+        if (++count[g] < groupPackets) return;
+
+        AudioPacket.writeParityHeader(p, 0, count[g], depth, baseSeq[g], lengthXor[g]);
+        out.write(p, 0, h + maxLength[g]);
+        parityPackets++;
+        reset(g);
+    }
+
+    private void reset(int g) {
+        for (int i = 0; i < maxLength[g]; i++) parity[g][AudioPacket.PARITY_HEADER_BYTES + i] = 0;
+        count[g] = 0;
+        lengthXor[g] = 0;
+        maxLength[g] = 0;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+
+    public long getParityPackets() { return parityPackets; }
+}
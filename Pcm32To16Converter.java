@@ -0,0 +1,73 @@
+package com.example.audio;
+
+/**
+ * Converts the INMP441's 32-bit left-justified I2S samples to 16-bit PCM.
+ *
+ * Each sample is scaled by {@code gain / 2^shift}, TPDF dithered (one LSB peak) and clipped to
+ * the 16-bit range. Shift 16 with gain 1.0 keeps the original level; a smaller shift or a larger
+ * gain boosts quiet rooms. The gain can be changed while streaming.
+ */
+public class Pcm32To16Converter implements SampleFormatConverter {
+
+    private static final float INV_2_24 = 1.0f / (1 << 24);
+
+    private final int shift;
+    private final boolean dither;
+    private volatile float gain;
+    private float scale;
+    private float appliedGain = Float.NaN;
+    private int seed = 0x2545F491;
+    private long clippedSamples = 0;
+
+    public Pcm32To16Converter(int shift, float gain, boolean dither) {
+        if (shift < 0 || shift > 24) throw new IllegalArgumentException("Invalid shift: " + shift);
+        this.shift = shift;
+        this.dither = dither;
+        setGain(gain);
+    }
+
+    public void setGain(float gain) {
+        if (gain < 0f) throw new IllegalArgumentException("Invalid gain: " + gain);
+        this.gain = gain;
+    }
+
+    public float getGain() { return gain; }
+
+    public long getClippedSamples() { return clippedSamples; }
+
+    @Override public int inputBytesPerSample() { return 4; }
+
+    @Override public int outputBytesPerSample() { return 2; }
+
+    @Override
+    public int convert(byte[] src, int srcOff, int srcLen, byte[] dst, int dstOff) {
+        float g = gain;
+        if (g != appliedGain) {
+            appliedGain = g;
+            scale = g / (1L << shift);
+        }
+        float s = scale;
+        int x = seed;
+        int o = dstOff;
+        int end = srcOff + srcLen;
+        for (int i = srcOff; i < end; i += 4) {
+            int in = (src[i] & 0xFF) | ((src[i + 1] & 0xFF) << 8) | ((src[i + 2] & 0xFF) << 16) | (src[i + 3] << 24);
+            float v = in * s;
+            if (dither) {
+                // Two xorshift draws give a triangular distribution in (-1, 1) LSB
+                x ^= x << 13; x ^= x >>> 17; x ^= x << 5;
+                int r1 = x >>> 8;
+                x ^= x << 13; x ^= x >>> 17; x ^= x << 5;
+                int r2 = x >>> 8;
+                v += (r1 - r2) * INV_2_24;
+            }
+            int out = Math.round(v);
+            if (out > Short.MAX_VALUE) { out = Short.MAX_VALUE; clippedSamples++; }
+            else if (out < Short.MIN_VALUE) { out = Short.MIN_VALUE; clippedSamples++; }
+            dst[o++] = (byte) out;
+            dst[o++] = (byte) (out >> 8);
+        }
+        seed = x;
+        return o - dstOff;
+    }
+}
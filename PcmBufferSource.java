@@ -0,0 +1,45 @@
+package com.example.audio;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Mixer source that plays a little-endian PCM16 buffer (e.g. a cached melody) once.
+ * {@link #awaitFinished()} blocks until the buffer is exhausted or the source is removed.
+ */
+public class PcmBufferSource implements AudioMixer.Source {
+
+    private final ByteBuffer pcm;
+    private final CountDownLatch finished = new CountDownLatch(1);
+    private volatile boolean completed = false;
+
+    public PcmBufferSource(ByteBuffer pcm) {
+        this.pcm = pcm.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    @Override
+    public int read(short[] dst, int samples) {
+        int n = Math.min(samples, pcm.remaining() / 2);
+        if (n == 0) {
+            completed = true;
+            return -1;
+        }
+        for (int i = 0; i < n; i++) dst[i] = pcm.getShort();
+        return n;
+    }
+
+    @Override
+    public void onRemoved() {
+        finished.countDown();
+    }
+
+    public void awaitFinished() throws InterruptedException {
+        finished.await();
+    }
+
+    /** True if the whole buffer was played, false if the source was removed early. */
+    public boolean isCompleted() { return completed; }
+
+    public int getBytesPlayed() { return pcm.position(); }
+}
@@ -0,0 +1,112 @@
+package com.example.audio;
+
+import java.util.function.BooleanSupplier;
+
+/**
+ * Clocks frames out of the jitter buffer into an {@link AudioOutput}. The blocking device write
+ * paces the loop in real time; everything the network delivered since the last frame is moved
+ * from the receive ring into the jitter buffer first, one arrival at a time with the time it was
+ * read off the socket if the ring stamps arrivals (else the time it is moved). With a {@link DriftCompensator} frames are
+ * taken through it, so the loop follows the sender's clock rather than the device's. Every
+ * played frame is also offered to the tap rings, for consumers on other threads such as a
+ * {@link SoundAnalysisLoop} or a {@link RecordingLoop}; a full ring drops the frame there, never
+ * here.
+ *
+ * With a {@link RoomMixer} the frames come from its rooms instead, each with its own ring, jitter
+ * buffer and drift compensator, and the taps get the mixer's full-level monitor mix.
+ *
+ * With an {@link EchoReference} every frame written to the device is also handed to the echo
+ * canceller of the mic next to the speaker.
+ *
+ * Runs until {@code running} turns false, the thread is interrupted, or the device reports an
+ * error ({@link #getExitCode}).
+ */
+public class PlayoutLoop implements Runnable {
+
+    private final JitterBuffer buffer;
+    private final DriftCompensator drift;
+    private final ByteRingBuffer ring;
+    private final RoomMixer mixer;
+    private final AudioOutput output;
+    private final LatencyHistogram writeLatency;
+    private final ByteRingBuffer[] taps;
+    private final BooleanSupplier running;
+    private volatile EchoReference echoReference;
+    private volatile int exitCode = 0;
+
+    /** {@code writeLatency} (may be null) records the time spent in each device write. */
+    public PlayoutLoop(JitterBuffer buffer, ByteRingBuffer ring, AudioOutput output, LatencyHistogram writeLatency, BooleanSupplier running) {
+        this(buffer, null, ring, output, writeLatency, running);
+    }
+
+    /** {@code drift} (may be null) must wrap {@code buffer}. */
+    public PlayoutLoop(JitterBuffer buffer, DriftCompensator drift, ByteRingBuffer ring, AudioOutput output, LatencyHistogram writeLatency, BooleanSupplier running) {
+        this(buffer, drift, ring, output, writeLatency, new ByteRingBuffer[0], running);
+    }
+
+    /** Each of {@code taps} receives a copy of every frame before it is written. */
+    public PlayoutLoop(JitterBuffer buffer, DriftCompensator drift, ByteRingBuffer ring, AudioOutput output, LatencyHistogram writeLatency, ByteRingBuffer[] taps, BooleanSupplier running) {
+        this.buffer = buffer;
+        this.drift = drift;
+        this.ring = ring;
+        this.mixer = null;
+        this.output = output;
+        this.writeLatency = writeLatency;
+        this.taps = taps.clone();
+        this.running = running;
+    }
+
+    /** Plays the mix of {@code mixer}'s rooms; each of {@code taps} receives the monitor mix. */
+    public PlayoutLoop(RoomMixer mixer, AudioOutput output, LatencyHistogram writeLatency, ByteRingBuffer[] taps, BooleanSupplier running) {
+        this.buffer = null;
+        this.drift = null;
+        this.ring = null;
+        this.mixer = mixer;
+        this.output = output;
+        this.writeLatency = writeLatency;
+        this.taps = taps.clone();
+        this.running = running;
+    }
+
+    /** Where the frames actually played go for echo cancellation; null for nowhere. */
+    public void setEchoReference(EchoReference reference) { echoReference = reference; }
+
+    @Override
+    public void run() {
+        int frameBytes = mixer != null ? mixer.getFrameBytes() : buffer.getFrameBytes();
+        byte[] frame = new byte[frameBytes];
+        byte[] drain = new byte[frameBytes * 4];
+        byte[] monitor = mixer != null && taps.length > 0 ? new byte[frameBytes] : frame;
+        int n;
+        if (mixer != null) {
+            mixer.reset();
+        } else {
+            buffer.reset();
+            if (drift != null) drift.reset();
+        }
+        while (running.getAsBoolean() && !Thread.currentThread().isInterrupted()) {
+            if (mixer != null) {
+                mixer.mix(frame, monitor != frame ? monitor : null);
+            } else {
+                while ((n = ring.readArrival(drain, 0, drain.length)) > 0) {
+                    long arrival = ring.getLastArrivalNanos();
+                    buffer.offer(drain, 0, n, arrival != ByteRingBuffer.NO_ARRIVAL ? arrival : System.nanoTime());
+                }
+                if (drift != null) drift.poll(frame, 0); else buffer.poll(frame, 0);
+            }
+            for (ByteRingBuffer tap : taps) tap.offer(monitor, 0, monitor.length); // Overruns are counted by each ring
+            EchoReference reference = echoReference;
+            if (reference != null) reference.offer(frame, 0, frame.length);
+            long start = System.nanoTime();
+            int written = output.write(frame, 0, frame.length);
+            if (writeLatency != null) writeLatency.record(System.nanoTime() - start); // Mostly time blocked on the device buffer
+            if (written < 0) {
+                exitCode = written;
+                return;
+            }
+        }
+    }
+
+    /** The device error that ended the loop, or 0 if it was stopped. */
+    public int getExitCode() { return exitCode; }
+}
@@ -0,0 +1,124 @@
+package com.example.audio;
+
+/**
+ * Streaming PCM16 mono sample-rate converter for a fixed rational ratio, e.g. the 16 kHz wire
+ * format to a phone's native 48 kHz (3/1) or 44.1 kHz (441/160) and back.
+ *
+ * Classic polyphase structure: the ratio is reduced to L/M and a Kaiser-windowed sinc lowpass
+ * for the virtual L-times rate is split into L phases, so each output sample costs one dot
+ * product of {@code tapsPerPhase} taps and nothing is computed for the zeros the upsampling would
+ * insert. The cutoff sits at 0.9 of the lower Nyquist frequency with a transition of about 0.2
+ * of it (stopband ~-80 dB), so downsampling does not alias and upsampling leaves no images.
+ *
+ * Not thread-safe; preallocated for inputs up to {@code maxInputSamples} per call.
+ */
+public class PolyphaseResampler {
+
+    private static final int ZERO_CROSSINGS = 24;  // Per side, at the lower rate
+    private static final double CUTOFF = 0.9;      // Of the lower Nyquist frequency
+    private static final double KAISER_BETA = 8.0;
+
+    private final int inputRate;
+    private final int outputRate;
+    private final int up;            // L
+    private final int down;          // M
+    private final int tapsPerPhase;
+    private final float[][] phases;  // [L][taps], taps newest-input-first
+    private final float[] history;   // tapsPerPhase - 1 carried samples, then the current input
+    private final int maxInputSamples;
+    private int phase = 0;           // Position of the next output between input samples, in 1/L steps
+
+    public PolyphaseResampler(int inputRate, int outputRate, int maxInputSamples) {
+        if (inputRate <= 0 || outputRate <= 0 || maxInputSamples <= 0) throw new IllegalArgumentException("Invalid rates: " + inputRate + " -> " + outputRate);
+        int g = gcd(inputRate, outputRate);
+        this.inputRate = inputRate;
+        this.outputRate = outputRate;
+        this.up = outputRate / g;
+        this.down = inputRate / g;
+        if (up > 1024) throw new IllegalArgumentException("Ratio too fine: " + up + "/" + down);
+        this.tapsPerPhase = 2 * ZERO_CROSSINGS * Math.max(1, (down + up - 1) / up);
+        this.phases = design(up, down, tapsPerPhase);
+        this.maxInputSamples = maxInputSamples;
+        this.history = new float[tapsPerPhase - 1 + maxInputSamples];
+    }
+
+    public int getInputRate() { return inputRate; }
+    public int getOutputRate() { return outputRate; }
+    public int getTapsPerPhase() { return tapsPerPhase; }
+
+    /** Largest output, in samples, that {@code inputSamples} of input can produce. */
+    public int maxOutputSamples(int inputSamples) {
+        return (int) (((long) inputSamples * up + down - 1) / down) + 1;
+    }
+
+    /**
+     * Converts {@code len} bytes of PCM16 from {@code src} into {@code dst}, which must hold
+     * {@link #maxOutputSamples} of them; returns the bytes written.
+     */
+    public int process(byte[] src, int srcOff, int len, byte[] dst, int dstOff) {
+        int samples = len / 2;
+        if (samples > maxInputSamples) throw new IllegalArgumentException("Input too large: " + samples);
+        int carry = tapsPerPhase - 1;
+        for (int i = 0; i < samples; i++, srcOff += 2) history[carry + i] = (short) ((src[srcOff] & 0xFF) | (src[srcOff + 1] << 8));
+
+        int end = carry + samples;
+        int newest = carry;  // Index of the newest input sample the next output may use
+        int out = dstOff;
+        while (newest < end) {
+            if (phase >= up) {
+                phase -= up;
+                newest++;
+                continue;
+            }
+            float[] h = phases[phase];
+            float acc = 0f;
+            for (int k = 0, j = newest; k < tapsPerPhase; k++, j--) acc += h[k] * history[j];
+            int s = Math.round(acc);
+            if (s > Short.MAX_VALUE) s = Short.MAX_VALUE; else if (s < Short.MIN_VALUE) s = Short.MIN_VALUE;
+            dst[out++] = (byte) s;
+            dst[out++] = (byte) (s >> 8);
+            phase += down;
+        }
+        System.arraycopy(history, samples, history, 0, carry); // Keep the tail for the next call
+        return out - dstOff;
+    }
+
+    /** Forgets the carried input, e.g. when the stream restarts. */
+    public void reset() {
+        java.util.Arrays.fill(history, 0f);
+        phase = 0;
+    }
+
+    // Prototype lowpass at L times the input rate, gain L, split so phase p holds taps p, p + L, ...
+    private static float[][] design(int up, int down, int taps) {
+        int length = up * taps;
+        double cutoff = CUTOFF / Math.max(up, down); // Of the virtual rate's Nyquist
+        double center = (length - 1) / 2.0;
+        double i0Beta = besselI0(KAISER_BETA);
+        float[][] phases = new float[up][taps];
+        for (int p = 0; p < up; p++) {
+            double sum = 0;
+            double[] row = new double[taps];
+            for (int k = 0; k < taps; k++) {
+                double x = p + k * up - center;
+                double sinc = x == 0 ? 1.0 : Math.sin(Math.PI * cutoff * x) / (Math.PI * cutoff * x);
+                double r = x / (center + 1);
+                row[k] = sinc * besselI0(KAISER_BETA * Math.sqrt(Math.max(0, 1 - r * r))) / i0Beta;
+                sum += row[k];
+            }
+            for (int k = 0; k < taps; k++) phases[p][k] = (float) (row[k] / sum); // Unity DC gain per phase
+        }
+        return phases;
+    }
+
+    private static double besselI0(double x) {
+        double sum = 1, term = 1;
+        for (int k = 1; k < 32; k++) {
+            term *= (x / (2 * k)) * (x / (2 * k));
+            sum += term;
+        }
+        return sum;
+    }
+
+    private static int gcd(int a, int b) { return b == 0 ? a : gcd(b, a % b); }
+}
@@ -0,0 +1,140 @@
+package com.example.audio;
+
+/**
+ * Power spectrum, or complex spectrum and its inverse, of a real frame of a fixed power-of-two
+ * size, for looking at short audio frames (voice activity, sound classification) and filtering
+ * them in the frequency domain (echo cancellation).
+ *
+ * The N real samples are packed as N/2 complex points (even samples real, odd imaginary), run
+ * through an in-place radix-2 FFT of half the size and split into the N/2 + 1 bins of the real
+ * transform, which halves the work of a plain complex FFT. Twiddles and the bit-reversal
+ * permutation are precomputed, so a call does no allocation and no trigonometry.
+ *
+ * Not thread-safe: keeps its working arrays.
+ */
+public class RealFft {
+
+    private final int size;
+    private final int half;
+    private final float[] cos;       // Twiddles of the half-size transform
+    private final float[] sin;
+    private final float[] splitCos;  // Twiddles of the split, e^(-2 pi i k / N)
+    private final float[] splitSin;
+    private final int[] reversed;
+    private final float[] re;
+    private final float[] im;
+
+    public RealFft(int size) {
+        if (size < 4 || Integer.bitCount(size) != 1) throw new IllegalArgumentException("Size must be a power of two >= 4: " + size);
+        this.size = size;
+        this.half = size / 2;
+        this.cos = new float[half / 2];
+        this.sin = new float[half / 2];
+        for (int k = 0; k < half / 2; k++) {
+            cos[k] = (float) Math.cos(2 * Math.PI * k / half);
+            sin[k] = (float) -Math.sin(2 * Math.PI * k / half);
+        }
+        this.splitCos = new float[half + 1];
+        this.splitSin = new float[half + 1];
+        for (int k = 0; k <= half; k++) {
+            splitCos[k] = (float) Math.cos(2 * Math.PI * k / size);
+            splitSin[k] = (float) -Math.sin(2 * Math.PI * k / size);
+        }
+        this.reversed = new int[half];
+        int bits = Integer.numberOfTrailingZeros(half);
+        for (int i = 0; i < half; i++) reversed[i] = bits == 0 ? 0 : Integer.reverse(i) >>> (32 - bits);
+        this.re = new float[half];
+        this.im = new float[half];
+    }
+
+    public int getSize() { return size; }
+
+    /** Unscaled {@code |X[k]|^2} of {@code signal[0 .. size)} into {@code power[0 .. size / 2]}. */
+    public void powerSpectrum(float[] signal, float[] power) {
+        for (int i = 0; i < half; i++) {
+            int j = reversed[i];
+            re[j] = signal[2 * i];
+            im[j] = signal[2 * i + 1];
+        }
+        transform();
+        power[0] = (re[0] + im[0]) * (re[0] + im[0]);
+        power[half] = (re[0] - im[0]) * (re[0] - im[0]);
+        for (int k = 1; k < half; k++) {
+            // X[k] = (Z[k] + conj Z[h-k]) / 2 - i e^(-2 pi i k / N) (Z[k] - conj Z[h-k]) / 2
+            float zr = re[k], zi = im[k], cr = re[half - k], ci = -im[half - k];
+            float er = 0.5f * (zr + cr), ei = 0.5f * (zi + ci);
+            float or = 0.5f * (zi - ci), oi = -0.5f * (zr - cr); // -i (Z - conj) / 2
+            float xr = er + or * splitCos[k] - oi * splitSin[k];
+            float xi = ei + or * splitSin[k] + oi * splitCos[k];
+            power[k] = xr * xr + xi * xi;
+        }
+    }
+
+    /**
+     * Unscaled spectrum {@code X[k]} of {@code signal[0 .. size)} into {@code re, im[0 .. size / 2]};
+     * the imaginary parts of bins 0 and size / 2 are zero.
+     */
+    public void forward(float[] signal, float[] outRe, float[] outIm) {
+        for (int i = 0; i < half; i++) {
+            int j = reversed[i];
+            re[j] = signal[2 * i];
+            im[j] = signal[2 * i + 1];
+        }
+        transform();
+        outRe[0] = re[0] + im[0];
+        outIm[0] = 0f;
+        outRe[half] = re[0] - im[0];
+        outIm[half] = 0f;
+        for (int k = 1; k < half; k++) {
+            float zr = re[k], zi = im[k], cr = re[half - k], ci = -im[half - k];
+            float er = 0.5f * (zr + cr), ei = 0.5f * (zi + ci);
+            float or = 0.5f * (zi - ci), oi = -0.5f * (zr - cr);
+            outRe[k] = er + or * splitCos[k] - oi * splitSin[k];
+            outIm[k] = ei + or * splitSin[k] + oi * splitCos[k];
+        }
+    }
+
+    /**
+     * Inverse of {@link #forward}, scaled by 1 / size so that the round trip gives the signal back:
+     * {@code re, im[0 .. size / 2]} into {@code signal[0 .. size)}. The spectrum is left untouched.
+     */
+    public void inverse(float[] inRe, float[] inIm, float[] signal) {
+        for (int k = 0; k < half; k++) {
+            // Even and odd half-size spectra: E = (X[k] + conj X[h-k]) / 2, O = (X[k] - conj X[h-k]) e^(2 pi i k / N) / 2
+            float xr = inRe[k], xi = inIm[k], cr = inRe[half - k], ci = -inIm[half - k];
+            float er = 0.5f * (xr + cr), ei = 0.5f * (xi + ci);
+            float dr = 0.5f * (xr - cr), di = 0.5f * (xi - ci);
+            float or = dr * splitCos[k] + di * splitSin[k];
+            float oi = di * splitCos[k] - dr * splitSin[k];
+            // Z = E + i O, conjugated so the forward butterflies run the inverse transform
+            int j = reversed[k];
+            re[j] = er - oi;
+            im[j] = -(ei + or);
+        }
+        transform();
+        float scale = 1f / half;
+        for (int i = 0; i < half; i++) {
+            signal[2 * i] = re[i] * scale;
+            signal[2 * i + 1] = -im[i] * scale;
+        }
+    }
+
+    // Bit-reversed input already in re/im; butterflies stage by stage, each twiddle loaded once
+    private void transform() {
+        for (int span = 1; span < half; span <<= 1) {
+            int stride = half / (2 * span);
+            for (int k = 0; k < span; k++) {
+                float wr = cos[k * stride], wi = sin[k * stride];
+                for (int a = k; a < half; a += 2 * span) {
+                    int b = a + span;
+                    float tr = re[b] * wr - im[b] * wi;
+                    float ti = re[b] * wi + im[b] * wr;
+                    re[b] = re[a] - tr;
+                    im[b] = im[a] - ti;
+                    re[a] += tr;
+                    im[a] += ti;
+                }
+            }
+        }
+    }
+}
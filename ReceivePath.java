@@ -0,0 +1,68 @@
+package com.example.audio;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Receive direction of one mic connection: wire bytes in the negotiated format, PCM16 out into
+ * the playout ring. Framed codecs go through a {@link FrameDecoder}; the legacy raw stream goes
+ * through the sample converter, holding back a partial wire sample between reads.
+ *
+ * Chunks are stamped with the time of the read, so the jitter buffer at the far end of the ring
+ * measures the network, not the playout thread.
+ *
+ * One instance per connection; used on the transport thread only.
+ */
+public class ReceivePath {
+
+    private final ByteRingBuffer ring;
+    private final SampleFormatConverter converter;
+    private final byte[] buffer;
+    private final byte[] converted;
+    private byte[] decoded = null;
+    private FrameDecoder decoder = null;
+    private int carry = 0; // Bytes of an incomplete wire sample held back for the next read
+
+    public ReceivePath(ByteRingBuffer ring, SampleFormatConverter legacyConverter, int chunkBytes) {
+        this.ring = ring;
+        this.converter = legacyConverter;
+        this.buffer = new byte[chunkBytes];
+        this.converted = new byte[chunkBytes / converter.inputBytesPerSample() * converter.outputBytesPerSample()];
+    }
+
+    /** Selects the wire format once negotiation is done. */
+    public void setCodec(int codec) {
+        if (codec != WireCodec.CODEC_LEGACY) {
+            decoder = new FrameDecoder();
+            decoded = new byte[FrameDecoder.maxDecodedBytes(buffer.length)];
+        } else {
+            decoder = null;
+        }
+        carry = 0;
+    }
+
+    /** Feeds what one socket read returned; the ring gets it stamped with the time of this call. */
+    public void onData(ByteBuffer data) {
+        long arrivalNanos = System.nanoTime();
+        while (data.hasRemaining()) {
+            int bytesRead = Math.min(data.remaining(), buffer.length - carry);
+            data.get(buffer, carry, bytesRead);
+            if (decoder != null) {
+                int decodedBytes = decoder.decode(buffer, 0, bytesRead, decoded, 0);
+                if (decodedBytes > 0) ring.offer(decoded, 0, decodedBytes, arrivalNanos);
+                continue;
+            }
+            int total = carry + bytesRead;
+            int aligned = total - total % converter.inputBytesPerSample();
+            if (aligned > 0) {
+                int convertedBytes = converter.convert(buffer, 0, aligned, converted, 0);
+                ring.offer(converted, 0, convertedBytes, arrivalNanos); // Overruns are counted by the ring
+            }
+            carry = total - aligned;
+            if (carry > 0) System.arraycopy(buffer, aligned, buffer, 0, carry);
+        }
+    }
+
+    public SampleFormatConverter getConverter() { return converter; }
+    /** Null for the legacy raw stream. */
+    public FrameDecoder getDecoder() { return decoder; }
+}
@@ -0,0 +1,462 @@
+package com.example.audio;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Append-only archive of mono PCM16 audio in time-segmented files, so what happened in the night
+ * can be found and played back.
+ *
+ * Audio is cut into one-second blocks and stored as IMA-ADPCM (4:1, every block decodes on its
+ * own) through a {@link FileChannel}, one data file per segment of a few minutes. Next to each
+ * data file an index file holds one fixed-size record per block: wall-clock start, offset in the
+ * data file, sample count, peak and RMS. Records are in time order, so finding a time is a binary
+ * search over the segments and then over one index file. Blocks well above a running noise floor
+ * are merged into loud events kept in memory, so "loud events last night" is a binary search plus
+ * the events found. Blocks of pure digital silence (the link was down) are not stored.
+ *
+ * The archive is bounded in size: whenever a segment is closed the oldest ones are deleted until
+ * the total fits. Segments already on disk are picked up again when an archive is opened on the
+ * same directory, cutting off a block that was half written when the app died.
+ *
+ * One thread writes ({@link #write}, {@link #close}); queries and readers may be used from any
+ * thread.
+ */
+public class RecordingArchive implements Closeable {
+
+    public static final int INDEX_RECORD_BYTES = 18; // time i64, offset i32, samples u16, peak u16, rms u16; little-endian
+
+    private static final String DATA_SUFFIX = ".ima";
+    private static final String INDEX_SUFFIX = ".idx";
+    private static final float EVENT_MARGIN_DB = 15f; // Block RMS over the floor that counts as loud
+    private static final int EVENT_GAP_BLOCKS = 2;    // Quieter blocks bridged within one event
+    private static final float FLOOR_RISE_DB = 0.05f; // Per block: 3 dB a minute
+    private static final float FLOOR_FALL = 0.3f;
+    private static final float MIN_DBFS = -96f;
+
+    /** A stretch of loud blocks. */
+    public static final class Event {
+        public final long startMillis;
+        public final long endMillis;
+        public final float peakDbfs; // Largest sample
+        public final float rmsDbfs;  // Loudest block
+
+        Event(long startMillis, long endMillis, float peakDbfs, float rmsDbfs) {
+            this.startMillis = startMillis;
+            this.endMillis = endMillis;
+            this.peakDbfs = peakDbfs;
+            this.rmsDbfs = rmsDbfs;
+        }
+
+        @Override public String toString() {
+            return String.format(Locale.US, "%tF %<tT +%.1f s, peak %.1f dBFS, rms %.1f dBFS", startMillis, (endMillis - startMillis) / 1000.0, peakDbfs, rmsDbfs);
+        }
+    }
+
+    private static final class Segment {
+        final long startMillis;
+        final File data;
+        final File index;
+        long endMillis;
+        int blocks;
+        long dataBytes;
+
+        Segment(File dir, long startMillis) {
+            this.startMillis = startMillis;
+            String name = String.format(Locale.US, "%013d", startMillis);
+            this.data = new File(dir, name + DATA_SUFFIX);
+            this.index = new File(dir, name + INDEX_SUFFIX);
+            this.endMillis = startMillis;
+        }
+
+        long bytes() { return dataBytes + (long) blocks * INDEX_RECORD_BYTES; }
+    }
+
+    private final File dir;
+    private final int sampleRate;
+    private final int segmentBlocks;
+    private final long maxBytes;
+
+    // Writer state
+    private final ImaAdpcmCodec codec = new ImaAdpcmCodec();
+    private final byte[] block;
+    private final byte[] encoded;
+    private final ByteBuffer dataBuffer;
+    private final ByteBuffer indexBuffer = ByteBuffer.allocateDirect(INDEX_RECORD_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+    private int blockFill = 0;
+    private long blockStartMillis = 0;
+    private FileChannel dataChannel;
+    private FileChannel indexChannel;
+    private Segment current;
+    private float floorDb = Float.NaN;
+    private long lastLoudEnd = Long.MIN_VALUE; // End of the last loud block, to merge events
+
+    // Shared with readers and queries, under the lock
+    private final List<Segment> segments = new ArrayList<>();
+    private final List<Event> events = new ArrayList<>();
+    private long totalBytes = 0;
+    private long blocksWritten = 0;
+    private long silentBlocks = 0;
+    private long segmentsEvicted = 0;
+
+    /**
+     * Opens (creating if needed) the archive in {@code dir}; {@code segmentSeconds} of audio per
+     * file, oldest files deleted beyond {@code maxBytes}, which should hold a few segments.
+     */
+    public RecordingArchive(File dir, int sampleRate, int segmentSeconds, long maxBytes) throws IOException {
+        if (sampleRate <= 0 || sampleRate > 65534 || segmentSeconds <= 0) throw new IllegalArgumentException("Invalid archive format: " + sampleRate + " Hz, " + segmentSeconds + " s");
+        if (!dir.isDirectory() && !dir.mkdirs()) throw new IOException("Cannot create " + dir);
+        this.dir = dir;
+        this.sampleRate = sampleRate;
+        this.segmentBlocks = segmentSeconds;
+        this.maxBytes = maxBytes;
+        this.block = new byte[sampleRate * 2];
+        this.encoded = new byte[ImaAdpcmCodec.encodedBytes(sampleRate)];
+        this.dataBuffer = ByteBuffer.allocateDirect(encoded.length);
+        recover();
+    }
+
+    // --- Writing ---
+
+    /**
+     * Appends {@code len} bytes of PCM16 whose first sample was played at {@code wallMillis}.
+     * Blocks are written out as they fill; an IOException leaves the archive as it was before
+     * the failing block.
+     */
+    public void write(byte[] pcm, int off, int len, long wallMillis) throws IOException {
+        int done = 0;
+        while (done < len) {
+            if (blockFill == 0) blockStartMillis = wallMillis + (done / 2) * 1000L / sampleRate;
+            int n = Math.min(len - done, block.length - blockFill) & ~1;
+            if (n == 0) break;
+            System.arraycopy(pcm, off + done, block, blockFill, n);
+            blockFill += n;
+            done += n;
+            if (blockFill == block.length) flushBlock();
+        }
+    }
+
+    private void flushBlock() throws IOException {
+        int samples = blockFill / 2;
+        blockFill = 0;
+        int peak = 0;
+        long sum = 0;
+        for (int i = 0; i < samples; i++) {
+            int s = (short) ((block[2 * i] & 0xFF) | (block[2 * i + 1] << 8));
+            sum += s * s;
+            int a = s < 0 ? -s : s;
+            if (a > peak) peak = a;
+        }
+        if (peak == 0) { // Nothing from the room; a gap in the index says so
+            synchronized (this) { silentBlocks++; }
+            return;
+        }
+        int rms = (int) Math.min(0xFFFF, Math.round(Math.sqrt(sum / (double) samples)));
+        long start = current != null ? Math.max(blockStartMillis, current.endMillis) : blockStartMillis; // Index times never go backwards
+        long end = start + samples * 1000L / sampleRate;
+        if (current == null || current.blocks >= segmentBlocks) rollSegment(start);
+
+        int bytes = codec.encode(block, 0, samples, encoded, 0);
+        long offset = current.dataBytes;
+        dataBuffer.clear();
+        dataBuffer.put(encoded, 0, bytes).flip();
+        while (dataBuffer.hasRemaining()) dataChannel.write(dataBuffer, offset + dataBuffer.position());
+        indexBuffer.clear();
+        indexBuffer.putLong(start).putInt((int) offset).putShort((short) samples).putShort((short) Math.min(0xFFFF, peak)).putShort((short) rms).flip();
+        long indexOffset = (long) current.blocks * INDEX_RECORD_BYTES;
+        while (indexBuffer.hasRemaining()) indexChannel.write(indexBuffer, indexOffset + indexBuffer.position()); // After the data: a record never points past it
+
+        synchronized (this) {
+            current.dataBytes += bytes;
+            current.blocks++;
+            current.endMillis = end;
+            totalBytes += bytes + INDEX_RECORD_BYTES;
+            blocksWritten++;
+            track(start, end, peak, rms);
+        }
+    }
+
+    // Running noise floor and loud-event merging; under the lock
+    private void track(long start, long end, int peak, int rms) {
+        float rmsDb = dbfs(rms);
+        if (Float.isNaN(floorDb)) floorDb = rmsDb;
+        boolean loud = rmsDb > floorDb + EVENT_MARGIN_DB;
+        if (rmsDb < floorDb) floorDb += (rmsDb - floorDb) * FLOOR_FALL;
+        else floorDb = Math.min(rmsDb, floorDb + FLOOR_RISE_DB);
+        if (!loud) return;
+        float peakDb = dbfs(peak);
+        long gap = (long) EVENT_GAP_BLOCKS * 1000;
+        int last = events.size() - 1;
+        if (last >= 0 && start - lastLoudEnd <= gap && lastLoudEnd == events.get(last).endMillis) {
+            Event e = events.get(last);
+            events.set(last, new Event(e.startMillis, end, Math.max(e.peakDbfs, peakDb), Math.max(e.rmsDbfs, rmsDb)));
+        } else {
+            events.add(new Event(start, end, peakDb, rmsDb));
+        }
+        lastLoudEnd = end;
+    }
+
+    private static float dbfs(int amplitude) {
+        return amplitude <= 0 ? MIN_DBFS : Math.max(MIN_DBFS, (float) (20 * Math.log10(amplitude / 32768.0)));
+    }
+
+    private void rollSegment(long start) throws IOException {
+        closeChannels();
+        Segment next = new Segment(dir, start);
+        synchronized (this) {
+            long last = segments.isEmpty() ? Long.MIN_VALUE : segments.get(segments.size() - 1).startMillis;
+            if (start <= last) next = new Segment(dir, last + 1); // Names stay unique and in order
+        }
+        dataChannel = FileChannel.open(next.data.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        indexChannel = FileChannel.open(next.index.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        codec.reset();
+        synchronized (this) {
+            segments.add(next);
+            current = next;
+            evict();
+        }
+    }
+
+    // Oldest first until the total fits; never the segment being written. Under the lock
+    private void evict() {
+        while (totalBytes > maxBytes && segments.size() > 1) {
+            Segment oldest = segments.remove(0);
+            totalBytes -= oldest.bytes();
+            oldest.data.delete(); // Already gone is fine: nothing left to free
+            oldest.index.delete();
+            segmentsEvicted++;
+        }
+        long oldestStart = segments.isEmpty() ? Long.MAX_VALUE : segments.get(0).startMillis;
+        int stale = 0;
+        while (stale < events.size() && events.get(stale).endMillis <= oldestStart) stale++;
+        if (stale > 0) events.subList(0, stale).clear();
+    }
+
+    private void closeChannels() throws IOException {
+        FileChannel data = dataChannel, index = indexChannel;
+        dataChannel = null;
+        indexChannel = null;
+        try { if (data != null) { data.force(false); data.close(); } }
+        finally { if (index != null) { index.force(false); index.close(); } }
+    }
+
+    /** Closes the current segment; a partly filled block is dropped. */
+    @Override
+    public void close() throws IOException {
+        blockFill = 0;
+        closeChannels();
+        synchronized (this) { current = null; }
+    }
+
+    // Rebuilds the segment list, the floor and the events from the index files on disk
+    private void recover() throws IOException {
+        File[] files = dir.listFiles((d, name) -> name.endsWith(INDEX_SUFFIX));
+        if (files == null) return;
+        Arrays.sort(files); // Zero-padded start times: name order is time order
+        ByteBuffer records = ByteBuffer.allocate(INDEX_RECORD_BYTES * 256).order(ByteOrder.LITTLE_ENDIAN);
+        for (File indexFile : files) {
+            long start;
+            try { start = Long.parseLong(indexFile.getName().substring(0, indexFile.getName().length() - INDEX_SUFFIX.length())); }
+            catch (NumberFormatException e) { continue; }
+            Segment segment = new Segment(dir, start);
+            if (!segment.data.isFile()) { indexFile.delete(); continue; } // Orphan index: its audio was already evicted
+            try (FileChannel index = FileChannel.open(indexFile.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+                 FileChannel data = FileChannel.open(segment.data.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                long dataSize = data.size();
+                long count = index.size() / INDEX_RECORD_BYTES;
+                long position = 0;
+                int valid = 0;
+                while (valid < count) {
+                    records.clear();
+                    records.limit((int) Math.min(records.capacity(), (count - valid) * INDEX_RECORD_BYTES));
+                    while (records.hasRemaining() && index.read(records, position + records.position()) > 0) { }
+                    records.flip();
+                    boolean torn = false;
+                    while (records.remaining() >= INDEX_RECORD_BYTES) {
+                        long time = records.getLong();
+                        long offset = records.getInt() & 0xFFFFFFFFL;
+                        int samples = records.getShort() & 0xFFFF;
+                        int peak = records.getShort() & 0xFFFF;
+                        int rms = records.getShort() & 0xFFFF;
+                        long end = offset + ImaAdpcmCodec.encodedBytes(samples);
+                        if (end > dataSize || offset != segment.dataBytes) { torn = true; break; }
+                        segment.dataBytes = end;
+                        segment.blocks++;
+                        segment.endMillis = time + samples * 1000L / sampleRate;
+                        track(time, segment.endMillis, peak, rms);
+                        valid++;
+                    }
+                    if (torn) break;
+                    position += (long) records.limit();
+                }
+                index.truncate((long) valid * INDEX_RECORD_BYTES);
+                data.truncate(segment.dataBytes);
+            }
+            if (segment.blocks == 0) {
+                segment.data.delete();
+                segment.index.delete();
+                continue;
+            }
+            segments.add(segment);
+            totalBytes += segment.bytes();
+        }
+        evict();
+    }
+
+    // --- Queries ---
+
+    /** Loud events overlapping {@code [fromMillis, toMillis)}, oldest first. */
+    public synchronized List<Event> events(long fromMillis, long toMillis) {
+        int lo = 0, hi = events.size();
+        while (lo < hi) { // First event ending after fromMillis; events do not overlap, so ends are sorted too
+            int mid = (lo + hi) >>> 1;
+            if (events.get(mid).endMillis <= fromMillis) lo = mid + 1; else hi = mid;
+        }
+        List<Event> found = new ArrayList<>();
+        for (int i = lo; i < events.size() && events.get(i).startMillis < toMillis; i++) found.add(events.get(i));
+        return found;
+    }
+
+    /** The {@code max} loudest events (by peak) overlapping {@code [fromMillis, toMillis)}, loudest first. */
+    public List<Event> loudest(long fromMillis, long toMillis, int max) {
+        List<Event> found = events(fromMillis, toMillis);
+        found.sort((a, b) -> Float.compare(b.peakDbfs, a.peakDbfs));
+        return found.size() > max ? new ArrayList<>(found.subList(0, max)) : found;
+    }
+
+    /**
+     * A reader positioned at the block playing at {@code timeMillis}, or the first block after it
+     * (the oldest block if the time was evicted); null if there is nothing that late.
+     */
+    public Reader open(long timeMillis) throws IOException {
+        Segment segment;
+        int blocks;
+        synchronized (this) {
+            int lo = 0, hi = segments.size();
+            while (lo < hi) { // First segment ending after timeMillis
+                int mid = (lo + hi) >>> 1;
+                if (segments.get(mid).endMillis <= timeMillis) lo = mid + 1; else hi = mid;
+            }
+            if (lo == segments.size()) return null;
+            segment = segments.get(lo);
+            blocks = segment.blocks;
+        }
+        Reader reader = new Reader(segment);
+        try {
+            int lo = 0, hi = blocks - 1;
+            while (lo < hi) { // Last block starting at or before timeMillis
+                int mid = (lo + hi + 1) >>> 1;
+                if (reader.readRecord(mid) <= timeMillis) lo = mid; else hi = mid - 1;
+            }
+            reader.next = lo;
+            return reader;
+        } catch (IOException e) {
+            reader.close();
+            throw e;
+        }
+    }
+
+    private synchronized Segment segmentAfter(Segment segment) {
+        for (Segment s : segments) if (s.startMillis > segment.startMillis) return s;
+        return null;
+    }
+
+    private synchronized int blocksIn(Segment segment) {
+        return segments.contains(segment) ? segment.blocks : -1;
+    }
+
+    /** Decodes the archive block by block from a point in time onwards, across segments. Not thread-safe. */
+    public final class Reader implements Closeable {
+        private final ByteBuffer record = ByteBuffer.allocate(INDEX_RECORD_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        private final byte[] encodedBlock = new byte[encoded.length];
+        private Segment segment;
+        private FileChannel index;
+        private FileChannel data;
+        private int next = 0;
+        private long blockMillis = 0;
+        private int blockSamples = 0;
+        private long blockOffset = 0;
+
+        private Reader(Segment segment) throws IOException {
+            openSegment(segment);
+        }
+
+        private void openSegment(Segment s) throws IOException {
+            closeChannels();
+            segment = s;
+            index = FileChannel.open(s.index.toPath(), StandardOpenOption.READ);
+            try { data = FileChannel.open(s.data.toPath(), StandardOpenOption.READ); }
+            catch (IOException e) { index.close(); index = null; throw e; }
+            next = 0;
+        }
+
+        // Loads record i into blockMillis/blockOffset/blockSamples; returns its time
+        private long readRecord(int i) throws IOException {
+            record.clear();
+            long position = (long) i * INDEX_RECORD_BYTES;
+            while (record.hasRemaining()) {
+                if (index.read(record, position + record.position()) < 0) throw new IOException("Index ends at block " + i + " of " + segment.index.getName());
+            }
+            record.flip();
+            blockMillis = record.getLong();
+            blockOffset = record.getInt() & 0xFFFFFFFFL;
+            blockSamples = record.getShort() & 0xFFFF;
+            return blockMillis;
+        }
+
+        /**
+         * Decodes the next block into {@code pcm} (at least one second of PCM16) and returns its
+         * bytes; 0 once the reader has caught up with the writer. The block's start time is then
+         * {@link #getBlockMillis}.
+         */
+        public int read(byte[] pcm) throws IOException {
+            int blocks = blocksIn(segment); // -1 once evicted
+            while (next >= blocks) { // Done with this segment: on to the next one, unless this is the one being written
+                Segment after = segmentAfter(segment);
+                if (after == null) return 0;
+                openSegment(after);
+                blocks = blocksIn(segment);
+            }
+            readRecord(next++);
+            int bytes = ImaAdpcmCodec.encodedBytes(blockSamples);
+            ByteBuffer in = ByteBuffer.wrap(encodedBlock, 0, bytes);
+            while (in.hasRemaining()) {
+                if (data.read(in, blockOffset + in.position()) < 0) throw new IOException("Data ends inside a block of " + segment.data.getName());
+            }
+            return ImaAdpcmCodec.decode(encodedBlock, 0, blockSamples, pcm, 0);
+        }
+
+        /** Wall-clock start of the block last returned by {@link #read}. */
+        public long getBlockMillis() { return blockMillis; }
+
+        private void closeChannels() throws IOException {
+            try { if (index != null) index.close(); }
+            finally { if (data != null) data.close(); index = null; data = null; }
+        }
+
+        @Override public void close() throws IOException { closeChannels(); }
+    }
+
+    // --- Statistics ---
+
+    public int getSampleRate() { return sampleRate; }
+    public synchronized long getTotalBytes() { return totalBytes; }
+    public synchronized int getSegmentCount() { return segments.size(); }
+    public synchronized int getEventCount() { return events.size(); }
+    public synchronized long getBlocksWritten() { return blocksWritten; }
+    public synchronized long getSilentBlocks() { return silentBlocks; }
+    public synchronized long getSegmentsEvicted() { return segmentsEvicted; }
+    /** Start of the oldest block kept, or 0 if the archive is empty. */
+    public synchronized long getOldestMillis() { return segments.isEmpty() ? 0 : segments.get(0).startMillis; }
+    /** End of the newest block, or 0 if the archive is empty. */
+    public synchronized long getNewestMillis() { return segments.isEmpty() ? 0 : segments.get(segments.size() - 1).endMillis; }
+}
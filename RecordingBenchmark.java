@@ -0,0 +1,183 @@
+package com.example.audio;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Cost and behaviour of the {@link RecordingArchive} on one core of a plain JVM, in a temporary
+ * directory.
+ *
+ * Records a simulated night (quiet room noise in 10 ms frames with a 5 s loud burst every 23
+ * minutes and a 2 minute link dropout every hour) as fast as the disk allows, with timestamps
+ * as if it had been played in real time. Then reports:
+ * - the write rate, as a multiple of real time and the share of one core it costs;
+ * - the bytes stored per hour;
+ * - the median time to position a reader at a random time, at a few archive sizes;
+ * - the bursts found as loud events;
+ * - the fidelity of a replayed burst;
+ * - how much a size-bounded archive keeps;
+ * - the recovery of a torn last block on reopen.
+ *
+ * Usage: RecordingBenchmark [--hours H] [--seed S]
+ */
+public class RecordingBenchmark {
+
+    private static final int SAMPLE_RATE = 16000;
+    private static final int FRAME_BYTES = SAMPLE_RATE / 100 * 2;
+    private static final int SEGMENT_SECONDS = 600;
+    private static final long START_MILLIS = 1_700_000_000_000L;
+    private static final long BURST_EVERY_MS = 23 * 60_000L;
+    private static final long BURST_MS = 5_000;
+    private static final long DROPOUT_EVERY_MS = 60 * 60_000L;
+    private static final long DROPOUT_MS = 120_000;
+    private static final int SEEKS = 2000;
+
+    private static byte[] pcm(double[] y) {
+        byte[] out = new byte[y.length * 2];
+        for (int i = 0; i < y.length; i++) {
+            int s = (int) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, Math.round(y[i])));
+            out[2 * i] = (byte) s;
+            out[2 * i + 1] = (byte) (s >> 8);
+        }
+        return out;
+    }
+
+    // Loops of room noise and of a loud burst; frames are cut out of them, so the night costs no synthesis
+    private static byte[][] sources(long seed) {
+        Random random = new Random(seed);
+        byte[] room = pcm(VadBenchmark.noise(random, 10 * SAMPLE_RATE, -66, false));
+        double[] burst = VadBenchmark.noise(random, 10 * SAMPLE_RATE, -66, false);
+        VadBenchmark.addMelody(burst, -20);
+        return new byte[][] { room, pcm(burst) };
+    }
+
+    private static boolean inBurst(long t) { return t % BURST_EVERY_MS >= BURST_EVERY_MS / 2 && t % BURST_EVERY_MS < BURST_EVERY_MS / 2 + BURST_MS; }
+    private static boolean inDropout(long t) { return t % DROPOUT_EVERY_MS >= DROPOUT_EVERY_MS - DROPOUT_MS; }
+
+    // Writes hours [fromHour, fromHour + hours) of the night; returns the nanoseconds spent in write()
+    private static long record(RecordingArchive archive, byte[][] sources, long fromHour, long hours) throws IOException {
+        byte[] silence = new byte[FRAME_BYTES];
+        long busy = 0;
+        for (long f = fromHour * 3600 * 100; f < (fromHour + hours) * 3600 * 100; f++) {
+            long t = f * 10;
+            byte[] source = inDropout(t) ? silence : sources[inBurst(t) ? 1 : 0];
+            int off = source == silence ? 0 : (int) ((f * FRAME_BYTES) % source.length);
+            long start = System.nanoTime();
+            archive.write(source, off, FRAME_BYTES, START_MILLIS + t);
+            busy += System.nanoTime() - start;
+        }
+        return busy;
+    }
+
+    private static double medianSeekMicros(RecordingArchive archive, long spanMillis, Random random) throws IOException {
+        List<Double> times = new ArrayList<>();
+        for (int i = 0; i < SEEKS; i++) {
+            long t = START_MILLIS + (long) (random.nextDouble() * spanMillis);
+            long start = System.nanoTime();
+            RecordingArchive.Reader reader = archive.open(t);
+            times.add((System.nanoTime() - start) / 1000.0);
+            if (reader != null) reader.close();
+        }
+        Collections.sort(times);
+        return times.get(times.size() / 2);
+    }
+
+    // SNR of a replayed block against the burst it was cut from
+    private static double replaySnrDb(RecordingArchive archive, byte[] burst) throws IOException {
+        long t = START_MILLIS + BURST_EVERY_MS / 2 + 1000; // A second into the first burst
+        byte[] pcm = new byte[SAMPLE_RATE * 2];
+        double signal = 0, error = 0;
+        try (RecordingArchive.Reader reader = archive.open(t)) {
+            int n = reader.read(pcm);
+            long f0 = (reader.getBlockMillis() - START_MILLIS) / 10;
+            for (int i = 0; i < n / 2; i++) {
+                int src = (int) (((f0 * FRAME_BYTES) + 2L * i) % burst.length);
+                double a = (short) ((burst[src] & 0xFF) | (burst[src + 1] << 8));
+                double b = (short) ((pcm[2 * i] & 0xFF) | (pcm[2 * i + 1] << 8));
+                signal += a * a;
+                error += (a - b) * (a - b);
+            }
+        }
+        return 10 * Math.log10(signal / Math.max(error, 1));
+    }
+
+    private static void delete(File dir) {
+        File[] files = dir.listFiles();
+        if (files != null) for (File f : files) if (!f.delete()) f.deleteOnExit();
+        if (!dir.delete()) dir.deleteOnExit();
+    }
+
+    public static void main(String[] args) throws IOException {
+        int hours = 8;
+        long seed = 1;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--hours": hours = Integer.parseInt(args[++i]); break;
+                case "--seed": seed = Long.parseLong(args[++i]); break;
+                default: throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+        byte[][] sources = sources(seed);
+        Random random = new Random(seed);
+        File dir = Files.createTempDirectory("recording-bench").toFile();
+        try {
+            // Unbounded night, with seek times as it grows
+            RecordingArchive archive = new RecordingArchive(dir, SAMPLE_RATE, SEGMENT_SECONDS, Long.MAX_VALUE);
+            record(archive, sources, 0, 1); // Warmup hour, also the first seek data point
+            System.out.println(String.format(Locale.US, "seek after %2d h: %6.1f us median (%d segments)", 1, medianSeekMicros(archive, 3600_000L, random), archive.getSegmentCount()));
+            long busy = 0;
+            for (int h = 2; h <= hours; h++) {
+                busy += record(archive, sources, h - 1, 1);
+                if (h == 2 || h == 4 || h == hours) System.out.println(String.format(Locale.US, "seek after %2d h: %6.1f us median (%d segments)", h, medianSeekMicros(archive, h * 3600_000L, random), archive.getSegmentCount()));
+            }
+            archive.close();
+            double seconds = (hours - 1) * 3600.0;
+            System.out.println(String.format(Locale.US, "write: %.0fx real time, %.4f%% of one core, %.1f MiB per hour (%d s of silence skipped)",
+                    seconds / (busy / 1e9), 100 * (busy / 1e9) / seconds, archive.getTotalBytes() / (double) hours / (1 << 20), archive.getSilentBlocks()));
+
+            long bursts = 0;
+            for (long t = 0; t < hours * 3600_000L; t += BURST_EVERY_MS) if (!inDropout(t + BURST_EVERY_MS / 2)) bursts++;
+            List<RecordingArchive.Event> events = archive.events(START_MILLIS, START_MILLIS + hours * 3600_000L);
+            int matched = 0;
+            for (RecordingArchive.Event e : events) if (inBurst(e.startMillis - START_MILLIS) || inBurst(e.endMillis - START_MILLIS - 1)) matched++;
+            List<RecordingArchive.Event> loudest = archive.loudest(START_MILLIS, START_MILLIS + hours * 3600_000L, 5);
+            System.out.println(String.format(Locale.US, "events: %d found for %d bursts, %d on a burst; loudest: %s",
+                    events.size(), bursts, matched, loudest.isEmpty() ? "-" : loudest.get(0)));
+            System.out.println(String.format(Locale.US, "replay: %.1f dB SNR of a burst block after IMA-ADPCM", replaySnrDb(archive, sources[1])));
+
+            // Torn last block: half an index record and a few data bytes past the end
+            File[] indexFiles = dir.listFiles((d, name) -> name.endsWith(".idx"));
+            Arrays.sort(indexFiles);
+            File lastIndex = indexFiles[indexFiles.length - 1];
+            File lastData = new File(dir, lastIndex.getName().replace(".idx", ".ima"));
+            try (RandomAccessFile f = new RandomAccessFile(lastIndex, "rw")) { f.seek(f.length()); f.write(new byte[RecordingArchive.INDEX_RECORD_BYTES / 2]); }
+            try (RandomAccessFile f = new RandomAccessFile(lastData, "rw")) { f.seek(f.length()); f.write(new byte[100]); }
+            long start = System.nanoTime();
+            RecordingArchive reopened = new RecordingArchive(dir, SAMPLE_RATE, SEGMENT_SECONDS, Long.MAX_VALUE);
+            System.out.println(String.format(Locale.US, "reopen: %.0f ms, %d segments, %d events, %s bytes as before the tear, index %d bytes",
+                    (System.nanoTime() - start) / 1e6, reopened.getSegmentCount(), reopened.getEventCount(),
+                    reopened.getTotalBytes() == archive.getTotalBytes() ? "same" : "different", lastIndex.length()));
+
+            // Size-bounded: a quarter of the night
+            long bound = archive.getTotalBytes() / 4;
+            delete(dir);
+            if (!dir.mkdirs()) throw new IOException("Cannot recreate " + dir);
+            RecordingArchive bounded = new RecordingArchive(dir, SAMPLE_RATE, SEGMENT_SECONDS, bound);
+            record(bounded, sources, 0, hours);
+            bounded.close();
+            System.out.println(String.format(Locale.US, "bounded to %.1f MiB: %.1f MiB kept in %d segments, %d evicted, oldest kept at %.2f h, newest ends at %.2f h",
+                    bound / (double) (1 << 20), bounded.getTotalBytes() / (double) (1 << 20), bounded.getSegmentCount(), bounded.getSegmentsEvicted(),
+                    (bounded.getOldestMillis() - START_MILLIS) / 3600_000.0, (bounded.getNewestMillis() - START_MILLIS) / 3600_000.0));
+        } finally {
+            delete(dir);
+        }
+    }
+}
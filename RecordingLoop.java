@@ -0,0 +1,53 @@
+package com.example.audio;
+
+import java.io.IOException;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Tees the played stream into a {@link RecordingArchive} on its own thread: playout only copies
+ * each frame into the recording ring, so a slow or full disk can cost recorded audio (the ring's
+ * overruns) but never a played frame.
+ *
+ * Runs until {@code running} turns false, the thread is interrupted, or a write fails
+ * ({@link #getError}); the archive is closed on the way out.
+ */
+public class RecordingLoop implements Runnable {
+
+    private static final long WAIT_NANOS = 100_000_000L; // Rechecks 'running' while the stream is idle
+
+    private final ByteRingBuffer ring;
+    private final RecordingArchive archive;
+    private final int chunkBytes;
+    private final BooleanSupplier running;
+    private volatile IOException error = null;
+
+    /** {@code chunkBytes}: most read from the ring per write, a few playout frames. */
+    public RecordingLoop(ByteRingBuffer ring, RecordingArchive archive, int chunkBytes, BooleanSupplier running) {
+        this.ring = ring;
+        this.archive = archive;
+        this.chunkBytes = chunkBytes;
+        this.running = running;
+    }
+
+    @Override
+    public void run() {
+        byte[] chunk = new byte[chunkBytes];
+        long bytesPerSecond = archive.getSampleRate() * 2L;
+        try {
+            while (running.getAsBoolean() && !Thread.currentThread().isInterrupted()) {
+                if (!ring.awaitData(WAIT_NANOS)) continue;
+                int queued = ring.available();
+                int n = ring.read(chunk, 0, chunk.length);
+                long playedMillis = System.currentTimeMillis() - (queued * 1000L / bytesPerSecond); // The first byte was queued this long ago
+                archive.write(chunk, 0, n, playedMillis);
+            }
+        } catch (IOException e) {
+            error = e;
+        } finally {
+            try { archive.close(); } catch (IOException e) { if (error == null) error = e; }
+        }
+    }
+
+    /** The write error that ended the loop, or null. */
+    public IOException getError() { return error; }
+}
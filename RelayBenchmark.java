@@ -0,0 +1,309 @@
+package com.example.audio;
+
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Fan-out of one mic stream through {@link StreamRelay} to many listeners on loopback.
+ *
+ * An {@link Esp32Simulator} plays the mic board; one NioTransport plays the relaying phone (its
+ * own receive connection to the board, and the relay); a second NioTransport carries the fast
+ * listeners, the way other phones would connect. Slow listeners are blocking sockets with a
+ * small receive buffer that take about 20 KB/s of the 32 KB/s PCM16 stream; stalled ones send
+ * the hello and never read again, like a phone that left the WiFi without closing.
+ *
+ * The board's samples count up, so every listener knows which frame it got and when the board
+ * captured it. Per scenario it reports the share of one core the relay thread used, latency
+ * (board capture to arrival, ms: median/p99/max) at the relaying phone and at the listeners, the
+ * frames each kind of listener missed, frames the relay dropped into full queues and when the
+ * stalled listeners were evicted. Fast listeners should see the same latency, and miss nothing,
+ * with or without slow company.
+ *
+ * Usage: RelayBenchmark [--seconds N] [--listeners N] [--slow K] [--stalled K]
+ */
+public class RelayBenchmark {
+
+    // Same as StreamingService
+    private static final int SAMPLE_RATE = 16000;
+    private static final int RECEIVE_READ_BUFFER_BYTES = 8 * 1024;
+    private static final int SMALL_READ_BUFFER_BYTES = 256;
+    private static final int CODEC_NEGOTIATION_TIMEOUT_MS = 300;
+    private static final int RELAY_QUEUE_BYTES = 8 * 1024;
+
+    private static final int CHUNK_SAMPLES = 256;          // Board frame size
+    private static final long WARMUP_NANOS = 2_000_000_000L;
+    private static final int SLOW_READ_BYTES = 1024;
+    private static final int SLOW_READ_INTERVAL_MS = 50;   // About 20 KB/s
+    private static final int SLOW_RECEIVE_BUFFER_BYTES = 16 * 1024;
+
+    // What the board produced: sample n is (short) n, and chunk n / CHUNK_SAMPLES was captured at captureNanos[...]
+    private static final class Signal implements Esp32Simulator.MicSignal {
+        final long[] captureNanos;
+        volatile long generated = 0;
+        Signal(int seconds) { captureNanos = new long[(seconds + 10) * SAMPLE_RATE / CHUNK_SAMPLES]; }
+        @Override public void fill(short[] pcm, int samples, long firstSampleNanos) {
+            long g = generated;
+            for (int i = 0; i < samples; i++) pcm[i] = (short) (g + i);
+            int chunk = (int) (g / CHUNK_SAMPLES);
+            if (chunk < captureNanos.length) captureNanos[chunk] = firstSampleNanos;
+            generated = g + samples;
+        }
+    }
+
+    // Decodes a listener's frames and recovers each one's sample index from the counting signal
+    private static final class Probe {
+        private final Signal signal;
+        private final long startNanos;
+        private final FrameDecoder decoder = new FrameDecoder();
+        private byte[] pcm = new byte[0];
+        private long nextIndex = -1;
+        final LatencyHistogram latency = new LatencyHistogram();
+        long frames = 0;
+        long missing = 0;
+        long misaligned = 0;
+
+        Probe(Signal signal, long startNanos) { this.signal = signal; this.startNanos = startNanos; }
+
+        void onData(byte[] src, int off, int len) {
+            int max = FrameDecoder.maxDecodedBytes(len);
+            if (pcm.length < max) pcm = new byte[max];
+            int bytes = decoder.decode(src, off, len, pcm, 0);
+            long now = System.nanoTime();
+            long g = signal.generated;
+            for (int p = 0; p + 1 < bytes; p += CHUNK_SAMPLES * 2) {
+                int v = (pcm[p] & 0xFF) | ((pcm[p + 1] & 0xFF) << 8);
+                if ((v & (CHUNK_SAMPLES - 1)) != 0) { misaligned++; continue; }
+                long index = g - 1 - ((g - 1 - v) & 0xFFFF); // Latest sample with these low bits: exact while latency < 4 s
+                if (nextIndex >= 0 && index > nextIndex) missing += (index - nextIndex) / CHUNK_SAMPLES;
+                nextIndex = index + CHUNK_SAMPLES;
+                frames++;
+                int chunk = (int) (index / CHUNK_SAMPLES);
+                if (now - startNanos > WARMUP_NANOS && chunk < signal.captureNanos.length) latency.record(now - signal.captureNanos[chunk]);
+            }
+        }
+
+        void onData(ByteBuffer data) {
+            if (data.hasArray()) { onData(data.array(), data.arrayOffset() + data.position(), data.remaining()); return; }
+            byte[] copy = new byte[data.remaining()];
+            data.duplicate().get(copy);
+            onData(copy, 0, copy.length);
+        }
+    }
+
+    // A listener phone: hello, the relay's answer, then frames
+    private static final class ListenerHandler implements NioTransport.Handler {
+        private final Probe probe;
+        private final byte[] reply = new byte[WireCodec.HELLO_BYTES];
+        private byte[] chunk = new byte[0];
+        private int replyFill = 0;
+        ListenerHandler(Probe probe) { this.probe = probe; }
+
+        @Override public void onConnected(NioTransport.Connection connection) {
+            byte[] hello = WireCodec.hello(WireCodec.CODEC_PCM16);
+            connection.send(hello, 0, hello.length);
+        }
+
+        @Override public void onData(NioTransport.Connection connection, ByteBuffer data) {
+            if (replyFill < reply.length) {
+                int n = Math.min(data.remaining(), reply.length - replyFill);
+                data.get(reply, replyFill, n);
+                replyFill += n;
+                if (replyFill == reply.length && WireCodec.parseHello(reply, replyFill) != WireCodec.CODEC_PCM16) connection.close();
+                if (!data.hasRemaining()) return;
+            }
+            if (chunk.length < data.remaining()) chunk = new byte[data.remaining()];
+            int n = data.remaining();
+            data.get(chunk, 0, n);
+            probe.onData(chunk, 0, n);
+        }
+
+        @Override public void onClosed(NioTransport.Connection connection, Throwable error) {}
+    }
+
+    private static final class Result {
+        final LatencyHistogram upstream;
+        final List<Probe> fast, slow;
+        final double relayCpuPercent;
+        final long framesIn, framesSent, framesDropped, evicted, boardFrames;
+        final double evictedAtSeconds;
+        Result(LatencyHistogram upstream, List<Probe> fast, List<Probe> slow, double relayCpuPercent, StreamRelay relay, long boardFrames, double evictedAtSeconds) {
+            this.upstream = upstream;
+            this.fast = fast;
+            this.slow = slow;
+            this.relayCpuPercent = relayCpuPercent;
+            this.framesIn = relay.getFramesIn();
+            this.framesSent = relay.getFramesSent();
+            this.framesDropped = relay.getFramesDropped();
+            this.evicted = relay.getEvicted();
+            this.boardFrames = boardFrames;
+            this.evictedAtSeconds = evictedAtSeconds;
+        }
+    }
+
+    private static Result run(int seconds, int fastCount, int slowCount, int stalledCount, ThreadMXBean cpu) throws Exception {
+        Signal signal = new Signal(seconds);
+        Esp32Simulator.Config config = new Esp32Simulator.Config();
+        config.micPort = 0;
+        config.speakerPort = 0;
+        config.controlPort = 0;
+        config.udpAudio = false;
+        config.micChunkSamples = CHUNK_SAMPLES;
+        config.micSignal = signal;
+        Esp32Simulator simulator = new Esp32Simulator(config);
+        NioTransport relayTransport = new NioTransport("relay");
+        NioTransport listenerTransport = new NioTransport("listeners");
+        InetAddress host = InetAddress.getLoopbackAddress();
+        long start = System.nanoTime();
+        Probe upstreamProbe = new Probe(signal, start);
+        StreamRelay relay = new StreamRelay(relayTransport, new Pcm32To16Converter(16, 1.0f, true), WireCodec.CODEC_PCM16, fastCount + slowCount + stalledCount, RELAY_QUEUE_BYTES);
+        final boolean[] running = { true };
+        List<Probe> fast = new ArrayList<>(), slow = new ArrayList<>();
+        List<Socket> sockets = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        try {
+            simulator.start();
+            relayTransport.start();
+            listenerTransport.start();
+            relay.listen(new InetSocketAddress(host, 0));
+            final long[] relayThread = { -1 };
+            relayTransport.execute(() -> relayThread[0] = Thread.currentThread().getId());
+
+            ConnectionSupervisor.Listener quiet = new ConnectionSupervisor.Listener() {
+                @Override public void onConnecting(String channel, int attempt) {}
+                @Override public void onConnected(String channel, int reconnects, long outageMillis) {}
+                @Override public void onSessionEnded(String channel, Throwable error, long nextRetryMillis) {}
+            };
+            new ConnectionSupervisor("upstream", session -> relayTransport.connect(new InetSocketAddress(host, simulator.getMicPort()), 1000,
+                    RECEIVE_READ_BUFFER_BYTES, SMALL_READ_BUFFER_BYTES, new NegotiatingHandler(relayTransport, session, WireCodec.CODEC_PCM16, CODEC_NEGOTIATION_TIMEOUT_MS) {
+                        @Override protected void onLinked(NioTransport.Connection connection, int codec) { relay.onUpstreamLinked(codec); }
+                        @Override protected void onStreamData(NioTransport.Connection connection, ByteBuffer data) {
+                            relay.onUpstreamData(data);
+                            upstreamProbe.onData(data); // Stands in for the relaying phone's own playout path
+                        }
+                        @Override public void onClosed(NioTransport.Connection connection, Throwable error) { relay.onUpstreamClosed(); session.closed(error); }
+                    }), quiet, relayTransport, () -> running[0], 100, 800).start();
+
+            for (int i = 0; i < fastCount; i++) {
+                Probe probe = new Probe(signal, start);
+                fast.add(probe);
+                listenerTransport.connect(new InetSocketAddress(host, relay.getPort()), 1000, RECEIVE_READ_BUFFER_BYTES, SMALL_READ_BUFFER_BYTES, new ListenerHandler(probe));
+            }
+            for (int i = 0; i < slowCount + stalledCount; i++) {
+                boolean stalled = i >= slowCount;
+                Socket socket = new Socket();
+                socket.setReceiveBufferSize(SLOW_RECEIVE_BUFFER_BYTES);
+                socket.connect(new InetSocketAddress(host, relay.getPort()), 1000);
+                sockets.add(socket);
+                socket.getOutputStream().write(WireCodec.hello(WireCodec.CODEC_PCM16));
+                if (stalled) continue;
+                Probe probe = new Probe(signal, start);
+                slow.add(probe);
+                Thread t = new Thread(() -> readSlowly(socket, probe, running), "slow-listener-" + i);
+                t.setDaemon(true);
+                threads.add(t);
+                t.start();
+            }
+
+            long cpuStart = -1;
+            double evictedAt = -1;
+            for (int s = 0; s < seconds * 10; s++) {
+                Thread.sleep(100);
+                if (cpuStart < 0 && relayThread[0] >= 0) cpuStart = cpu.getThreadCpuTime(relayThread[0]);
+                if (evictedAt < 0 && stalledCount > 0 && relay.getEvicted() >= stalledCount) evictedAt = (System.nanoTime() - start) / 1e9;
+            }
+            double cpuPercent = cpuStart < 0 ? 0 : (cpu.getThreadCpuTime(relayThread[0]) - cpuStart) / 1e9 / (seconds - 0.1) * 100;
+            return new Result(upstreamProbe.latency, fast, slow, cpuPercent, relay, simulator.getMicChunksSent(), evictedAt);
+        } finally {
+            running[0] = false;
+            for (Socket s : sockets) try { s.close(); } catch (Exception ignore) {}
+            for (Thread t : threads) t.join(1000);
+            listenerTransport.close();
+            relayTransport.close();
+            simulator.close();
+        }
+    }
+
+    private static void readSlowly(Socket socket, Probe probe, boolean[] running) {
+        byte[] buffer = new byte[SLOW_READ_BYTES];
+        try {
+            InputStream in = socket.getInputStream();
+            int skip = WireCodec.HELLO_BYTES;
+            while (running[0]) {
+                int n = in.read(buffer, 0, skip > 0 ? skip : buffer.length);
+                if (n < 0) return;
+                if (skip > 0) { skip -= n; continue; } // The relay's answer
+                probe.onData(buffer, 0, n);
+                Thread.sleep(SLOW_READ_INTERVAL_MS);
+            }
+        } catch (Exception e) {
+            // Closed at the end of the run
+        }
+    }
+
+    private static String latency(List<LatencyHistogram> histograms) {
+        long[] counts = new long[LatencyHistogram.BUCKETS], scratch = new long[LatencyHistogram.BUCKETS], zero = new long[LatencyHistogram.BUCKETS];
+        for (LatencyHistogram h : histograms) {
+            h.copyCounts(scratch);
+            for (int i = 0; i < counts.length; i++) counts[i] += scratch[i];
+        }
+        long n = 0;
+        for (long c : counts) n += c;
+        if (n == 0) return String.format(Locale.US, "%-17s", "-");
+        return String.format(Locale.US, "%5.1f/%5.1f/%5.1f", LatencyHistogram.percentile(counts, zero, 50) / 1e6,
+                LatencyHistogram.percentile(counts, zero, 99) / 1e6, LatencyHistogram.percentile(counts, zero, 100) / 1e6);
+    }
+
+    private static String missed(List<Probe> probes) {
+        if (probes.isEmpty()) return String.format(Locale.US, "%-13s", "-");
+        long frames = 0, missing = 0, worst = 0, misaligned = 0;
+        for (Probe p : probes) {
+            frames += p.frames;
+            missing += p.missing;
+            misaligned += p.misaligned;
+            worst = Math.max(worst, p.frames + p.missing > 0 ? p.missing * 1000 / (p.frames + p.missing) : 0);
+        }
+        return String.format(Locale.US, "%5.1f%% w%4.1f%%", frames + missing > 0 ? 100.0 * missing / (frames + missing) : 0, worst / 10.0) + (misaligned > 0 ? " (" + misaligned + " misaligned)" : "");
+    }
+
+    private static void report(String name, Result r) {
+        List<LatencyHistogram> fastLatency = new ArrayList<>(), slowLatency = new ArrayList<>();
+        for (Probe p : r.fast) fastLatency.add(p.latency);
+        for (Probe p : r.slow) slowLatency.add(p.latency);
+        List<LatencyHistogram> upstream = new ArrayList<>();
+        upstream.add(r.upstream);
+        System.out.println(String.format(Locale.US, "%-28s | %5.2f%% | %s | %s %s | %s %s | %6d %6d %4d/%-6d | %s",
+                name, r.relayCpuPercent, latency(upstream), latency(fastLatency), missed(r.fast), latency(slowLatency), missed(r.slow),
+                r.framesIn, r.boardFrames, r.framesDropped, r.framesSent + r.framesDropped,
+                r.evicted > 0 ? String.format(Locale.US, "%d at %.1f s", r.evicted, r.evictedAtSeconds) : "-"));
+    }
+
+    public static void main(String[] args) throws Exception {
+        int seconds = 20, listeners = 40, slow = 4, stalled = 2;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--seconds": seconds = Integer.parseInt(args[++i]); break;
+                case "--listeners": listeners = Integer.parseInt(args[++i]); break;
+                case "--slow": slow = Integer.parseInt(args[++i]); break;
+                case "--stalled": stalled = Integer.parseInt(args[++i]); break;
+                default: throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+        ThreadMXBean cpu = ManagementFactory.getThreadMXBean();
+        System.out.println("PCM16 at " + SAMPLE_RATE + " Hz, " + CHUNK_SAMPLES + "-sample frames, " + RELAY_QUEUE_BYTES / 1024 + " KB queue per listener, " + seconds + " s per scenario");
+        System.out.println("Latency is board capture to arrival in ms (median/p99/max); missed is all frames of that kind, w = worst single listener");
+        System.out.println(String.format(Locale.US, "%-28s | %6s | %-17s | %-17s %-13s | %-17s %-13s | %6s %6s %11s | %s",
+                "scenario", "relay", "relaying phone", "fast listeners", "missed", "slow listeners", "missed", "in", "board", "dropped/all", "evicted"));
+        run(3, 4, 0, 0, cpu); // Warmup
+        report("relay alone", run(seconds, 0, 0, 0, cpu));
+        report(listeners + " fast", run(seconds, listeners, 0, 0, cpu));
+        report(listeners + " fast, " + slow + " slow, " + stalled + " stalled", run(seconds, listeners, slow, stalled, cpu));
+    }
+}
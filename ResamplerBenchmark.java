@@ -0,0 +1,144 @@
+package com.example.audio;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Throughput and quality of the resamplers on one core of a plain JVM.
+ *
+ * For each conversion it reports the median of several timed runs in million input and output
+ * samples per second (after warmup, so the JIT has compiled the inner loops), the real-time
+ * factor for one mono stream, the signal-to-error ratio of a 1 kHz tone, and, where the
+ * conversion goes down in rate, how far a tone above the new Nyquist frequency is suppressed
+ * instead of aliasing.
+ *
+ * Usage: ResamplerBenchmark [--seconds S] [--runs N]
+ */
+public class ResamplerBenchmark {
+
+    private static final int BLOCK_MS = 10;
+    private static final int AMPLITUDE = 16000;
+    private static final int WARMUP_RUNS = 3;
+
+    private interface Converter {
+        int process(byte[] src, int off, int len, byte[] dst);
+    }
+
+    private static Converter polyphase(int in, int out, int blockSamples) {
+        PolyphaseResampler r = new PolyphaseResampler(in, out, blockSamples);
+        return (src, off, len, dst) -> r.process(src, off, len, dst, 0);
+    }
+
+    // Drift correction runs at the wire rate with a ratio just off 1
+    private static Converter fractional(double ratio, int blockSamples) {
+        FractionalResampler r = new FractionalResampler(2 * blockSamples);
+        r.setRatio(ratio);
+        return (src, off, len, dst) -> {
+            r.write(src, off, len);
+            return 2 * r.read(dst, 0, dst.length / 2);
+        };
+    }
+
+    private static byte[] tone(int rate, double hz, int samples) {
+        byte[] pcm = new byte[samples * 2];
+        for (int i = 0; i < samples; i++) {
+            int s = (int) Math.round(AMPLITUDE * Math.sin(2 * Math.PI * hz * i / rate));
+            pcm[2 * i] = (byte) s;
+            pcm[2 * i + 1] = (byte) (s >> 8);
+        }
+        return pcm;
+    }
+
+    // Feeds the input in 10 ms blocks; returns the output samples, the first ones copied to 'collect' (may be null)
+    private static long run(Converter c, byte[] input, int blockBytes, byte[] out, short[] collect) {
+        long produced = 0;
+        for (int off = 0; off + blockBytes <= input.length; off += blockBytes) {
+            int n = c.process(input, off, blockBytes, out) / 2;
+            if (collect != null) {
+                for (int i = 0; i < n && produced + i < collect.length; i++) collect[(int) produced + i] = (short) ((out[2 * i] & 0xFF) | (out[2 * i + 1] << 8));
+            }
+            produced += n;
+        }
+        return produced;
+    }
+
+    // Signal-to-error ratio of a tone, fitting amplitude and phase by least squares (skips the start-up)
+    private static double toneSnrDb(short[] y, int count, int rate, double hz) {
+        int start = rate / 10;
+        double ss = 0, sc = 0, cc = 0, ys = 0, yc = 0;
+        for (int i = start; i < count; i++) {
+            double s = Math.sin(2 * Math.PI * hz * i / rate), c = Math.cos(2 * Math.PI * hz * i / rate);
+            ss += s * s; cc += c * c; sc += s * c; ys += y[i] * s; yc += y[i] * c;
+        }
+        double det = ss * cc - sc * sc;
+        double a = (ys * cc - yc * sc) / det, b = (yc * ss - ys * sc) / det;
+        double signal = 0, error = 0;
+        for (int i = start; i < count; i++) {
+            double fit = a * Math.sin(2 * Math.PI * hz * i / rate) + b * Math.cos(2 * Math.PI * hz * i / rate);
+            signal += fit * fit;
+            error += (y[i] - fit) * (y[i] - fit);
+        }
+        return 10 * Math.log10(signal / Math.max(error, 1e-9));
+    }
+
+    private static double rmsDbFs(short[] y, int count, int start) {
+        double sum = 0;
+        for (int i = start; i < count; i++) sum += (double) y[i] * y[i];
+        return 10 * Math.log10(sum / Math.max(1, count - start) / (AMPLITUDE * AMPLITUDE / 2.0) + 1e-12);
+    }
+
+    // 'pitch': output/input frequency ratio beyond the rate change (drift correction shifts the tone slightly)
+    private static void measure(String name, int inRate, int outRate, double pitch, java.util.function.Supplier<Converter> factory, int seconds, int runs) {
+        int blockSamples = inRate * BLOCK_MS / 1000;
+        int blockBytes = blockSamples * 2;
+        byte[] out = new byte[(blockSamples * outRate / inRate + 2) * 2 * 2];
+
+        byte[] input = tone(inRate, 1000, inRate * seconds);
+        List<Double> times = new ArrayList<>();
+        long produced = 0;
+        for (int r = 0; r < WARMUP_RUNS + runs; r++) {
+            Converter c = factory.get();
+            long start = System.nanoTime();
+            produced = run(c, input, blockBytes, out, null);
+            if (r >= WARMUP_RUNS) times.add((System.nanoTime() - start) / 1e9);
+        }
+        Collections.sort(times);
+        double t = times.get(times.size() / 2);
+
+        short[] y = new short[outRate * 2];
+        int n = (int) Math.min(y.length, run(factory.get(), tone(inRate, 1000, inRate * 2), blockBytes, out, y));
+        double snr = toneSnrDb(y, n, outRate, 1000 * pitch);
+        String alias = "-";
+        if (outRate < inRate) {
+            double above = Math.min(inRate / 2.0 - 500, outRate * 0.75); // Folds back into the band if not filtered
+            n = (int) Math.min(y.length, run(factory.get(), tone(inRate, above, inRate * 2), blockBytes, out, y));
+            alias = String.format(Locale.US, "%6.1f dB @%5.0f Hz", rmsDbFs(y, n, outRate / 10), above);
+        }
+        System.out.println(String.format(Locale.US, "%-26s | %7.2f %7.2f | %7.0fx | %6.1f dB | %s",
+                name, inRate * (double) seconds / t / 1e6, produced / t / 1e6, seconds / t, snr, alias));
+    }
+
+    public static void main(String[] args) {
+        int seconds = 20;
+        int runs = 5;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--seconds": seconds = Integer.parseInt(args[++i]); break;
+                case "--runs": runs = Integer.parseInt(args[++i]); break;
+                default: throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+        System.out.println("Throughput in million samples/s on one core (in, out), real-time factor for one stream, 1 kHz tone SNR, alias suppression");
+        System.out.println(String.format(Locale.US, "%-26s | %7s %7s | %8s | %9s | %s", "conversion", "in", "out", "realtime", "snr", "alias"));
+        int[][] pairs = { { 16000, 48000 }, { 48000, 16000 }, { 16000, 44100 }, { 44100, 16000 }, { 16000, 24000 }, { 48000, 8000 } };
+        for (int[] p : pairs) {
+            final int in = p[0], out = p[1];
+            final int block = in * BLOCK_MS / 1000;
+            PolyphaseResampler probe = new PolyphaseResampler(in, out, block);
+            measure(String.format(Locale.US, "polyphase %5d->%5d %3dt", in, out, probe.getTapsPerPhase()), in, out, 1.0, () -> polyphase(in, out, block), seconds, runs);
+        }
+        measure("fractional 16000 +500ppm", 16000, 16000, 1.0005, () -> fractional(1.0005, 160), seconds, runs);
+    }
+}
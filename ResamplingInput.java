@@ -0,0 +1,39 @@
+package com.example.audio;
+
+/**
+ * {@link AudioInput} at the wire rate behind a device running at its native rate: each read
+ * takes the matching amount of device audio and converts it with a {@link PolyphaseResampler}.
+ * A read may return slightly more or fewer bytes than a fixed ratio would suggest, never more
+ * than requested.
+ */
+public class ResamplingInput implements AudioInput {
+
+    private final AudioInput device;
+    private final PolyphaseResampler resampler;
+    private final int wireRate;
+    private final int deviceRate;
+    private final byte[] raw;
+
+    /** {@code maxReadBytes}: largest single read at the wire rate. */
+    public ResamplingInput(AudioInput device, int deviceRate, int wireRate, int maxReadBytes) {
+        this.device = device;
+        this.wireRate = wireRate;
+        this.deviceRate = deviceRate;
+        int maxRawSamples = deviceSamples(maxReadBytes / 2);
+        this.resampler = new PolyphaseResampler(deviceRate, wireRate, maxRawSamples);
+        this.raw = new byte[maxRawSamples * 2];
+    }
+
+    @Override
+    public int read(byte[] data, int off, int len) {
+        // One sample short of the full ratio, so the output (which can carry one extra sample) fits
+        int samples = Math.max(1, deviceSamples(len / 2 - 1));
+        int n = device.read(raw, 0, samples * 2);
+        if (n <= 0) return n;
+        return resampler.process(raw, 0, n, data, off);
+    }
+
+    private int deviceSamples(int wireSamples) {
+        return (int) ((long) Math.max(0, wireSamples) * deviceRate / wireRate);
+    }
+}
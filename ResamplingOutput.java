@@ -0,0 +1,31 @@
+package com.example.audio;
+
+/**
+ * {@link AudioOutput} at the wire rate in front of a device running at its native rate: each
+ * write is converted by a {@link PolyphaseResampler} and written through in full.
+ */
+public class ResamplingOutput implements AudioOutput {
+
+    private final AudioOutput device;
+    private final PolyphaseResampler resampler;
+    private final byte[] converted;
+
+    /** {@code maxWriteBytes}: largest single write at the wire rate. */
+    public ResamplingOutput(AudioOutput device, int wireRate, int deviceRate, int maxWriteBytes) {
+        this.device = device;
+        this.resampler = new PolyphaseResampler(wireRate, deviceRate, maxWriteBytes / 2);
+        this.converted = new byte[resampler.maxOutputSamples(maxWriteBytes / 2) * 2];
+    }
+
+    @Override
+    public int write(byte[] data, int off, int len) {
+        int n = resampler.process(data, off, len, converted, 0);
+        int done = 0;
+        while (done < n) {
+            int written = device.write(converted, done, n - done);
+            if (written <= 0) return written; // Error, or a device that accepts nothing right now: drop the rest
+            done += written;
+        }
+        return len;
+    }
+}
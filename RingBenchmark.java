@@ -0,0 +1,298 @@
+package com.example.audio;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The SPSC {@link ByteRingBuffer} split against the old synchronous loop, on a plain JVM.
+ *
+ * Stalls: each direction runs in real time against a simulated device and socket, once as one
+ * thread doing the blocking socket call and then the blocking audio call (the loop the service
+ * had), and once as a producer and a consumer thread joined by a ring. Every
+ * {@link #STALL_PERIOD_MS} one side stalls for {@link #STALL_MS}. On the send path the socket
+ * write stalls (a full TCP window) and the mic, which only buffers {@link #MIC_BUFFER_MS}, loses
+ * what it cannot hold. On the receive path the AudioTrack write stalls and the bytes the board
+ * sent wait in the socket meanwhile; once more than {@link #BOARD_BUFFER_MS} is unread the board's
+ * TCP window and I2S DMA are full and it loses audio. A track that stalls cannot catch up, so the
+ * underruns match either way: the synchronous loop leaves the backlog to the board, which loses
+ * what does not fit, while the ring holds it on the phone as added delay (overrunning once full)
+ * for the service's jitter buffer to trim. What the ring changes is that the socket keeps being
+ * read, so the board's window never fills. The run fails (exit status 1) unless the ring loses
+ * no mic audio where the synchronous loop does, and keeps every receive socket wait under
+ * {@link #MAX_SOCKET_WAIT_MS} where the synchronous loop waits out the whole stall.
+ *
+ * Handoff: the median of several timed runs of moving chunks through a ring, on one thread
+ * (offer then read) and between two threads (the producer yields on a full ring, the consumer
+ * parks on an empty one, as the service's do), in ns per chunk and MB/s, with the bytes
+ * allocated where the JVM can count them (the ring must not allocate).
+ *
+ * Usage: RingBenchmark [--seconds S] [--runs N]
+ */
+public class RingBenchmark {
+
+    private static final int SAMPLE_RATE = 16000;
+    private static final int CHUNK_BYTES = 640;          // 20 ms, as AudioRecord reads
+    private static final int RING_BYTES = CHUNK_BYTES * 16; // As the service's send ring
+    private static final int MIC_BUFFER_MS = 80;
+    private static final int BOARD_BUFFER_MS = 128;      // ESP1mic's I2S DMA, 8 x 256 samples, as Esp32Simulator has it
+    private static final int MAX_SOCKET_WAIT_MS = 20;    // One board chunk
+    private static final int TRACK_BUFFER_SAMPLES = 640; // ~40 ms AudioTrack buffer
+    private static final int STALL_PERIOD_MS = 1000;
+    private static final int STALL_MS = 150;
+    private static final int WARMUP_RUNS = 3;
+    private static final int[] HANDOFF_CHUNKS = { 320, 640, 4096 };
+
+    private static final long NANOS_PER_BYTE = 1_000_000_000L / SAMPLE_RATE / 2;
+
+    /** Blocks for the rest of the stall window if called inside one. */
+    private static final class Stalls {
+        private final long start;
+        private final long periodNanos = STALL_PERIOD_MS * 1_000_000L;
+        private final long stallNanos = STALL_MS * 1_000_000L;
+        Stalls(long start) { this.start = start; }
+
+        boolean pass() {
+            long into = (System.nanoTime() - start) % periodNanos;
+            return into >= stallNanos || Esp32Simulator.parkUntil(System.nanoTime() + stallNanos - into);
+        }
+    }
+
+    // --- Send: mic -> socket ---
+
+    /** AudioRecord stand-in: captures in real time into a buffer that drops what it cannot hold. */
+    private static final class Mic implements AudioInput {
+        private final long start;
+        private final long capacityBytes = (long) SAMPLE_RATE * 2 * MIC_BUFFER_MS / 1000;
+        private long readBytes = 0;
+        volatile long lostBytes = 0;
+        Mic(long start) { this.start = start; }
+
+        @Override public int read(byte[] data, int off, int len) {
+            long captured = (System.nanoTime() - start) / NANOS_PER_BYTE;
+            if (captured - readBytes > capacityBytes) {
+                lostBytes += captured - readBytes - capacityBytes;
+                readBytes = captured - capacityBytes;
+            }
+            if (!Esp32Simulator.parkUntil(start + (readBytes + len) * NANOS_PER_BYTE)) return ERROR_STOPPED;
+            readBytes += len;
+            return len;
+        }
+    }
+
+    private static final class SendResult {
+        long lostBytes, sentBytes, ringOverruns;
+    }
+
+    private static SendResult runSend(boolean ring, int seconds) throws InterruptedException {
+        long start = System.nanoTime();
+        long end = start + seconds * 1_000_000_000L;
+        Mic mic = new Mic(start);
+        Stalls socket = new Stalls(start);
+        SendResult result = new SendResult();
+        byte[] buffer = new byte[CHUNK_BYTES];
+        if (!ring) {
+            while (System.nanoTime() < end) {
+                int n = mic.read(buffer, 0, buffer.length);
+                if (n < 0 || !socket.pass()) break;
+                result.sentBytes += n;
+            }
+        } else {
+            ByteRingBuffer sendRing = new ByteRingBuffer(RING_BYTES);
+            AtomicBoolean running = new AtomicBoolean(true);
+            Thread capture = new Thread(new CaptureLoop(mic, sendRing, CHUNK_BYTES, null, running::get), "bench-capture");
+            capture.start();
+            while (System.nanoTime() < end) {
+                if (!sendRing.awaitData(10_000_000L)) continue;
+                int n = sendRing.read(buffer, 0, buffer.length);
+                if (!socket.pass()) break;
+                result.sentBytes += n;
+            }
+            running.set(false);
+            capture.interrupt();
+            capture.join();
+            result.ringOverruns = sendRing.getOverruns();
+        }
+        result.lostBytes = mic.lostBytes;
+        return result;
+    }
+
+    // --- Receive: socket -> AudioTrack ---
+
+    /**
+     * Socket stand-in: the board sends a chunk every 20 ms; a read returns what has arrived. The
+     * board holds at most {@link #BOARD_BUFFER_MS} of unread audio and loses what is older.
+     */
+    private static final class BoardSocket {
+        private final long start;
+        private final long chunkNanos = CHUNK_BYTES * NANOS_PER_BYTE;
+        private final long capacityChunks = BOARD_BUFFER_MS * 1_000_000L / chunkNanos;
+        private long readChunks = 0;
+        long maxWaitNanos = 0;
+        long lostChunks = 0;
+        BoardSocket(long start) { this.start = start; }
+
+        int read(byte[] data, int len) {
+            if (!Esp32Simulator.parkUntil(start + (readChunks + 1) * chunkNanos)) return -1;
+            long now = System.nanoTime();
+            long arrived = (now - start) / chunkNanos;
+            maxWaitNanos = Math.max(maxWaitNanos, now - start - (readChunks + 1) * chunkNanos); // Oldest unread chunk
+            if (arrived - readChunks > capacityChunks) {
+                lostChunks += arrived - readChunks - capacityChunks;
+                readChunks = arrived - capacityChunks;
+            }
+            int chunks = (int) Math.min(arrived - readChunks, len / CHUNK_BYTES);
+            readChunks += chunks;
+            return chunks * CHUNK_BYTES;
+        }
+    }
+
+    private static final class ReceiveResult {
+        long maxWaitNanos, boardLostBytes, ringLostBytes, underruns, playedBytes;
+    }
+
+    private static ReceiveResult runReceive(boolean ring, int seconds) throws InterruptedException {
+        long start = System.nanoTime();
+        long end = start + seconds * 1_000_000_000L;
+        BoardSocket socket = new BoardSocket(start);
+        Esp32Simulator.DmaBuffer track = new Esp32Simulator.DmaBuffer(SAMPLE_RATE, TRACK_BUFFER_SAMPLES);
+        Stalls trackStalls = new Stalls(start);
+        ReceiveResult result = new ReceiveResult();
+        byte[] buffer = new byte[RING_BYTES / 2];
+        if (!ring) {
+            while (System.nanoTime() < end) {
+                int n = socket.read(buffer, buffer.length);
+                if (n < 0 || !trackStalls.pass() || track.write(n / 2) < 0) break;
+                result.playedBytes += n;
+            }
+        } else {
+            ByteRingBuffer receiveRing = new ByteRingBuffer(RING_BYTES);
+            Thread reader = new Thread(() -> {
+                byte[] read = new byte[RING_BYTES / 2];
+                while (System.nanoTime() < end) {
+                    int n = socket.read(read, read.length);
+                    if (n < 0) return;
+                    receiveRing.offer(read, 0, n);
+                }
+            }, "bench-socket");
+            reader.start();
+            while (System.nanoTime() < end) {
+                if (!receiveRing.awaitData(10_000_000L)) continue;
+                int n = receiveRing.read(buffer, 0, CHUNK_BYTES);
+                if (!trackStalls.pass() || track.write(n / 2) < 0) break;
+                result.playedBytes += n;
+            }
+            reader.join();
+            result.ringLostBytes = receiveRing.getOverrunBytes();
+        }
+        result.maxWaitNanos = socket.maxWaitNanos;
+        result.boardLostBytes = socket.lostChunks * CHUNK_BYTES;
+        result.underruns = track.getUnderruns();
+        return result;
+    }
+
+    // --- Handoff ---
+
+    private static double sameThread(int chunk, long chunks) {
+        ByteRingBuffer ring = new ByteRingBuffer(RING_BYTES);
+        byte[] src = new byte[chunk];
+        byte[] dst = new byte[chunk];
+        long start = System.nanoTime();
+        for (long i = 0; i < chunks; i++) {
+            ring.offer(src, 0, chunk);
+            ring.read(dst, 0, chunk);
+        }
+        return (System.nanoTime() - start) / (double) chunks;
+    }
+
+    // Returns ns per chunk
+    private static double crossThread(int chunk, long chunks, long[] allocated) throws InterruptedException {
+        ByteRingBuffer ring = new ByteRingBuffer(RING_BYTES);
+        long total = chunks * chunk;
+        Thread producer = new Thread(() -> {
+            byte[] src = new byte[chunk];
+            for (long i = 0; i < chunks; i++) while (!ring.offer(src, 0, chunk)) Thread.yield();
+        }, "bench-producer");
+        byte[] dst = new byte[chunk];
+        long start = System.nanoTime();
+        producer.start();
+        long consumerBefore = BenchmarkSupport.allocatedBytes(); // After start, which allocates on this thread
+        for (long got = 0; got < total; ) {
+            int n = ring.read(dst, 0, chunk);
+            if (n == 0) ring.awaitData(1_000_000L);
+            got += n;
+        }
+        long elapsed = System.nanoTime() - start;
+        long consumerBytes = BenchmarkSupport.allocatedBytes() - consumerBefore;
+        producer.join();
+        allocated[0] = consumerBefore < 0 ? -1 : Math.max(allocated[0], consumerBytes);
+        return elapsed / (double) chunks;
+    }
+
+    private static double median(List<Double> values) {
+        Collections.sort(values);
+        return values.get(values.size() / 2);
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        int seconds = 5;
+        int runs = 9;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--seconds": seconds = Integer.parseInt(args[++i]); break;
+                case "--runs": runs = Integer.parseInt(args[++i]); break;
+                default: throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+
+        System.out.println(String.format(Locale.US, "Send, %d s: socket write stalls %d ms every %d ms, mic buffers %d ms",
+                seconds, STALL_MS, STALL_PERIOD_MS, MIC_BUFFER_MS));
+        System.out.println(String.format(Locale.US, "%-12s | %10s %10s | %13s", "loop", "mic lost", "sent", "ring overruns"));
+        SendResult syncSend = runSend(false, seconds), ringSend = runSend(true, seconds);
+        for (SendResult r : new SendResult[] { syncSend, ringSend }) {
+            System.out.println(String.format(Locale.US, "%-12s | %7.0f ms %7.0f ms | %13d", r == ringSend ? "ring" : "synchronous",
+                    r.lostBytes * NANOS_PER_BYTE / 1e6, r.sentBytes * NANOS_PER_BYTE / 1e6, r.ringOverruns));
+        }
+        boolean sendOk = ringSend.lostBytes == 0 && syncSend.lostBytes > 0;
+        System.out.println("ring loses no mic audio where the synchronous loop does: " + (sendOk ? "OK" : "FAIL"));
+        System.out.println();
+
+        System.out.println(String.format(Locale.US, "Receive, %d s: AudioTrack write stalls %d ms every %d ms, board sends %d ms chunks and holds %d ms",
+                seconds, STALL_MS, STALL_PERIOD_MS, CHUNK_BYTES * NANOS_PER_BYTE / 1_000_000, BOARD_BUFFER_MS));
+        System.out.println(String.format(Locale.US, "%-12s | %15s | %16s | %9s %10s", "loop", "max socket wait", "lost board/ring", "underruns", "played"));
+        ReceiveResult syncReceive = runReceive(false, seconds), ringReceive = runReceive(true, seconds);
+        for (ReceiveResult r : new ReceiveResult[] { syncReceive, ringReceive }) {
+            System.out.println(String.format(Locale.US, "%-12s | %12.1f ms | %5.0f /%5.0f ms | %9d %7.0f ms", r == ringReceive ? "ring" : "synchronous",
+                    r.maxWaitNanos / 1e6, r.boardLostBytes * NANOS_PER_BYTE / 1e6, r.ringLostBytes * NANOS_PER_BYTE / 1e6, r.underruns, r.playedBytes * NANOS_PER_BYTE / 1e6));
+        }
+        boolean receiveOk = ringReceive.maxWaitNanos < MAX_SOCKET_WAIT_MS * 1_000_000L && syncReceive.maxWaitNanos >= STALL_MS * 1_000_000L;
+        System.out.println(String.format(Locale.US, "ring reads the socket within %d ms where the synchronous loop waits out the %d ms stall: %s",
+                MAX_SOCKET_WAIT_MS, STALL_MS, receiveOk ? "OK" : "FAIL"));
+        System.out.println();
+
+        System.out.println("Handoff through a " + RING_BYTES + "-byte ring: median ns per chunk and MB/s, consumer bytes allocated per chunk");
+        System.out.println(String.format(Locale.US, "%-6s | %17s | %17s | %s", "chunk", "same thread", "two threads", "alloc"));
+        for (int chunk : HANDOFF_CHUNKS) {
+            long chunks = 16L * 1024 * 1024 / chunk;
+            List<Double> same = new ArrayList<>();
+            List<Double> cross = new ArrayList<>();
+            long[] allocated = { 0 };
+            for (int r = 0; r < WARMUP_RUNS + runs; r++) {
+                double s = sameThread(chunk, chunks);
+                long[] runAllocated = { 0 };
+                double c = crossThread(chunk, chunks, runAllocated);
+                if (r < WARMUP_RUNS) continue;
+                same.add(s);
+                cross.add(c);
+                allocated[0] = runAllocated[0] < 0 ? -1 : Math.max(allocated[0], runAllocated[0]);
+            }
+            double s = median(same), c = median(cross);
+            System.out.println(String.format(Locale.US, "%-6d | %7.1f %7.0f MB | %7.1f %7.0f MB | %s", chunk,
+                    s, chunk * 1e3 / s, c, chunk * 1e3 / c,
+                    allocated[0] < 0 ? "-" : String.format(Locale.US, "%.2f", allocated[0] / (double) chunks)));
+        }
+        if (!sendOk || !receiveOk) System.exit(1);
+    }
+}
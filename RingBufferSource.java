@@ -0,0 +1,54 @@
+package com.example.audio;
+
+/**
+ * Mixer source fed by a {@link ByteRingBuffer} of little-endian PCM16 (the mic capture ring).
+ *
+ * Waits for {@code primeFrames} frames before starting (and again after running dry) so small
+ * capture bursts don't turn into clicks, and drops the oldest audio when more than
+ * {@code maxQueuedFrames} pile up, which keeps latency bounded when the capture clock runs faster
+ * than the pacer.
+ */
+public class RingBufferSource implements AudioMixer.Source {
+
+    private final ByteRingBuffer ring;
+    private final int primeBytes;
+    private final int maxQueuedBytes;
+    private final byte[] bytes;
+    private boolean primed = false;
+
+    private long underruns = 0;
+    private long droppedBytes = 0;
+
+    public RingBufferSource(ByteRingBuffer ring, int frameSamples, int primeFrames, int maxQueuedFrames) {
+        this.ring = ring;
+        this.bytes = new byte[frameSamples * 2];
+        this.primeBytes = primeFrames * bytes.length;
+        this.maxQueuedBytes = Math.max(primeFrames, maxQueuedFrames) * bytes.length;
+    }
+
+    @Override
+    public int read(short[] dst, int samples) {
+        int wanted = Math.min(samples * 2, bytes.length);
+        int available = ring.available();
+        if (!primed) {
+            if (available < primeBytes) return 0;
+            primed = true;
+        }
+        while (available - wanted > maxQueuedBytes) {
+            droppedBytes += ring.read(bytes, 0, wanted);
+            available = ring.available();
+        }
+        int n = ring.read(bytes, 0, wanted) / 2;
+        if (n < samples) {
+            underruns++;
+            primed = false;
+        }
+        for (int i = 0; i < n; i++) {
+            dst[i] = (short) ((bytes[2 * i] & 0xFF) | (bytes[2 * i + 1] << 8));
+        }
+        return n;
+    }
+
+    public long getUnderruns() { return underruns; }
+    public long getDroppedBytes() { return droppedBytes; }
+}
@@ -0,0 +1,264 @@
+package com.example.audio;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * Several mic rooms through a {@link RoomMixer}, on one core of a plain JVM.
+ *
+ * Each scene is 30 s of synthetic 16 kHz audio per room (the noise beds of {@link VadBenchmark},
+ * the crying of {@link SoundEventBenchmark}), written a 10 ms frame at a time into each room's
+ * ring the way its receive session would, and mixed frame by frame as the playout thread would.
+ * For each it reports every focus change with its time, the played and full-level (monitor)
+ * levels in a few windows, and concealed frames. Quiet rooms, a fan, door slams or a link coming
+ * up should not take the focus; a crying room should, within a few hundred ms, and give it back
+ * a few seconds after it stops, and only hand it to another crying room that is clearly louder.
+ * Muting and soloing are checked on the played level.
+ *
+ * Then the cost of one mix for 1 to 8 rooms (median and worst of several runs, and the share of
+ * one core at 10 ms per frame), and the heap one room's pipeline takes.
+ *
+ * Usage: RoomMixBenchmark [--runs N] [--seed S]
+ */
+public class RoomMixBenchmark {
+
+    // Same as StreamingService
+    private static final int SAMPLE_RATE = 16000;
+    private static final int FRAME_MS = 10;
+    private static final int FRAME_SAMPLES = SAMPLE_RATE / 1000 * FRAME_MS;
+    private static final int FRAME_BYTES = FRAME_SAMPLES * 2;
+    private static final int JITTER_MIN_FRAMES = 3;
+    private static final int JITTER_MAX_FRAMES = 30;
+    private static final int JITTER_CAPACITY_FRAMES = 40;
+    private static final int RECEIVE_RING_BYTES = 64 * 1024;
+
+    private static final int SCENE_SECONDS = 30;
+    private static final int PRIME_FRAMES = JITTER_MIN_FRAMES + 1; // Frames a room's ring leads the mix by
+    private static final int WARMUP_RUNS = 5;
+
+    private static final class Scene {
+        final String name;
+        final byte[][] rooms = new byte[4][];
+        final List<double[]> windows = new ArrayList<>(); // {from s, to s}
+        ObjIntConsumer<RoomMixer> script = (mixer, frame) -> { };
+
+        Scene(String name) { this.name = name; }
+
+        Scene window(double from, double to) { windows.add(new double[] { from, to }); return this; }
+    }
+
+    static RoomMixer.Room newRoom(String name) {
+        JitterBuffer jb = new JitterBuffer(FRAME_BYTES, 2, FRAME_MS, JITTER_MIN_FRAMES, JITTER_MAX_FRAMES, JITTER_CAPACITY_FRAMES);
+        return new RoomMixer.Room(name, new ByteRingBuffer(RECEIVE_RING_BYTES, true), jb, new DriftCompensator(jb)); // As the service builds them
+    }
+
+    private static byte[] pcm(double[] y) {
+        byte[] out = new byte[y.length * 2];
+        for (int i = 0; i < y.length; i++) {
+            int v = (int) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, Math.round(y[i])));
+            out[2 * i] = (byte) v;
+            out[2 * i + 1] = (byte) (v >> 8);
+        }
+        return out;
+    }
+
+    private static double[] tone(double[] y, double hz, double dbfs) {
+        double amplitude = VadBenchmark.dbToAmplitude(dbfs) * Math.sqrt(2);
+        for (int i = 0; i < y.length; i++) y[i] += amplitude * Math.sin(2 * Math.PI * hz * i / SAMPLE_RATE);
+        return y;
+    }
+
+    private static double[] cry(Random random, double[] y, int from, int to, double dbfs) {
+        SoundEventBenchmark.addCry(random, y, new boolean[y.length / FRAME_SAMPLES], from, to, dbfs);
+        return y;
+    }
+
+    // A door slam every 7 s: a 60 ms burst of decaying low-passed noise
+    private static double[] slams(Random random, double[] y, double dbfs) {
+        double amplitude = VadBenchmark.dbToAmplitude(dbfs) * 2;
+        double lp = 0;
+        for (int start = 3 * SAMPLE_RATE; start < y.length; start += 7 * SAMPLE_RATE) {
+            for (int i = 0; i < SAMPLE_RATE * 60 / 1000 && start + i < y.length; i++) {
+                lp += (random.nextGaussian() - lp) * 0.2;
+                y[start + i] += amplitude * lp * Math.exp(-i / (SAMPLE_RATE * 15 / 1000.0));
+            }
+        }
+        return y;
+    }
+
+    private static List<Scene> scenes(long seed) {
+        Random random = new Random(seed);
+        int samples = SCENE_SECONDS * SAMPLE_RATE;
+        List<Scene> scenes = new ArrayList<>();
+        double[][] quiet = new double[4][];
+        for (int i = 0; i < 4; i++) quiet[i] = VadBenchmark.noise(random, samples, -66, false); // Mics with their own noise
+        double[] fan = VadBenchmark.noise(random, samples, -42, true);
+
+        Scene s = new Scene("4 quiet rooms").window(0, 30);
+        for (int i = 0; i < 4; i++) s.rooms[i] = pcm(quiet[i]);
+        scenes.add(s);
+
+        s = new Scene("fan + 3 quiet rooms").window(0, 30);
+        for (int i = 0; i < 4; i++) s.rooms[i] = pcm(i == 0 ? fan : quiet[i]);
+        scenes.add(s);
+
+        s = new Scene("door slams in room 2").window(0, 30);
+        for (int i = 0; i < 4; i++) s.rooms[i] = pcm(i == 1 ? slams(random, quiet[i].clone(), -20) : quiet[i]);
+        scenes.add(s);
+
+        s = new Scene("room 4 link up at 10 s").window(0, 30);
+        for (int i = 0; i < 4; i++) s.rooms[i] = pcm(quiet[i]);
+        java.util.Arrays.fill(s.rooms[3], 0, 10 * SAMPLE_RATE * 2, (byte) 0);
+        scenes.add(s);
+
+        s = new Scene("crying in room 3, 5-20 s").window(1, 5).window(6, 20).window(26, 30);
+        for (int i = 0; i < 4; i++) s.rooms[i] = pcm(i == 2 ? cry(random, quiet[i].clone(), 5, 20, -24) : quiet[i]);
+        scenes.add(s);
+
+        s = new Scene("far crying in room 3 + fan").window(1, 5).window(6, 20).window(26, 30);
+        for (int i = 0; i < 4; i++) s.rooms[i] = pcm(i == 0 ? fan : i == 2 ? cry(random, quiet[i].clone(), 5, 20, -44) : quiet[i]);
+        scenes.add(s);
+
+        s = new Scene("crying in rooms 2 and 3").window(6, 20);
+        for (int i = 0; i < 4; i++) s.rooms[i] = pcm(i == 1 || i == 2 ? cry(random, quiet[i].clone(), 5, 20, -24) : quiet[i]);
+        scenes.add(s);
+
+        s = new Scene("room 2 cries, room 3 louder at 10 s").window(6, 10).window(11, 20);
+        for (int i = 0; i < 4; i++) s.rooms[i] = pcm(i == 1 ? cry(random, quiet[i].clone(), 5, 20, -34) : i == 2 ? cry(random, quiet[i].clone(), 10, 20, -20) : quiet[i]);
+        scenes.add(s);
+
+        // Room 1 a steady -24 dBFS tone: muted 5-10 s, room 2 soloed 10-15 s, room 1 soloed 15-20 s, all heard after
+        s = new Scene("mute / solo (tone in room 1)").window(1, 5).window(5.2, 10).window(10.2, 15).window(15.2, 20).window(20.2, 30);
+        for (int i = 0; i < 4; i++) s.rooms[i] = pcm(i == 0 ? tone(quiet[i].clone(), 440, -24) : quiet[i]);
+        s.script = (mixer, frame) -> {
+            if (frame == 500) mixer.getRoom(0).setMuted(true);
+            if (frame == 1000) { mixer.getRoom(0).setMuted(false); mixer.getRoom(1).setSolo(true); }
+            if (frame == 1500) { mixer.getRoom(1).setSolo(false); mixer.getRoom(0).setSolo(true); }
+            if (frame == 2000) mixer.getRoom(0).setSolo(false);
+        };
+        scenes.add(s);
+        return scenes;
+    }
+
+    private static void run(Scene scene) {
+        RoomMixer.Room[] rooms = new RoomMixer.Room[scene.rooms.length];
+        for (int i = 0; i < rooms.length; i++) rooms[i] = newRoom("room " + (i + 1));
+        RoomMixer mixer = new RoomMixer(FRAME_BYTES, FRAME_MS, rooms);
+        int frames = scene.rooms[0].length / FRAME_BYTES;
+        final int[] frame = { 0 };
+        StringBuilder focus = new StringBuilder();
+        mixer.setListener(room -> focus.append(String.format(Locale.US, " %s@%.2f", room != null ? room.name : "none", frame[0] * FRAME_MS / 1000.0)));
+        double[] played = new double[scene.windows.size()];
+        double[] monitor = new double[scene.windows.size()];
+        long[] counted = new long[scene.windows.size()];
+        byte[] out = new byte[FRAME_BYTES];
+        byte[] mon = new byte[FRAME_BYTES];
+        mixer.reset();
+        for (int f = 0; f < frames; f++) {
+            for (int i = 0; i < rooms.length; i++) {
+                if (f == 0) rooms[i].getRing().offer(scene.rooms[i], 0, FRAME_BYTES * PRIME_FRAMES);
+                if (f + PRIME_FRAMES < frames) rooms[i].getRing().offer(scene.rooms[i], (f + PRIME_FRAMES) * FRAME_BYTES, FRAME_BYTES);
+            }
+            frame[0] = f;
+            scene.script.accept(mixer, f);
+            mixer.mix(out, mon);
+            double seconds = f * FRAME_MS / 1000.0;
+            for (int w = 0; w < scene.windows.size(); w++) {
+                double[] window = scene.windows.get(w);
+                if (seconds < window[0] || seconds >= window[1]) continue;
+                played[w] += energy(out);
+                monitor[w] += energy(mon);
+                counted[w] += FRAME_SAMPLES;
+            }
+        }
+        StringBuilder levels = new StringBuilder();
+        for (int w = 0; w < scene.windows.size(); w++) {
+            double[] window = scene.windows.get(w);
+            levels.append(String.format(Locale.US, " %.0f-%.0fs %.0f/%.0f", window[0], window[1], db(played[w], counted[w]), db(monitor[w], counted[w])));
+        }
+        long concealed = 0;
+        for (RoomMixer.Room r : rooms) concealed += r.getJitterBuffer().getFramesConcealed();
+        System.out.println(String.format(Locale.US, "%-36s | %5d | %s |%s", scene.name, concealed, levels.substring(1), focus.length() == 0 ? " -" : focus.toString()));
+    }
+
+    private static double energy(byte[] pcm) {
+        double sum = 0;
+        for (int p = 0; p < pcm.length; p += 2) {
+            int v = (short) ((pcm[p] & 0xFF) | (pcm[p + 1] << 8));
+            sum += (double) v * v;
+        }
+        return sum;
+    }
+
+    private static double db(double energy, long samples) {
+        return samples == 0 || energy == 0 ? -96 : 10 * Math.log10(energy / samples / (32768.0 * 32768.0));
+    }
+
+    // Time per mix with every room fed a frame per mix (the feeding is the transport thread's and not timed)
+    private static void cost(int roomCount, int runs, byte[] signal) {
+        List<Double> times = new ArrayList<>();
+        byte[] out = new byte[FRAME_BYTES];
+        byte[] mon = new byte[FRAME_BYTES];
+        int frames = signal.length / FRAME_BYTES - PRIME_FRAMES;
+        for (int run = 0; run < WARMUP_RUNS + runs; run++) {
+            RoomMixer.Room[] rooms = new RoomMixer.Room[roomCount];
+            for (int i = 0; i < roomCount; i++) {
+                rooms[i] = newRoom("room " + (i + 1));
+                rooms[i].getRing().offer(signal, 0, FRAME_BYTES * PRIME_FRAMES);
+            }
+            RoomMixer mixer = new RoomMixer(FRAME_BYTES, FRAME_MS, rooms);
+            mixer.reset();
+            long busy = 0;
+            for (int f = 0; f < frames; f++) {
+                for (RoomMixer.Room r : rooms) r.getRing().offer(signal, (f + PRIME_FRAMES) * FRAME_BYTES, FRAME_BYTES);
+                long start = System.nanoTime();
+                mixer.mix(out, mon);
+                busy += System.nanoTime() - start;
+            }
+            if (run >= WARMUP_RUNS) times.add(busy / (double) frames);
+        }
+        Collections.sort(times);
+        double median = times.get(times.size() / 2);
+        System.out.println(String.format(Locale.US, "%5d | %7.0f %7.0f | %6.3f%% | %6.0f", roomCount, median, times.get(times.size() - 1), 100 * median / (FRAME_MS * 1_000_000.0), median / roomCount));
+    }
+
+    private static long usedHeap() {
+        Runtime rt = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) System.gc();
+        return rt.totalMemory() - rt.freeMemory();
+    }
+
+    public static void main(String[] args) {
+        int runs = 9;
+        long seed = 1;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--runs": runs = Integer.parseInt(args[++i]); break;
+                case "--seed": seed = Long.parseLong(args[++i]); break;
+                default: throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+        System.out.println("Per scene: frames concealed, played/monitor level (dBFS) per window, focus changes (s)");
+        System.out.println(String.format(Locale.US, "%-36s | %5s | %s | %s", "scene", "conc", "levels", "focus"));
+        List<Scene> scenes = scenes(seed);
+        for (Scene scene : scenes) run(scene);
+
+        System.out.println();
+        System.out.println("Per 10 ms mix: median and worst-run ns, share of one core, ns per room");
+        System.out.println(String.format(Locale.US, "%5s | %7s %7s | %7s | %6s", "rooms", "median", "worst", "core", "/room"));
+        byte[] signal = scenes.get(4).rooms[2]; // Crying: every frame non-silent
+        for (int rooms : new int[] { 1, 2, 4, 8 }) cost(rooms, runs, signal);
+
+        int count = 32;
+        long before = usedHeap();
+        RoomMixer.Room[] rooms = new RoomMixer.Room[count];
+        for (int i = 0; i < count; i++) rooms[i] = newRoom("room " + i);
+        long after = usedHeap();
+        System.out.println();
+        System.out.println(String.format(Locale.US, "Heap per room (ring, jitter buffer, drift compensator): %d KB (%d rooms measured)", (after - before) / count / 1024, rooms.length));
+    }
+}
@@ -0,0 +1,341 @@
+package com.example.audio;
+
+import java.util.Arrays;
+
+/**
+ * Mixes several baby-room mics into the one playout stream, a frame per call on the playout
+ * thread.
+ *
+ * Every {@link Room} has its own receive pipeline: a ring its network session fills, a jitter
+ * buffer and a drift compensator following that board's clock. So each room is buffered and
+ * clock-corrected on its own, and a late or dead room only conceals or silences itself. Every
+ * frame of every room is metered (RMS in dBFS, fast attack and slow release), and each room
+ * tracks its own noise floor.
+ *
+ * What is heard follows the parent's controls: a muted room is silent, and while any room is
+ * soloed only soloed rooms are heard. With automatic focus, a room whose level rises clearly
+ * above its own floor ({@link #FOCUS_ACTIVITY_DB}), and above the other rooms' by
+ * {@link #FOCUS_MARGIN_DB}, for {@link #FOCUS_SWITCH_MILLIS}, takes the focus and the others are
+ * turned down to the focus gain, until the focused room has been back near its floor for
+ * {@link #FOCUS_HOLD_MILLIS}. Loudness is judged against each room's own floor so that a fan or a
+ * noisier mic does not hold the focus, and on a short average so that a door slam does not take
+ * it; the focused room is judged on a slowly decaying peak, so the gaps between cries do not
+ * hand it to another room that is about as loud. Gain changes fade over {@link #FADE_MILLIS}.
+ *
+ * A second, monitor mix has every room at full level whatever the controls say; alerts and the
+ * recording take that one, so what the parent chose to hear does not decide what gets noticed.
+ *
+ * A room whose board also has the talk-back speaker can have an {@link EchoCanceller}: its frames
+ * have the echo of what the speaker was sent taken out before anything else looks at them, so the
+ * parent does not hear their own voice come back, and nothing is metered as the baby that was only
+ * the parent.
+ *
+ * Rooms are fixed at construction. Controls can be changed from any thread; {@link #mix} and
+ * {@link #reset} belong to the playout thread. No allocation per frame.
+ */
+public class RoomMixer {
+
+    public static final float DEFAULT_FOCUS_GAIN = 0.25f; // The other rooms while one has the focus: -12 dB
+    public static final float FOCUS_ACTIVITY_DB = 12f;     // Over the room's floor to count as active
+    public static final float FOCUS_MIN_DB = -50f;         // And at least this loud
+    public static final float FOCUS_MARGIN_DB = 6f;        // Activity over the other rooms' (or the focused room's)
+    public static final long FOCUS_SWITCH_MILLIS = 300;
+    public static final long FOCUS_HOLD_MILLIS = 4000;
+    public static final long FADE_MILLIS = 100;
+    public static final float SILENCE_DB = -96f;
+
+    private static final long LEVEL_ATTACK_MILLIS = 30;
+    private static final long LEVEL_RELEASE_MILLIS = 500;
+    private static final long FOCUS_SMOOTH_MILLIS = 50;
+    private static final float FLOOR_RISE_DB_PER_SECOND = 1f; // Falls at once; rises slowly, so a long cry is still active
+    private static final float HOLD_DECAY_DB_PER_SECOND = 6f;  // The focused room's peak, over a breath between cries
+
+    /** Called on the playout thread when the focus moves; {@code room} is null when no room has it. */
+    public interface Listener {
+        void onFocusChanged(Room room);
+    }
+
+    /** One mic board: its pipeline, the parent's controls and its meter. */
+    public static final class Room {
+        public final String name;
+        final ByteRingBuffer ring;
+        final JitterBuffer buffer;
+        final DriftCompensator drift;
+        private volatile boolean muted = false;
+        private volatile boolean solo = false;
+        private volatile float levelDb = SILENCE_DB;
+        private volatile float peakDb = SILENCE_DB; // Of the last frame
+        private volatile boolean focused = false;
+        private volatile long framesMixed = 0;
+        private volatile float floorDb = SILENCE_DB;
+        private float appliedGain = 1f; // Playout thread only
+        private float fastDb = SILENCE_DB;
+        private float heldDb = SILENCE_DB;
+        private boolean floorKnown = false;
+        private EchoCanceller echoCanceller;
+        private EchoReference echoReference;
+
+        /**
+         * {@code drift} (may be null) must wrap {@code buffer}; {@code ring} is what the network
+         * session fills, best built to stamp arrivals so the jitter buffer sees the network's timing.
+         */
+        public Room(String name, ByteRingBuffer ring, JitterBuffer buffer, DriftCompensator drift) {
+            this.name = name;
+            this.ring = ring;
+            this.buffer = buffer;
+            this.drift = drift;
+        }
+
+        public void setMuted(boolean muted) { this.muted = muted; }
+        public void setSolo(boolean solo) { this.solo = solo; }
+        public boolean isMuted() { return muted; }
+        public boolean isSolo() { return solo; }
+        /** Smoothed level of what the room's mic picks up, whether or not it is heard. */
+        public float getLevelDb() { return levelDb; }
+        public float getPeakDb() { return peakDb; }
+        /** Background level of the room, from its quietest stretches; {@link #SILENCE_DB} until it has sent audio. */
+        public float getNoiseFloorDb() { return floorDb; }
+        public boolean isFocused() { return focused; }
+        public long getFramesMixed() { return framesMixed; }
+        public ByteRingBuffer getRing() { return ring; }
+        public JitterBuffer getJitterBuffer() { return buffer; }
+        public DriftCompensator getDriftCompensator() { return drift; }
+
+        /** Takes the echo of {@code reference} (what the room's speaker plays) out of this room's audio; set before playout starts. */
+        public void setEchoCanceller(EchoCanceller canceller, EchoReference reference) {
+            this.echoCanceller = canceller;
+            this.echoReference = reference;
+        }
+        /** Null if the room has no speaker, or its echo is not cancelled. */
+        public EchoCanceller getEchoCanceller() { return echoCanceller; }
+        public EchoReference getEchoReference() { return echoReference; }
+    }
+
+    private final Room[] rooms;
+    private final int frameBytes;
+    private final int frameSamples;
+    private final long frameMillis;
+    private final byte[] frame;
+    private final byte[] drain;
+    private final byte[] far;
+    private final int[] played;
+    private final int[] monitor;
+    private final float attack;
+    private final float release;
+    private final float smooth;
+    private final float floorRise;
+    private final float holdDecay;
+    private final float fadeStep;
+
+    private volatile boolean autoFocus = true;
+    private volatile float focusGain = DEFAULT_FOCUS_GAIN;
+    private volatile Listener listener;
+
+    private long timeMillis = 0;   // Media time, advanced a frame per mix
+    private int focus = -1;
+    private long focusActiveMillis = 0;
+    private int candidate = -1;
+    private long candidateSinceMillis = 0;
+
+    private volatile long focusChanges = 0;
+    private volatile long clippedSamples = 0;
+
+    public RoomMixer(int frameBytes, int frameMillis, Room... rooms) {
+        if (rooms.length == 0) throw new IllegalArgumentException("No rooms");
+        for (Room r : rooms) if (r.buffer.getFrameBytes() != frameBytes) throw new IllegalArgumentException("Room " + r.name + " has another frame size");
+        this.rooms = rooms.clone();
+        this.frameBytes = frameBytes;
+        this.frameSamples = frameBytes / 2;
+        this.frameMillis = frameMillis;
+        this.frame = new byte[frameBytes];
+        this.drain = new byte[frameBytes * 4];
+        this.far = new byte[frameBytes];
+        this.played = new int[frameSamples];
+        this.monitor = new int[frameSamples];
+        this.attack = 1f - (float) Math.exp(-frameMillis / (double) LEVEL_ATTACK_MILLIS);
+        this.release = 1f - (float) Math.exp(-frameMillis / (double) LEVEL_RELEASE_MILLIS);
+        this.smooth = 1f - (float) Math.exp(-frameMillis / (double) FOCUS_SMOOTH_MILLIS);
+        this.floorRise = FLOOR_RISE_DB_PER_SECOND * frameMillis / 1000f;
+        this.holdDecay = HOLD_DECAY_DB_PER_SECOND * frameMillis / 1000f;
+        this.fadeStep = frameMillis / (float) FADE_MILLIS;
+    }
+
+    // --- Configuration ---
+
+    public void setListener(Listener listener) { this.listener = listener; }
+    /** Whether the loudest room takes the focus; off, every heard room plays at full level. */
+    public void setAutoFocus(boolean autoFocus) { this.autoFocus = autoFocus; }
+    /** Gain of the other rooms while one has the focus, 0..1. */
+    public void setFocusGain(float gain) { focusGain = Math.max(0f, Math.min(1f, gain)); }
+    public boolean isAutoFocus() { return autoFocus; }
+
+    // --- Playout thread ---
+
+    /** Starts every room's pipeline over, as at the start of a session. */
+    public void reset() {
+        for (Room r : rooms) {
+            r.buffer.reset();
+            if (r.drift != null) r.drift.reset();
+            r.appliedGain = 1f;
+            r.levelDb = SILENCE_DB;
+            r.peakDb = SILENCE_DB;
+            r.fastDb = SILENCE_DB;
+            r.heldDb = SILENCE_DB;
+            r.floorDb = SILENCE_DB;
+            r.floorKnown = false;
+            if (r.echoCanceller != null) {
+                r.echoCanceller.reset();
+                r.echoReference.clear();
+            }
+        }
+        timeMillis = 0;
+        setFocus(-1);
+        candidate = -1;
+    }
+
+    /**
+     * Takes one frame from every room and writes the heard mix into {@code played} and the
+     * full-level mix into {@code monitor} (either may be null), PCM16 LE of the frame size.
+     */
+    public void mix(byte[] playedOut, byte[] monitorOut) {
+        timeMillis += frameMillis;
+        Arrays.fill(played, 0);
+        Arrays.fill(monitor, 0);
+        boolean anySolo = false;
+        for (Room r : rooms) anySolo |= r.solo;
+        long now = System.nanoTime();
+        for (int i = 0; i < rooms.length; i++) {
+            Room r = rooms[i];
+            int n;
+            while ((n = r.ring.readArrival(drain, 0, drain.length)) > 0) { // Stamped rings carry the socket read's time
+                long arrival = r.ring.getLastArrivalNanos();
+                r.buffer.offer(drain, 0, n, arrival != ByteRingBuffer.NO_ARRIVAL ? arrival : now);
+            }
+            if (r.drift != null) r.drift.poll(frame, 0); else r.buffer.poll(frame, 0);
+            if (r.echoCanceller != null) {
+                r.echoReference.read(far, 0, frameBytes);
+                r.echoCanceller.process(frame, 0, far, 0, frameSamples);
+            }
+            meter(r);
+            float target = r.muted || (anySolo && !r.solo) ? 0f : focus >= 0 && focus != i ? focusGain : 1f;
+            float from = r.appliedGain;
+            float to = from + Math.max(-fadeStep, Math.min(fadeStep, target - from));
+            r.appliedGain = to;
+            accumulate(from, to);
+            r.framesMixed++;
+        }
+        updateFocus(anySolo);
+        if (playedOut != null) clip(played, playedOut);
+        if (monitorOut != null) clip(monitor, monitorOut);
+    }
+
+    private void meter(Room r) {
+        long sum = 0;
+        int peak = 0;
+        for (int s = 0, p = 0; s < frameSamples; s++, p += 2) {
+            int v = (short) ((frame[p] & 0xFF) | (frame[p + 1] << 8));
+            sum += v * v;
+            peak = Math.max(peak, Math.abs(v));
+        }
+        float db = sum == 0 ? SILENCE_DB : Math.max(SILENCE_DB, (float) (10 * Math.log10(sum / (double) frameSamples / (32768.0 * 32768.0))));
+        float level = r.levelDb;
+        r.levelDb = level + (db - level) * (db > level ? attack : release);
+        r.peakDb = peak == 0 ? SILENCE_DB : (float) (20 * Math.log10(peak / 32768.0));
+        r.fastDb += (db - r.fastDb) * smooth;
+        r.heldDb = Math.max(r.fastDb, r.heldDb - holdDecay);
+        if (sum == 0) return; // Digital silence is a dead link, not a quiet room: the floor stays
+        if (!r.floorKnown) { r.floorKnown = true; r.fastDb = db; r.heldDb = db; r.floorDb = db; } // Link up: not a jump in level
+        else r.floorDb = Math.min(r.floorDb + floorRise, r.fastDb);
+    }
+
+    // How far the room is over its own floor right now
+    private static float activityOf(Room r) {
+        return r.floorKnown ? r.fastDb - r.floorDb : 0f;
+    }
+
+    // The same on the decaying peak, which holds through short pauses
+    private static float heldActivityOf(Room r) {
+        return r.floorKnown ? r.heldDb - r.floorDb : 0f;
+    }
+
+    private static boolean isActive(Room r) {
+        return activityOf(r) >= FOCUS_ACTIVITY_DB && r.fastDb >= FOCUS_MIN_DB;
+    }
+
+    // Gain ramps from -> to across the frame, so neither a fade nor a mute clicks
+    private void accumulate(float from, float to) {
+        float step = (to - from) / frameSamples;
+        float g = from;
+        boolean silent = from == 0f && to == 0f;
+        for (int s = 0, p = 0; s < frameSamples; s++, p += 2) {
+            int v = (short) ((frame[p] & 0xFF) | (frame[p + 1] << 8));
+            monitor[s] += v;
+            g += step;
+            if (!silent) played[s] += (int) (v * g);
+        }
+    }
+
+    private void clip(int[] mix, byte[] out) {
+        long clipped = 0;
+        for (int s = 0, p = 0; s < frameSamples; s++, p += 2) {
+            int v = mix[s];
+            if (v > Short.MAX_VALUE) { v = Short.MAX_VALUE; clipped++; }
+            else if (v < Short.MIN_VALUE) { v = Short.MIN_VALUE; clipped++; }
+            out[p] = (byte) v;
+            out[p + 1] = (byte) (v >> 8);
+        }
+        if (clipped > 0) clippedSamples += clipped;
+    }
+
+    // --- Focus ---
+
+    private void updateFocus(boolean anySolo) {
+        int loudest = -1, second = -1, audible = 0;
+        for (int i = 0; i < rooms.length; i++) {
+            Room r = rooms[i];
+            if (r.muted || (anySolo && !r.solo)) continue;
+            audible++;
+            if (loudest < 0 || activityOf(r) > activityOf(rooms[loudest])) { second = loudest; loudest = i; }
+            else if (second < 0 || activityOf(r) > activityOf(rooms[second])) second = i;
+        }
+        if (!autoFocus || audible < 2) { // Nothing to turn down
+            setFocus(-1);
+            candidate = -1;
+            return;
+        }
+        if (focus >= 0 && (rooms[focus].muted || (anySolo && !rooms[focus].solo))) setFocus(-1);
+        if (focus >= 0 && isActive(rooms[focus])) focusActiveMillis = timeMillis;
+        if (focus >= 0 && timeMillis - focusActiveMillis > FOCUS_HOLD_MILLIS) setFocus(-1); // Quiet a while: all rooms equal again
+
+        Room l = rooms[loudest];
+        float rival = focus >= 0 ? heldActivityOf(rooms[focus]) : second >= 0 ? activityOf(rooms[second]) : 0f;
+        if (loudest != focus && isActive(l) && activityOf(l) >= rival + FOCUS_MARGIN_DB) {
+            if (candidate != loudest) { candidate = loudest; candidateSinceMillis = timeMillis; }
+            if (timeMillis - candidateSinceMillis >= FOCUS_SWITCH_MILLIS) {
+                setFocus(loudest);
+                focusActiveMillis = timeMillis;
+                candidate = -1;
+            }
+        } else {
+            candidate = -1;
+        }
+    }
+
+    private void setFocus(int index) {
+        if (index == focus) return;
+        if (focus >= 0) rooms[focus].focused = false;
+        focus = index;
+        if (index >= 0) rooms[index].focused = true;
+        focusChanges++;
+        Listener l = listener;
+        if (l != null) l.onFocusChanged(index >= 0 ? rooms[index] : null);
+    }
+
+    // --- Stats ---
+
+    public int getRoomCount() { return rooms.length; }
+    public Room getRoom(int index) { return rooms[index]; }
+    public int getFrameBytes() { return frameBytes; }
+    public long getFocusChanges() { return focusChanges; }
+    public long getClippedSamples() { return clippedSamples; }
+}
@@ -0,0 +1,18 @@
+package com.example.audio;
+
+/**
+ * A stage that rewrites little-endian PCM from the wire format into the playback format.
+ * Implementations keep all state preallocated so {@link #convert} never allocates.
+ */
+public interface SampleFormatConverter {
+
+    int inputBytesPerSample();
+
+    int outputBytesPerSample();
+
+    /**
+     * Converts {@code srcLen} bytes (a whole number of input samples) into {@code dst}
+     * and returns the number of bytes written.
+     */
+    int convert(byte[] src, int srcOff, int srcLen, byte[] dst, int dstOff);
+}
@@ -0,0 +1,106 @@
+package com.example.audio;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Real-time send clock for one speaker connection: every frame period it mixes one frame (mic
+ * ring plus melodies) and writes it to the connection's encoder stream.
+ *
+ * Runs on the transport thread's timers with absolute deadlines, so select() wake-up slop does
+ * not accumulate. A loop stalled for more than {@code maxLagFrames} skips ahead instead of
+ * bursting the backlog. Stops when the connection closes or {@code running} turns false; a write
+ * error closes the connection.
+ *
+ * With a {@link VoiceActivityDetector}, frames it calls inactive are not sent and each silent
+ * stretch opens with a comfort-noise marker carrying the learned noise floor. Only framed streams
+ * are suppressed: the legacy raw stream has no way to announce a pause, so old firmware would hear
+ * every one as an underrun.
+ *
+ * With an {@link EchoReference} every frame the speaker is sent (silence for suppressed ones) is
+ * also handed to the echo canceller of the mic in the speaker's room.
+ */
+public class SendPacer {
+
+    private final NioTransport transport;
+    private final NioTransport.Connection connection;
+    private final OutputStream out;
+    private final AudioMixer mixer;
+    private final BooleanSupplier running;
+    private final VoiceActivityDetector vad;       // Null: send every frame
+    private final FramedAudioOutputStream framed;
+    private final short[] mixFrame;
+    private final byte[] frameBytes;
+    private final long frameNanos;
+    private final long maxLagNanos;
+    private long nextFrameNanos;
+    private boolean silent = false;
+    private volatile EchoReference echoReference;
+
+    private volatile long framesSent = 0;
+    private volatile long framesSuppressed = 0;
+    private volatile long lagResyncs = 0;
+
+    public SendPacer(NioTransport transport, NioTransport.Connection connection, OutputStream out, AudioMixer mixer, int sampleRate, int maxLagFrames, BooleanSupplier running) {
+        this(transport, connection, out, mixer, sampleRate, maxLagFrames, null, running);
+    }
+
+    public SendPacer(NioTransport transport, NioTransport.Connection connection, OutputStream out, AudioMixer mixer, int sampleRate, int maxLagFrames, VoiceActivityDetector vad, BooleanSupplier running) {
+        this.transport = transport;
+        this.connection = connection;
+        this.out = out;
+        this.mixer = mixer;
+        this.running = running;
+        this.framed = out instanceof FramedAudioOutputStream ? (FramedAudioOutputStream) out : null;
+        this.vad = framed != null ? vad : null;
+        int frameSamples = mixer.getFrameSamples();
+        this.mixFrame = new short[frameSamples];
+        this.frameBytes = new byte[frameSamples * 2];
+        this.frameNanos = frameSamples * 1_000_000_000L / sampleRate;
+        this.maxLagNanos = maxLagFrames * frameNanos;
+    }
+
+    /** Where what the speaker plays goes for echo cancellation; null for nowhere. */
+    public void setEchoReference(EchoReference reference) { echoReference = reference; }
+
+    /** Sends the first frame now; call on the transport thread. */
+    public void start() {
+        nextFrameNanos = System.nanoTime();
+        tick();
+    }
+
+    private void tick() {
+        if (!running.getAsBoolean() || !connection.isOpen()) return;
+        long now = System.nanoTime();
+        if (now - nextFrameNanos > maxLagNanos) { nextFrameNanos = now; lagResyncs++; } // Stalled loop: don't burst the backlog
+        try {
+            EchoReference reference = echoReference;
+            while (nextFrameNanos <= now) {
+                nextFrameNanos += frameNanos;
+                mixer.mix(mixFrame);
+                if (vad != null && !vad.process(mixFrame, mixFrame.length)) {
+                    if (reference != null) reference.offerSilence(mixFrame.length); // Comfort noise is not worth cancelling
+                    framed.writeSilence(mixFrame.length, vad.getNoiseFloorRms(), !silent);
+                    silent = true;
+                    framesSuppressed++;
+                    continue;
+                }
+                silent = false;
+                for (int i = 0; i < mixFrame.length; i++) { frameBytes[2 * i] = (byte) mixFrame[i]; frameBytes[2 * i + 1] = (byte) (mixFrame[i] >> 8); }
+                if (reference != null) reference.offer(frameBytes, 0, frameBytes.length);
+                out.write(frameBytes, 0, frameBytes.length); // Dropped whole if the socket is backed up
+                framesSent++;
+            }
+        } catch (IOException e) {
+            connection.close(e);
+            return;
+        }
+        long delayNanos = nextFrameNanos - System.nanoTime();
+        transport.schedule(this::tick, Math.max(0, (delayNanos + 999_999) / 1_000_000));
+    }
+
+    public long getFramesSent() { return framesSent; }
+    public long getFramesSuppressed() { return framesSuppressed; }
+    public long getLagResyncs() { return lagResyncs; }
+}
@@ -0,0 +1,50 @@
+package com.example.audio;
+
+import java.util.function.BooleanSupplier;
+
+/**
+ * Runs a {@link SoundEventDetector} over the frames the {@link PlayoutLoop} plays, on its own
+ * thread: playout only copies each frame into the analysis ring and never waits for the detector.
+ * If analysis falls behind, the ring drops whole frames (counted as its overruns) rather than
+ * delaying playback.
+ *
+ * Runs until {@code running} turns false or the thread is interrupted.
+ */
+public class SoundAnalysisLoop implements Runnable {
+
+    private static final long WAIT_NANOS = 100_000_000L; // Rechecks 'running' while the stream is idle
+
+    private final ByteRingBuffer ring;
+    private final SoundEventDetector detector;
+    private final int frameBytes;
+    private final BooleanSupplier running;
+    private volatile long busyNanos = 0;
+
+    /** {@code frameBytes}: the playout frame, mono little-endian PCM16. */
+    public SoundAnalysisLoop(ByteRingBuffer ring, SoundEventDetector detector, int frameBytes, BooleanSupplier running) {
+        this.ring = ring;
+        this.detector = detector;
+        this.frameBytes = frameBytes;
+        this.running = running;
+    }
+
+    @Override
+    public void run() {
+        byte[] frame = new byte[frameBytes];
+        short[] samples = new short[frameBytes / 2];
+        while (running.getAsBoolean() && !Thread.currentThread().isInterrupted()) {
+            if (ring.available() < frameBytes) {
+                ring.awaitData(WAIT_NANOS);
+                continue;
+            }
+            ring.read(frame, 0, frameBytes); // The ring only ever holds whole frames
+            long start = System.nanoTime();
+            for (int i = 0; i < samples.length; i++) samples[i] = (short) ((frame[2 * i] & 0xFF) | (frame[2 * i + 1] << 8));
+            detector.process(samples, samples.length);
+            busyNanos += System.nanoTime() - start;
+        }
+    }
+
+    /** Time spent converting and analysing frames, for the CPU share of the analysis thread. */
+    public long getBusyNanos() { return busyNanos; }
+}
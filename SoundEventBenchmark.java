@@ -0,0 +1,199 @@
+package com.example.audio;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Cost and accuracy of the {@link SoundEventDetector} on one core of a plain JVM.
+ *
+ * Each scene is 90 s of synthetic 16 kHz audio in 10 ms frames over a quiet room or a fan (the
+ * noise beds of {@link VadBenchmark}): a 45 s crying fit (cry units of 0.5 - 1.5 s at a gliding
+ * 350 - 550 Hz pitch with vibrato, harmonics shaped by two resonances, a little breath noise and
+ * inhalation gaps), an adult talking in 2 s bursts, a melody, door slams, or the link dropping out
+ * for a few seconds at a time. For each it reports the median and worst time per frame over
+ * several runs (after warmup), the share of one core that is at 10 ms per frame, how many frames
+ * needed the FFT, the share of cry frames classified cry-like, and every level change with its
+ * time.
+ *
+ * Usage: SoundEventBenchmark [--runs N] [--seed S]
+ */
+public class SoundEventBenchmark {
+
+    private static final int SAMPLE_RATE = 16000;
+    private static final int FRAME_SAMPLES = 160;
+    private static final int SCENE_SECONDS = 90;
+    private static final int CRY_START_S = 10;
+    private static final int CRY_END_S = 55;
+    private static final int WARMUP_RUNS = 5;
+
+    private static final class Scene {
+        final String name;
+        final short[][] frames;
+        final boolean[] cry; // Ground truth per frame
+
+        Scene(String name, double[] y, boolean[] cry) {
+            this.name = name;
+            this.frames = new short[y.length / FRAME_SAMPLES][FRAME_SAMPLES];
+            this.cry = new boolean[frames.length];
+            for (int f = 0; f < frames.length; f++) {
+                for (int i = 0; i < FRAME_SAMPLES; i++) frames[f][i] = (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, Math.round(y[f * FRAME_SAMPLES + i])));
+                this.cry[f] = cry != null && cry[f];
+            }
+        }
+    }
+
+    // Cry units between 'from' and 'to' seconds at a peak RMS level into 'y'; marks the frames where they are audible
+    static void addCry(Random random, double[] y, boolean[] cry, int from, int to, double dbfs) {
+        double amplitude = VadBenchmark.dbToAmplitude(dbfs) * Math.sqrt(2.0 / 6); // ~6 strong harmonics share the level
+        double[] phases = new double[24];
+        double[] breath = VadBenchmark.noise(random, y.length, -20 * Math.log10(32768), false); // Unit RMS
+        int unitStart = from * SAMPLE_RATE, unitEnd = unitStart, gapEnd = unitStart;
+        double base = 450, envelope = 0, jitter = 0;
+        for (int i = from * SAMPLE_RATE; i < Math.min(y.length, to * SAMPLE_RATE + SAMPLE_RATE / 2); i++) {
+            if (i >= gapEnd && i < to * SAMPLE_RATE) { // New cry unit: 0.5 - 1.5 s, then a 0.2 - 0.5 s inhalation
+                unitStart = i;
+                unitEnd = i + SAMPLE_RATE * (500 + random.nextInt(1000)) / 1000;
+                gapEnd = unitEnd + SAMPLE_RATE * (200 + random.nextInt(300)) / 1000;
+                base = 350 + random.nextInt(200);
+            }
+            double target = i < unitEnd ? 1 : 0;
+            envelope += (target - envelope) * 0.002; // ~30 ms attack and release
+            double s = 0;
+            if (envelope > 1e-3) {
+                double t = (i - unitStart) / (double) Math.max(1, unitEnd - unitStart);
+                jitter += (random.nextGaussian() * 0.002 - jitter * 0.01);
+                double f0 = base * (1 + 0.15 * Math.sin(Math.PI * Math.min(1, t)) + 0.03 * Math.sin(2 * Math.PI * 6 * i / SAMPLE_RATE) + jitter);
+                for (int h = 1; h < phases.length && h * f0 < 7000; h++) {
+                    double f = h * f0;
+                    double gain = 0.4 / Math.sqrt(h) + 1 / (1 + Math.pow((f - 1100) / 300, 2)) + 0.7 / (1 + Math.pow((f - 3000) / 500, 2));
+                    phases[h] += 2 * Math.PI * f / SAMPLE_RATE;
+                    s += gain * Math.sin(phases[h]);
+                }
+                s += 0.15 * breath[i];
+            }
+            y[i] += amplitude * envelope * s;
+            if (envelope > 0.3) cry[i / FRAME_SAMPLES] = true;
+        }
+    }
+
+    // A door slam every 7 s: a 60 ms burst of decaying low-passed noise
+    private static void addSlams(Random random, double[] y, double dbfs) {
+        double amplitude = VadBenchmark.dbToAmplitude(dbfs) * 2;
+        double lp = 0;
+        for (int start = 5 * SAMPLE_RATE; start < y.length; start += 7 * SAMPLE_RATE) {
+            int length = SAMPLE_RATE * 60 / 1000;
+            for (int i = 0; i < length && start + i < y.length; i++) {
+                lp += (random.nextGaussian() - lp) * 0.2;
+                y[start + i] += amplitude * lp * Math.exp(-i / (length / 4.0));
+            }
+        }
+    }
+
+    // The link drops for 3 s every 15 s: playout then plays nothing but digital silence
+    private static void addDropouts(double[] y) {
+        for (int start = 8 * SAMPLE_RATE; start < y.length; start += 15 * SAMPLE_RATE) {
+            java.util.Arrays.fill(y, start, Math.min(y.length, start + 3 * SAMPLE_RATE), 0);
+        }
+    }
+
+    private static List<Scene> scenes(long seed) {
+        Random random = new Random(seed);
+        int samples = SCENE_SECONDS * SAMPLE_RATE;
+        int frames = samples / FRAME_SAMPLES;
+        List<Scene> scenes = new ArrayList<>();
+
+        double[] room = VadBenchmark.noise(random, samples, -66, false);
+        scenes.add(new Scene("quiet room", room.clone(), null));
+        double[] y = room.clone();
+        boolean[] cry = new boolean[frames];
+        addCry(random, y, cry, CRY_START_S, CRY_END_S, -24);
+        scenes.add(new Scene("quiet room + crying", y, cry));
+        y = room.clone();
+        cry = new boolean[frames];
+        addCry(random, y, cry, CRY_START_S, CRY_END_S, -44);
+        scenes.add(new Scene("quiet room + far crying", y, cry));
+
+        double[] fan = VadBenchmark.noise(random, samples, -42, true);
+        scenes.add(new Scene("fan", fan.clone(), null));
+        y = fan.clone();
+        cry = new boolean[frames];
+        addCry(random, y, cry, CRY_START_S, CRY_END_S, -28);
+        scenes.add(new Scene("fan + crying", y, cry));
+
+        y = room.clone();
+        VadBenchmark.addVoice(random, y, new boolean[frames], -26);
+        scenes.add(new Scene("adult talking", y, null));
+        y = room.clone();
+        VadBenchmark.addMelody(y, -30);
+        scenes.add(new Scene("melody", y, null));
+        y = room.clone();
+        addSlams(random, y, -20);
+        scenes.add(new Scene("door slams", y, null));
+        y = room.clone();
+        addDropouts(y);
+        scenes.add(new Scene("link dropouts", y, null));
+        y = fan.clone();
+        addDropouts(y);
+        scenes.add(new Scene("fan + link dropouts", y, null));
+        return scenes;
+    }
+
+    private static SoundEventDetector run(Scene scene, boolean[] cryLike, StringBuilder changes) {
+        SoundEventDetector detector = new SoundEventDetector(SAMPLE_RATE, FRAME_SAMPLES);
+        final int[] frame = { 0 };
+        if (changes != null) {
+            detector.setListener((level, previous) -> changes.append(String.format(Locale.US, " %s@%.1f", SoundEventDetector.levelName(level), frame[0] / 100.0)));
+        }
+        for (int f = 0; f < scene.frames.length; f++) {
+            frame[0] = f;
+            long before = detector.getCryLikeFrames();
+            detector.process(scene.frames[f], FRAME_SAMPLES);
+            cryLike[f] = detector.getCryLikeFrames() != before;
+        }
+        return detector;
+    }
+
+    private static void measure(Scene scene, int runs) {
+        List<Double> times = new ArrayList<>();
+        boolean[] cryLike = new boolean[scene.frames.length];
+        for (int r = 0; r < runs; r++) {
+            long start = System.nanoTime();
+            run(scene, cryLike, null);
+            times.add((System.nanoTime() - start) / (double) scene.frames.length);
+        }
+        Collections.sort(times);
+        StringBuilder changes = new StringBuilder();
+        SoundEventDetector detector = run(scene, cryLike, changes);
+
+        long cryFrames = 0, cryDetected = 0, otherFrames = 0, otherCryLike = 0;
+        for (int f = 0; f < cryLike.length; f++) {
+            if (scene.cry[f]) { cryFrames++; if (cryLike[f]) cryDetected++; }
+            else { otherFrames++; if (cryLike[f]) otherCryLike++; }
+        }
+        double median = times.get(times.size() / 2);
+        System.out.println(String.format(Locale.US, "%-24s | %6.0f %6.0f | %6.3f%% | %5.1f%% | %6s | %5.2f%% |%s",
+                scene.name, median, times.get(times.size() - 1), 100 * median / 10_000_000.0, 100.0 * detector.getSpectraComputed() / cryLike.length,
+                cryFrames == 0 ? "-" : String.format(Locale.US, "%5.1f%%", 100.0 * cryDetected / cryFrames),
+                100.0 * otherCryLike / Math.max(1, otherFrames), changes.length() == 0 ? " -" : changes.toString()));
+    }
+
+    public static void main(String[] args) {
+        int runs = 9;
+        long seed = 1;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--runs": runs = Integer.parseInt(args[++i]); break;
+                case "--seed": seed = Long.parseLong(args[++i]); break;
+                default: throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+        System.out.println("Per 10 ms frame: median and worst-run ns, share of one core, share needing the FFT, cry frames found cry-like, other frames found cry-like, level changes (s)");
+        System.out.println(String.format(Locale.US, "%-24s | %6s %6s | %7s | %6s | %6s | %6s | %s", "scene", "median", "worst", "core", "fft", "cry", "other", "levels"));
+        List<Scene> scenes = scenes(seed);
+        for (int r = 0; r < WARMUP_RUNS; r++) for (Scene scene : scenes) run(scene, new boolean[scene.frames.length], null); // Every path compiled before timing
+        for (Scene scene : scenes) measure(scene, runs);
+    }
+}
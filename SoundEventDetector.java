@@ -0,0 +1,313 @@
+package com.example.audio;
+
+/**
+ * Listens to the baby-room stream for crying and other loud sounds, one 10 ms PCM16 frame at a
+ * time, so the parent can be alerted instead of having to listen all night.
+ *
+ * Every frame updates the RMS level against an adaptive noise floor (the same tracking as
+ * {@link VoiceActivityDetector}). Frames well above the floor also get a 512-point FFT over the
+ * last 32 ms of audio, a window that slides by one frame, for the energy in four bands and a
+ * harmonicity score: the share of the 250 Hz - 4 kHz power sitting on the harmonics of the best
+ * fundamental between 250 and 700 Hz. A frame is cry-like when it is strongly harmonic at an
+ * infant's pitch (and not at twice an adult's, which shows up as power half way between the
+ * harmonics) with a fair share of its energy in 1 - 3 kHz, where a cry is loudest; it is loud
+ * when it is far above the floor whatever its shape.
+ *
+ * Over a sliding window of a few seconds, enough cry-like frames raise {@link #LEVEL_CRY} and
+ * enough loud ones {@link #LEVEL_NOISE}; crying that goes on escalates to
+ * {@link #LEVEL_CRY_SUSTAINED}. The level only falls back to {@link #LEVEL_NONE} after a quiet
+ * cooldown, so a crying fit with breathing pauses is one alert. Digital silence (an empty jitter
+ * buffer while the link is down) says nothing about the room and is skipped.
+ *
+ * Thresholds can be changed from any thread; {@link #process} is for one thread only, and the
+ * listener is called on it.
+ */
+public class SoundEventDetector {
+
+    public static final int LEVEL_NONE = 0;
+    public static final int LEVEL_NOISE = 1;
+    public static final int LEVEL_CRY = 2;
+    public static final int LEVEL_CRY_SUSTAINED = 3;
+
+    public static final int BAND_LOW = 0;   // Below 300 Hz: hum, rumble, handling noise
+    public static final int BAND_VOICE = 1; // 300 Hz - 1 kHz: cry fundamentals and first harmonics
+    public static final int BAND_MID = 2;   // 1 - 3 kHz: the loudest part of a cry
+    public static final int BAND_HIGH = 3;  // Above 3 kHz: hiss, fricatives
+    public static final int BAND_COUNT = 4;
+
+    public static final float DEFAULT_CRY_MARGIN_DB = 10f;
+    public static final float DEFAULT_NOISE_MARGIN_DB = 20f;
+    public static final float DEFAULT_HARMONICITY_THRESHOLD = 0.4f;
+    public static final int DEFAULT_WINDOW_FRAMES = 300;      // 3 s
+    public static final int DEFAULT_CRY_FRAMES = 90;          // 0.9 s of cry-like frames within the window
+    public static final int DEFAULT_NOISE_FRAMES = 50;        // 0.5 s of loud frames within the window
+    public static final int DEFAULT_ESCALATE_FRAMES = 3000;   // 30 s of crying
+    public static final int DEFAULT_COOLDOWN_FRAMES = 1000;   // 10 s below every trigger
+
+    /** Called on the thread running {@link #process} whenever the level changes. */
+    public interface Listener {
+        void onLevelChanged(int level, int previous);
+    }
+
+    private static final int FFT_SIZE = 512;
+    private static final float[] BAND_EDGES_HZ = { 300f, 1000f, 3000f };
+    private static final float PITCH_LOW_HZ = 250f;
+    private static final float PITCH_HIGH_HZ = 700f;
+    private static final float PITCH_STEP_BINS = 0.25f;
+    private static final float HARMONIC_BAND_HIGH_HZ = 4000f;
+    private static final float MIN_MID_SHARE = 0.15f;        // Of the 250 Hz - 4 kHz power in 1 - 3 kHz
+    private static final float MAX_SUBHARMONIC_RATIO = 0.5f; // Power between the harmonics over power on them
+    private static final float SILENCE_DBFS = -72f;
+    private static final float MIN_FLOOR_DBFS = -96f;
+    private static final float FLOOR_RISE_DB = 0.02f;  // Per frame near the floor
+    private static final float FLOOR_CLIMB_DB = 0.05f; // Per loud frame that is not a cry
+    private static final float FLOOR_FALL = 0.3f;
+    private static final double FULL_SCALE_POWER = 32768.0 * 32768.0;
+
+    private final RealFft fft = new RealFft(FFT_SIZE);
+    private final int frameSamples;
+    private final float[] history = new float[FFT_SIZE]; // Last FFT_SIZE samples, oldest first
+    private final float[] window = new float[FFT_SIZE];
+    private final float[] windowed = new float[FFT_SIZE];
+    private final float[] power = new float[FFT_SIZE / 2 + 1];
+    private final int[] bandStart = new int[BAND_COUNT + 1];
+    private final int harmonicLow;
+    private final int harmonicHigh;
+    private final int midLow;
+    private final int midHigh;
+    private final float pitchLowBins;
+    private final float pitchHighBins;
+    private final float binHz;
+    private final float bandScale; // Bin power to mean square, in full-scale units
+
+    private volatile float cryMarginDb = DEFAULT_CRY_MARGIN_DB;
+    private volatile float noiseMarginDb = DEFAULT_NOISE_MARGIN_DB;
+    private volatile float harmonicityThreshold = DEFAULT_HARMONICITY_THRESHOLD;
+    private volatile int cryFrames = DEFAULT_CRY_FRAMES;
+    private volatile int noiseFrames = DEFAULT_NOISE_FRAMES;
+    private volatile int escalateFrames = DEFAULT_ESCALATE_FRAMES;
+    private volatile int cooldownFrames = DEFAULT_COOLDOWN_FRAMES;
+    private volatile Listener listener;
+
+    // Sliding window of per-frame decisions
+    private final boolean[] cryWindow = new boolean[DEFAULT_WINDOW_FRAMES];
+    private final boolean[] loudWindow = new boolean[DEFAULT_WINDOW_FRAMES];
+    private int windowPos = 0;
+    private int cryCount = 0;
+    private int loudCount = 0;
+
+    private volatile int level = LEVEL_NONE;
+    private int quietFrames = 0;  // Since a trigger last held
+    private int cryingFrames = 0; // Since the level reached LEVEL_CRY
+    private float floorDb = Float.NaN;
+
+    private volatile float lastEnergyDb = MIN_FLOOR_DBFS;
+    private volatile float lastHarmonicity = 0f;
+    private volatile float lastPitchHz = 0f;
+    private final float[] bandDb = new float[BAND_COUNT];
+    private volatile long framesProcessed = 0;
+    private volatile long spectraComputed = 0;
+    private volatile long cryLikeFrames = 0;
+    private volatile long noiseAlerts = 0;
+    private volatile long cryAlerts = 0;
+    private volatile long escalations = 0;
+
+    public SoundEventDetector(int sampleRate, int frameSamples) {
+        if (frameSamples <= 0 || frameSamples > FFT_SIZE) throw new IllegalArgumentException("Frame must be 1.." + FFT_SIZE + " samples: " + frameSamples);
+        this.frameSamples = frameSamples;
+        double windowPower = 0;
+        for (int i = 0; i < FFT_SIZE; i++) {
+            window[i] = (float) (0.5 - 0.5 * Math.cos(2 * Math.PI * (i + 0.5) / FFT_SIZE)); // Hann
+            windowPower += window[i] * window[i];
+        }
+        this.binHz = (float) sampleRate / FFT_SIZE;
+        this.bandScale = (float) (2.0 / (FFT_SIZE * windowPower * FULL_SCALE_POWER)); // One-sided Parseval
+        bandStart[0] = 1;
+        for (int b = 0; b < BAND_EDGES_HZ.length; b++) bandStart[b + 1] = bin(BAND_EDGES_HZ[b]);
+        bandStart[BAND_COUNT] = FFT_SIZE / 2;
+        this.harmonicLow = bin(PITCH_LOW_HZ);
+        this.harmonicHigh = bin(HARMONIC_BAND_HIGH_HZ);
+        this.midLow = bin(BAND_EDGES_HZ[1]);
+        this.midHigh = bin(BAND_EDGES_HZ[2]);
+        this.pitchLowBins = PITCH_LOW_HZ / binHz;
+        this.pitchHighBins = PITCH_HIGH_HZ / binHz;
+        java.util.Arrays.fill(bandDb, MIN_FLOOR_DBFS);
+    }
+
+    private int bin(float hz) { return Math.max(1, Math.min(FFT_SIZE / 2 - 1, Math.round(hz / binHz))); }
+
+    // --- Configuration ---
+
+    public void setListener(Listener listener) { this.listener = listener; }
+    /** Energy above the noise floor a frame needs before its spectrum is looked at. */
+    public void setCryMarginDb(float db) { cryMarginDb = db; }
+    /** Energy above the noise floor at which a frame counts as loud whatever it is. */
+    public void setNoiseMarginDb(float db) { noiseMarginDb = db; }
+    /** Share of the band power on the harmonics (about 0.25 for white noise, 0.5 for a cry). */
+    public void setHarmonicityThreshold(float share) { harmonicityThreshold = share; }
+    /** Cry-like frames within the 3 s window that raise {@link #LEVEL_CRY}. */
+    public void setCryFrames(int frames) { cryFrames = Math.max(1, Math.min(DEFAULT_WINDOW_FRAMES, frames)); }
+    /** Loud frames within the 3 s window that raise {@link #LEVEL_NOISE}. */
+    public void setNoiseFrames(int frames) { noiseFrames = Math.max(1, Math.min(DEFAULT_WINDOW_FRAMES, frames)); }
+    /** Frames of crying before {@link #LEVEL_CRY_SUSTAINED}. */
+    public void setEscalateFrames(int frames) { escalateFrames = Math.max(1, frames); }
+    /** Frames below every trigger before the level falls back to {@link #LEVEL_NONE}. */
+    public void setCooldownFrames(int frames) { cooldownFrames = Math.max(1, frames); }
+
+    public float getCryMarginDb() { return cryMarginDb; }
+    public float getNoiseMarginDb() { return noiseMarginDb; }
+    public float getHarmonicityThreshold() { return harmonicityThreshold; }
+    public int getCryFrames() { return cryFrames; }
+    public int getNoiseFrames() { return noiseFrames; }
+    public int getEscalateFrames() { return escalateFrames; }
+    public int getCooldownFrames() { return cooldownFrames; }
+
+    // --- Detection ---
+
+    /** Analyses the first {@code samples} (at most the frame size) of {@code frame}; returns the level after it. */
+    public int process(short[] frame, int samples) {
+        int n = Math.min(samples, frameSamples);
+        System.arraycopy(history, n, history, 0, FFT_SIZE - n);
+        long sum = 0;
+        for (int i = 0; i < n; i++) {
+            sum += frame[i] * frame[i];
+            history[FFT_SIZE - n + i] = frame[i];
+        }
+        framesProcessed++;
+        if (sum == 0) return level; // Nothing from the room: neither quiet nor loud
+
+        float energyDb = Math.max(MIN_FLOOR_DBFS, (float) (10 * Math.log10(sum / (double) Math.max(1, n) / FULL_SCALE_POWER)));
+        if (Float.isNaN(floorDb)) floorDb = energyDb;
+        lastEnergyDb = energyDb;
+
+        boolean cry = false;
+        boolean loud = false;
+        float rise = FLOOR_RISE_DB;
+        float above = energyDb - floorDb;
+        if (energyDb > SILENCE_DBFS && above > cryMarginDb) {
+            cry = isCryLike();
+            loud = above > noiseMarginDb;
+            rise = cry ? 0f : FLOOR_CLIMB_DB;
+        }
+        if (energyDb < floorDb) floorDb += (energyDb - floorDb) * FLOOR_FALL;
+        else floorDb = Math.min(energyDb, floorDb + rise);
+        if (cry) cryLikeFrames++;
+
+        if (cryWindow[windowPos]) cryCount--;
+        if (loudWindow[windowPos]) loudCount--;
+        cryWindow[windowPos] = cry;
+        loudWindow[windowPos] = loud || cry;
+        if (cry) cryCount++;
+        if (loud || cry) loudCount++;
+        if (++windowPos == cryWindow.length) windowPos = 0;
+
+        updateLevel(cryCount >= cryFrames, loudCount >= noiseFrames);
+        return level;
+    }
+
+    // Level changes: up at once, CRY to SUSTAINED after escalateFrames, down to NONE only after the cooldown
+    private void updateLevel(boolean crying, boolean noisy) {
+        int previous = level;
+        int next = previous;
+        quietFrames = crying || noisy ? 0 : quietFrames + 1;
+        if (crying && previous < LEVEL_CRY) next = LEVEL_CRY;
+        else if (noisy && previous < LEVEL_NOISE) next = LEVEL_NOISE;
+        else if (previous != LEVEL_NONE && quietFrames >= cooldownFrames) next = LEVEL_NONE;
+        if (next >= LEVEL_CRY) {
+            cryingFrames = previous >= LEVEL_CRY ? cryingFrames + 1 : 0;
+            if (next == LEVEL_CRY && crying && cryingFrames >= escalateFrames) next = LEVEL_CRY_SUSTAINED;
+        }
+        if (next == previous) return;
+        level = next;
+        if (next == LEVEL_NOISE) noiseAlerts++;
+        else if (next == LEVEL_CRY) cryAlerts++;
+        else if (next == LEVEL_CRY_SUSTAINED) escalations++;
+        Listener l = listener;
+        if (l != null) l.onLevelChanged(next, previous);
+    }
+
+    // Band energies, then the best fundamental's harmonic share of the 250 Hz - 4 kHz power
+    private boolean isCryLike() {
+        for (int i = 0; i < FFT_SIZE; i++) windowed[i] = history[i] * window[i];
+        fft.powerSpectrum(windowed, power);
+        spectraComputed++;
+        for (int b = 0; b < BAND_COUNT; b++) {
+            float p = 0;
+            for (int k = bandStart[b]; k < bandStart[b + 1]; k++) p += power[k];
+            bandDb[b] = Math.max(MIN_FLOOR_DBFS, (float) (10 * Math.log10(p * bandScale + 1e-12)));
+        }
+
+        float total = 0;
+        float mid = 0;
+        for (int k = harmonicLow; k <= harmonicHigh; k++) {
+            total += power[k];
+            if (k >= midLow && k < midHigh) mid += power[k];
+        }
+        if (total <= 0f) return false;
+
+        float best = 0;
+        float bestPitch = 0;
+        float bestBetween = 0;
+        for (float f0 = pitchLowBins; f0 <= pitchHighBins; f0 += PITCH_STEP_BINS) {
+            float on = 0;
+            float between = 0;
+            for (float h = f0; h + 1 <= harmonicHigh; h += f0) {
+                on += peak(Math.round(h));
+                between += peak(Math.round(h - 0.5f * f0));
+            }
+            if (on > best) { best = on; bestPitch = f0; bestBetween = between; }
+        }
+        float harmonicity = best / total;
+        lastHarmonicity = harmonicity;
+        lastPitchHz = bestPitch * binHz;
+        return harmonicity >= harmonicityThreshold
+                && bestBetween < MAX_SUBHARMONIC_RATIO * best
+                && mid >= MIN_MID_SHARE * total;
+    }
+
+    // Largest of the three bins around k: a harmonic between bins still counts in full
+    private float peak(int k) {
+        float p = power[k];
+        if (power[k - 1] > p) p = power[k - 1];
+        if (power[k + 1] > p) p = power[k + 1];
+        return p;
+    }
+
+    /** Back to {@link #LEVEL_NONE} without telling the listener (e.g. a new session); the noise floor is kept. */
+    public void reset() {
+        java.util.Arrays.fill(cryWindow, false);
+        java.util.Arrays.fill(loudWindow, false);
+        cryCount = 0;
+        loudCount = 0;
+        quietFrames = 0;
+        cryingFrames = 0;
+        level = LEVEL_NONE;
+    }
+
+    // --- Statistics ---
+
+    public int getLevel() { return level; }
+    public float getNoiseFloorDb() { return floorDb; }
+    public float getLastEnergyDb() { return lastEnergyDb; }
+    /** Energy in one of the {@code BAND_*} bands of the last frame that was loud enough to be looked at, dBFS. */
+    public float getBandEnergyDb(int band) { return bandDb[band]; }
+    public float getLastHarmonicity() { return lastHarmonicity; }
+    /** Best fundamental of the last frame that was looked at, Hz. */
+    public float getLastPitchHz() { return lastPitchHz; }
+    public long getFramesProcessed() { return framesProcessed; }
+    public long getSpectraComputed() { return spectraComputed; }
+    public long getCryLikeFrames() { return cryLikeFrames; }
+    public long getNoiseAlerts() { return noiseAlerts; }
+    public long getCryAlerts() { return cryAlerts; }
+    public long getEscalations() { return escalations; }
+
+    public static String levelName(int level) {
+        switch (level) {
+            case LEVEL_NONE: return "quiet";
+            case LEVEL_NOISE: return "noise";
+            case LEVEL_CRY: return "crying";
+            case LEVEL_CRY_SUSTAINED: return "crying (sustained)";
+            default: return "level " + level;
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package com.example.audio;
+
+import java.util.Arrays;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Typed, coalescing status channel between the streaming service and its observers (UI,
+ * notification).
+ *
+ * Each {@link Channel} holds one current {@link State}. Posts are cheap and may come from any
+ * thread; listeners are called on the delivery scheduler (the main thread) at most
+ * {@code maxDispatchesPerSecond} times per second with only the latest state per channel, so a
+ * flapping link costs a bounded amount of UI work. States identical to the last delivered one are
+ * not redelivered. An ERROR is never coalesced away: if a later state replaces it before the next
+ * dispatch, both are delivered, error first.
+ *
+ * New listeners immediately get the current state of every channel.
+ */
+public class StatusBus {
+
+    public enum Channel { GENERAL, RECEIVE, SEND, CONTROL, MELODY }
+
+    public enum State {
+        IDLE("Idle"),
+        STARTING("Starting..."),
+        CONNECTING("Connecting..."),
+        CONNECTED("Connected"),
+        STREAMING("Streaming"),
+        ACTIVE("Streaming Active"),
+        RECONNECTING("Reconnecting..."),
+        DISCONNECTED("Disconnected"),
+        PLAYING("Playing..."),
+        FINISHED("Finished"),
+        CANCELLED("Cancelled"),
+        STOPPING("Stopping..."),
+        STOPPED("Stopped"),
+        ERROR("Error");
+
+        public final String text;
+        State(String text) { this.text = text; }
+
+        /** Link is usable (connected or already moving audio). */
+        public boolean isUp() { return this == CONNECTED || this == STREAMING || this == ACTIVE; }
+    }
+
+    public static final class Event {
+        public final Channel channel;
+        public final State state;
+        public final String detail; // Error reason, reconnect attempt, ...; may be null
+        public final long timeNanos;
+
+        Event(Channel channel, State state, String detail, long timeNanos) {
+            this.channel = channel;
+            this.state = state;
+            this.detail = detail;
+            this.timeNanos = timeNanos;
+        }
+
+        /** Display text, e.g. "Connected" or "Error: Conn Timeout". */
+        public String label() { return detail == null ? state.text : state.text + ": " + detail; }
+
+        boolean sameAs(Event other) {
+            return other != null && state == other.state && (detail == null ? other.detail == null : detail.equals(other.detail));
+        }
+
+        @Override public String toString() { return channel + "=" + label(); }
+    }
+
+    /** Called on the delivery scheduler's thread. */
+    public interface Listener {
+        void onStatus(Event event);
+    }
+
+    private static final int CHANNELS = Channel.values().length;
+
+    private final ConnectionSupervisor.Scheduler scheduler;
+    private final long minIntervalNanos;
+    private final CopyOnWriteArrayList<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    private final Event[] current = new Event[CHANNELS];       // Guarded by this
+    private final Event[] pending = new Event[CHANNELS];       // Guarded by this
+    private final Event[] pendingError = new Event[CHANNELS];  // Guarded by this
+    private final Event[] delivered = new Event[CHANNELS];     // Delivery thread only
+    private boolean dispatchScheduled = false;                 // Guarded by this
+    private long lastDispatchNanos = 0;                        // Guarded by this
+
+    private volatile long posted = 0;
+    private volatile long coalesced = 0;
+    private volatile long dispatches = 0;
+
+    public StatusBus(ConnectionSupervisor.Scheduler scheduler, int maxDispatchesPerSecond) {
+        this.scheduler = scheduler;
+        this.minIntervalNanos = 1_000_000_000L / Math.max(1, maxDispatchesPerSecond);
+        long now = System.nanoTime();
+        for (Channel c : Channel.values()) current[c.ordinal()] = new Event(c, c == Channel.CONTROL ? State.DISCONNECTED : State.IDLE, null, now);
+    }
+
+    public void post(Channel channel, State state) { post(channel, state, null); }
+
+    public void post(Channel channel, State state, String detail) {
+        Event event = new Event(channel, state, detail, System.nanoTime());
+        int i = channel.ordinal();
+        synchronized (this) {
+            posted++;
+            Event replaced = pending[i];
+            if (replaced != null) {
+                coalesced++;
+                if (replaced.state == State.ERROR && state != State.ERROR) pendingError[i] = replaced;
+            }
+            pending[i] = event;
+            current[i] = event;
+            if (!dispatchScheduled) {
+                dispatchScheduled = true;
+                long wait = lastDispatchNanos + minIntervalNanos - event.timeNanos;
+                scheduler.schedule(this::dispatch, wait > 0 ? (wait + 999_999) / 1_000_000 : 0);
+            }
+        }
+    }
+
+    /** Latest posted state of {@code channel}, delivered or not. */
+    public synchronized Event current(Channel channel) { return current[channel.ordinal()]; }
+
+    /** Adds {@code listener} and replays every channel's current state to it on the delivery thread. */
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+        scheduler.schedule(() -> {
+            if (!listeners.contains(listener)) return;
+            Event[] snapshot;
+            synchronized (this) { snapshot = current.clone(); }
+            for (Event event : snapshot) listener.onStatus(event);
+        }, 0);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    private void dispatch() {
+        Event[] errors = new Event[CHANNELS];
+        Event[] batch = new Event[CHANNELS];
+        synchronized (this) {
+            dispatchScheduled = false;
+            lastDispatchNanos = System.nanoTime();
+            System.arraycopy(pendingError, 0, errors, 0, CHANNELS);
+            System.arraycopy(pending, 0, batch, 0, CHANNELS);
+            Arrays.fill(pendingError, null);
+            Arrays.fill(pending, null);
+        }
+        dispatches++;
+        for (int i = 0; i < CHANNELS; i++) {
+            if (errors[i] != null) deliver(errors[i]);
+            if (batch[i] != null && !batch[i].sameAs(delivered[i])) deliver(batch[i]);
+        }
+    }
+
+    private void deliver(Event event) {
+        delivered[event.channel.ordinal()] = event;
+        for (Listener listener : listeners) listener.onStatus(event);
+    }
+
+    public long getPosted() { return posted; }
+    public long getCoalesced() { return coalesced; }
+    public long getDispatches() { return dispatches; }
+}
@@ -0,0 +1,281 @@
+package com.example.audio;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+/**
+ * Re-serves the mic stream this phone receives to other phones on the LAN, so the mic board
+ * serves one TCP client however many parents listen.
+ *
+ * Listeners connect exactly as to the mic board: same hello, then {@link WireCodec} frames. The
+ * relay answers the hello with the format it is serving and from then on copies every upstream
+ * frame, unchanged, to every listener; it neither decodes nor encodes. A legacy raw upstream is
+ * converted and framed as PCM16 once for all listeners. When the upstream comes back in another
+ * format, listeners are disconnected so they reconnect and negotiate again.
+ *
+ * Each listener's send queue is its transport connection's bounded buffer, with a small fixed
+ * kernel send buffer behind it. A frame that does not fit is dropped for that listener alone,
+ * whole, so its stream stays frame-aligned (every frame decodes on its own) and nobody else
+ * waits. A listener that has taken no frame for {@link #EVICT_MILLIS} (out of range, or gone
+ * without a FIN) is disconnected.
+ *
+ * Runs on the transport thread: {@link #onUpstreamLinked}, {@link #onUpstreamData} and
+ * {@link #onUpstreamClosed} must be called there, as the receive session's handler is.
+ */
+public class StreamRelay {
+
+    private static final int HELLO_TIMEOUT_MS = 2000;
+    private static final long EVICT_MILLIS = 10_000;
+    private static final int LEGACY_FRAME_SAMPLES = 256;
+    private static final int LISTENER_READ_BUFFER_BYTES = 64; // Listeners only ever send the hello
+    private static final int SOCKET_SEND_BUFFER_BYTES = 8 * 1024; // Linux doubles it; autotuned it would hide seconds behind the queue
+
+    private final class Listener implements NioTransport.Handler {
+        private final byte[] hello = new byte[WireCodec.HELLO_BYTES];
+        private int helloFill = 0;
+        private NioTransport.Connection connection;
+        private boolean active = false;
+        private long lastSentNanos;
+
+        @Override public void onConnected(NioTransport.Connection connection) {
+            this.connection = connection;
+            if (listeners.size() >= maxListeners) {
+                refused++;
+                connection.close();
+                return;
+            }
+            listeners.add(this);
+            listenerCount = listeners.size();
+            transport.schedule(() -> { if (!active && connection.isOpen()) connection.close(new IOException("No hello from listener")); }, HELLO_TIMEOUT_MS);
+        }
+
+        @Override public void onData(NioTransport.Connection connection, ByteBuffer data) {
+            if (active) { data.position(data.limit()); return; } // Nothing is expected after the hello
+            int n = Math.min(data.remaining(), hello.length - helloFill);
+            data.get(hello, helloFill, n);
+            helloFill += n;
+            if (helloFill < hello.length) return;
+            if (WireCodec.parseHello(hello, helloFill) == WireCodec.CODEC_LEGACY) {
+                connection.close(new IOException("Not a listener hello"));
+                return;
+            }
+            byte[] reply = WireCodec.hello(servedCodec);
+            connection.send(reply, 0, reply.length);
+            active = true;
+            lastSentNanos = System.nanoTime();
+        }
+
+        @Override public void onClosed(NioTransport.Connection connection, Throwable error) {
+            listeners.remove(this);
+            listenerCount = listeners.size();
+        }
+
+        void send(byte[] frame, int len, long now) {
+            if (connection.send(frame, 0, len)) {
+                framesSent++;
+                lastSentNanos = now;
+                return;
+            }
+            framesDropped++;
+            if (now - lastSentNanos > EVICT_MILLIS * 1_000_000L) {
+                evicted++;
+                connection.close(new IOException("Listener took no audio for " + EVICT_MILLIS + " ms"));
+            }
+        }
+    }
+
+    private final NioTransport transport;
+    private final SampleFormatConverter legacyConverter;
+    private final int maxListeners;
+    private final int queueBytes;
+    private final ArrayList<Listener> listeners = new ArrayList<>(); // Transport thread only
+    private final byte[] frame = new byte[WireCodec.MAX_FRAME_BYTES];
+    private int frameFill = 0;
+    private byte[] wire = null;      // Legacy upstream only
+    private byte[] converted = null;
+    private int carry = 0;
+    private FramedAudioOutputStream framer = null;
+    private int upstreamCodec = WireCodec.CODEC_LEGACY;
+    private boolean linked = false;
+    private volatile int servedCodec;
+    private volatile NioTransport.Server server;
+
+    private volatile int listenerCount = 0;
+    private volatile long framesIn = 0;
+    private volatile long framesSent = 0;    // Into listener queues, all listeners together
+    private volatile long framesDropped = 0; // Because a listener's queue was full
+    private volatile long skippedBytes = 0;
+    private volatile long refused = 0;
+    private volatile long evicted = 0;
+    private volatile long formatChanges = 0;
+
+    /**
+     * {@code offeredCodec} is what listeners are told before the upstream has linked (what this
+     * phone asks the mic board for); {@code legacyConverter} turns a legacy raw upstream into
+     * PCM16 and must not be shared with the playout path. Each listener queues up to
+     * {@code queueBytes}.
+     */
+    public StreamRelay(NioTransport transport, SampleFormatConverter legacyConverter, int offeredCodec, int maxListeners, int queueBytes) {
+        if (!WireCodec.isSupported(offeredCodec)) throw new IllegalArgumentException("Unsupported codec: " + offeredCodec);
+        this.transport = transport;
+        this.legacyConverter = legacyConverter;
+        this.servedCodec = offeredCodec;
+        this.maxListeners = maxListeners;
+        this.queueBytes = Math.max(queueBytes, WireCodec.MAX_FRAME_BYTES);
+    }
+
+    /** Starts accepting listeners on {@code address}; throws if the port is taken. */
+    public void listen(InetSocketAddress address) throws IOException {
+        NioTransport.Server s = transport.listen(address, LISTENER_READ_BUFFER_BYTES, queueBytes, Listener::new);
+        s.setSocketSendBufferBytes(SOCKET_SEND_BUFFER_BYTES);
+        server = s;
+    }
+
+    /** Stops accepting and disconnects every listener. Safe from any thread. */
+    public void close() {
+        NioTransport.Server s = server;
+        if (s != null) s.close();
+        transport.execute(() -> { for (Listener l : new ArrayList<>(listeners)) l.connection.close(); });
+    }
+
+    // --- Upstream (transport thread) ---
+
+    /** The upstream connection settled on {@code codec}. */
+    public void onUpstreamLinked(int codec) {
+        upstreamCodec = codec;
+        linked = true;
+        frameFill = 0;
+        carry = 0;
+        int served = codec == WireCodec.CODEC_LEGACY ? WireCodec.CODEC_PCM16 : codec;
+        if (codec == WireCodec.CODEC_LEGACY) {
+            wire = new byte[LEGACY_FRAME_SAMPLES * legacyConverter.inputBytesPerSample()];
+            converted = new byte[LEGACY_FRAME_SAMPLES * legacyConverter.outputBytesPerSample()];
+            framer = new FramedAudioOutputStream(new FanOut(), WireCodec.CODEC_PCM16, LEGACY_FRAME_SAMPLES);
+        }
+        if (served != servedCodec) {
+            formatChanges++;
+            servedCodec = served;
+            for (Listener l : new ArrayList<>(listeners)) if (l.active) l.connection.close(); // They renegotiate on reconnect
+        }
+    }
+
+    /** Relays upstream stream bytes; leaves {@code data}'s position where it was for the playout path. */
+    public void onUpstreamData(ByteBuffer data) {
+        if (!linked) return;
+        int start = data.position();
+        if (upstreamCodec == WireCodec.CODEC_LEGACY) relayLegacy(data);
+        else relayFrames(data);
+        data.position(start);
+    }
+
+    /** Drops any partial frame; listeners stay connected for the next upstream session. */
+    public void onUpstreamClosed() {
+        linked = false;
+        frameFill = 0;
+        carry = 0;
+    }
+
+    // Reassembles whole frames across reads: [0xA5][codec][samples u16][payload u16][payload]
+    private void relayFrames(ByteBuffer data) {
+        while (data.hasRemaining()) {
+            if (frameFill == 0) {
+                if ((data.get(data.position()) & 0xFF) != WireCodec.FRAME_SYNC) { data.get(); skippedBytes++; continue; }
+            }
+            if (frameFill < WireCodec.FRAME_HEADER_BYTES) {
+                int n = Math.min(data.remaining(), WireCodec.FRAME_HEADER_BYTES - frameFill);
+                data.get(frame, frameFill, n);
+                frameFill += n;
+                if (frameFill < WireCodec.FRAME_HEADER_BYTES) return;
+                if (frameLength() > frame.length) { // Not a header after all: resync past the false sync byte
+                    skippedBytes++;
+                    System.arraycopy(frame, 1, frame, 0, --frameFill);
+                    resync();
+                    continue;
+                }
+            }
+            int total = frameLength();
+            int n = Math.min(data.remaining(), total - frameFill);
+            data.get(frame, frameFill, n);
+            frameFill += n;
+            if (frameFill == total) {
+                fanOut(frame, total);
+                frameFill = 0;
+            }
+        }
+    }
+
+    private int frameLength() {
+        return WireCodec.FRAME_HEADER_BYTES + ((frame[4] & 0xFF) | ((frame[5] & 0xFF) << 8));
+    }
+
+    // Keeps only the held bytes from the next sync byte on
+    private void resync() {
+        int i = 0;
+        while (i < frameFill && (frame[i] & 0xFF) != WireCodec.FRAME_SYNC) i++;
+        skippedBytes += i;
+        System.arraycopy(frame, i, frame, 0, frameFill - i);
+        frameFill -= i;
+    }
+
+    private void relayLegacy(ByteBuffer data) {
+        int sampleBytes = legacyConverter.inputBytesPerSample();
+        while (data.hasRemaining()) {
+            int n = Math.min(data.remaining(), wire.length - carry);
+            data.get(wire, carry, n);
+            int total = carry + n;
+            int aligned = total - total % sampleBytes;
+            if (aligned > 0) {
+                int bytes = legacyConverter.convert(wire, 0, aligned, converted, 0);
+                try { framer.write(converted, 0, bytes); } catch (IOException e) { /* FanOut never throws */ }
+            }
+            carry = total - aligned;
+            if (carry > 0) System.arraycopy(wire, aligned, wire, 0, carry);
+        }
+    }
+
+    private void fanOut(byte[] src, int len) {
+        framesIn++;
+        if (listeners.isEmpty()) return;
+        long now = System.nanoTime();
+        for (int i = listeners.size() - 1; i >= 0; i--) { // Backwards: an eviction removes the listener
+            Listener l = listeners.get(i);
+            if (l.active) l.send(src, len, now);
+        }
+    }
+
+    // Takes the framer's output through the same reassembly as a framed upstream, so listeners get
+    // whole frames however the bytes are written. The framer reuses one array: so does the wrapper
+    private final class FanOut extends OutputStream {
+        private final byte[] single = new byte[1];
+        private ByteBuffer wrapped = null;
+
+        @Override public void write(int b) {
+            single[0] = (byte) b;
+            write(single, 0, 1);
+        }
+
+        @Override public void write(byte[] b, int off, int len) {
+            if (wrapped == null || wrapped.array() != b) wrapped = ByteBuffer.wrap(b);
+            wrapped.limit(off + len).position(off);
+            relayFrames(wrapped);
+        }
+    }
+
+    // --- Stats (any thread) ---
+
+    /** The local port listeners connect to, or -1 before {@link #listen}. */
+    public int getPort() { NioTransport.Server s = server; return s != null ? s.getLocalPort() : -1; }
+    public int getServedCodec() { return servedCodec; }
+    public int getListenerCount() { return listenerCount; }
+    public long getFramesIn() { return framesIn; }
+    public long getFramesSent() { return framesSent; }
+    public long getFramesDropped() { return framesDropped; }
+    public long getSkippedBytes() { return skippedBytes; }
+    public long getRefused() { return refused; }
+    public long getEvicted() { return evicted; }
+    public long getFormatChanges() { return formatChanges; }
+    public long getAccepted() { NioTransport.Server s = server; return s != null ? s.getAccepted() : 0; }
+}
@@ -0,0 +1,611 @@
+package com.example.audio;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * End-to-end benchmark of the streaming core on a plain JVM, against {@link Esp32Simulator}.
+ *
+ * Each stream wires the same pieces the service uses (NioTransport, ConnectionSupervisor,
+ * NegotiatingHandler, ReceivePath, JitterBuffer, DriftCompensator, PlayoutLoop, CaptureLoop,
+ * AudioMixer, SendPacer, VoiceActivityDetector, ControlCommandPipeline, ControlProtocol) with a
+ * simulated AudioTrack and AudioRecord, and its own simulator on loopback ports. Both mics emit a
+ * short tone burst every {@link #PULSE_PERIOD_MS}; the far end detects each onset, so
+ * glass-to-glass latency is measured from capture of the first burst sample to the moment it is
+ * heard, jitter buffer and device buffers included. Latencies longer than the pulse period would
+ * alias.
+ *
+ * Per scenario it reports receive (board mic to phone speaker) and send (phone mic to board
+ * speaker) latency, control RTT, wire throughput, concealment/underruns and CPU per stream (the
+ * phone-side transport, playout and capture threads only; simulator threads are the "ESP32s").
+ * The udp-* scenarios run the audio streams as {@link AudioPacket} datagrams instead of TCP,
+ * with the same link profiles, and also report the packets lost for good and the ones rebuilt
+ * by parity FEC on the board-to-phone stream.
+ *
+ * The reboot scenario drops every board connection mid-run, as an ESP32 reboot does, and fails
+ * (exit status 1) unless all three channels come back, each reporting an outage under
+ * {@link #REBOOT_MAX_OUTAGE_MS}, and both directions are heard again through the playout and
+ * capture threads, and so the AudioTrack and AudioRecord, the stream started with.
+ *
+ * Usage: StreamingBenchmark [--seconds N] [--scenario NAME] [--streams K]
+ *                           [--loss PCT [--burst WRITES] [--jitter MS] [--fec N] [--fec-depth D]]
+ * With --loss only a TCP, a UDP and a UDP+FEC scenario over that link are run.
+ */
+public class StreamingBenchmark {
+
+    // Same as StreamingService
+    private static final int SAMPLE_RATE = 16000;
+    private static final int PLAYOUT_FRAME_SAMPLES = SAMPLE_RATE / 100;
+    private static final int JITTER_MIN_FRAMES = 3;
+    private static final int JITTER_MAX_FRAMES = 30;
+    private static final int JITTER_CAPACITY_FRAMES = 40;
+    private static final int RECEIVE_RING_BYTES = 64 * 1024;
+    private static final int RECEIVE_READ_BUFFER_BYTES = 8 * 1024;
+    private static final int SEND_FRAME_SAMPLES = SAMPLE_RATE / 100;
+    private static final int SEND_QUEUE_BYTES = 16 * 1024;
+    private static final int CONTROL_QUEUE_BYTES = 4 * 1024;
+    private static final int SMALL_READ_BUFFER_BYTES = 256;
+    private static final int MIC_PRIME_FRAMES = 2;
+    private static final int MIC_MAX_QUEUED_FRAMES = 6;
+    private static final int SEND_MAX_LAG_FRAMES = 10;
+    private static final int CODEC_NEGOTIATION_TIMEOUT_MS = 300;
+    private static final long CONTROL_MIN_INTERVAL_MS = 40;
+    private static final int CONTROL_MAX_BATCH_BYTES = 256;
+    private static final long CONTROL_KEEPALIVE_MS = 1000;
+    private static final int UDP_REORDER_PACKETS = 3;
+
+    // Simulated phone audio devices
+    private static final int TRACK_BUFFER_SAMPLES = 640;   // ~40 ms AudioTrack buffer
+    private static final int RECORD_CHUNK_BYTES = 640;     // 20 ms AudioRecord reads
+
+    private static final int PULSE_PERIOD_MS = 500;
+    private static final int PULSE_BURST_MS = 40;
+    private static final int PULSE_AMPLITUDE = 12000;
+    private static final long WARMUP_MS = 2000;
+    private static final long CONTROL_COMMAND_INTERVAL_MS = 100;
+    private static final String[] CHANNELS = { "receive", "send", "control" };
+    private static final long REBOOT_MAX_OUTAGE_MS = 1000;
+    private static final long REBOOT_GIVE_UP_MS = 5000;
+    private static final long REBOOT_LISTEN_MS = 3000;   // Long enough for several bursts each way
+
+    private static final class Scenario {
+        final String name;
+        final int streams;
+        final int codec;
+        final boolean legacyFirmware;
+        final boolean udp;
+        final int fecGroup;
+        final int fecDepth;
+        final Esp32Simulator.LinkProfile link;
+        Scenario(String name, int streams, int codec, boolean legacyFirmware, boolean udp, Esp32Simulator.LinkProfile link) {
+            this(name, streams, codec, legacyFirmware, udp, 0, 1, link);
+        }
+        Scenario(String name, int streams, int codec, boolean legacyFirmware, boolean udp, int fecGroup, int fecDepth, Esp32Simulator.LinkProfile link) {
+            this.name = name;
+            this.streams = streams;
+            this.codec = codec;
+            this.legacyFirmware = legacyFirmware;
+            this.udp = udp;
+            this.fecGroup = fecGroup;
+            this.fecDepth = fecDepth;
+            this.link = link;
+        }
+    }
+
+    /** Square-wave bursts with remembered emission times. */
+    static final class PulseTrain implements Esp32Simulator.MicSignal {
+        private final long periodSamples = (long) SAMPLE_RATE * PULSE_PERIOD_MS / 1000;
+        private final long burstSamples = (long) SAMPLE_RATE * PULSE_BURST_MS / 1000;
+        private final long nanosPerSample = 1_000_000_000L / SAMPLE_RATE;
+        private final long[] emissions = new long[16];
+        private int emitted = 0;
+        private long sampleIndex = 0;
+
+        @Override public synchronized void fill(short[] pcm, int samples, long firstSampleNanos) {
+            for (int i = 0; i < samples; i++) {
+                long pos = (sampleIndex + i) % periodSamples;
+                if (pos == 0) emissions[emitted++ % emissions.length] = firstSampleNanos + i * nanosPerSample;
+                pcm[i] = pos >= burstSamples ? 0 : (short) ((pos / 8) % 2 == 0 ? PULSE_AMPLITUDE : -PULSE_AMPLITUDE); // 1 kHz
+            }
+            sampleIndex += samples;
+        }
+
+        /** Latest burst that started at or before {@code nanos}, or -1. */
+        synchronized long emittedBefore(long nanos) {
+            long best = -1;
+            for (int i = Math.max(0, emitted - emissions.length); i < emitted; i++) {
+                long e = emissions[i % emissions.length];
+                if (e <= nanos && e > best) best = e;
+            }
+            return best;
+        }
+    }
+
+    /** Finds burst onsets in played audio and records their latency against the source. */
+    static final class PulseDetector implements Esp32Simulator.SpeakerTap {
+        private final PulseTrain source;
+        private final LatencyHistogram latency;
+        private final long nanosPerSample = 1_000_000_000L / SAMPLE_RATE;
+        private final long periodNanos = PULSE_PERIOD_MS * 1_000_000L;
+        private final int minQuietSamples = SAMPLE_RATE * PULSE_PERIOD_MS / 2000;
+        private int quietSamples = 0;
+        private volatile long unmatched = 0;
+
+        PulseDetector(PulseTrain source, LatencyHistogram latency) {
+            this.source = source;
+            this.latency = latency;
+        }
+
+        @Override public void onPlayed(short[] pcm, int samples, long firstSampleNanos) {
+            for (int i = 0; i < samples; i++) {
+                if (Math.abs(pcm[i]) < PULSE_AMPLITUDE / 2) { quietSamples++; continue; }
+                if (quietSamples >= minQuietSamples) {
+                    long heard = firstSampleNanos + i * nanosPerSample;
+                    long sent = source.emittedBefore(heard);
+                    if (sent > 0 && heard - sent < periodNanos) latency.record(heard - sent);
+                    else unmatched++;
+                }
+                quietSamples = 0;
+            }
+        }
+    }
+
+    /** AudioTrack stand-in: blocking writes into a buffer drained in real time. */
+    private static final class SimulatedTrack implements AudioOutput {
+        private final Esp32Simulator.DmaBuffer device = new Esp32Simulator.DmaBuffer(SAMPLE_RATE, TRACK_BUFFER_SAMPLES);
+        private final PulseDetector detector;
+        private short[] pcm = new short[PLAYOUT_FRAME_SAMPLES];
+        SimulatedTrack(PulseDetector detector) { this.detector = detector; }
+
+        @Override public int write(byte[] data, int off, int len) {
+            int samples = len / 2;
+            if (pcm.length < samples) pcm = new short[samples];
+            for (int i = 0; i < samples; i++) pcm[i] = (short) ((data[off + 2 * i] & 0xFF) | (data[off + 2 * i + 1] << 8));
+            long heard = device.write(samples);
+            if (heard < 0) return ERROR_STOPPED;
+            detector.onPlayed(pcm, samples, heard);
+            return len;
+        }
+    }
+
+    /** AudioRecord stand-in: blocking reads that return as fast as a real mic captures. */
+    private static final class SimulatedRecord implements AudioInput {
+        private final PulseTrain signal;
+        private final long nanosPerSample = 1_000_000_000L / SAMPLE_RATE;
+        private short[] pcm = new short[RECORD_CHUNK_BYTES / 2];
+        private long capturedUntil = -1;
+        SimulatedRecord(PulseTrain signal) { this.signal = signal; }
+
+        @Override public int read(byte[] data, int off, int len) {
+            int samples = len / 2;
+            if (pcm.length < samples) pcm = new short[samples];
+            if (capturedUntil < 0) capturedUntil = System.nanoTime();
+            long start = capturedUntil;
+            capturedUntil += samples * nanosPerSample;
+            if (!Esp32Simulator.parkUntil(capturedUntil)) return ERROR_STOPPED;
+            signal.fill(pcm, samples, start);
+            for (int i = 0; i < samples; i++) { data[off + 2 * i] = (byte) pcm[i]; data[off + 2 * i + 1] = (byte) (pcm[i] >> 8); }
+            return samples * 2;
+        }
+    }
+
+    /** One phone talking to one simulated pair of boards. */
+    private static final class Stream {
+        final String name;
+        final Esp32Simulator simulator;
+        final NioTransport transport;
+        final MetricsRegistry.Counter bytesIn = new MetricsRegistry.Counter();
+        final MetricsRegistry.Counter bytesOut = new MetricsRegistry.Counter();
+        final NioTransport.IoObserver receiveMetrics = new NioTransport.IoObserver() {
+            @Override public void onRead(int bytes, long nanos) { bytesIn.add(bytes); }
+            @Override public void onWrite(int bytes, long nanos) {}
+        };
+        final NioTransport.IoObserver sendMetrics = new NioTransport.IoObserver() {
+            @Override public void onRead(int bytes, long nanos) {}
+            @Override public void onWrite(int bytes, long nanos) { bytesOut.add(bytes); }
+        };
+        final LatencyHistogram receiveLatency = new LatencyHistogram();
+        final LatencyHistogram sendLatency = new LatencyHistogram();
+        final LatencyHistogram controlRtt = new LatencyHistogram();
+        final ByteRingBuffer receiveRing = new ByteRingBuffer(RECEIVE_RING_BYTES, true); // Stamped on the transport thread, as in the service
+        final ByteRingBuffer sendRing = new ByteRingBuffer(RECORD_CHUNK_BYTES * 16);
+        final JitterBuffer jitterBuffer = new JitterBuffer(PLAYOUT_FRAME_SAMPLES * 2, 2, 10, JITTER_MIN_FRAMES, JITTER_MAX_FRAMES, JITTER_CAPACITY_FRAMES);
+        final AudioMixer mixer = new AudioMixer(SEND_FRAME_SAMPLES, 600f, 0.25f);
+        final VoiceActivityDetector vad = new VoiceActivityDetector(SAMPLE_RATE, SEND_FRAME_SAMPLES);
+        final ControlCommandPipeline pipeline;
+        final int codec;
+        final boolean udp;
+        final int fecGroup;
+        final int fecDepth;
+        final PacketReceivePath packetPath = new PacketReceivePath(receiveRing, UDP_REORDER_PACKETS);
+        final List<Thread> phoneThreads = new ArrayList<>();
+        volatile boolean running = true;
+        volatile int reconnects = 0;
+        final Map<String, Long> outageMillis = new ConcurrentHashMap<>(); // Latest reconnect per channel
+        private int angle = 0;
+
+        Stream(int index, Scenario scenario) throws IOException {
+            this.name = "bench-" + index;
+            this.codec = scenario.codec;
+            this.udp = scenario.udp;
+            this.fecGroup = scenario.fecGroup;
+            this.fecDepth = scenario.fecDepth;
+            PulseTrain boardPulses = new PulseTrain();
+            PulseTrain phonePulses = new PulseTrain();
+            Esp32Simulator.Config config = new Esp32Simulator.Config();
+            config.micPort = config.speakerPort = config.controlPort = 0;
+            config.framedFirmware = !scenario.legacyFirmware;
+            config.binaryControl = !scenario.legacyFirmware;
+            config.uplink = config.downlink = scenario.link;
+            config.seed = index + 1;
+            config.micSignal = boardPulses;
+            config.speakerTap = new PulseDetector(phonePulses, sendLatency);
+            simulator = new Esp32Simulator(config);
+            transport = new NioTransport(name + "-nio");
+            pipeline = new ControlCommandPipeline(transport, CONTROL_MIN_INTERVAL_MS, CONTROL_MAX_BATCH_BYTES);
+
+            PlayoutLoop playout = new PlayoutLoop(jitterBuffer, new DriftCompensator(jitterBuffer), receiveRing, new SimulatedTrack(new PulseDetector(boardPulses, receiveLatency)), null, () -> running);
+            CaptureLoop capture = new CaptureLoop(new SimulatedRecord(phonePulses), sendRing, RECORD_CHUNK_BYTES, null, () -> running);
+            phoneThreads.add(new Thread(playout, name + "-playout"));
+            phoneThreads.add(new Thread(capture, name + "-capture"));
+        }
+
+        void start() {
+            simulator.start();
+            transport.start();
+            InetAddress host = InetAddress.getLoopbackAddress();
+            ConnectionSupervisor.Listener listener = new ConnectionSupervisor.Listener() {
+                @Override public void onConnecting(String channel, int attempt) {}
+                @Override public void onConnected(String channel, int reconnects, long outageMillis) {
+                    if (outageMillis < 0) return;
+                    Stream.this.reconnects++;
+                    Stream.this.outageMillis.put(channel, outageMillis);
+                }
+                @Override public void onSessionEnded(String channel, Throwable error, long nextRetryMillis) {}
+            };
+            if (udp) {
+                new ConnectionSupervisor("receive", session -> transport.openDatagram(new InetSocketAddress(host, simulator.getMicPort()), AudioPacket.MAX_PARITY_BYTES,
+                        new PacketReceiveHandler(session)).setObserver(receiveMetrics), listener, transport, () -> running, 100, 800).start();
+                new ConnectionSupervisor("send", session -> transport.openDatagram(new InetSocketAddress(host, simulator.getSpeakerPort()), AudioPacket.MAX_PACKET_BYTES,
+                        new SendHandler(session)).setObserver(sendMetrics), listener, transport, () -> running, 100, 800).start();
+            } else {
+                new ConnectionSupervisor("receive", session -> transport.connect(new InetSocketAddress(host, simulator.getMicPort()), 1000,
+                        RECEIVE_READ_BUFFER_BYTES, SMALL_READ_BUFFER_BYTES, new ReceiveHandler(session)).setObserver(receiveMetrics), listener, transport, () -> running, 100, 800).start();
+                new ConnectionSupervisor("send", session -> transport.connect(new InetSocketAddress(host, simulator.getSpeakerPort()), 1000,
+                        SMALL_READ_BUFFER_BYTES, SEND_QUEUE_BYTES, new SendHandler(session)).setObserver(sendMetrics), listener, transport, () -> running, 100, 800).start();
+            }
+            new ConnectionSupervisor("control", session -> transport.connect(new InetSocketAddress(host, simulator.getControlPort()), 1000,
+                    SMALL_READ_BUFFER_BYTES, CONTROL_QUEUE_BYTES, new ControlHandler(session)), listener, transport, () -> running, 100, 800).start();
+            for (Thread t : phoneThreads) t.start();
+            transport.schedule(this::moveServo, CONTROL_COMMAND_INTERVAL_MS);
+        }
+
+        private void moveServo() {
+            if (!running) return;
+            angle = (angle + 7) % 181;
+            pipeline.submit("S" + (1 + angle % 2) + "=" + angle, System.nanoTime());
+            transport.schedule(this::moveServo, CONTROL_COMMAND_INTERVAL_MS);
+        }
+
+        void stop() {
+            running = false;
+            transport.close();
+            simulator.close();
+            for (Thread t : phoneThreads) { t.interrupt(); try { t.join(1000); } catch (InterruptedException e) { Thread.currentThread().interrupt(); } }
+        }
+
+        private final class ReceiveHandler extends NegotiatingHandler {
+            private final ReceivePath path = new ReceivePath(receiveRing, new Pcm32To16Converter(16, 1.0f, true), RECEIVE_READ_BUFFER_BYTES);
+            ReceiveHandler(ConnectionSupervisor.Session session) { super(transport, session, codec, CODEC_NEGOTIATION_TIMEOUT_MS); }
+            @Override protected void onLinked(NioTransport.Connection connection, int codec) { path.setCodec(codec); }
+            @Override protected void onStreamData(NioTransport.Connection connection, ByteBuffer data) { path.onData(data); }
+            @Override public void onClosed(NioTransport.Connection connection, Throwable error) { session.closed(error); }
+        }
+
+        // Hello every HELLO_INTERVAL_MS keeps the mic subscription alive, as in StreamingService
+        private final class PacketReceiveHandler implements NioTransport.Handler {
+            private final ConnectionSupervisor.Session session;
+            private final byte[] hello = AudioPacket.subscribeHello(codec, fecGroup, fecDepth);
+            private boolean linked = false;
+            PacketReceiveHandler(ConnectionSupervisor.Session session) { this.session = session; }
+
+            @Override public void onConnected(NioTransport.Connection connection) { subscribe(connection); }
+
+            private void subscribe(NioTransport.Connection connection) {
+                if (!connection.isOpen() || !running) return;
+                connection.send(hello, 0, hello.length);
+                transport.schedule(() -> subscribe(connection), AudioPacket.HELLO_INTERVAL_MS);
+            }
+
+            @Override public void onData(NioTransport.Connection connection, ByteBuffer data) {
+                if (!linked) { linked = true; session.connected(); }
+                packetPath.onPacket(data);
+            }
+
+            @Override public void onClosed(NioTransport.Connection connection, Throwable error) { session.closed(error); }
+        }
+
+        private final class SendHandler extends NegotiatingHandler {
+            private AudioMixer.Slot micSlot = null;
+            SendHandler(ConnectionSupervisor.Session session) { super(transport, session, codec, CODEC_NEGOTIATION_TIMEOUT_MS); }
+            @Override public void onConnected(NioTransport.Connection connection) {
+                if (!connection.isDatagram()) { super.onConnected(connection); return; }
+                linked = true;
+                session.connected();
+                onLinked(connection, codec);
+            }
+            @Override protected void onLinked(NioTransport.Connection connection, int codec) {
+                OutputStream out = connection.asOutputStream();
+                if (connection.isDatagram()) out = new AudioPacketOutputStream(out, codec, SEND_FRAME_SAMPLES);
+                else if (codec != WireCodec.CODEC_LEGACY) out = new FramedAudioOutputStream(out, codec, SEND_FRAME_SAMPLES);
+                sendRing.clear();
+                micSlot = mixer.addSource(new RingBufferSource(sendRing, SEND_FRAME_SAMPLES, MIC_PRIME_FRAMES, MIC_MAX_QUEUED_FRAMES), 1.0f, true, false);
+                vad.reset();
+                new SendPacer(transport, connection, out, mixer, SAMPLE_RATE, SEND_MAX_LAG_FRAMES, vad, () -> running).start();
+            }
+            @Override protected void onStreamData(NioTransport.Connection connection, ByteBuffer data) { data.position(data.limit()); }
+            @Override public void onClosed(NioTransport.Connection connection, Throwable error) {
+                mixer.removeSource(micSlot);
+                session.closed(error);
+            }
+        }
+
+        private final class ControlHandler implements NioTransport.Handler {
+            private final ConnectionSupervisor.Session session;
+            private final byte[] reply = new byte[32];
+            private int replyFill = 0;
+            private boolean negotiating = false;
+            private ControlProtocol protocol = null;
+            ControlHandler(ConnectionSupervisor.Session session) { this.session = session; }
+
+            @Override public void onConnected(NioTransport.Connection connection) {
+                session.connected();
+                negotiating = true;
+                byte[] hello = (ControlProtocol.HELLO_LINE + "\n").getBytes(StandardCharsets.US_ASCII);
+                connection.send(hello, 0, hello.length);
+                transport.schedule(() -> { if (negotiating && connection.isOpen()) finishNegotiation(connection, false); }, CODEC_NEGOTIATION_TIMEOUT_MS);
+            }
+
+            private void finishNegotiation(NioTransport.Connection connection, boolean binary) {
+                negotiating = false;
+                ControlCommandPipeline.Sink sink = connection::send;
+                if (binary) {
+                    protocol = new ControlProtocol(connection::send, transport, new ControlProtocol.Listener() {
+                        @Override public void onRejected(int opcode, int status) {}
+                        @Override public void onLinkDead() { connection.close(); }
+                    }, CONTROL_KEEPALIVE_MS);
+                    protocol.setRttHistogram(controlRtt);
+                    protocol.start();
+                    sink = protocol;
+                }
+                pipeline.setSink(sink);
+            }
+
+            @Override public void onData(NioTransport.Connection connection, ByteBuffer data) {
+                while (negotiating && data.hasRemaining()) {
+                    byte b = data.get();
+                    if (b == '\n' || replyFill == reply.length) finishNegotiation(connection, new String(reply, 0, replyFill, StandardCharsets.US_ASCII).trim().equals(ControlProtocol.HELLO_LINE));
+                    else reply[replyFill++] = b;
+                }
+                if (protocol != null) protocol.onData(data);
+                else data.position(data.limit());
+            }
+
+            @Override public void onClosed(NioTransport.Connection connection, Throwable error) {
+                if (protocol != null) protocol.close();
+                pipeline.setSink(null);
+                session.closed(error);
+            }
+        }
+    }
+
+    // --- Measurement ---
+
+    private static final class Totals {
+        final long[] receive = new long[LatencyHistogram.BUCKETS];
+        final long[] send = new long[LatencyHistogram.BUCKETS];
+        final long[] rtt = new long[LatencyHistogram.BUCKETS];
+        long bytesIn;
+        long bytesOut;
+        long concealed;
+        long packetsLost;
+        long packetsRecovered;
+        long boardUnderruns;
+        long cpuNanos;
+        int reconnects;
+
+        void add(Stream s, long[] scratch) {
+            addCounts(s.receiveLatency, receive, scratch);
+            addCounts(s.sendLatency, send, scratch);
+            addCounts(s.controlRtt, rtt, scratch);
+            bytesIn += s.bytesIn.get();
+            bytesOut += s.bytesOut.get();
+            concealed += s.jitterBuffer.getFramesConcealed();
+            packetsLost += s.packetPath.getPacketsLost() + s.packetPath.getPacketsLate() + s.simulator.getLateDatagrams();
+            packetsRecovered += s.packetPath.getPacketsRecovered();
+            boardUnderruns += s.simulator.getSpeakerUnderruns();
+            reconnects += s.reconnects;
+        }
+
+        void subtract(Totals base) {
+            for (int i = 0; i < LatencyHistogram.BUCKETS; i++) { receive[i] -= base.receive[i]; send[i] -= base.send[i]; rtt[i] -= base.rtt[i]; }
+            bytesIn -= base.bytesIn;
+            bytesOut -= base.bytesOut;
+            concealed -= base.concealed;
+            packetsLost -= base.packetsLost;
+            packetsRecovered -= base.packetsRecovered;
+            boardUnderruns -= base.boardUnderruns;
+            cpuNanos -= base.cpuNanos;
+            reconnects -= base.reconnects;
+        }
+
+        private static void addCounts(LatencyHistogram h, long[] dst, long[] scratch) {
+            h.copyCounts(scratch);
+            for (int i = 0; i < LatencyHistogram.BUCKETS; i++) dst[i] += scratch[i];
+        }
+    }
+
+    private static Totals sample(List<Stream> streams, ThreadMXBean cpu) {
+        Totals t = new Totals();
+        long[] scratch = new long[LatencyHistogram.BUCKETS];
+        for (Stream s : streams) t.add(s, scratch);
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            for (Stream s : streams) {
+                if (thread.getName().startsWith(s.name + "-")) {
+                    long ns = cpu.getThreadCpuTime(thread.getId());
+                    if (ns > 0) t.cpuNanos += ns;
+                }
+            }
+        }
+        return t;
+    }
+
+    private static String latency(long[] counts) {
+        long[] zero = new long[LatencyHistogram.BUCKETS];
+        long n = 0;
+        for (long c : counts) n += c;
+        if (n == 0) return String.format(Locale.US, "%-24s", "-");
+        return String.format(Locale.US, "%5.1f/%5.1f/%5.1f n=%-4d", LatencyHistogram.percentile(counts, zero, 50) / 1e6,
+                LatencyHistogram.percentile(counts, zero, 99) / 1e6, LatencyHistogram.percentile(counts, zero, 100) / 1e6, n);
+    }
+
+    private static void run(Scenario scenario, long seconds, ThreadMXBean cpu) throws Exception {
+        List<Stream> streams = new ArrayList<>();
+        for (int i = 0; i < scenario.streams; i++) streams.add(new Stream(i, scenario));
+        try {
+            for (Stream s : streams) s.start();
+            Thread.sleep(WARMUP_MS);
+            Totals base = sample(streams, cpu);
+            long start = System.nanoTime();
+            Thread.sleep(seconds * 1000);
+            double elapsed = (System.nanoTime() - start) / 1e9;
+            Totals t = sample(streams, cpu);
+            t.subtract(base);
+            System.out.println(String.format(Locale.US, "%-14s %2d %-9s | %s | %s | %s | %6.1f %6.1f | %5d %5d %5d %5d %3d | %5.2f",
+                    scenario.name, scenario.streams, scenario.legacyFirmware ? "legacy" : WireCodec.name(scenario.codec),
+                    latency(t.receive), latency(t.send), latency(t.rtt),
+                    t.bytesIn / elapsed / 1024 / scenario.streams, t.bytesOut / elapsed / 1024 / scenario.streams,
+                    t.concealed, t.packetsLost, t.packetsRecovered, t.boardUnderruns, t.reconnects, 100.0 * t.cpuNanos / 1e9 / elapsed / scenario.streams));
+        } finally {
+            for (Stream s : streams) s.stop();
+        }
+    }
+
+    // --- Reboot ---
+
+    private static long samples(LatencyHistogram h) {
+        long[] counts = new long[LatencyHistogram.BUCKETS];
+        h.copyCounts(counts);
+        long n = 0;
+        for (long c : counts) n += c;
+        return n;
+    }
+
+    /** Drops every board connection mid-run; returns false unless the phone recovered without rebuilding its audio. */
+    private static boolean reboot(long seconds) throws Exception {
+        Stream s = new Stream(0, new Scenario("reboot", 1, WireCodec.CODEC_IMA_ADPCM, false, false, Esp32Simulator.LinkProfile.CLEAN));
+        try {
+            s.start();
+            Thread.sleep(WARMUP_MS + seconds * 1000 / 2);
+            s.simulator.dropClients();
+            long dropped = System.nanoTime();
+            while (s.outageMillis.size() < CHANNELS.length && System.nanoTime() - dropped < REBOOT_GIVE_UP_MS * 1_000_000L) Thread.sleep(5);
+            double backMs = (System.nanoTime() - dropped) / 1e6;
+            long receiveBefore = samples(s.receiveLatency), sendBefore = samples(s.sendLatency);
+            Thread.sleep(REBOOT_LISTEN_MS);
+            long receiveHeard = samples(s.receiveLatency) - receiveBefore, sendHeard = samples(s.sendLatency) - sendBefore;
+            boolean threadsKept = true;
+            for (Thread t : s.phoneThreads) threadsKept &= t.isAlive();
+
+            boolean ok = true;
+            System.out.println("Reboot: every board connection dropped " + (WARMUP_MS / 1000 + seconds / 2) + " s into the run");
+            for (String channel : CHANNELS) {
+                Long outage = s.outageMillis.get(channel);
+                boolean pass = outage != null && outage < REBOOT_MAX_OUTAGE_MS;
+                ok &= pass;
+                System.out.println(String.format(Locale.US, "  %-8s reconnected after %s (bound %d ms): %s",
+                        channel, outage == null ? "-" : outage + " ms", REBOOT_MAX_OUTAGE_MS, pass ? "OK" : "FAIL"));
+            }
+            boolean audio = threadsKept && receiveHeard > 0 && sendHeard > 0;
+            ok &= audio;
+            System.out.println(String.format(Locale.US, "  all channels back %.0f ms after the drop; in the next %d ms %d bursts heard on the phone and %d on the board",
+                    backMs, REBOOT_LISTEN_MS, receiveHeard, sendHeard));
+            System.out.println("  playout and capture threads " + (threadsKept ? "kept" : "gone") + ", audio devices not rebuilt: " + (audio ? "OK" : "FAIL"));
+            return ok;
+        } finally {
+            s.stop();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        long seconds = 10;
+        String only = null;
+        int scaleStreams = 8;
+        double loss = -1;
+        double burst = 1;
+        int jitter = 0;
+        int fec = 2;
+        int fecDepth = 2;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--seconds": seconds = Long.parseLong(args[++i]); break;
+                case "--scenario": only = args[++i]; break;
+                case "--streams": scaleStreams = Integer.parseInt(args[++i]); break;
+                case "--loss": loss = Double.parseDouble(args[++i]); break;
+                case "--burst": burst = Double.parseDouble(args[++i]); break;
+                case "--jitter": jitter = Integer.parseInt(args[++i]); break;
+                case "--fec": fec = Integer.parseInt(args[++i]); break;
+                case "--fec-depth": fecDepth = Integer.parseInt(args[++i]); break;
+                default: throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+        Esp32Simulator.LinkProfile clean = Esp32Simulator.LinkProfile.CLEAN;
+        Esp32Simulator.LinkProfile wifiJitter = new Esp32Simulator.LinkProfile(0.2, 30, 0, 2, 200);
+        Esp32Simulator.LinkProfile lossy = new Esp32Simulator.LinkProfile(2, 20, 0, 2, 200);
+        Esp32Simulator.LinkProfile bursty = new Esp32Simulator.LinkProfile(3, 10, 0, 2, 200, 2);
+        Esp32Simulator.LinkProfile custom = new Esp32Simulator.LinkProfile(Math.max(0, loss), jitter, 0, 2, 200, burst);
+        List<Scenario> scenarios = loss >= 0 ? Arrays.asList(
+                new Scenario("tcp-custom", 1, WireCodec.CODEC_IMA_ADPCM, false, false, custom),
+                new Scenario("udp-custom", 1, WireCodec.CODEC_IMA_ADPCM, false, true, custom),
+                new Scenario("udp-custom-fec", 1, WireCodec.CODEC_IMA_ADPCM, false, true, fec, fecDepth, custom)) : Arrays.asList(
+                new Scenario("clean", 1, WireCodec.CODEC_IMA_ADPCM, false, false, clean),
+                new Scenario("clean-pcm16", 1, WireCodec.CODEC_PCM16, false, false, clean),
+                new Scenario("legacy", 1, WireCodec.CODEC_LEGACY, true, false, clean),
+                new Scenario("wifi-jitter", 1, WireCodec.CODEC_IMA_ADPCM, false, false, wifiJitter),
+                new Scenario("lossy", 1, WireCodec.CODEC_IMA_ADPCM, false, false, lossy),
+                new Scenario("narrow-legacy", 1, WireCodec.CODEC_LEGACY, true, false, new Esp32Simulator.LinkProfile(0, 0, 48_000, 2, 200)),
+                new Scenario("udp-clean", 1, WireCodec.CODEC_IMA_ADPCM, false, true, clean),
+                new Scenario("udp-jitter", 1, WireCodec.CODEC_IMA_ADPCM, false, true, wifiJitter),
+                new Scenario("udp-lossy", 1, WireCodec.CODEC_IMA_ADPCM, false, true, lossy),
+                new Scenario("udp-lossy-fec", 1, WireCodec.CODEC_IMA_ADPCM, false, true, 2, 2, lossy),
+                new Scenario("udp-bursty", 1, WireCodec.CODEC_IMA_ADPCM, false, true, bursty),
+                new Scenario("udp-bursty-fec4", 1, WireCodec.CODEC_IMA_ADPCM, false, true, 4, 1, bursty),
+                new Scenario("udp-bursty-fec", 1, WireCodec.CODEC_IMA_ADPCM, false, true, 2, 2, bursty),
+                new Scenario("scale", scaleStreams, WireCodec.CODEC_IMA_ADPCM, false, false, clean));
+
+        ThreadMXBean cpu = ManagementFactory.getThreadMXBean();
+        if (cpu.isThreadCpuTimeSupported()) cpu.setThreadCpuTimeEnabled(true);
+        System.out.println("Glass-to-glass latency in ms (p50/p99/max), throughput in KiB/s per stream, CPU in % of one core per stream");
+        System.out.println(String.format(Locale.US, "%-14s %2s %-9s | %-24s | %-24s | %-24s | %6s %6s | %5s %5s %5s %5s %3s | %5s",
+                "scenario", "n", "codec", "receive", "send", "control rtt", "rx", "tx", "conc", "lost", "fec", "undr", "rec", "cpu%"));
+        for (Scenario scenario : scenarios) {
+            if (only == null || only.equals(scenario.name)) run(scenario, seconds, cpu);
+        }
+        if (loss < 0 && (only == null || only.equals("reboot"))) {
+            System.out.println();
+            if (!reboot(seconds)) System.exit(1);
+        }
+    }
+}
@@ -24,19 +24,21 @@ import android.util.Log;
 import androidx.annotation.Nullable;
 import androidx.core.app.ActivityCompat;
 import androidx.core.app.NotificationCompat;
-import androidx.localbroadcastmanager.content.LocalBroadcastManager;
 
+import java.io.File;
+import java.io.FileDescriptor;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.net.InetSocketAddress;
-import java.net.Socket;
 import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
 
 // Corrected Class Name
 public class StreamingService extends Service {
@@ -49,30 +51,156 @@ public class StreamingService extends Service {
 
     private static final int SAMPLE_RATE_RECEIVE = 16000;
     private static final int CHANNEL_CONFIG_RECEIVE = AudioFormat.CHANNEL_OUT_MONO;
-    private static final int AUDIO_FORMAT_RECEIVE = AudioFormat.ENCODING_PCM_32BIT;
+    private static final int AUDIO_FORMAT_RECEIVE = AudioFormat.ENCODING_PCM_16BIT;
+    private static final int BYTES_PER_SAMPLE_RECEIVE = 2;
+    private static final int WIRE_BYTES_PER_SAMPLE_RECEIVE = 4; // ESP1mic streams raw 32-bit I2S words
+    private static final int RECEIVE_SAMPLE_SHIFT = 16;         // Top 16 bits = original level
+    private static final float RECEIVE_GAIN = 1.0f;
+
+    // Jitter buffer between the socket and AudioTrack (depths in playout frames)
+    private static final int PLAYOUT_FRAME_MS = 10;
+    private static final int JITTER_MIN_FRAMES = 3;
+    private static final int JITTER_MAX_FRAMES = 30;
+    private static final int JITTER_CAPACITY_FRAMES = 40;
+
+    // Lock-free rings decoupling network I/O from audio I/O
+    private static final int RECEIVE_RING_BYTES = 64 * 1024; // Per mic room
 
     private static final int SAMPLE_RATE_SEND = 16000;
     private static final int CHANNEL_CONFIG_SEND = AudioFormat.CHANNEL_IN_MONO;
     private static final int AUDIO_FORMAT_SEND = AudioFormat.ENCODING_PCM_16BIT;
 
+    // Wire codec negotiated with the ESP32 firmware on connect (legacy raw PCM if it does not answer)
+    private static final int RECEIVE_CODEC = WireCodec.CODEC_IMA_ADPCM;
+    private static final int SEND_CODEC = WireCodec.CODEC_IMA_ADPCM;
+    private static final int SEND_FRAME_SAMPLES = SAMPLE_RATE_SEND / 100; // 10 ms
+    private static final int CODEC_NEGOTIATION_TIMEOUT_MS = 300;
+    private static final int UDP_REORDER_PACKETS = 3; // Held ahead of a gap before it counts as lost (~48 ms of mic packets)
+    private static final int UDP_FEC_GROUP_PACKETS = 2; // Default: one parity packet per 2 mic packets (50% overhead)...
+    private static final int UDP_FEC_DEPTH = 2;         // ...in 2 interleaved groups: repairs 2-packet bursts within the 3-packet reorder window
+
+    // Send mixer: mic talk-back plus melodies, paced out in SEND_FRAME_SAMPLES frames
+    private static final float MIC_MIX_GAIN = 1.0f;
+    private static final float MELODY_MIX_GAIN = 1.0f;
+    private static final float DUCK_THRESHOLD_RMS = 600f; // Mic level that counts as talking
+    private static final float DUCK_GAIN = 0.25f;         // Melody level while the parent talks
+    private static final int MIC_PRIME_FRAMES = 2;
+    private static final int MIC_MAX_QUEUED_FRAMES = 6;
+    private static final int SEND_MAX_LAG_FRAMES = 10;    // Further behind than this, skip ahead
+
+    // Silence suppression on the send path: frames the VAD calls inactive are not sent
+    private static final boolean SEND_VAD_DEFAULT = true;
+    private static final float VAD_ENERGY_MARGIN_DB = VoiceActivityDetector.DEFAULT_ENERGY_MARGIN_DB;   // Over the noise floor before the spectrum is checked
+    private static final float VAD_FLATNESS_THRESHOLD = VoiceActivityDetector.DEFAULT_FLATNESS_THRESHOLD; // Flatter than this is noise
+    private static final float VAD_LOUD_MARGIN_DB = VoiceActivityDetector.DEFAULT_LOUD_MARGIN_DB;       // Over the floor = active even if noise-like
+    private static final int VAD_HANGOVER_FRAMES = VoiceActivityDetector.DEFAULT_HANGOVER_FRAMES;       // 300 ms after the last active frame
+
+    // Cry/noise alerts on the incoming stream: every played frame is analysed on its own thread
+    private static final boolean SOUND_ALERTS_DEFAULT = true;
+    private static final boolean LISTEN_ON_ALERT_DEFAULT = false; // Keep the AudioTrack paused until an alert
+    private static final int LISTEN_OPEN_LEVEL = SoundEventDetector.LEVEL_NOISE; // Alert level that unpauses it
+    private static final int ANALYSIS_RING_FRAMES = 50; // 0.5 s of slack before analysis drops frames
+    private static final int ALERT_ESCALATE_SECONDS = 30;  // Crying this long alerts again
+    private static final int ALERT_COOLDOWN_SECONDS = 10;  // Quiet this long ends the alert (and pauses again)
+
+    // Recording of the played stream: 1 s IMA-ADPCM blocks (~8 KB/s, ~29 MB an hour), oldest segments deleted first
+    private static final boolean RECORDING_DEFAULT = false; // Opt-in: it keeps what the nursery mic hears on the phone
+    private static final String RECORDING_DIR = "recordings";
+    private static final int RECORDING_SEGMENT_SECONDS = 600;
+    private static final long RECORDING_MAX_BYTES = 512L * 1024 * 1024; // About two nights
+    private static final int RECORDING_RING_FRAMES = 200; // 2 s of slack for a stalled disk
+    private static final int RECORDING_CHUNK_FRAMES = 10;
+    private static final long RECORDING_DUMP_HOURS = 12;  // Loud events listed by dumpsys
+
+    // Relay: other phones connect to this one as to the mic board and get the same frames, so the board serves one client
+    private static final boolean RELAY_DEFAULT = false;
+    private static final int RELAY_PORT = ESP32_PORT_RECEIVE_FROM; // Listeners just enter this phone's address as the mic board
+    private static final int RELAY_MAX_LISTENERS = 8;
+    private static final int RELAY_QUEUE_BYTES = 8 * 1024; // Per listener: about 1 s of IMA-ADPCM; a slow listener loses frames beyond that
+
+    // Several mic boards ("Nursery=192.168.1.50, Twins=192.168.1.51"), mixed into the one AudioTrack. Each room costs
+    // its ring, jitter buffer and socket (~100 KB) and a share of the playout thread, but no thread of its own
+    private static final int MAX_MIC_ROOMS = 8;
+    private static final boolean AUTO_FOCUS_DEFAULT = true; // The loudest room is heard over the others
+    private static final float FOCUS_GAIN = RoomMixer.DEFAULT_FOCUS_GAIN;
+
+    // Echo cancellation, both ways: the phone's mic hears the phone playing the baby (on top of whatever the
+    // VOICE_COMMUNICATION source already removes, nothing on the MIC fallback), and the speaker board's room mic
+    // hears the parent's talk-back. ~180 KB and under 1 % of a core each
+    private static final boolean ECHO_CANCEL_DEFAULT = true;
+    private static final int ECHO_TAIL_MS = EchoCanceller.DEFAULT_TAIL_MILLIS; // Room reverberation the filter covers
+    private static final int TALKBACK_ECHO_MAX_DELAY_MS = 400; // Track buffer to mic buffer, within the phone
+    private static final int ROOM_ECHO_MAX_DELAY_MS = 1000;    // Two trips over Wi-Fi, the board's buffers and our jitter buffer
+    private static final int ECHO_REFERENCE_PRIME_MS = 20;
+    private static final int ECHO_REFERENCE_MAX_MS = 200;
+
+    private static final long MELODY_CACHE_MAX_BYTES = 4 * 1024 * 1024;
+
+    // Per-channel reconnect supervision; audio devices stay running while a link is down
+    private static final long RECONNECT_INITIAL_BACKOFF_MS = 100;
+    private static final long RECONNECT_MAX_BACKOFF_MS = 800;      // Keeps recovery after an ESP32 reboot under a second
+    private static final int RECONNECT_CONNECT_TIMEOUT_MS = 1000;  // Retries must not sit out the full first-connect timeout
+    private static final int RECEIVE_STALL_CHECK_MS = 500;
+    private static final int RECEIVE_STALL_TIMEOUT_MS = 2000;      // No audio for this long = dead link
+
+    // Per-connection direct buffers of the NIO transport; a full send queue drops whole frames
+    private static final int RECEIVE_READ_BUFFER_BYTES = 8 * 1024;
+    private static final int SEND_QUEUE_BYTES = 16 * 1024;
+    private static final int CONTROL_QUEUE_BYTES = 4 * 1024;
+    private static final int SMALL_READ_BUFFER_BYTES = 256;
+
+    // Servo/control commands: latest value per key, at most one batched write per interval
+    private static final long CONTROL_MIN_INTERVAL_MS = 40;
+    private static final int CONTROL_MAX_BATCH_BYTES = 256;
+    private static final long CONTROL_KEEPALIVE_MS = 1000; // Binary protocol only; text firmware cannot answer
+
+    // Hot-path metrics are sampled on the transport thread; read them with dumpsys or getLatestMetrics()
+    private static final long METRICS_INTERVAL_MS = 1000;
+
+    // Status updates reach the UI and notification coalesced to the latest state per channel
+    private static final int STATUS_MAX_DISPATCHES_PER_SECOND = 10;
+
     private static final String NOTIFICATION_CHANNEL_ID = "StreamingServiceChannel"; // Use unique ID
     private static final int NOTIFICATION_ID = 1;
+    private static final String ALERT_CHANNEL_ID = "SoundAlertChannel";
+    private static final int ALERT_NOTIFICATION_ID = 2;
 
     // Actions
     public static final String ACTION_START = "com.example.audio.ACTION_START";
     public static final String ACTION_STOP = "com.example.audio.ACTION_STOP";
     public static final String ACTION_SEND_COMMAND = "com.example.audio.ACTION_SEND_COMMAND";
     public static final String ACTION_PLAY_MELODY = "com.example.audio.ACTION_PLAY_MELODY"; // <<< ADDED Melody Action
+    public static final String ACTION_SET_VOLUME = "com.example.audio.ACTION_SET_VOLUME";
+    public static final String ACTION_MOTION = "com.example.audio.ACTION_MOTION"; // From the camera view's motion detector
+    public static final String ACTION_SET_ROOM = "com.example.audio.ACTION_SET_ROOM"; // Mute/solo a mic room, or toggle auto focus
 
     // Extras
-    public static final String EXTRA_MIC_SENDER_IP = "com.example.audio.EXTRA_MIC_SENDER_IP";
+    public static final String EXTRA_MIC_SENDER_IP = "com.example.audio.EXTRA_MIC_SENDER_IP"; // One mic board, or several as "name=ip, name=ip"
     public static final String EXTRA_SPEAKER_RECEIVER_IP = "com.example.audio.EXTRA_SPEAKER_RECEIVER_IP";
     public static final String EXTRA_COMMAND = "com.example.audio.EXTRA_COMMAND";
-
-    // Broadcast constants
-    public static final String ACTION_STATUS_UPDATE = "com.example.audio.STATUS_UPDATE";
-    public static final String EXTRA_STATUS_TYPE = "com.example.audio.EXTRA_STATUS_TYPE";
-    public static final String EXTRA_STATUS_MESSAGE = "com.example.audio.EXTRA_STATUS_MESSAGE";
+    public static final String EXTRA_COMMAND_TIME_NANOS = "com.example.audio.EXTRA_COMMAND_TIME_NANOS"; // System.nanoTime() at the UI event
+    public static final String EXTRA_MELODY_ID = "com.example.audio.EXTRA_MELODY_ID"; // res/raw id, defaults to soothing_melody
+    public static final String EXTRA_VOLUME = "com.example.audio.EXTRA_VOLUME"; // Speaker volume 0..100 %
+    public static final String EXTRA_AUDIO_TRANSPORT = "com.example.audio.EXTRA_AUDIO_TRANSPORT"; // TRANSPORT_TCP (default) or TRANSPORT_UDP
+    public static final String EXTRA_FEC_GROUP_PACKETS = "com.example.audio.EXTRA_FEC_GROUP_PACKETS"; // UDP mic parity group 2..8 (overhead 1/N), 0 = no FEC
+    public static final String EXTRA_FEC_DEPTH = "com.example.audio.EXTRA_FEC_DEPTH"; // Interleaved parity groups 1..4 = longest burst repaired
+    public static final String EXTRA_SEND_VAD = "com.example.audio.EXTRA_SEND_VAD"; // Boolean: suppress silent frames to the speaker (default on)
+    public static final String EXTRA_SOUND_ALERTS = "com.example.audio.EXTRA_SOUND_ALERTS"; // Boolean: cry/noise alerts from the mic stream (default on)
+    public static final String EXTRA_LISTEN_ON_ALERT = "com.example.audio.EXTRA_LISTEN_ON_ALERT"; // Boolean: play the mic stream only during alerts (default off)
+    public static final String EXTRA_MOTION = "com.example.audio.EXTRA_MOTION"; // Boolean: motion started (true) or ended
+    public static final String EXTRA_RECORD = "com.example.audio.EXTRA_RECORD"; // Boolean: keep the mic stream in the recording archive (default off)
+    public static final String EXTRA_RELAY = "com.example.audio.EXTRA_RELAY"; // Boolean: re-serve the mic stream to other phones (default off, TCP only)
+    public static final String EXTRA_AUTO_FOCUS = "com.example.audio.EXTRA_AUTO_FOCUS"; // Boolean: turn the other rooms down while one is loud (default on)
+    public static final String EXTRA_ECHO_CANCEL = "com.example.audio.EXTRA_ECHO_CANCEL"; // Boolean: cancel the speakers' echo in the mics (default on)
+    public static final String EXTRA_ROOM_INDEX = "com.example.audio.EXTRA_ROOM_INDEX"; // Room in the order EXTRA_MIC_SENDER_IP lists them
+    public static final String EXTRA_ROOM_MUTED = "com.example.audio.EXTRA_ROOM_MUTED"; // Boolean, only applied if present
+    public static final String EXTRA_ROOM_SOLO = "com.example.audio.EXTRA_ROOM_SOLO";   // Boolean, only applied if present
+
+    // Audio stream transports; control always stays on TCP
+    public static final String TRANSPORT_TCP = "tcp";
+    public static final String TRANSPORT_UDP = "udp"; // Drops late audio instead of stalling behind it
+
+    // Channel names (supervisors, metrics); status itself goes through the typed StatusBus
     public static final String TYPE_RECEIVE = "receive";
     public static final String TYPE_SEND = "send";
     public static final String TYPE_CONTROL = "control";
@@ -81,56 +209,132 @@ public class StreamingService extends Service {
 
 
     private ExecutorService executorService;
-    private Future<?> receiveTaskFuture;
-    private Future<?> sendTaskFuture;
-    private Future<?> controlConnectFuture;
+    private NioTransport transport; // All three ESP32 sockets on one selector thread
+    private ExecutorService resolver; // Host name lookups, which must not block the selector thread
+    private ControlCommandPipeline controlPipeline;
     private Future<?> melodyTaskFuture; // <<< ADDED Melody Future
-
-    private Socket socketReceive = null;
-    private InputStream inputStreamReceive = null;
-    private Socket socketSend = null;
-    private OutputStream outputStreamSend = null;
-    private Socket socketControl = null;
-    private PrintWriter printWriterControl = null;
+    private Future<?> playoutTaskFuture;
+    private Future<?> captureTaskFuture;
+    private Future<?> analysisTaskFuture;
+    private ConnectionSupervisor sendSupervisor;
+    private ConnectionSupervisor controlSupervisor;
+
+    private static volatile MetricsRegistry metrics = null; // Kept after stop so the last session can still be dumped
+    private static volatile RecordingArchive recordingArchive = null; // Likewise, so last night can still be searched
+    private ChannelMetrics receiveMetrics;
+    private ChannelMetrics sendMetrics;
+    private ChannelMetrics controlMetrics;
+    private LatencyHistogram trackWriteLatency;
+    private LatencyHistogram recordReadLatency;
+    private LatencyHistogram controlRtt;
+
+    private volatile NioTransport.Connection sendConnection = null;
+    private volatile NioTransport.Connection controlConnection = null;
 
     private AudioTrack audioTrack = null;
     private AudioRecord audioRecord = null;
     private int audioRecordBufferSize = 0;
     private int audioTrackBufferSize = 0;
+    private int trackSampleRate = SAMPLE_RATE_RECEIVE; // Device side of each direction: the native rate when the device
+    private int recordSampleRate = SAMPLE_RATE_SEND;   // reports one, resampled to/from the wire rate
+    private MicRoom[] micRooms = new MicRoom[0]; // One per mic board; each room's jitter buffer and drift compensator are owned by PlayoutTask
+    private static volatile RoomMixer roomMixer = null; // Socket readers -> each room's ring -> PlayoutTask; static so the UI can show the rooms
+    private ByteRingBuffer sendRing = null;    // MicCaptureTask -> socket writer
+    private MelodyCache melodyCache;
+    private AudioMixer sendMixer = null;
+    private VoiceActivityDetector sendVad = null; // Null with suppression off; used by one SendPacer at a time
+    private SoundEventDetector soundDetector = null; // Null with alerts off; owned by SoundAnalysisTask
+    private ByteRingBuffer analysisRing = null;      // PlayoutTask -> SoundAnalysisTask
+    private volatile SoundAnalysisLoop soundAnalysis = null;
+    private volatile GatedOutput playoutGate = null; // Set by PlayoutTask in listen-on-alert mode
+    private ByteRingBuffer recordingRing = null;     // PlayoutTask -> RecordingTask
 
     // State variables
     private volatile boolean isStreaming = false;
     private volatile boolean isControlConnected = false;
     private volatile boolean isPlayingMelody = false; // <<< ADDED Melody State
-
-    private LocalBroadcastManager broadcaster;
+    private volatile boolean useUdpAudio = false;
+    private volatile int udpFecGroup = UDP_FEC_GROUP_PACKETS;
+    private volatile int udpFecDepth = UDP_FEC_DEPTH;
+    private volatile boolean sendVadEnabled = SEND_VAD_DEFAULT;
+    private volatile boolean soundAlertsEnabled = SOUND_ALERTS_DEFAULT;
+    private volatile boolean listenOnAlert = LISTEN_ON_ALERT_DEFAULT;
+    private volatile boolean recordingEnabled = RECORDING_DEFAULT;
+    private volatile boolean relayEnabled = RELAY_DEFAULT;
+    private volatile StreamRelay relay = null;
+    private volatile boolean cameraMotion = false; // Reported by the activity, which owns the camera stream
+    private volatile long motionAlerts = 0;
+    private volatile boolean autoFocusEnabled = AUTO_FOCUS_DEFAULT;
+    private volatile boolean echoCancelEnabled = ECHO_CANCEL_DEFAULT;
+    private EchoCanceller talkbackEchoCanceller = null; // Null with cancellation off; owned by MicCaptureTask
+    private EchoReference talkbackEchoReference = null; // PlayoutTask -> MicCaptureTask
+    private EchoReference roomEchoReference = null;     // SendPacer -> the speaker room's canceller in the mixer
+
+    // One bus per process so the UI can subscribe before the service exists; delivers on the main thread
+    private static StatusBus statusBus;
+    private String notificationText = null;
+    private final StatusBus.Listener notificationUpdater = this::onStatusDelivered;
 
     @Override
     public void onCreate() {
         super.onCreate();
         Log.d(TAG, "Service onCreate");
-        broadcaster = LocalBroadcastManager.getInstance(this);
+        getStatusBus().addListener(notificationUpdater);
         createNotificationChannel();
         calculateBufferSizes();
+        melodyCache = new MelodyCache(melodyId -> getResources().openRawResource(melodyId), SAMPLE_RATE_SEND, MELODY_CACHE_MAX_BYTES);
+    }
+
+    public static synchronized StatusBus getStatusBus() {
+        if (statusBus == null) statusBus = new StatusBus(new Handler(Looper.getMainLooper())::postDelayed, STATUS_MAX_DISPATCHES_PER_SECOND);
+        return statusBus;
     }
 
-    private void sendBroadcastStatus(String type, String message) {
-        Intent intent = new Intent(ACTION_STATUS_UPDATE);
-        intent.putExtra(EXTRA_STATUS_TYPE, type);
-        intent.putExtra(EXTRA_STATUS_MESSAGE, message);
-        broadcaster.sendBroadcast(intent);
-        Log.d(TAG, "Broadcast sent: Type=" + type + ", Msg=" + message);
+    private void postStatus(StatusBus.Channel channel, StatusBus.State state) { getStatusBus().post(channel, state); }
 
-        // Simplified notification update
-        if (TYPE_GENERAL.equals(type) || message.toLowerCase().contains("error") || message.toLowerCase().contains("fail")) {
-            updateNotification(message);
-        } else if (message.toLowerCase().contains("disconnect")) {
-            updateNotification("Streaming Error/Disconnected");
-        } else if ("Streaming Active".equals(message)) { // Only update on general active message
-            updateNotification(message);
+    private void postStatus(StatusBus.Channel channel, StatusBus.State state, String detail) { getStatusBus().post(channel, state, detail); }
+
+    // Supervisors are named after the TYPE_ constants
+    private static StatusBus.Channel statusChannelOf(String name) {
+        switch (name) {
+            case TYPE_RECEIVE: return StatusBus.Channel.RECEIVE;
+            case TYPE_SEND: return StatusBus.Channel.SEND;
+            case TYPE_CONTROL: return StatusBus.Channel.CONTROL;
+            case TYPE_MELODY: return StatusBus.Channel.MELODY;
+            default: return StatusBus.Channel.GENERAL;
+        }
+    }
+
+    // Runs on the main thread at the bus's throttled rate; the notification is only rebuilt when its text changes
+    private void onStatusDelivered(StatusBus.Event event) {
+        Log.d(TAG, "Status: " + event);
+        if (!isStreaming) return; // Not in the foreground: no notification to update
+        String text = summarizeStatus();
+        if (!text.equals(notificationText)) {
+            notificationText = text;
+            updateNotification(text);
         }
     }
 
+    private String summarizeStatus() {
+        StatusBus bus = getStatusBus();
+        StatusBus.Event general = bus.current(StatusBus.Channel.GENERAL);
+        if (general.state != StatusBus.State.ACTIVE) return general.label();
+        int up = 0;
+        boolean reconnecting = false;
+        boolean failed = false;
+        for (StatusBus.Channel channel : new StatusBus.Channel[] { StatusBus.Channel.RECEIVE, StatusBus.Channel.SEND, StatusBus.Channel.CONTROL }) {
+            StatusBus.State state = bus.current(channel).state;
+            if (state.isUp()) up++;
+            else if (state == StatusBus.State.RECONNECTING) reconnecting = true;
+            else if (state == StatusBus.State.ERROR || state == StatusBus.State.DISCONNECTED) failed = true;
+        }
+        if (up == 3) return StatusBus.State.ACTIVE.text;
+        if (reconnecting) return "Reconnecting (" + up + "/3 links up)";
+        if (failed) return "Streaming Error/Disconnected";
+        return "Connecting (" + up + "/3 links up)";
+    }
+
     @Override
     public int onStartCommand(Intent intent, int flags, int startId) {
         Log.d(TAG, "Service onStartCommand");
@@ -144,31 +348,61 @@ public class StreamingService extends Service {
                     String speakerIp = intent.getStringExtra(EXTRA_SPEAKER_RECEIVER_IP);
                     if (micIp != null && !micIp.isEmpty() && speakerIp != null && !speakerIp.isEmpty()) {
                         if (!isStreaming) {
-                            sendBroadcastStatus(TYPE_GENERAL, "Starting...");
-                            startStreamingInternal(micIp, speakerIp);
+                            postStatus(StatusBus.Channel.GENERAL, StatusBus.State.STARTING);
+                            int fecGroup = intent.getIntExtra(EXTRA_FEC_GROUP_PACKETS, UDP_FEC_GROUP_PACKETS);
+                            udpFecGroup = fecGroup == 0 ? 0 : Math.max(2, Math.min(AudioPacket.MAX_FEC_GROUP, fecGroup));
+                            udpFecDepth = Math.max(1, Math.min(AudioPacket.MAX_FEC_DEPTH, intent.getIntExtra(EXTRA_FEC_DEPTH, UDP_FEC_DEPTH)));
+                            sendVadEnabled = intent.getBooleanExtra(EXTRA_SEND_VAD, SEND_VAD_DEFAULT);
+                            soundAlertsEnabled = intent.getBooleanExtra(EXTRA_SOUND_ALERTS, SOUND_ALERTS_DEFAULT);
+                            listenOnAlert = soundAlertsEnabled && intent.getBooleanExtra(EXTRA_LISTEN_ON_ALERT, LISTEN_ON_ALERT_DEFAULT); // Nothing would ever unpause it without alerts
+                            recordingEnabled = intent.getBooleanExtra(EXTRA_RECORD, RECORDING_DEFAULT);
+                            relayEnabled = intent.getBooleanExtra(EXTRA_RELAY, RELAY_DEFAULT);
+                            autoFocusEnabled = intent.getBooleanExtra(EXTRA_AUTO_FOCUS, AUTO_FOCUS_DEFAULT);
+                            echoCancelEnabled = intent.getBooleanExtra(EXTRA_ECHO_CANCEL, ECHO_CANCEL_DEFAULT);
+                            String[][] rooms = parseMicRooms(micIp);
+                            if (rooms == null) {
+                                Log.e(TAG, "Start command received with invalid mic rooms: " + micIp);
+                                postStatus(StatusBus.Channel.GENERAL, StatusBus.State.ERROR, "Invalid Mic Rooms");
+                                stopSelf();
+                                break;
+                            }
+                            startStreamingInternal(rooms, speakerIp, TRANSPORT_UDP.equals(intent.getStringExtra(EXTRA_AUDIO_TRANSPORT)));
                         } else {
                             Log.w(TAG, "Start command received but already streaming.");
-                            sendBroadcastStatus(TYPE_GENERAL, "Already Running");
                         }
                     } else {
                         Log.e(TAG, "Start command received with invalid IPs.");
-                        sendBroadcastStatus(TYPE_GENERAL, "Error: Invalid IPs");
+                        postStatus(StatusBus.Channel.GENERAL, StatusBus.State.ERROR, "Invalid IPs");
                         stopSelf();
                     }
                     break;
                 case ACTION_STOP:
-                    sendBroadcastStatus(TYPE_GENERAL, "Stopping...");
+                    postStatus(StatusBus.Channel.GENERAL, StatusBus.State.STOPPING);
                     stopStreamingInternal();
                     stopSelf();
                     break;
                 case ACTION_SEND_COMMAND:
                     String command = intent.getStringExtra(EXTRA_COMMAND);
                     if (command != null && !command.isEmpty()) {
-                        sendControlCommand(command);
+                        sendControlCommand(command, intent.getLongExtra(EXTRA_COMMAND_TIME_NANOS, System.nanoTime()));
                     }
                     break;
+                case ACTION_SET_VOLUME:
+                    int volume = intent.getIntExtra(EXTRA_VOLUME, -1);
+                    if (volume >= 0 && volume <= 100) {
+                        sendControlCommand("VOL=" + volume, System.nanoTime());
+                    } else {
+                        Log.w(TAG, "Invalid volume: " + volume);
+                    }
+                    break;
+                case ACTION_MOTION:
+                    if (isStreaming) onCameraMotionChanged(intent.getBooleanExtra(EXTRA_MOTION, false));
+                    break;
+                case ACTION_SET_ROOM:
+                    applyRoomControls(intent);
+                    break;
                 case ACTION_PLAY_MELODY: // <<< ADDED: Handle Play Melody Action
-                    startMelodyPlaybackInternal();
+                    startMelodyPlaybackInternal(intent.getIntExtra(EXTRA_MELODY_ID, R.raw.soothing_melody));
                     break;
                 default:
                     Log.w(TAG, "Unknown action received: " + action);
@@ -187,7 +421,8 @@ public class StreamingService extends Service {
         if (isStreaming) {
             stopStreamingInternal();
         }
-        sendBroadcastStatus(TYPE_GENERAL, "Service Stopped");
+        postStatus(StatusBus.Channel.GENERAL, StatusBus.State.STOPPED);
+        getStatusBus().removeListener(notificationUpdater);
         super.onDestroy();
     }
 
@@ -198,66 +433,203 @@ public class StreamingService extends Service {
     }
 
     private void calculateBufferSizes() {
-        audioRecordBufferSize = AudioRecord.getMinBufferSize(SAMPLE_RATE_SEND, CHANNEL_CONFIG_SEND, AUDIO_FORMAT_SEND);
-        audioTrackBufferSize = AudioTrack.getMinBufferSize(SAMPLE_RATE_RECEIVE, CHANNEL_CONFIG_RECEIVE, AUDIO_FORMAT_RECEIVE);
+        int nativeRate = nativeOutputSampleRate();
+        recordSampleRate = nativeRate > 0 ? nativeRate : SAMPLE_RATE_SEND;
+        trackSampleRate = nativeRate > 0 ? nativeRate : SAMPLE_RATE_RECEIVE;
+        audioRecordBufferSize = AudioRecord.getMinBufferSize(recordSampleRate, CHANNEL_CONFIG_SEND, AUDIO_FORMAT_SEND);
+        if (audioRecordBufferSize <= 0 && recordSampleRate != SAMPLE_RATE_SEND) {
+            recordSampleRate = SAMPLE_RATE_SEND;
+            audioRecordBufferSize = AudioRecord.getMinBufferSize(recordSampleRate, CHANNEL_CONFIG_SEND, AUDIO_FORMAT_SEND);
+        }
+        audioTrackBufferSize = AudioTrack.getMinBufferSize(trackSampleRate, CHANNEL_CONFIG_RECEIVE, AUDIO_FORMAT_RECEIVE);
+        if (audioTrackBufferSize <= 0 && trackSampleRate != SAMPLE_RATE_RECEIVE) {
+            trackSampleRate = SAMPLE_RATE_RECEIVE;
+            audioTrackBufferSize = AudioTrack.getMinBufferSize(trackSampleRate, CHANNEL_CONFIG_RECEIVE, AUDIO_FORMAT_RECEIVE);
+        }
         if (audioRecordBufferSize <= 0 || audioTrackBufferSize <= 0) {
             Log.e(TAG, "getMinBufferSize failed. Using default sizes.");
             audioRecordBufferSize = (audioRecordBufferSize <= 0) ? 1024 * 8 : audioRecordBufferSize;
             audioTrackBufferSize = (audioTrackBufferSize <= 0) ? 1024 * 8 : audioTrackBufferSize;
         } else {
             audioRecordBufferSize *= 4;
-            audioTrackBufferSize *= 4;
+            audioTrackBufferSize *= 2; // Jitter is absorbed by the JitterBuffer, keep the device buffer short
         }
         Log.d(TAG, "AudioRecord BufferSize: " + audioRecordBufferSize);
         Log.d(TAG, "AudioTrack BufferSize: " + audioTrackBufferSize);
+        Log.d(TAG, "Device rates: AudioTrack " + trackSampleRate + " Hz, AudioRecord " + recordSampleRate + " Hz (wire " + SAMPLE_RATE_RECEIVE + "/" + SAMPLE_RATE_SEND + " Hz)");
+    }
+
+    // The low-latency (fast mixer) path only exists at the device's native rate, usually 48 kHz; 0 if unknown
+    private int nativeOutputSampleRate() {
+        AudioManager audioManager = (AudioManager) getSystemService(Context.AUDIO_SERVICE);
+        String rate = audioManager != null ? audioManager.getProperty(AudioManager.PROPERTY_OUTPUT_SAMPLE_RATE) : null;
+        try { return rate != null ? Integer.parseInt(rate) : 0; } catch (NumberFormatException e) { Log.w(TAG, "Bad native sample rate: " + rate); return 0; }
     }
 
-    private void startStreamingInternal(String micSenderIp, String speakerReceiverIp) {
+    private void startStreamingInternal(String[][] rooms, String speakerReceiverIp, boolean udpAudio) {
         if (isStreaming) {
             Log.w(TAG,"Already streaming, ignoring start request.");
             return;
         }
         if (audioRecordBufferSize <= 0 || audioTrackBufferSize <= 0) {
             Log.e(TAG, "Cannot start streaming due to invalid buffer sizes.");
-            sendBroadcastStatus(TYPE_GENERAL, "Error: Invalid Buffer Sizes");
+            postStatus(StatusBus.Channel.GENERAL, StatusBus.State.ERROR, "Invalid Buffer Sizes");
             return;
         }
         Log.d(TAG, "Attempting to start streaming...");
-        sendBroadcastStatus(TYPE_RECEIVE, "Initializing...");
-        sendBroadcastStatus(TYPE_SEND, "Initializing...");
-        sendBroadcastStatus(TYPE_CONTROL, "Initializing...");
-        sendBroadcastStatus(TYPE_MELODY, "Idle"); // Initial melody state
+        postStatus(StatusBus.Channel.RECEIVE, StatusBus.State.STARTING);
+        postStatus(StatusBus.Channel.SEND, StatusBus.State.STARTING);
+        postStatus(StatusBus.Channel.CONTROL, StatusBus.State.STARTING);
+        postStatus(StatusBus.Channel.MELODY, StatusBus.State.IDLE); // Initial melody state
 
         if (ActivityCompat.checkSelfPermission(this, Manifest.permission.RECORD_AUDIO) != PackageManager.PERMISSION_GRANTED) {
             Log.e(TAG, "RECORD_AUDIO permission not granted for service.");
-            sendBroadcastStatus(TYPE_GENERAL, "Error: RECORD_AUDIO Permission Missing");
+            postStatus(StatusBus.Channel.GENERAL, StatusBus.State.ERROR, "RECORD_AUDIO Permission Missing");
             stopSelf();
             return;
         }
 
         if (!initializeAudioRecord() || !initializeAudioTrack()) {
             Log.e(TAG, "Failed to initialize AudioRecord or AudioTrack.");
-            sendBroadcastStatus(TYPE_GENERAL, "Error: Audio Device Init Failed");
+            postStatus(StatusBus.Channel.GENERAL, StatusBus.State.ERROR, "Audio Device Init Failed");
+            releaseAudioRecord();
+            releaseAudioTrack();
+            return;
+        }
+
+        int playoutFrameBytes = SAMPLE_RATE_RECEIVE / 1000 * PLAYOUT_FRAME_MS * BYTES_PER_SAMPLE_RECEIVE;
+        micRooms = new MicRoom[rooms.length];
+        RoomMixer.Room[] mixerRooms = new RoomMixer.Room[rooms.length];
+        for (int i = 0; i < rooms.length; i++) {
+            JitterBuffer jb = new JitterBuffer(playoutFrameBytes, BYTES_PER_SAMPLE_RECEIVE, PLAYOUT_FRAME_MS, JITTER_MIN_FRAMES, JITTER_MAX_FRAMES, JITTER_CAPACITY_FRAMES);
+            mixerRooms[i] = new RoomMixer.Room(rooms[i][0], new ByteRingBuffer(RECEIVE_RING_BYTES, true), jb, new DriftCompensator(jb));
+            micRooms[i] = new MicRoom(i, mixerRooms[i], rooms[i][1], rooms.length > 1);
+        }
+        createEchoCancellers(mixerRooms, rooms, speakerReceiverIp);
+        RoomMixer mixer = new RoomMixer(playoutFrameBytes, PLAYOUT_FRAME_MS, mixerRooms);
+        mixer.setAutoFocus(autoFocusEnabled);
+        mixer.setFocusGain(FOCUS_GAIN);
+        mixer.setListener(room -> Log.d(TAG, "[Rooms] Focus " + (room != null ? "on " + room.name + " (" + Math.round(room.getLevelDb()) + " dBFS)" : "released")));
+        roomMixer = mixer;
+        if (rooms.length > 1) Log.d(TAG, "[Rooms] " + rooms.length + " mic rooms, auto focus " + (autoFocusEnabled ? "on" : "off") + ".");
+        sendRing = new ByteRingBuffer(audioRecordBufferSize * 4);
+        sendMixer = new AudioMixer(SEND_FRAME_SAMPLES, DUCK_THRESHOLD_RMS, DUCK_GAIN);
+        sendVad = sendVadEnabled ? createSendVad() : null;
+        soundDetector = soundAlertsEnabled ? createSoundDetector() : null;
+        analysisRing = soundDetector != null ? new ByteRingBuffer(playoutFrameBytes * ANALYSIS_RING_FRAMES) : null;
+        recordingRing = recordingEnabled ? new ByteRingBuffer(playoutFrameBytes * RECORDING_RING_FRAMES) : null;
+
+        try { audioTrack.play(); Log.d(TAG, "AudioTrack playing."); }
+        catch (IllegalStateException e) {
+            Log.e(TAG, "Failed start playback: " + e.getMessage());
+            postStatus(StatusBus.Channel.GENERAL, StatusBus.State.ERROR, "Playback Start Failed");
+            roomMixer = null;
             releaseAudioRecord();
             releaseAudioTrack();
             return;
         }
 
         isStreaming = true;
+        useUdpAudio = udpAudio;
         isControlConnected = false;
         isPlayingMelody = false; // Ensure melody state is reset
 
-        startForeground(NOTIFICATION_ID, createNotification("Initializing Connections..."));
+        notificationText = "Initializing Connections...";
+        startForeground(NOTIFICATION_ID, createNotification(notificationText));
+
+        try {
+            transport = new NioTransport("NioTransport");
+            transport.start();
+            controlPipeline = new ControlCommandPipeline(transport, CONTROL_MIN_INTERVAL_MS, CONTROL_MAX_BATCH_BYTES);
+            relay = relayEnabled ? startRelay() : null;
+            registerMetrics();
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to open selector: " + e.getMessage());
+            postStatus(StatusBus.Channel.GENERAL, StatusBus.State.ERROR, "Network Init Failed");
+            isStreaming = false;
+            roomMixer = null;
+            releaseAudioRecord();
+            releaseAudioTrack();
+            stopForeground(true);
+            return;
+        }
 
         if (executorService == null || executorService.isShutdown()) {
-            executorService = Executors.newFixedThreadPool(4); // Keep 4 threads for tasks
-            Log.d(TAG, "Created new ExecutorService (4 threads).");
+            executorService = Executors.newFixedThreadPool(6); // Playout, analysis, recording, capture, melody, preload; sockets live on the transport thread
+            Log.d(TAG, "Created new ExecutorService (6 threads).");
+        }
+        resolver = Executors.newSingleThreadExecutor();
+
+        // Audio devices run for the whole session; only the sockets come and go on reconnect
+        playoutTaskFuture = executorService.submit(new PlayoutTask(mixer, analysisRing, recordingRing));
+        if (soundDetector != null) analysisTaskFuture = executorService.submit(new SoundAnalysisTask(analysisRing, soundDetector, playoutFrameBytes));
+        if (recordingRing != null) executorService.submit(new RecordingTask(recordingRing, playoutFrameBytes * RECORDING_CHUNK_FRAMES));
+        captureTaskFuture = executorService.submit(new MicCaptureTask(sendRing));
+
+        SupervisorListener listener = new SupervisorListener();
+        for (MicRoom room : micRooms) { // All rooms' sockets share the transport thread
+            room.supervisor = new ConnectionSupervisor(room.channelName(), new ReceiveAndPlayTask(room), listener, transport, () -> isStreaming, RECONNECT_INITIAL_BACKOFF_MS, RECONNECT_MAX_BACKOFF_MS);
         }
+        sendSupervisor = new ConnectionSupervisor(TYPE_SEND, new RecordAndSendTask(speakerReceiverIp), listener, transport, () -> isStreaming, RECONNECT_INITIAL_BACKOFF_MS, RECONNECT_MAX_BACKOFF_MS);
+        controlSupervisor = new ConnectionSupervisor(TYPE_CONTROL, new ControlConnectTask(speakerReceiverIp), listener, transport, () -> isStreaming, RECONNECT_INITIAL_BACKOFF_MS, RECONNECT_MAX_BACKOFF_MS);
+        for (MicRoom room : micRooms) room.supervisor.start();
+        sendSupervisor.start();
+        controlSupervisor.start();
+        metrics.start(transport, METRICS_INTERVAL_MS);
+        executorService.submit(() -> { // Decode the default melody now so the first play starts instantly
+            try { melodyCache.get(R.raw.soothing_melody); Log.d(TAG, "[Melody] Default melody preloaded."); }
+            catch (Exception e) { Log.w(TAG, "[Melody] Preload failed: " + e.getMessage()); }
+        });
+        postStatus(StatusBus.Channel.GENERAL, StatusBus.State.ACTIVE);
+    }
+
+    // Listeners get whole TCP frames; the UDP path has its own packet format, so it is not relayed
+    private StreamRelay startRelay() {
+        if (useUdpAudio) {
+            Log.w(TAG, "[Relay] Not available with UDP audio; relay off.");
+            return null;
+        }
+        StreamRelay r = new StreamRelay(transport, new Pcm32To16Converter(RECEIVE_SAMPLE_SHIFT, RECEIVE_GAIN, true), RECEIVE_CODEC, RELAY_MAX_LISTENERS, RELAY_QUEUE_BYTES);
+        try {
+            r.listen(new InetSocketAddress(RELAY_PORT));
+            Log.d(TAG, "[Relay] Listening on port " + r.getPort() + " for up to " + RELAY_MAX_LISTENERS + " listeners" + (micRooms.length > 1 ? ", serving " + micRooms[0].room.name + "." : "."));
+            return r;
+        } catch (IOException e) {
+            Log.e(TAG, "[Relay] Cannot listen on port " + RELAY_PORT + ": " + e.getMessage());
+            postStatus(StatusBus.Channel.RECEIVE, StatusBus.State.ERROR, "Relay Port Busy");
+            return null;
+        }
+    }
 
-        receiveTaskFuture = executorService.submit(new ReceiveAndPlayTask(micSenderIp));
-        sendTaskFuture = executorService.submit(new RecordAndSendTask(speakerReceiverIp));
-        controlConnectFuture = executorService.submit(new ControlConnectTask(speakerReceiverIp));
-        sendBroadcastStatus(TYPE_GENERAL, "Connections Initializing");
+    private static VoiceActivityDetector createSendVad() {
+        VoiceActivityDetector vad = new VoiceActivityDetector(SAMPLE_RATE_SEND, SEND_FRAME_SAMPLES);
+        vad.setEnergyMarginDb(VAD_ENERGY_MARGIN_DB);
+        vad.setFlatnessThreshold(VAD_FLATNESS_THRESHOLD);
+        vad.setLoudMarginDb(VAD_LOUD_MARGIN_DB);
+        vad.setHangoverFrames(VAD_HANGOVER_FRAMES);
+        return vad;
+    }
+
+    private SoundEventDetector createSoundDetector() {
+        SoundEventDetector detector = new SoundEventDetector(SAMPLE_RATE_RECEIVE, SAMPLE_RATE_RECEIVE / 1000 * PLAYOUT_FRAME_MS);
+        detector.setEscalateFrames(ALERT_ESCALATE_SECONDS * 1000 / PLAYOUT_FRAME_MS);
+        detector.setCooldownFrames(ALERT_COOLDOWN_SECONDS * 1000 / PLAYOUT_FRAME_MS);
+        detector.setListener(this::onSoundLevelChanged);
+        return detector;
+    }
+
+    // One canceller for the phone's mic, one for the room whose board has the speaker (the first room if none matches)
+    private void createEchoCancellers(RoomMixer.Room[] mixerRooms, String[][] rooms, String speakerReceiverIp) {
+        talkbackEchoCanceller = null; talkbackEchoReference = null; roomEchoReference = null;
+        if (!echoCancelEnabled) return;
+        if (SAMPLE_RATE_RECEIVE != SAMPLE_RATE_SEND) { Log.w(TAG, "[Echo] Send and receive rates differ, echo cancellation off."); return; } // Reference and mic must be sample for sample
+        talkbackEchoCanceller = new EchoCanceller(SAMPLE_RATE_SEND, ECHO_TAIL_MS, TALKBACK_ECHO_MAX_DELAY_MS);
+        talkbackEchoReference = new EchoReference(SAMPLE_RATE_RECEIVE, ECHO_REFERENCE_PRIME_MS, ECHO_REFERENCE_MAX_MS);
+        int speakerRoom = 0;
+        for (int i = 0; i < rooms.length; i++) if (rooms[i][1].equals(speakerReceiverIp)) { speakerRoom = i; break; }
+        roomEchoReference = new EchoReference(SAMPLE_RATE_SEND, ECHO_REFERENCE_PRIME_MS, ECHO_REFERENCE_MAX_MS);
+        mixerRooms[speakerRoom].setEchoCanceller(new EchoCanceller(SAMPLE_RATE_RECEIVE, ECHO_TAIL_MS, ROOM_ECHO_MAX_DELAY_MS), roomEchoReference);
+        Log.d(TAG, "[Echo] Cancelling the phone speaker in the phone mic and the talk-back in " + mixerRooms[speakerRoom].name + ".");
     }
 
     private void stopStreamingInternal() {
@@ -266,15 +638,30 @@ public class StreamingService extends Service {
             return;
         }
         Log.d(TAG, "Attempting to stop streaming...");
-        sendBroadcastStatus(TYPE_GENERAL, "Stopping Streams...");
+        postStatus(StatusBus.Channel.GENERAL, StatusBus.State.STOPPING);
         isStreaming = false;
         isControlConnected = false;
         isPlayingMelody = false; // Stop melody if playing
 
+        if (transport != null) { // Closes every socket at once
+            transport.close();
+            if (transport.getTaskErrors() > 0) Log.e(TAG, "[Transport] " + transport.getTaskErrors() + " event loop tasks failed; the last:", transport.getLastTaskError());
+            transport = null;
+        }
+        if (resolver != null) { resolver.shutdownNow(); resolver = null; }
+        MetricsRegistry registry = metrics;
+        if (registry != null) {
+            registry.stop(); // Final sample while the audio devices and rings are still there
+            Log.d(TAG, "[Metrics] Final " + registry.latest());
+        }
+        sendConnection = null;
+        closeControlConnection();
+
         if (melodyTaskFuture != null && !melodyTaskFuture.isDone()) melodyTaskFuture.cancel(true); // <<< ADDED: Cancel Melody
-        if (receiveTaskFuture != null && !receiveTaskFuture.isDone()) receiveTaskFuture.cancel(true);
-        if (sendTaskFuture != null && !sendTaskFuture.isDone()) sendTaskFuture.cancel(true);
-        if (controlConnectFuture != null && !controlConnectFuture.isDone()) controlConnectFuture.cancel(true);
+        if (playoutTaskFuture != null && !playoutTaskFuture.isDone()) playoutTaskFuture.cancel(true);
+        if (captureTaskFuture != null && !captureTaskFuture.isDone()) captureTaskFuture.cancel(true);
+        if (analysisTaskFuture != null && !analysisTaskFuture.isDone()) analysisTaskFuture.cancel(true);
+        // RecordingTask is not cancelled: an interrupt would close its FileChannels mid-write. It sees isStreaming and closes the segment itself
 
         if (executorService != null) {
             Log.d(TAG, "Shutting down ExecutorService...");
@@ -293,20 +680,181 @@ public class StreamingService extends Service {
 
         releaseAudioTrack();
         releaseAudioRecord();
-
-        closeSocket(socketReceive, "Receive Stop"); closeStream(inputStreamReceive, "Receive Input Stop");
-        closeSocket(socketSend, "Send Stop"); closeStream(outputStreamSend, "Send Output Stop");
-        closeControlConnection();
-
-        socketReceive = null; inputStreamReceive = null; socketSend = null; outputStreamSend = null;
+        logSoundAlertStats();
+        StreamRelay r = relay;
+        if (r != null) {
+            Log.d(TAG, "[Relay] Session: accepted=" + r.getAccepted() + ", refused=" + r.getRefused() + ", evicted=" + r.getEvicted()
+                    + ", framesIn=" + r.getFramesIn() + ", sent=" + r.getFramesSent() + ", dropped=" + r.getFramesDropped() + ", skippedBytes=" + r.getSkippedBytes());
+            relay = null;
+        }
+        playoutGate = null;
+        cameraMotion = false;
+        motionAlerts = 0;
+
+        java.util.ArrayList<ConnectionSupervisor> supervisors = new java.util.ArrayList<>();
+        for (MicRoom room : micRooms) supervisors.add(room.supervisor);
+        supervisors.add(sendSupervisor);
+        supervisors.add(controlSupervisor);
+        for (ConnectionSupervisor supervisor : supervisors) {
+            if (supervisor != null) {
+                Log.d(TAG, "[Supervisor] " + supervisor.getName() + ": connects=" + supervisor.getConnects() + ", reconnects=" + supervisor.getReconnects()
+                        + ", failedAttempts=" + supervisor.getFailedAttempts() + ", lastReconnectMs=" + supervisor.getLastReconnectMillis() + ", maxReconnectMs=" + supervisor.getMaxReconnectMillis());
+            }
+        }
+        sendSupervisor = null; controlSupervisor = null;
+        logRoomStats();
+        micRooms = new MicRoom[0];
+        roomMixer = null;
+        talkbackEchoCanceller = null; talkbackEchoReference = null; roomEchoReference = null;
+        logControlPipelineStats();
+        controlPipeline = null;
 
         Log.d(TAG, "Streaming stopped.");
         stopForeground(true);
-        sendBroadcastStatus(TYPE_GENERAL, "Stopped");
-        sendBroadcastStatus(TYPE_RECEIVE, "Stopped");
-        sendBroadcastStatus(TYPE_SEND, "Stopped");
-        sendBroadcastStatus(TYPE_CONTROL, "Disconnected");
-        sendBroadcastStatus(TYPE_MELODY, "Idle"); // Reset melody status
+        postStatus(StatusBus.Channel.GENERAL, StatusBus.State.STOPPED);
+        postStatus(StatusBus.Channel.RECEIVE, StatusBus.State.STOPPED);
+        postStatus(StatusBus.Channel.SEND, StatusBus.State.STOPPED);
+        postStatus(StatusBus.Channel.CONTROL, StatusBus.State.DISCONNECTED);
+        postStatus(StatusBus.Channel.MELODY, StatusBus.State.IDLE); // Reset melody status
+    }
+
+    // --- Metrics ---
+    // Counters and histograms are bumped on the hot paths; gauges are only polled once per interval
+    private void registerMetrics() {
+        MetricsRegistry registry = new MetricsRegistry();
+        receiveMetrics = new ChannelMetrics(registry, TYPE_RECEIVE);
+        sendMetrics = new ChannelMetrics(registry, TYPE_SEND);
+        controlMetrics = new ChannelMetrics(registry, TYPE_CONTROL);
+        trackWriteLatency = registry.histogram("audio.trackWrite");
+        recordReadLatency = registry.histogram("audio.recordRead");
+        controlRtt = registry.histogram("control.rtt");
+        controlPipeline.setLatencyHistogram(registry.histogram("control.commandLatency"));
+
+        final AudioTrack track = audioTrack;
+        final MicRoom[] rooms = micRooms;
+        final RoomMixer mixer = roomMixer;
+        final JitterBuffer jb = rooms[0].room.getJitterBuffer(); // Plain fields owned by PlayoutTask: polled values may be a frame stale
+        final DriftCompensator drift = rooms[0].room.getDriftCompensator();
+        final ByteRingBuffer outRing = sendRing;
+        final ControlCommandPipeline pipeline = controlPipeline;
+        final VoiceActivityDetector vad = sendVad;
+        final SoundEventDetector detector = soundDetector;
+        final ByteRingBuffer tapRing = analysisRing;
+        final ByteRingBuffer recordRing = recordingRing;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) registry.gauge("audio.trackUnderruns", track::getUnderrunCount);
+        registry.gauge("audio.playoutUnderruns", () -> sumOverRooms(rooms, r -> r.room.getJitterBuffer().getUnderruns()));
+        registry.gauge("audio.concealedFrames", () -> sumOverRooms(rooms, r -> r.room.getJitterBuffer().getFramesConcealed()));
+        registry.gauge("audio.captureOverruns", outRing::getOverruns); // AudioRecord has no overrun counter; a full capture ring is where mic audio is lost
+        registry.gauge("jitter.depthFrames", jb::getDepthFrames); // First room; each room has its own below
+        registry.gauge("jitter.targetFrames", jb::getTargetDepthFrames);
+        registry.gauge("playout.driftPpm", () -> Math.round(drift.getDriftPpm()));
+        registry.gauge("playout.correctionPpm", () -> Math.round(drift.getCorrectionPpm()));
+        registry.gauge("receive.ringBytes", () -> sumOverRooms(rooms, r -> r.room.getRing().available()));
+        registry.gauge("receive.ringOverruns", () -> sumOverRooms(rooms, r -> r.room.getRing().getOverruns()));
+        if (rooms.length > 1) {
+            for (MicRoom r : rooms) {
+                String prefix = "room" + r.index + ".";
+                registry.gauge(prefix + "levelDb", () -> Math.round(r.room.getLevelDb()));
+                registry.gauge(prefix + "focused", () -> r.room.isFocused() ? 1 : 0);
+                registry.gauge(prefix + "depthFrames", r.room.getJitterBuffer()::getDepthFrames);
+                registry.gauge(prefix + "underruns", r.room.getJitterBuffer()::getUnderruns);
+                registry.gauge(prefix + "driftPpm", () -> Math.round(r.room.getDriftCompensator().getDriftPpm()));
+                registry.gauge(prefix + "reconnects", () -> reconnectsOf(r.supervisor));
+            }
+            registry.gauge("rooms.focusChanges", mixer::getFocusChanges);
+        }
+        registry.gauge("playout.clippedSamples", mixer::getClippedSamples); // Rooms summed past full scale
+        final EchoCanceller phoneEcho = talkbackEchoCanceller;
+        if (phoneEcho != null) {
+            registry.gauge("echo.phoneErleDb", () -> Math.round(phoneEcho.getErleDb())); // How far the speaker's echo is taken down
+            registry.gauge("echo.phoneDelayMs", phoneEcho::getDelayMillis);
+            registry.gauge("echo.phoneDoubleTalkBlocks", phoneEcho::getDoubleTalkBlocks);
+            registry.gauge("echo.phoneResets", phoneEcho::getResets);
+        }
+        for (MicRoom r : rooms) {
+            final EchoCanceller roomEcho = r.room.getEchoCanceller();
+            if (roomEcho == null) continue;
+            registry.gauge("echo.roomErleDb", () -> Math.round(roomEcho.getErleDb()));
+            registry.gauge("echo.roomDelayMs", roomEcho::getDelayMillis);
+            registry.gauge("echo.roomDoubleTalkBlocks", roomEcho::getDoubleTalkBlocks);
+            registry.gauge("echo.roomResets", roomEcho::getResets);
+        }
+        registry.gauge("send.ringBytes", outRing::available);
+        registry.gauge("send.queueBytes", () -> { NioTransport.Connection c = sendConnection; return c != null ? c.pendingBytes() : 0; });
+        if (vad != null) {
+            registry.gauge("send.framesSuppressed", () -> vad.getFramesProcessed() - vad.getFramesActive());
+            registry.gauge("send.suppressedPercent", () -> { long n = vad.getFramesProcessed(); return n > 0 ? (n - vad.getFramesActive()) * 100 / n : 0; });
+            registry.gauge("send.noiseFloorRms", vad::getNoiseFloorRms);
+        }
+        if (detector != null) {
+            registry.gauge("alerts.level", detector::getLevel);
+            registry.gauge("alerts.noise", detector::getNoiseAlerts);
+            registry.gauge("alerts.cry", detector::getCryAlerts);
+            registry.gauge("alerts.escalations", detector::getEscalations);
+            registry.gauge("alerts.analysisOverruns", tapRing::getOverruns); // Frames analysis fell too far behind to see
+            registry.gauge("alerts.analysisBusyMs", () -> { SoundAnalysisLoop loop = soundAnalysis; return loop != null ? loop.getBusyNanos() / 1_000_000 : 0; });
+            registry.gauge("playout.paused", () -> { GatedOutput gate = playoutGate; return gate != null && !gate.isOpen() ? 1 : 0; });
+        }
+        registry.gauge("alerts.motion", () -> motionAlerts);
+        registry.gauge("alerts.motionActive", () -> cameraMotion ? 1 : 0);
+        if (recordRing != null) {
+            registry.gauge("recording.ringOverruns", recordRing::getOverruns); // Frames a stalled disk cost the archive
+            registry.gauge("recording.bytes", () -> { RecordingArchive a = recordingArchive; return a != null ? a.getTotalBytes() : 0; });
+            registry.gauge("recording.segments", () -> { RecordingArchive a = recordingArchive; return a != null ? a.getSegmentCount() : 0; });
+            registry.gauge("recording.events", () -> { RecordingArchive a = recordingArchive; return a != null ? a.getEventCount() : 0; });
+        }
+        final StreamRelay rel = relay;
+        if (rel != null) {
+            registry.gauge("relay.listeners", rel::getListenerCount);
+            registry.gauge("relay.framesSent", rel::getFramesSent);
+            registry.gauge("relay.framesDropped", rel::getFramesDropped); // Frames a slow listener's full queue cost it alone
+            registry.gauge("relay.evicted", rel::getEvicted);
+        }
+        registry.gauge("control.queuedCommands", pipeline::getQueueDepth);
+        registry.gauge("receive.packetsLost", () -> sumOverRooms(rooms, r -> { PacketReceivePath p = r.udpReceivePath; return p != null ? p.getPacketsLost() : 0; }));
+        registry.gauge("receive.packetsLate", () -> sumOverRooms(rooms, r -> { PacketReceivePath p = r.udpReceivePath; return p != null ? p.getPacketsLate() : 0; }));
+        registry.gauge("receive.packetsRecovered", () -> sumOverRooms(rooms, r -> { PacketReceivePath p = r.udpReceivePath; return p != null ? p.getPacketsRecovered() : 0; }));
+        registry.gauge("receive.reconnects", () -> sumOverRooms(rooms, r -> reconnectsOf(r.supervisor)));
+        registry.gauge("send.reconnects", () -> reconnectsOf(sendSupervisor));
+        registry.gauge("control.reconnects", () -> reconnectsOf(controlSupervisor));
+        registry.gauge("transport.taskErrors", transport::getTaskErrors); // Event loop tasks that threw: bugs, not network trouble
+        metrics = registry;
+    }
+
+    private static long reconnectsOf(ConnectionSupervisor supervisor) {
+        return supervisor != null ? supervisor.getReconnects() : 0;
+    }
+
+    private static long sumOverRooms(MicRoom[] rooms, java.util.function.ToLongFunction<MicRoom> value) {
+        long sum = 0;
+        for (MicRoom r : rooms) sum += value.applyAsLong(r);
+        return sum;
+    }
+
+    /** The mic rooms of the current session (levels, focus, mute/solo), or null when not streaming. Change them with {@link #ACTION_SET_ROOM}. */
+    public static RoomMixer getRoomMixer() { return roomMixer; }
+
+    /** Archive of the recorded mic stream, once the first session with recording has opened it, or null. */
+    public static RecordingArchive getRecordingArchive() { return recordingArchive; }
+
+    /** Latest metrics snapshot of the current (or last) streaming session, or null. */
+    public static MetricsRegistry.Snapshot getLatestMetrics() {
+        MetricsRegistry registry = metrics;
+        return registry != null ? registry.latest() : null;
+    }
+
+    // adb shell dumpsys activity service com.example.audio/.StreamingService
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        MetricsRegistry.Snapshot snapshot = getLatestMetrics();
+        writer.println("streaming=" + isStreaming + ", controlConnected=" + isControlConnected + ", playingMelody=" + isPlayingMelody);
+        writer.print(snapshot != null ? snapshot.toString() : "No metrics yet\n");
+        RecordingArchive archive = recordingArchive;
+        if (archive != null) {
+            long now = System.currentTimeMillis();
+            writer.println("recording: " + archive.getSegmentCount() + " segments, " + archive.getTotalBytes() / 1024 + " KiB, " + archive.getEventCount() + " loud events");
+            for (RecordingArchive.Event event : archive.loudest(now - TimeUnit.HOURS.toMillis(RECORDING_DUMP_HOURS), now, 10)) writer.println("  " + event);
+        }
     }
 
     private void createNotificationChannel() {
@@ -318,10 +866,15 @@ public class StreamingService extends Service {
             );
             serviceChannel.setDescription("Channel for background audio streaming");
 
+            NotificationChannel alertChannel = new NotificationChannel(ALERT_CHANNEL_ID, "Baby Alerts", NotificationManager.IMPORTANCE_HIGH);
+            alertChannel.setDescription("Crying or loud sounds picked up by the baby-room microphone");
+            alertChannel.enableVibration(true);
+
             NotificationManager manager = getSystemService(NotificationManager.class);
             if (manager != null) {
                 manager.createNotificationChannel(serviceChannel);
-                Log.d(TAG, "Notification channel created.");
+                manager.createNotificationChannel(alertChannel);
+                Log.d(TAG, "Notification channels created.");
             } else {
                 Log.e(TAG, "Failed to get NotificationManager.");
             }
@@ -356,308 +909,776 @@ public class StreamingService extends Service {
         }
     }
 
+    // --- Sound Alerts ---
+    // Called on the analysis thread. Escalates: noise lands silently in the shade, crying alerts, crying that goes on alerts again
+    private void onSoundLevelChanged(int level, int previous) {
+        Log.d(TAG, "[Alert] " + SoundEventDetector.levelName(previous) + " -> " + SoundEventDetector.levelName(level));
+        updatePlayoutGate(level, cameraMotion);
+        if (level > previous) postAlertNotification(level);
+        if (getStatusBus().current(StatusBus.Channel.RECEIVE).state == StatusBus.State.STREAMING) {
+            postStatus(StatusBus.Channel.RECEIVE, StatusBus.State.STREAMING, level == SoundEventDetector.LEVEL_NONE ? null : SoundEventDetector.levelName(level));
+        }
+    }
+
+    // Called on the main thread. Motion alerts audibly but below crying, and opens listen-on-alert playout like a sound does
+    private void onCameraMotionChanged(boolean moving) {
+        if (moving == cameraMotion) return;
+        Log.d(TAG, "[Alert] Camera motion " + (moving ? "started" : "ended"));
+        cameraMotion = moving;
+        SoundEventDetector detector = soundDetector;
+        updatePlayoutGate(detector != null ? detector.getLevel() : SoundEventDetector.LEVEL_NONE, moving);
+        if (moving) {
+            motionAlerts++;
+            postAlertNotification("Movement in the camera picture", NotificationCompat.PRIORITY_DEFAULT, false);
+        }
+    }
+
+    private void updatePlayoutGate(int soundLevel, boolean motion) {
+        GatedOutput gate = playoutGate;
+        if (gate != null) gate.setOpen(soundLevel >= LISTEN_OPEN_LEVEL || motion);
+    }
+
+    private void postAlertNotification(int level) {
+        boolean crying = level >= SoundEventDetector.LEVEL_CRY;
+        String text = level == SoundEventDetector.LEVEL_CRY_SUSTAINED ? "Crying for over " + ALERT_ESCALATE_SECONDS + " s"
+                : crying ? "Crying detected" : "Sound detected";
+        String room = loudestRoomName();
+        if (room != null) text += " in " + room;
+        postAlertNotification(text, crying ? NotificationCompat.PRIORITY_HIGH : NotificationCompat.PRIORITY_DEFAULT, !crying);
+    }
+
+    // Alerts run on the mix of all rooms; with several, the loudest one right now is where it came from
+    private static String loudestRoomName() {
+        RoomMixer mixer = roomMixer;
+        if (mixer == null || mixer.getRoomCount() < 2) return null;
+        RoomMixer.Room loudest = mixer.getRoom(0);
+        for (int i = 1; i < mixer.getRoomCount(); i++) if (mixer.getRoom(i).getLevelDb() > loudest.getLevelDb()) loudest = mixer.getRoom(i);
+        return loudest.name;
+    }
+
+    private void postAlertNotification(String text, int priority, boolean silent) {
+        Intent notificationIntent = new Intent(this, MainActivity.class);
+        PendingIntent pendingIntent = PendingIntent.getActivity(this, 0, notificationIntent, PendingIntent.FLAG_IMMUTABLE);
+        NotificationCompat.Builder builder = new NotificationCompat.Builder(this, ALERT_CHANNEL_ID)
+                .setContentTitle("Baby Monitor Alert")
+                .setContentText(text)
+                .setSmallIcon(R.mipmap.ic_launcher)
+                .setContentIntent(pendingIntent)
+                .setCategory(NotificationCompat.CATEGORY_ALARM)
+                .setPriority(priority)
+                .setSilent(silent)
+                .setAutoCancel(true);
+        NotificationManager manager = (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
+        if (manager != null) manager.notify(ALERT_NOTIFICATION_ID, builder.build()); // Same id: each step replaces the last and alerts again
+    }
+
+    private void logSoundAlertStats() {
+        SoundEventDetector detector = soundDetector;
+        SoundAnalysisLoop loop = soundAnalysis;
+        if (detector == null || loop == null) return;
+        long frames = detector.getFramesProcessed();
+        Log.d(TAG, "[Alert] Session: noise=" + detector.getNoiseAlerts() + ", cry=" + detector.getCryAlerts() + ", escalations=" + detector.getEscalations() + ", motion=" + motionAlerts
+                + ", analysed=" + frames + " frames, FFT on " + (frames > 0 ? detector.getSpectraComputed() * 100 / frames : 0) + "%, busy="
+                + (frames > 0 ? String.format(java.util.Locale.US, "%.3f", loop.getBusyNanos() / 1e6 / (frames * PLAYOUT_FRAME_MS) * 100) : "0") + "% of a core"
+                + ", dropped=" + analysisRing.getOverruns());
+    }
+
     // --- Melody Playback Method ---
-    private void startMelodyPlaybackInternal() {
+    private void startMelodyPlaybackInternal(int melodyId) {
         if (!isStreaming) {
             Log.w(TAG, "Cannot play melody, streaming is not active.");
-            sendBroadcastStatus(TYPE_MELODY, "Error: Streaming Off");
+            postStatus(StatusBus.Channel.MELODY, StatusBus.State.ERROR, "Streaming Off");
             return;
         }
         if (isPlayingMelody) {
             Log.w(TAG, "Cannot play melody, already playing.");
-            sendBroadcastStatus(TYPE_MELODY, "Already Playing");
             return;
         }
-        if (outputStreamSend == null || socketSend == null || socketSend.isClosed()) {
+        NioTransport.Connection send = sendConnection;
+        if (send == null || !send.isOpen()) {
             Log.w(TAG, "Cannot play melody, send stream not ready.");
-            sendBroadcastStatus(TYPE_MELODY, "Error: Send Not Ready");
+            postStatus(StatusBus.Channel.MELODY, StatusBus.State.ERROR, "Send Not Ready");
             return;
         }
         if (executorService == null || executorService.isShutdown()){
             Log.e(TAG, "Cannot play melody, executor service is not running.");
-            sendBroadcastStatus(TYPE_MELODY, "Error: Service Issue");
+            postStatus(StatusBus.Channel.MELODY, StatusBus.State.ERROR, "Service Issue");
             return;
         }
 
 
         Log.d(TAG, "Starting melody playback task...");
         isPlayingMelody = true; // Set state
-        sendBroadcastStatus(TYPE_MELODY, "Playing..."); // Update status
-        melodyTaskFuture = executorService.submit(new SendMelodyTask());
+        postStatus(StatusBus.Channel.MELODY, StatusBus.State.PLAYING); // Update status
+        melodyTaskFuture = executorService.submit(new SendMelodyTask(melodyId));
     }
 
 
     // --- Tasks (Receive, Send, Control, Melody) ---
 
-    private class ReceiveAndPlayTask implements Runnable {
-        private final String ip;
-        ReceiveAndPlayTask(String ipAddress) { this.ip = ipAddress; }
+    // Reports supervisor transitions on the channel's own status type (supervisors are named after TYPE_ constants)
+    private class SupervisorListener implements ConnectionSupervisor.Listener {
+        @Override public void onConnecting(String channel, int attempt) {
+            if (attempt <= 1 || !isStreaming) return;
+            MicRoom room = micRoomOf(channel);
+            if (room != null) postReceiveStatus(room, StatusBus.State.RECONNECTING, "attempt " + attempt);
+            else postStatus(statusChannelOf(channel), StatusBus.State.RECONNECTING, "attempt " + attempt);
+        }
+        @Override public void onConnected(String channel, int reconnects, long outageMillis) {
+            if (outageMillis >= 0) Log.i(TAG, "[Supervisor] " + channel + " reconnected in " + outageMillis + " ms (reconnects=" + reconnects + ")");
+        }
+        @Override public void onSessionEnded(String channel, Throwable error, long nextRetryMillis) {
+            if (error != null) Log.w(TAG, "[Supervisor] " + channel + " session failed: " + error.getMessage());
+            if (nextRetryMillis >= 0) Log.d(TAG, "[Supervisor] " + channel + " retrying in " + nextRetryMillis + " ms");
+        }
+    }
+
+    // --- Mic rooms ---
+
+    // One mic board: its mixer room (ring, jitter buffer, drift, controls) plus the network side feeding it
+    private final class MicRoom {
+        final int index;
+        final RoomMixer.Room room;
+        final String ip;
+        final boolean named; // Several rooms: logs and status say which
+        final SampleFormatConverter converter = new Pcm32To16Converter(RECEIVE_SAMPLE_SHIFT, RECEIVE_GAIN, true); // Clip counts are per board
+        ConnectionSupervisor supervisor;
+        volatile PacketReceivePath udpReceivePath = null; // Current UDP receive session, for metrics
+        volatile StatusBus.State state = StatusBus.State.STARTING;
+        volatile String detail = null;
+        MicRoom(int index, RoomMixer.Room room, String ip, boolean named) { this.index = index; this.room = room; this.ip = ip; this.named = named; }
+        String channelName() { return named ? TYPE_RECEIVE + ":" + room.name : TYPE_RECEIVE; }
+        String tag() { return named ? "[Receive " + room.name + "]" : "[Receive]"; }
+        boolean relayed() { return index == 0; } // The relay serves one stream: the first room's
+    }
+
+    private MicRoom micRoomOf(String channel) {
+        for (MicRoom room : micRooms) if (room.channelName().equals(channel)) return room;
+        return null;
+    }
+
+    /**
+     * Parses {@link #EXTRA_MIC_SENDER_IP}: a single address, or a comma-separated list of
+     * {@code name=ip} (or bare ip, named "Room n"). Returns {name, ip} pairs, or null if there is
+     * no address or more than {@link #MAX_MIC_ROOMS}.
+     */
+    static String[][] parseMicRooms(String spec) {
+        java.util.ArrayList<String[]> rooms = new java.util.ArrayList<>();
+        for (String entry : spec.split(",")) {
+            entry = entry.trim();
+            if (entry.isEmpty()) continue;
+            int eq = entry.indexOf('=');
+            String name = eq >= 0 ? entry.substring(0, eq).trim() : "";
+            String ip = eq >= 0 ? entry.substring(eq + 1).trim() : entry;
+            if (ip.isEmpty()) return null;
+            rooms.add(new String[] { name.isEmpty() ? "Room " + (rooms.size() + 1) : name, ip });
+        }
+        return rooms.isEmpty() || rooms.size() > MAX_MIC_ROOMS ? null : rooms.toArray(new String[0][]);
+    }
+
+    // RECEIVE is one status channel: with several rooms it shows the worst one, by name, until all are up
+    private void postReceiveStatus(MicRoom room, StatusBus.State state, String detail) {
+        room.state = state;
+        room.detail = detail;
+        MicRoom[] rooms = micRooms;
+        if (rooms.length <= 1) { postStatus(StatusBus.Channel.RECEIVE, state, detail); return; }
+        MicRoom worst = null;
+        for (MicRoom r : rooms) if (!r.state.isUp() && (worst == null || severityOf(r.state) > severityOf(worst.state))) worst = r;
+        if (worst == null) postStatus(StatusBus.Channel.RECEIVE, state, rooms.length + " rooms");
+        else postStatus(StatusBus.Channel.RECEIVE, worst.state, worst.room.name + (worst.detail != null ? ": " + worst.detail : ""));
+    }
+
+    private static int severityOf(StatusBus.State state) {
+        switch (state) {
+            case ERROR: return 4;
+            case DISCONNECTED: return 3;
+            case RECONNECTING: return 2;
+            case CONNECTING: return 1;
+            default: return 0;
+        }
+    }
+
+    private void applyRoomControls(Intent intent) {
+        RoomMixer mixer = roomMixer;
+        if (mixer == null) { Log.w(TAG, "[Rooms] Not streaming, ignoring room controls."); return; }
+        if (intent.hasExtra(EXTRA_AUTO_FOCUS)) {
+            autoFocusEnabled = intent.getBooleanExtra(EXTRA_AUTO_FOCUS, AUTO_FOCUS_DEFAULT);
+            mixer.setAutoFocus(autoFocusEnabled);
+            Log.d(TAG, "[Rooms] Auto focus " + (autoFocusEnabled ? "on." : "off."));
+        }
+        int index = intent.getIntExtra(EXTRA_ROOM_INDEX, -1);
+        if (index < 0) return;
+        if (index >= mixer.getRoomCount()) { Log.w(TAG, "[Rooms] No room " + index); return; }
+        RoomMixer.Room room = mixer.getRoom(index);
+        if (intent.hasExtra(EXTRA_ROOM_MUTED)) room.setMuted(intent.getBooleanExtra(EXTRA_ROOM_MUTED, false));
+        if (intent.hasExtra(EXTRA_ROOM_SOLO)) room.setSolo(intent.getBooleanExtra(EXTRA_ROOM_SOLO, false));
+        Log.d(TAG, "[Rooms] " + room.name + ": muted=" + room.isMuted() + ", solo=" + room.isSolo());
+    }
+
+    private static void logEchoStats(String path, EchoCanceller canceller, EchoReference reference) {
+        Log.d(TAG, "[Echo] " + path + ": converged=" + canceller.isConverged() + ", erleDb=" + Math.round(canceller.getErleDb()) + ", delayMs=" + canceller.getDelayMillis()
+                + ", delayChanges=" + canceller.getDelayChanges() + ", doubleTalkBlocks=" + canceller.getDoubleTalkBlocks() + " of " + canceller.getFarActiveBlocks()
+                + ", bypassed=" + canceller.getBypassedBlocks() + ", resets=" + canceller.getResets() + "; reference underruns=" + reference.getUnderruns() + ", droppedBytes=" + reference.getDroppedBytes());
+    }
+
+    private void logRoomStats() {
+        RoomMixer mixer = roomMixer;
+        if (mixer != null) {
+            for (int i = 0; i < mixer.getRoomCount(); i++) {
+                RoomMixer.Room room = mixer.getRoom(i);
+                if (room.getEchoCanceller() != null) logEchoStats(room.name + " mic", room.getEchoCanceller(), room.getEchoReference());
+            }
+        }
+        if (mixer == null || mixer.getRoomCount() < 2) return;
+        StringBuilder rooms = new StringBuilder();
+        for (int i = 0; i < mixer.getRoomCount(); i++) {
+            RoomMixer.Room room = mixer.getRoom(i);
+            rooms.append(i > 0 ? ", " : "").append(room.name).append(" underruns=").append(room.getJitterBuffer().getUnderruns());
+        }
+        Log.d(TAG, "[Rooms] Session: focusChanges=" + mixer.getFocusChanges() + ", clippedSamples=" + mixer.getClippedSamples() + "; " + rooms);
+    }
+
+    private interface SocketOpener {
+        void open(InetSocketAddress address) throws IOException;
+    }
+
+    // Looks the host up on the resolver thread (a literal address costs nothing), then opens the socket back on the
+    // transport thread, so a slow DNS lookup never stalls the other connections. An unknown host fails in the
+    // transport like any other connect, so the session's handler reports it
+    private void openResolved(ConnectionSupervisor.Session session, String host, int port, SocketOpener opener) {
+        NioTransport t = transport;
+        resolver.execute(() -> {
+            InetSocketAddress address = new InetSocketAddress(host, port);
+            t.execute(() -> {
+                try { opener.open(address); }
+                catch (IOException | RuntimeException e) { session.closed(e); }
+            });
+        });
+    }
+
+    // Receive supervisor channel: each session connects to one mic ESP32 and feeds its room's ring until the link drops
+    private class ReceiveAndPlayTask implements ConnectionSupervisor.Channel {
+        private final MicRoom room;
+        ReceiveAndPlayTask(MicRoom room) { this.room = room; }
+        @Override public void open(ConnectionSupervisor.Session session) throws IOException {
+            Log.d(TAG, room.tag() + " Session " + session.attempt() + " started. Connecting to Mic Sender " + room.ip + ":" + ESP32_PORT_RECEIVE_FROM + (useUdpAudio ? " (UDP)" : ""));
+            if (session.attempt() == 1) postReceiveStatus(room, StatusBus.State.CONNECTING, null);
+            openResolved(session, room.ip, ESP32_PORT_RECEIVE_FROM, address -> {
+                if (useUdpAudio) {
+                    transport.openDatagram(address, AudioPacket.MAX_PARITY_BYTES, new UdpReceiveSession(room, session)).setObserver(receiveMetrics);
+                    return;
+                }
+                transport.connect(address, session.attempt() == 1 ? CONNECTION_TIMEOUT_MS : RECONNECT_CONNECT_TIMEOUT_MS,
+                        RECEIVE_READ_BUFFER_BYTES, SMALL_READ_BUFFER_BYTES, new ReceiveSession(room, session)).setObserver(receiveMetrics);
+            });
+        }
+    }
+
+    private class ReceiveSession extends NegotiatingHandler {
+        private final MicRoom room;
+        private final ReceivePath path;
+        private final StreamRelay relay;
+        private long lastDataNanos;
+
+        ReceiveSession(MicRoom room, ConnectionSupervisor.Session session) {
+            super(transport, session, RECEIVE_CODEC, CODEC_NEGOTIATION_TIMEOUT_MS);
+            this.room = room;
+            this.path = new ReceivePath(room.room.getRing(), room.converter, RECEIVE_READ_BUFFER_BYTES);
+            this.relay = room.relayed() ? StreamingService.this.relay : null;
+        }
+
+        @Override protected void onLinked(NioTransport.Connection connection, int codec) {
+            path.setCodec(codec);
+            if (relay != null) relay.onUpstreamLinked(codec);
+            Log.d(TAG, room.tag() + " Connected. Wire format: " + WireCodec.name(codec));
+            postReceiveStatus(room, StatusBus.State.CONNECTED, null);
+            postReceiveStatus(room, StatusBus.State.STREAMING, null);
+            lastDataNanos = System.nanoTime();
+            watchForStall(room, connection, () -> lastDataNanos);
+        }
+
+        @Override protected void onStreamData(NioTransport.Connection connection, ByteBuffer data) {
+            lastDataNanos = System.nanoTime();
+            if (relay != null) relay.onUpstreamData(data); // Before the playout path consumes it; leaves the position alone
+            path.onData(data);
+        }
+
+        @Override public void onClosed(NioTransport.Connection connection, Throwable error) {
+            String tag = room.tag();
+            if (!linked && isStreaming && firstAttempt) {
+                Log.e(TAG, tag + " Connect Error: " + (error != null ? error.getMessage() : "closed"));
+                postReceiveStatus(room, StatusBus.State.ERROR, error instanceof SocketTimeoutException ? "Conn Timeout" : "Conn Failed");
+            } else if (linked && error != null && isStreaming) {
+                Log.e(TAG, tag + " Read Error: " + error.getMessage());
+                if (!(error instanceof SocketTimeoutException)) postReceiveStatus(room, StatusBus.State.ERROR, "Network Read Failed");
+            } else if (linked) {
+                Log.d(TAG, tag + " Connection closed" + (isStreaming ? " by peer." : "."));
+            }
+            Log.d(TAG, tag + " Session finishing. Bytes read: " + connection.getBytesRead());
+            if (relay != null) relay.onUpstreamClosed();
+            JitterBuffer jb = room.room.getJitterBuffer();
+            DriftCompensator drift = room.room.getDriftCompensator();
+            ByteRingBuffer ring = room.room.getRing();
+            if (path.getDecoder() != null) {
+                Log.d(TAG, tag + " Frames decoded: " + path.getDecoder().getFramesDecoded() + ", bad frames: " + path.getDecoder().getBadFrames());
+            } else if (path.getConverter() instanceof Pcm32To16Converter) {
+                Log.d(TAG, tag + " Converter clipped samples: " + ((Pcm32To16Converter) path.getConverter()).getClippedSamples());
+            }
+            Log.d(TAG, tag + " Ring: overruns=" + ring.getOverruns() + " (" + ring.getOverrunBytes() + " bytes), underruns=" + ring.getUnderruns());
+            Log.d(TAG, tag + " Jitter buffer: in=" + jb.getFramesIn() + ", played=" + jb.getFramesPlayed() + ", concealed=" + jb.getFramesConcealed()
+                    + ", late=" + jb.getFramesDroppedLate() + ", trimmed=" + jb.getFramesDroppedOverflow() + ", underruns=" + jb.getUnderruns()
+                    + ", target=" + jb.getTargetDepthFrames() + ", jitterUs=" + jb.getJitterNanos() / 1000);
+            if (drift != null) Log.d(TAG, tag + " Clock drift: " + Math.round(drift.getDriftPpm()) + " ppm, correction " + Math.round(drift.getCorrectionPpm()) + " ppm");
+            if (isStreaming && linked) {
+                postReceiveStatus(room, StatusBus.State.DISCONNECTED, null);
+            }
+            session.closed(error);
+        }
+    }
+
+    // A rebooted ESP32 never sends FIN/RST for the old connection (and UDP has none): treat a silent link as dead
+    private void watchForStall(MicRoom room, NioTransport.Connection connection, LongSupplier lastDataNanos) {
+        if (!connection.isOpen()) return;
+        if (System.nanoTime() - lastDataNanos.getAsLong() > RECEIVE_STALL_TIMEOUT_MS * 1_000_000L) {
+            Log.w(TAG, room.tag() + " No data for " + RECEIVE_STALL_TIMEOUT_MS + " ms, dropping link.");
+            connection.close(new SocketTimeoutException("Receive stalled"));
+            return;
+        }
+        transport.schedule(() -> watchForStall(room, connection, lastDataNanos), RECEIVE_STALL_CHECK_MS);
+    }
+
+    // UDP mode: subscribe to the mic board with the hello (repeated, since datagrams get lost); the link is up once packets flow
+    private class UdpReceiveSession implements NioTransport.Handler {
+        private final MicRoom room;
+        private final ConnectionSupervisor.Session session;
+        private final PacketReceivePath path;
+        private final byte[] hello = AudioPacket.subscribeHello(RECEIVE_CODEC, udpFecGroup, udpFecDepth);
+        private boolean linked = false;
+        private long lastDataNanos;
+        UdpReceiveSession(MicRoom room, ConnectionSupervisor.Session session) { this.room = room; this.session = session; this.path = new PacketReceivePath(room.room.getRing(), UDP_REORDER_PACKETS); }
+
+        @Override public void onConnected(NioTransport.Connection connection) {
+            lastDataNanos = System.nanoTime();
+            subscribe(connection);
+            watchForStall(room, connection, () -> lastDataNanos);
+        }
+
+        private void subscribe(NioTransport.Connection connection) {
+            if (!connection.isOpen() || !isStreaming) return;
+            connection.send(hello, 0, hello.length);
+            transport.schedule(() -> subscribe(connection), AudioPacket.HELLO_INTERVAL_MS);
+        }
+
+        @Override public void onData(NioTransport.Connection connection, ByteBuffer data) {
+            lastDataNanos = System.nanoTime();
+            if (!linked) {
+                linked = true;
+                session.connected();
+                room.udpReceivePath = path;
+                Log.d(TAG, room.tag() + " Connected. Wire format: UDP packets" + (udpFecGroup > 0 ? ", parity FEC " + udpFecGroup + "x" + udpFecDepth : ""));
+                postReceiveStatus(room, StatusBus.State.CONNECTED, null);
+                postReceiveStatus(room, StatusBus.State.STREAMING, null);
+            }
+            path.onPacket(data);
+        }
+
+        @Override public void onClosed(NioTransport.Connection connection, Throwable error) {
+            if (!linked && isStreaming && session.attempt() == 1) {
+                Log.e(TAG, room.tag() + " No audio packets: " + (error != null ? error.getMessage() : "closed"));
+                postReceiveStatus(room, StatusBus.State.ERROR, error instanceof SocketTimeoutException ? "No UDP Audio" : "Conn Failed");
+            } else if (linked && error != null && isStreaming) {
+                Log.e(TAG, room.tag() + " UDP link lost: " + error.getMessage());
+            }
+            Log.d(TAG, room.tag() + " UDP session finishing. Packets: received=" + path.getPacketsReceived() + ", lost=" + path.getPacketsLost() + ", reordered=" + path.getPacketsReordered()
+                    + ", late=" + path.getPacketsLate() + ", bad=" + path.getBadPackets() + ", concealedSamples=" + path.getConcealedSamples() + ", restarts=" + path.getRestarts()
+                    + ", fec recovered=" + path.getPacketsRecovered() + "/" + path.getParityPackets() + " parity (" + path.getPacketsRebuiltEarly() + " only delayed)");
+            if (isStreaming && linked) {
+                postReceiveStatus(room, StatusBus.State.DISCONNECTED, null);
+            }
+            session.closed(error);
+        }
+    }
+
+    // Clocks the mix of the rooms' jitter buffers out; the blocking AudioTrack write paces the loop in real time
+    private class PlayoutTask implements Runnable {
+        private final RoomMixer mixer;
+        private final ByteRingBuffer[] taps;
+        PlayoutTask(RoomMixer mixer, ByteRingBuffer... tapRings) {
+            this.mixer = mixer;
+            this.taps = java.util.Arrays.stream(tapRings).filter(java.util.Objects::nonNull).toArray(ByteRingBuffer[]::new);
+        }
         @Override public void run() {
-            byte[] buffer = new byte[audioTrackBufferSize];
-            int bytesRead;
-            Socket localSocket = null;
-            InputStream localInputStream = null;
+            Thread.currentThread().setName("PlayoutTask");
+            AudioTrack track = audioTrack;
+            if (track == null) { Log.d(TAG, "[Playout] AudioTrack not playing, stopping."); return; }
+            AudioOutput device = (data, off, len) -> track.getPlayState() == AudioTrack.PLAYSTATE_PLAYING ? track.write(data, off, len) : AudioOutput.ERROR_STOPPED;
+            AudioOutput output = trackSampleRate != SAMPLE_RATE_RECEIVE ? new ResamplingOutput(device, SAMPLE_RATE_RECEIVE, trackSampleRate, mixer.getFrameBytes()) : device;
+            if (listenOnAlert) { // Paused (and flushed, so nothing stale plays on resume) until an alert opens the gate
+                GatedOutput gate = new GatedOutput(output, SAMPLE_RATE_RECEIVE, BYTES_PER_SAMPLE_RECEIVE, false, () -> { track.pause(); track.flush(); Log.d(TAG, "[Playout] AudioTrack paused until an alert."); }, () -> { track.play(); Log.d(TAG, "[Playout] AudioTrack playing for an alert."); });
+                playoutGate = gate;
+                output = gate;
+            }
+            PlayoutLoop loop = new PlayoutLoop(mixer, output, trackWriteLatency, taps, () -> isStreaming);
+            loop.setEchoReference(talkbackEchoReference);
             try {
-                Thread.currentThread().setName("ReceiveAndPlayTask");
-                Log.d(TAG, "[Receive] Task started. Connecting to Mic Sender " + ip + ":" + ESP32_PORT_RECEIVE_FROM);
-                sendBroadcastStatus(TYPE_RECEIVE, "Connecting...");
-                localSocket = new Socket();
-                localSocket.setSoTimeout(5000);
-                localSocket.connect(new InetSocketAddress(ip, ESP32_PORT_RECEIVE_FROM), CONNECTION_TIMEOUT_MS);
-                localInputStream = localSocket.getInputStream();
-                socketReceive = localSocket;
-                inputStreamReceive = localInputStream;
-                Log.d(TAG, "[Receive] Connected.");
-                sendBroadcastStatus(TYPE_RECEIVE, "Connected");
-                if (audioTrack == null || audioTrack.getState() != AudioTrack.STATE_INITIALIZED) { Log.e(TAG, "[Receive] AudioTrack not ready."); sendBroadcastStatus(TYPE_RECEIVE,"Error: Speaker Init Failed"); return; }
-                if (audioTrack.getPlayState() != AudioTrack.PLAYSTATE_PLAYING) { try { audioTrack.play(); Log.d(TAG, "[Receive] AudioTrack playing."); } catch (IllegalStateException e) { Log.e(TAG, "[Receive] Failed start playback: " + e.getMessage()); sendBroadcastStatus(TYPE_RECEIVE,"Error: Playback Start Failed"); return; } }
-                sendBroadcastStatus(TYPE_RECEIVE, "Receiving/Playing");
-                while (isStreaming && !Thread.currentThread().isInterrupted() && socketReceive != null && !socketReceive.isClosed()) {
-                    try {
-                        bytesRead = inputStreamReceive.read(buffer);
-                        if (bytesRead == -1) { Log.d(TAG, "[Receive] Connection closed by peer (read -1)."); break; }
-                        if (bytesRead > 0 && audioTrack != null) {
-                            int written = audioTrack.write(buffer, 0, bytesRead);
-                            if (written < 0) { Log.e(TAG, "[Receive] AudioTrack write error: " + written); sendBroadcastStatus(TYPE_RECEIVE,"Error: Playback Write Failed"); break; }
-                        }
-                    } catch (SocketTimeoutException e) { continue; }
-                    catch (IOException e) { if (isStreaming && !Thread.currentThread().isInterrupted()) { Log.e(TAG, "[Receive] Read Error: " + e.getMessage()); sendBroadcastStatus(TYPE_RECEIVE,"Error: Network Read Failed"); } else { Log.d(TAG, "[Receive] Read Error after stop: " + e.getMessage()); } break; }
-                    catch (IllegalStateException e) { Log.e(TAG, "[Receive] AudioTrack state error: " + e.getMessage()); sendBroadcastStatus(TYPE_RECEIVE,"Error: Playback State Issue"); break; }
-                }
-            } catch (SocketTimeoutException e) { Log.e(TAG, "[Receive] Connect Timeout: " + e.getMessage()); if(isStreaming) { sendBroadcastStatus(TYPE_RECEIVE,"Error: Conn Timeout"); } }
-            catch (IOException e) { if (isStreaming && !Thread.currentThread().isInterrupted()) { Log.e(TAG, "[Receive] Connect Error: " + e.getMessage()); sendBroadcastStatus(TYPE_RECEIVE,"Error: Conn Failed"); } else { Log.d(TAG, "[Receive] Connect Error after stop: " + e.getMessage()); } }
-            catch (Exception e) { if(isStreaming) { Log.e(TAG, "[Receive] Unexpected Error: " + e.getMessage(), e); sendBroadcastStatus(TYPE_RECEIVE,"Error: Unexpected"); } }
-            finally {
-                Log.d(TAG, "[Receive] Task finishing.");
-                if (audioTrack != null && audioTrack.getPlayState() == AudioTrack.PLAYSTATE_PLAYING) { try { audioTrack.stop();} catch (Exception e) { Log.w(TAG,"[Receive] Exception stopping AudioTrack: " + e.getMessage()); } }
-                closeStream(localInputStream, "Receive Task Finally");
-                closeSocket(localSocket, "Receive Task Finally");
-                if(isStreaming && !Thread.currentThread().isInterrupted()){
-                    sendBroadcastStatus(TYPE_RECEIVE, "Disconnected");
-                }
+                loop.run();
+                int error = loop.getExitCode();
+                if (error == AudioOutput.ERROR_STOPPED) { Log.d(TAG, "[Playout] AudioTrack not playing, stopping."); }
+                else if (error < 0) { Log.e(TAG, "[Playout] AudioTrack write error: " + error); postStatus(StatusBus.Channel.RECEIVE, StatusBus.State.ERROR, "Playback Write Failed"); }
+            } catch (IllegalStateException e) {
+                if (isStreaming) { Log.e(TAG, "[Playout] AudioTrack state error: " + e.getMessage()); postStatus(StatusBus.Channel.RECEIVE, StatusBus.State.ERROR, "Playback State Issue"); }
             }
+            Log.d(TAG, "[Playout] Task finishing.");
         }
     }
 
-    private class RecordAndSendTask implements Runnable {
+    // Runs the cry/noise detector over what PlayoutTask plays; the listener raises the alerts
+    private class SoundAnalysisTask implements Runnable {
+        private final ByteRingBuffer ring;
+        private final SoundEventDetector detector;
+        private final int frameBytes;
+        SoundAnalysisTask(ByteRingBuffer analysisRing, SoundEventDetector detector, int frameBytes) { this.ring = analysisRing; this.detector = detector; this.frameBytes = frameBytes; }
+        @Override public void run() {
+            Thread.currentThread().setName("SoundAnalysisTask");
+            SoundAnalysisLoop loop = new SoundAnalysisLoop(ring, detector, frameBytes, () -> isStreaming);
+            soundAnalysis = loop;
+            Log.d(TAG, "[Alert] Analysing the mic stream" + (listenOnAlert ? ", playback paused until an alert." : "."));
+            loop.run();
+            Log.d(TAG, "[Alert] Task finishing.");
+        }
+    }
+
+    // Opens the archive off the main thread (it rescans what is on disk), then tees what PlayoutTask plays into it
+    private class RecordingTask implements Runnable {
+        private final ByteRingBuffer ring;
+        private final int chunkBytes;
+        RecordingTask(ByteRingBuffer recordingRing, int chunkBytes) { this.ring = recordingRing; this.chunkBytes = chunkBytes; }
+        @Override public void run() {
+            Thread.currentThread().setName("RecordingTask");
+            File dir = getExternalFilesDir(RECORDING_DIR);
+            if (dir == null) dir = new File(getFilesDir(), RECORDING_DIR);
+            RecordingArchive archive;
+            try { archive = new RecordingArchive(dir, SAMPLE_RATE_RECEIVE, RECORDING_SEGMENT_SECONDS, RECORDING_MAX_BYTES); }
+            catch (IOException e) { Log.e(TAG, "[Record] Cannot open archive in " + dir + ": " + e.getMessage()); return; }
+            recordingArchive = archive;
+            Log.d(TAG, "[Record] Recording to " + dir + " (" + archive.getSegmentCount() + " segments, " + archive.getTotalBytes() / 1024 + " KiB kept).");
+            RecordingLoop loop = new RecordingLoop(ring, archive, chunkBytes, () -> isStreaming);
+            loop.run();
+            IOException error = loop.getError();
+            if (error != null) Log.e(TAG, "[Record] Write failed, recording stopped: " + error.getMessage());
+            Log.d(TAG, "[Record] Task finishing: " + archive.getBlocksWritten() + " s written, " + archive.getSilentBlocks() + " s of silence skipped, "
+                    + archive.getSegmentsEvicted() + " segments evicted, " + ring.getOverruns() + " frames dropped.");
+        }
+    }
+
+    // Send supervisor channel: each session clocks mixed frames (mic ring + melodies) into the speaker socket in real time
+    private class RecordAndSendTask implements ConnectionSupervisor.Channel {
         private final String ip;
         RecordAndSendTask(String ipAddress) { this.ip = ipAddress; }
+        @Override public void open(ConnectionSupervisor.Session session) throws IOException {
+            if (ActivityCompat.checkSelfPermission(StreamingService.this, Manifest.permission.RECORD_AUDIO) != PackageManager.PERMISSION_GRANTED) { Log.e(TAG, "[Send] Permission missing at start!"); postStatus(StatusBus.Channel.SEND, StatusBus.State.ERROR, "Permission Missing"); session.closed(null); return; }
+            Log.d(TAG, "[Send] Session " + session.attempt() + " starting. Connecting to Speaker Receiver " + ip + ":" + ESP32_PORT_SEND_TO + (useUdpAudio ? " (UDP)" : ""));
+            if (session.attempt() == 1) postStatus(StatusBus.Channel.SEND, StatusBus.State.CONNECTING);
+            openResolved(session, ip, ESP32_PORT_SEND_TO, address -> {
+                if (useUdpAudio) {
+                    transport.openDatagram(address, AudioPacket.MAX_PACKET_BYTES, new SendSession(session)).setObserver(sendMetrics);
+                    return;
+                }
+                transport.connect(address, session.attempt() == 1 ? CONNECTION_TIMEOUT_MS : RECONNECT_CONNECT_TIMEOUT_MS,
+                        SMALL_READ_BUFFER_BYTES, SEND_QUEUE_BYTES, new SendSession(session)).setObserver(sendMetrics);
+            });
+        }
+    }
+
+    // The pacer runs on the transport thread's timers: absolute deadlines, so select() wake-up slop does not accumulate
+    private class SendSession extends NegotiatingHandler {
+        private SendPacer pacer;
+        private AudioMixer.Slot micSlot = null;
+
+        SendSession(ConnectionSupervisor.Session session) { super(transport, session, SEND_CODEC, CODEC_NEGOTIATION_TIMEOUT_MS); }
+
+        @Override public void onConnected(NioTransport.Connection connection) {
+            if (!connection.isDatagram()) { super.onConnected(connection); return; }
+            linked = true; // UDP: no hello, every packet names its codec
+            session.connected();
+            onLinked(connection, SEND_CODEC);
+        }
+
+        @Override protected void onLinked(NioTransport.Connection connection, int codec) {
+            OutputStream out = connection.asOutputStream();
+            if (connection.isDatagram()) {
+                out = new AudioPacketOutputStream(out, codec, SEND_FRAME_SAMPLES);
+            } else if (codec != WireCodec.CODEC_LEGACY) {
+                out = new FramedAudioOutputStream(out, codec, SEND_FRAME_SAMPLES);
+            }
+            sendConnection = connection;
+            Log.d(TAG, "[Send] Connected. Wire format: " + (connection.isDatagram() ? "UDP packets, " : "") + WireCodec.name(codec) + (sendVad != null && codec != WireCodec.CODEC_LEGACY ? ", silence suppression on" : ""));
+            postStatus(StatusBus.Channel.SEND, StatusBus.State.CONNECTED);
+            sendRing.clear(); // Mic audio queued while the link was down is stale
+            micSlot = sendMixer.addSource(new RingBufferSource(sendRing, SEND_FRAME_SAMPLES, MIC_PRIME_FRAMES, MIC_MAX_QUEUED_FRAMES), MIC_MIX_GAIN, true, false);
+            postStatus(StatusBus.Channel.SEND, StatusBus.State.STREAMING);
+            if (sendVad != null) sendVad.reset();
+            pacer = new SendPacer(transport, connection, out, sendMixer, SAMPLE_RATE_SEND, SEND_MAX_LAG_FRAMES, sendVad, () -> isStreaming);
+            pacer.setEchoReference(roomEchoReference);
+            pacer.start();
+        }
+
+        @Override protected void onStreamData(NioTransport.Connection connection, ByteBuffer data) {
+            data.position(data.limit()); // The speaker board never talks after the hello
+        }
+
+        @Override public void onClosed(NioTransport.Connection connection, Throwable error) {
+            if (!linked && isStreaming && firstAttempt) {
+                Log.e(TAG, "[Send] Connect Error: " + (error != null ? error.getMessage() : "closed"));
+                postStatus(StatusBus.Channel.SEND, StatusBus.State.ERROR, error instanceof SocketTimeoutException ? "Conn Timeout" : "Conn/IO Failed");
+            } else if (linked && error != null && isStreaming) {
+                Log.e(TAG, "[Send] Write Error: " + error.getMessage());
+                postStatus(StatusBus.Channel.SEND, StatusBus.State.ERROR, "Network Write Failed");
+            }
+            if (pacer != null && pacer.getFramesSuppressed() > 0) {
+                long total = pacer.getFramesSent() + pacer.getFramesSuppressed();
+                Log.d(TAG, "[Send] Silence suppression: " + pacer.getFramesSuppressed() + " of " + total + " frames (" + (total > 0 ? pacer.getFramesSuppressed() * 100 / total : 0) + "%), noise floor " + sendVad.getNoiseFloorRms() + " RMS");
+            }
+            Log.d(TAG, "[Send] Session finishing. Pacer resyncs: " + (pacer != null ? pacer.getLagResyncs() : 0) + ", bytes written: " + connection.getBytesWritten() + ", frames dropped on backpressure: " + connection.getRejectedWrites());
+            if (sendConnection == connection) sendConnection = null;
+            if (sendMixer != null) sendMixer.removeSource(micSlot); // A playing melody keeps its slot and resumes on reconnect
+            ByteRingBuffer ring = sendRing;
+            if (ring != null) {
+                Log.d(TAG, "[Send] Ring: overruns=" + ring.getOverruns() + " (" + ring.getOverrunBytes() + " bytes), underruns=" + ring.getUnderruns());
+            }
+            if (isStreaming && linked) {
+                postStatus(StatusBus.Channel.SEND, StatusBus.State.DISCONNECTED);
+            }
+            session.closed(error);
+        }
+    }
+
+    // Audio side of the send direction: keeps AudioRecord drained and never waits on the network
+    private class MicCaptureTask implements Runnable {
+        private final ByteRingBuffer ring;
+        MicCaptureTask(ByteRingBuffer sendRing) { this.ring = sendRing; }
         @Override public void run() {
-            byte[] buffer = new byte[audioRecordBufferSize];
-            int bytesRead;
-            Socket localSocket = null;
-            OutputStream localOutputStream = null;
-            if (ActivityCompat.checkSelfPermission(StreamingService.this, Manifest.permission.RECORD_AUDIO) != PackageManager.PERMISSION_GRANTED) { Log.e(TAG, "[Send] Permission missing at start!"); sendBroadcastStatus(TYPE_SEND, "Error: Permission Missing"); return; }
+            Thread.currentThread().setName("MicCaptureTask");
+            AudioRecord record = audioRecord;
+            AudioInput device = (data, off, len) -> {
+                if (record.getRecordingState() != AudioRecord.RECORDSTATE_RECORDING) { Log.w(TAG,"[Capture] AudioRecord stopped unexpectedly."); postStatus(StatusBus.Channel.SEND, StatusBus.State.ERROR, "Mic Stopped"); return AudioInput.ERROR_STOPPED; }
+                if (ActivityCompat.checkSelfPermission(StreamingService.this, Manifest.permission.RECORD_AUDIO) != PackageManager.PERMISSION_GRANTED) { Log.e(TAG, "[Capture] Permission lost mid-stream."); postStatus(StatusBus.Channel.SEND, StatusBus.State.ERROR, "Permission Lost"); return AudioInput.ERROR_STOPPED; }
+                return record.read(data, off, len);
+            };
+            int chunkBytes = (int) ((long) audioRecordBufferSize / 4 * SAMPLE_RATE_SEND / recordSampleRate) & ~1; // At the wire rate
+            AudioInput input = recordSampleRate != SAMPLE_RATE_SEND ? new ResamplingInput(device, recordSampleRate, SAMPLE_RATE_SEND, chunkBytes) : device;
+            EchoCanceller canceller = talkbackEchoCanceller;
+            EchoReference reference = talkbackEchoReference;
+            if (canceller != null) input = new EchoCancellingInput(input, canceller, reference);
+            CaptureLoop loop = new CaptureLoop(input, ring, chunkBytes, recordReadLatency, () -> isStreaming);
             try {
-                Thread.currentThread().setName("RecordAndSendTask");
-                Log.d(TAG, "[Send] Task starting. Connecting to Speaker Receiver " + ip + ":" + ESP32_PORT_SEND_TO);
-                sendBroadcastStatus(TYPE_SEND, "Connecting...");
-                localSocket = new Socket();
-                localSocket.setSoTimeout(5000);
-                localSocket.connect(new InetSocketAddress(ip, ESP32_PORT_SEND_TO), CONNECTION_TIMEOUT_MS);
-                localOutputStream = localSocket.getOutputStream();
-                socketSend = localSocket;
-                outputStreamSend = localOutputStream;
-                Log.d(TAG, "[Send] Connected.");
-                sendBroadcastStatus(TYPE_SEND, "Connected");
-                if (audioRecord == null || audioRecord.getState() != AudioRecord.STATE_INITIALIZED) { Log.e(TAG, "[Send] AudioRecord not ready."); sendBroadcastStatus(TYPE_SEND, "Error: Mic Init Failed"); return; }
-                if (audioRecord.getRecordingState() != AudioRecord.RECORDSTATE_RECORDING) { try { audioRecord.startRecording(); Log.d(TAG, "[Send] AudioRecord recording."); } catch (IllegalStateException e) { Log.e(TAG, "[Send] Failed start recording: " + e.getMessage()); sendBroadcastStatus(TYPE_SEND, "Error: Mic Start Failed"); return; } }
-                sendBroadcastStatus(TYPE_SEND, "Recording/Sending");
-                while (isStreaming && !Thread.currentThread().isInterrupted() && socketSend != null && !socketSend.isClosed()) {
-                    // Skip sending mic data if melody is playing
-                    if (isPlayingMelody) { try { Thread.sleep(20); continue; } catch (InterruptedException e) { Thread.currentThread().interrupt(); break; } }
-
-                    if (audioRecord == null || audioRecord.getRecordingState() != AudioRecord.RECORDSTATE_RECORDING) { Log.w(TAG,"[Send] AudioRecord stopped unexpectedly."); sendBroadcastStatus(TYPE_SEND, "Error: Mic Stopped"); break; }
-                    if (ActivityCompat.checkSelfPermission(StreamingService.this, Manifest.permission.RECORD_AUDIO) != PackageManager.PERMISSION_GRANTED) { Log.e(TAG, "[Send] Permission lost mid-stream."); sendBroadcastStatus(TYPE_SEND, "Error: Permission Lost"); break; }
-
-                    bytesRead = audioRecord.read(buffer, 0, buffer.length);
-                    if (bytesRead > 0 && outputStreamSend != null) {
-                        try {
-                            outputStreamSend.write(buffer, 0, bytesRead);
-                        } catch (IOException e) {
-                            if (isStreaming && !Thread.currentThread().isInterrupted()) { Log.e(TAG, "[Send] Write Error: " + e.getMessage()); sendBroadcastStatus(TYPE_SEND, "Error: Network Write Failed"); } else { Log.d(TAG, "[Send] Write Error after stop: " + e.getMessage()); }
-                            break;
-                        }
-                    }
-                    else if (bytesRead < 0) { Log.e(TAG, "[Send] AudioRecord read error: " + bytesRead); sendBroadcastStatus(TYPE_SEND, "Error: Mic Read Failed"); break; }
-                }
-            } catch (SocketTimeoutException e) { Log.e(TAG, "[Send] Connect Timeout: " + e.getMessage()); if(isStreaming) { sendBroadcastStatus(TYPE_SEND, "Error: Conn Timeout"); } }
-            catch (IOException e) { if(isStreaming && !Thread.currentThread().isInterrupted()) { Log.e(TAG, "[Send] Connect/IO Error: " + e.getMessage()); sendBroadcastStatus(TYPE_SEND, "Error: Conn/IO Failed"); } else { Log.d(TAG, "[Send] Connect/IO Error after stop: " + e.getMessage()); } }
-            catch (IllegalStateException e) { if(isStreaming) { Log.e(TAG,"[Send] AudioRecord state error: " + e.getMessage()); sendBroadcastStatus(TYPE_SEND, "Error: Mic State Issue"); } }
-            catch (SecurityException e){ Log.e(TAG, "[Send] Security Exception (likely permission): " + e.getMessage()); if(isStreaming) { sendBroadcastStatus(TYPE_SEND, "Error: Permission Issue"); } }
-            catch (Exception e) { if(isStreaming) { Log.e(TAG, "[Send] Unexpected Error: " + e.getMessage(), e); sendBroadcastStatus(TYPE_SEND, "Error: Unexpected Send"); } }
+                if (record.getRecordingState() != AudioRecord.RECORDSTATE_RECORDING) { try { record.startRecording(); Log.d(TAG, "[Capture] AudioRecord recording."); } catch (IllegalStateException e) { Log.e(TAG, "[Capture] Failed start recording: " + e.getMessage()); postStatus(StatusBus.Channel.SEND, StatusBus.State.ERROR, "Mic Start Failed"); return; } }
+                loop.run();
+                int error = loop.getExitCode();
+                if (error < 0 && error != AudioInput.ERROR_STOPPED) { Log.e(TAG, "[Capture] AudioRecord read error: " + error); postStatus(StatusBus.Channel.SEND, StatusBus.State.ERROR, "Mic Read Failed"); }
+            } catch (IllegalStateException e) { if(isStreaming) { Log.e(TAG,"[Capture] AudioRecord state error: " + e.getMessage()); postStatus(StatusBus.Channel.SEND, StatusBus.State.ERROR, "Mic State Issue"); } }
+            catch (SecurityException e){ Log.e(TAG, "[Capture] Security Exception (likely permission): " + e.getMessage()); if(isStreaming) { postStatus(StatusBus.Channel.SEND, StatusBus.State.ERROR, "Permission Issue"); } }
             finally {
-                Log.d(TAG, "[Send] Task finishing.");
-                if (audioRecord != null && audioRecord.getRecordingState() == AudioRecord.RECORDSTATE_RECORDING) { try { audioRecord.stop();} catch (Exception e) { Log.w(TAG,"[Send] Exception stopping AudioRecord: " + e.getMessage()); } }
-                closeStream(localOutputStream, "Send Task Finally");
-                closeSocket(localSocket, "Send Task Finally");
-                if(isStreaming && !Thread.currentThread().isInterrupted()){
-                    sendBroadcastStatus(TYPE_SEND, "Disconnected");
-                }
+                Log.d(TAG, "[Capture] Task finishing.");
+                if (canceller != null) logEchoStats("Phone mic", canceller, reference);
+                if (audioRecord != null && audioRecord.getRecordingState() == AudioRecord.RECORDSTATE_RECORDING) { try { audioRecord.stop();} catch (Exception e) { Log.w(TAG,"[Capture] Exception stopping AudioRecord: " + e.getMessage()); } }
             }
         }
     }
 
     // <<< ADDED: SendMelodyTask inner class >>>
     private class SendMelodyTask implements Runnable {
+        private final int melodyResourceId; // Must exist in res/raw/
+        SendMelodyTask(int melodyId) { this.melodyResourceId = melodyId; }
         @Override public void run() {
             Thread.currentThread().setName("SendMelodyTask");
             Log.d(TAG, "[Melody] Task started.");
-            InputStream melodyInputStream = null;
-            byte[] melodyBuffer = new byte[audioRecordBufferSize > 0 ? audioRecordBufferSize : 4096];
-            int bytesRead = 0;
-            long totalBytesSent = 0;
             boolean successful = false;
-            // Use the service's output stream directly
-            OutputStream currentOutputStream = outputStreamSend;
-            // Ensure the resource exists in res/raw/
-            final int melodyResourceId = R.raw.soothing_melody;
+            AudioMixer.Slot slot = null;
+            PcmBufferSource source = null;
+            AudioMixer mixer = sendMixer;
 
             try {
-                if (currentOutputStream == null) {
-                    throw new IOException("Output stream is null at melody start.");
+                if (mixer == null) {
+                    throw new IOException("Send mixer is null at melody start.");
                 }
-                Log.d(TAG, "[Melody] Attempting to open melody resource ID: " + melodyResourceId);
-                // Use getResources() from the Service context
-                melodyInputStream = getResources().openRawResource(melodyResourceId);
-                Log.d(TAG, "[Melody] Opened melody resource successfully.");
-
-                while (isStreaming && isPlayingMelody && !Thread.currentThread().isInterrupted()) {
-                    bytesRead = melodyInputStream.read(melodyBuffer);
-                    if (bytesRead == -1) {
-                        Log.d(TAG, "[Melody] Reached EOF.");
-                        break;
-                    }
-                    try {
-                        currentOutputStream.write(melodyBuffer, 0, bytesRead);
-                        totalBytesSent += bytesRead;
-                    } catch (IOException e) {
-                        if (isStreaming) {
-                            Log.e(TAG, "[Melody] Write error during playback: " + e.getMessage());
-                            sendBroadcastStatus(TYPE_MELODY, "Error: Network Send");
-                        }
-                        successful = false;
-                        break;
-                    }
+                // Decoded PCM16 at the speaker rate, header stripped; only the first play touches resources
+                boolean cached = melodyCache.contains(melodyResourceId);
+                ByteBuffer melodyPcm = melodyCache.get(melodyResourceId);
+                Log.d(TAG, "[Melody] Melody " + melodyResourceId + " ready (" + melodyPcm.remaining() + " bytes, " + (cached ? "cached" : "decoded") + ").");
+
+                // The send pacer clocks it out in real time, mixed with (and ducked under) the mic
+                source = new PcmBufferSource(melodyPcm);
+                slot = mixer.addSource(source, MELODY_MIX_GAIN, false, true);
+                if (slot == null) {
+                    throw new IOException("No free mixer slot.");
                 }
-
-                if (!Thread.currentThread().isInterrupted() && bytesRead == -1) {
-                    try {
-                        currentOutputStream.flush();
-                        Log.d(TAG, "[Melody] Flushed stream after EOF.");
-                        successful = true;
-                        Log.d(TAG, "[Melody] Marked successful.");
-                    } catch (IOException e) {
-                        Log.w(TAG, "[Melody] Flush error after EOF: " + e.getMessage());
-                        sendBroadcastStatus(TYPE_MELODY, "Error: Flush Failed");
-                        successful = false;
-                    }
-                } else {
-                    successful = false;
-                    Log.w(TAG, "[Melody] Loop terminated prematurely/error. Interrupted=" + Thread.currentThread().isInterrupted() + ", isStreaming=" + isStreaming + ", isPlayingMelody=" + isPlayingMelody + ", bytesRead=" + bytesRead);
+                try {
+                    source.awaitFinished();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
                 }
+                successful = source.isCompleted();
 
                 if (successful) {
-                    Log.d(TAG, "[Melody] Finished successfully. Total Bytes: " + totalBytesSent);
-                    sendBroadcastStatus(TYPE_MELODY, "Finished");
-                } else if (!Thread.currentThread().isInterrupted() && isStreaming) {
-                    Log.w(TAG, "[Melody] Playback incomplete. Total Bytes: " + totalBytesSent);
-                    // Avoid overwriting specific errors with "Incomplete"
-                    // sendBroadcastStatus(TYPE_MELODY, "Incomplete");
+                    Log.d(TAG, "[Melody] Finished successfully. Total Bytes: " + source.getBytesPlayed());
+                    postStatus(StatusBus.Channel.MELODY, StatusBus.State.FINISHED);
                 } else if (Thread.currentThread().isInterrupted()) {
-                    Log.w(TAG, "[Melody] Playback interrupted. Total Bytes: " + totalBytesSent);
-                    sendBroadcastStatus(TYPE_MELODY, "Cancelled");
+                    Log.w(TAG, "[Melody] Playback interrupted. Total Bytes: " + source.getBytesPlayed());
+                    postStatus(StatusBus.Channel.MELODY, StatusBus.State.CANCELLED);
+                } else {
+                    Log.w(TAG, "[Melody] Playback incomplete (source removed). Total Bytes: " + source.getBytesPlayed());
                 }
 
             } catch (Resources.NotFoundException e) {
                 String resourceName = "UNKNOWN";
                 try { resourceName = getResources().getResourceEntryName(melodyResourceId); } catch (Exception ignore) {}
                 Log.e(TAG, "[Melody] Error: Resource not found! Check 'res/raw/" + resourceName + "' (ID: " + melodyResourceId + ")", e);
-                sendBroadcastStatus(TYPE_MELODY, "Error: File Missing");
+                postStatus(StatusBus.Channel.MELODY, StatusBus.State.ERROR, "File Missing");
                 successful = false;
             } catch (IOException e) {
                 if (isStreaming) {
                     Log.e(TAG, "[Melody] IO Error: " + e.getMessage(), e);
-                    sendBroadcastStatus(TYPE_MELODY, "Error: IO Failed");
+                    postStatus(StatusBus.Channel.MELODY, StatusBus.State.ERROR, "IO Failed");
                 }
                 successful = false;
             } catch (Exception e) {
                 if (isStreaming) {
                     Log.e(TAG, "[Melody] Unexpected error during playback: " + e.getMessage(), e);
-                    sendBroadcastStatus(TYPE_MELODY, "Error: Unexpected Melody");
+                    postStatus(StatusBus.Channel.MELODY, StatusBus.State.ERROR, "Unexpected Melody");
                 }
                 successful = false;
             } finally {
                 Log.d(TAG, "[Melody] Task finishing block.");
+                if (mixer != null) mixer.removeSource(slot);
                 isPlayingMelody = false; // <<< Reset melody playing state
-                if (melodyInputStream != null) {
-                    try { melodyInputStream.close(); } catch (IOException e) { Log.w(TAG, "[Melody] Error closing input stream: " + e.getMessage());}
-                }
                 // Send final "Idle" status slightly delayed if finished successfully
                 // to allow UI to show "Finished" briefly
                 if (successful && isStreaming) {
                     new Handler(Looper.getMainLooper()).postDelayed(() -> {
-                        if(isStreaming) sendBroadcastStatus(TYPE_MELODY, "Idle");
+                        if(isStreaming) postStatus(StatusBus.Channel.MELODY, StatusBus.State.IDLE);
                     }, 1500);
                 } else if (isStreaming) {
                     // If not successful but still streaming, immediately set back to Idle or last error state
-                    sendBroadcastStatus(TYPE_MELODY, "Idle"); // Or consider keeping error message?
+                    postStatus(StatusBus.Channel.MELODY, StatusBus.State.IDLE); // Or consider keeping error message?
                 }
             }
         }
     }
     // <<< END SendMelodyTask >>>
 
-    private class ControlConnectTask implements Runnable {
+    // Control supervisor channel: each session holds the control socket until it drops
+    private class ControlConnectTask implements ConnectionSupervisor.Channel {
         private final String ip;
         ControlConnectTask(String controlIp) { this.ip = controlIp; }
-        @Override public void run() {
-            Thread.currentThread().setName("ControlConnectTask");
-            Log.d(TAG, "[Control] Task starting. Connecting to " + ip + ":" + ESP32_PORT_CONTROL);
-            sendBroadcastStatus(TYPE_CONTROL, "Connecting...");
-            Socket tempSocket = null;
-            PrintWriter tempWriter = null;
-            try {
-                tempSocket = new Socket();
-                tempSocket.connect(new InetSocketAddress(ip, ESP32_PORT_CONTROL), CONNECTION_TIMEOUT_MS);
-                tempSocket.setKeepAlive(true);
-                tempWriter = new PrintWriter(tempSocket.getOutputStream(), true);
-                socketControl = tempSocket;
-                printWriterControl = tempWriter;
-                isControlConnected = true;
-                Log.d(TAG, "[Control] Connected successfully.");
-                sendBroadcastStatus(TYPE_CONTROL, "Connected");
-                updateNotification("Streaming Active"); // Update general status
-            } catch (SocketTimeoutException e) { Log.e(TAG, "[Control] Connect Timeout: " + e.getMessage()); sendBroadcastStatus(TYPE_CONTROL, "Error: Timeout"); closeControlConnection(); }
-            catch (IOException e) { Log.e(TAG, "[Control] Connect IOException: " + e.getMessage()); if (isStreaming) { sendBroadcastStatus(TYPE_CONTROL, "Error: IO"); } closeControlConnection(); }
-            catch (Exception e) { Log.e(TAG, "[Control] Connect Unexpected Error: " + e.getMessage(), e); sendBroadcastStatus(TYPE_CONTROL, "Error: Unexpected"); closeControlConnection(); }
-            finally { Log.d(TAG, "[Control] Connect Task finishing."); if (!isControlConnected && isStreaming) { sendBroadcastStatus(TYPE_CONTROL, "Error: Failed"); } }
-        }
-    }
-
-    private void sendControlCommand(final String command) {
-        if (!isControlConnected || printWriterControl == null || executorService == null || executorService.isShutdown()) {
-            Log.w(TAG, "[Control] Cannot send command - Not connected or writer/executor invalid. Command: " + command.trim());
-            return;
+        @Override public void open(ConnectionSupervisor.Session session) throws IOException {
+            Log.d(TAG, "[Control] Session " + session.attempt() + " starting. Connecting to " + ip + ":" + ESP32_PORT_CONTROL);
+            if (session.attempt() == 1) postStatus(StatusBus.Channel.CONTROL, StatusBus.State.CONNECTING);
+            openResolved(session, ip, ESP32_PORT_CONTROL, address -> transport.connect(address, session.attempt() == 1 ? CONNECTION_TIMEOUT_MS : RECONNECT_CONNECT_TIMEOUT_MS,
+                    SMALL_READ_BUFFER_BYTES, CONTROL_QUEUE_BYTES, new ControlSession(session)).setObserver(controlMetrics));
+        }
+    }
+
+    // Sends the binary-protocol hello; firmware that echoes it gets acknowledged frames, anything else keeps text lines
+    private class ControlSession implements NioTransport.Handler {
+        private final ConnectionSupervisor.Session session;
+        private final byte[] reply = new byte[32];
+        private int replyFill = 0;
+        private boolean negotiating = false;
+        private boolean linked = false;
+        private ControlProtocol protocol = null;
+        ControlSession(ConnectionSupervisor.Session session) { this.session = session; }
+
+        @Override public void onConnected(NioTransport.Connection connection) {
+            linked = true;
+            controlConnection = connection;
+            isControlConnected = true;
+            session.connected();
+            Log.d(TAG, "[Control] Connected successfully.");
+            postStatus(StatusBus.Channel.CONTROL, StatusBus.State.CONNECTED);
+
+            negotiating = true;
+            byte[] hello = (ControlProtocol.HELLO_LINE + "\n").getBytes(StandardCharsets.US_ASCII);
+            connection.send(hello, 0, hello.length);
+            transport.schedule(() -> { if (negotiating && connection.isOpen()) finishNegotiation(connection, false); }, CODEC_NEGOTIATION_TIMEOUT_MS);
         }
-        executorService.submit(() -> {
-            if (!isControlConnected || printWriterControl == null) {
-                Log.w(TAG, "[Control] Send task executed, but no longer connected or writer is null. Command: " + command.trim());
-                return;
+
+        private void finishNegotiation(NioTransport.Connection connection, boolean binary) {
+            negotiating = false;
+            ControlCommandPipeline.Sink sink = connection::send;
+            if (binary) {
+                protocol = new ControlProtocol(connection::send, transport, new ControlProtocol.Listener() {
+                    @Override public void onRejected(int opcode, int status) { Log.w(TAG, "[Control] Command rejected by ESP32: opcode=" + opcode + ", status=" + status); }
+                    @Override public void onLinkDead() {
+                        Log.w(TAG, "[Control] ESP32 stopped acknowledging, dropping link.");
+                        connection.close(new SocketTimeoutException("Control peer not acknowledging"));
+                    }
+                }, CONTROL_KEEPALIVE_MS);
+                protocol.setRttHistogram(controlRtt);
+                protocol.start();
+                sink = protocol;
             }
-            try {
-                printWriterControl.println(command.trim());
-                if (printWriterControl.checkError()) {
-                    Log.e(TAG, "[Control] PrintWriter error detected after sending: " + command.trim());
-                    sendBroadcastStatus(TYPE_CONTROL, "Error: Send Failed");
-                    closeControlConnection();
+            Log.d(TAG, "[Control] Protocol: " + (binary ? "binary (acknowledged)" : "text"));
+            ControlCommandPipeline pipeline = controlPipeline;
+            if (pipeline != null && controlConnection == connection) pipeline.setSink(sink); // Flushes anything queued while the link was down
+        }
+
+        @Override public void onData(NioTransport.Connection connection, ByteBuffer data) {
+            while (negotiating && data.hasRemaining()) {
+                byte b = data.get();
+                if (b == '\n' || replyFill == reply.length) {
+                    boolean binary = new String(reply, 0, replyFill, StandardCharsets.US_ASCII).trim().equals(ControlProtocol.HELLO_LINE);
+                    finishNegotiation(connection, binary);
+                } else {
+                    reply[replyFill++] = b;
                 }
-            } catch (Exception e) {
-                Log.e(TAG, "[Control] Unexpected error sending '" + command.trim() + "': " + e.getMessage(), e);
-                sendBroadcastStatus(TYPE_CONTROL, "Error: Send Exception");
-                closeControlConnection();
             }
-        });
+            if (protocol != null) protocol.onData(data);
+            else data.position(data.limit());
+        }
+
+        @Override public void onClosed(NioTransport.Connection connection, Throwable error) {
+            if (!linked) {
+                Log.e(TAG, "[Control] Connect Error: " + (error != null ? error.getMessage() : "closed"));
+                if (isStreaming && session.attempt() == 1) postStatus(StatusBus.Channel.CONTROL, StatusBus.State.ERROR, error instanceof SocketTimeoutException ? "Timeout" : "Failed");
+            } else {
+                Log.d(TAG, "[Control] Session finishing." + (error != null ? " Error: " + error.getMessage() : ""));
+                if (protocol != null) {
+                    protocol.close();
+                    Log.d(TAG, "[Control] Protocol: frames=" + protocol.getFramesSent() + ", acks=" + protocol.getAcksReceived() + ", retransmits=" + protocol.getRetransmits()
+                            + ", superseded=" + protocol.getSuperseded() + ", rejected=" + protocol.getRejected() + ", badFrames=" + protocol.getBadFrames()
+                            + ", rttUs min/avg/max=" + protocol.getMinRttNanos() / 1000 + "/" + protocol.getSmoothedRttNanos() / 1000 + "/" + protocol.getMaxRttNanos() / 1000);
+                }
+                if (controlConnection == connection) closeControlConnection();
+                logControlPipelineStats();
+            }
+            session.closed(error);
+        }
+    }
+
+    // Coalesced per servo and rate limited; the pipeline writes batches on the transport thread
+    private void sendControlCommand(final String command, long enqueuedNanos) {
+        ControlCommandPipeline pipeline = controlPipeline;
+        if (!isStreaming || pipeline == null) {
+            Log.w(TAG, "[Control] Cannot send command - Not streaming. Command: " + command.trim());
+            return;
+        }
+        if (!isControlConnected) {
+            Log.w(TAG, "[Control] Not connected, queueing latest value: " + command.trim());
+        }
+        try {
+            pipeline.submit(command, enqueuedNanos);
+        } catch (IllegalArgumentException e) {
+            Log.w(TAG, "[Control] Rejected command: " + e.getMessage());
+        }
+    }
+
+    private void logControlPipelineStats() {
+        ControlCommandPipeline pipeline = controlPipeline;
+        if (pipeline == null) return;
+        Log.d(TAG, "[Control] Commands: submitted=" + pipeline.getSubmitted() + ", coalesced=" + pipeline.getCoalesced() + ", sent=" + pipeline.getSent()
+                + " in " + pipeline.getBatches() + " batches, rejectedBatches=" + pipeline.getRejectedBatches() + ", queued=" + pipeline.getQueueDepth()
+                + ", latencyMs mean=" + pipeline.getMeanLatencyNanos() / 1_000_000 + " max=" + pipeline.getMaxLatencyNanos() / 1_000_000);
     }
 
 
@@ -669,13 +1690,13 @@ public class StreamingService extends Service {
             if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
                 audioTrack = new AudioTrack.Builder()
                         .setAudioAttributes(new android.media.AudioAttributes.Builder().setUsage(android.media.AudioAttributes.USAGE_MEDIA).setContentType(android.media.AudioAttributes.CONTENT_TYPE_SPEECH).build())
-                        .setAudioFormat(new AudioFormat.Builder().setEncoding(AUDIO_FORMAT_RECEIVE).setSampleRate(SAMPLE_RATE_RECEIVE).setChannelMask(CHANNEL_CONFIG_RECEIVE).build())
+                        .setAudioFormat(new AudioFormat.Builder().setEncoding(AUDIO_FORMAT_RECEIVE).setSampleRate(trackSampleRate).setChannelMask(CHANNEL_CONFIG_RECEIVE).build())
                         .setBufferSizeInBytes(audioTrackBufferSize)
                         .setTransferMode(AudioTrack.MODE_STREAM)
                         .setPerformanceMode(AudioTrack.PERFORMANCE_MODE_LOW_LATENCY)
                         .build();
             } else {
-                audioTrack = new AudioTrack(AudioManager.STREAM_VOICE_CALL, SAMPLE_RATE_RECEIVE, CHANNEL_CONFIG_RECEIVE, AUDIO_FORMAT_RECEIVE, audioTrackBufferSize, AudioTrack.MODE_STREAM);
+                audioTrack = new AudioTrack(AudioManager.STREAM_VOICE_CALL, trackSampleRate, CHANNEL_CONFIG_RECEIVE, AUDIO_FORMAT_RECEIVE, audioTrackBufferSize, AudioTrack.MODE_STREAM);
             }
             if (audioTrack.getState() != AudioTrack.STATE_INITIALIZED) { Log.e(TAG, "AudioTrack initialization failed! State: " + audioTrack.getState()); releaseAudioTrack(); return false; }
             Log.d(TAG, "AudioTrack Initialized."); return true;
@@ -689,13 +1710,13 @@ public class StreamingService extends Service {
             Log.d(TAG, "Initializing AudioRecord...");
             if (audioRecordBufferSize <= 0) { Log.e(TAG,"AudioRecord buffer size invalid"); return false; }
             int audioSource = MediaRecorder.AudioSource.VOICE_COMMUNICATION;
-            audioRecord = new AudioRecord(audioSource, SAMPLE_RATE_SEND, CHANNEL_CONFIG_SEND, AUDIO_FORMAT_SEND, audioRecordBufferSize);
+            audioRecord = new AudioRecord(audioSource, recordSampleRate, CHANNEL_CONFIG_SEND, AUDIO_FORMAT_SEND, audioRecordBufferSize);
             if (audioRecord.getState() != AudioRecord.STATE_INITIALIZED) {
                 Log.w(TAG, "AudioRecord init failed! State: " + audioRecord.getState() + ". Trying MIC source.");
                 if (audioSource == MediaRecorder.AudioSource.VOICE_COMMUNICATION) {
                     if (audioRecord != null) audioRecord.release();
                     audioSource = MediaRecorder.AudioSource.MIC;
-                    audioRecord = new AudioRecord(audioSource, SAMPLE_RATE_SEND, CHANNEL_CONFIG_SEND, AUDIO_FORMAT_SEND, audioRecordBufferSize);
+                    audioRecord = new AudioRecord(audioSource, recordSampleRate, CHANNEL_CONFIG_SEND, AUDIO_FORMAT_SEND, audioRecordBufferSize);
                     if (audioRecord.getState() != AudioRecord.STATE_INITIALIZED) {
                         Log.e(TAG, "AudioRecord init failed with MIC source too.");
                         releaseAudioRecord(); return false;
@@ -727,22 +1748,16 @@ public class StreamingService extends Service {
         }
     }
 
-    private void closeSocket(Socket socket, String context) {
-        if (socket != null && !socket.isClosed()) { try { socket.close(); Log.d(TAG, "Socket closed ("+context+")"); } catch (IOException e) { Log.e(TAG, "Error closing "+context+" socket: " + e.getMessage()); } } }
-    private void closeStream(InputStream stream, String context) {
-        if (stream != null) { try { stream.close(); Log.d(TAG, "InputStream closed ("+context+")"); } catch (IOException e) { Log.e(TAG, "Error closing InputStream ("+context+"): " + e.getMessage()); } } }
-    private void closeStream(OutputStream stream, String context) {
-        if (stream != null) { try { stream.flush(); stream.close(); Log.d(TAG, "OutputStream closed ("+context+")"); } catch (IOException e) { Log.e(TAG, "Error flushing/closing OutputStream ("+context+"): " + e.getMessage()); } } }
-
     private void closeControlConnection() {
         boolean wasConnected = isControlConnected;
         isControlConnected = false;
-        if (printWriterControl != null) {
-            printWriterControl.close(); printWriterControl = null; Log.d(TAG,"[Control] PrintWriter closed.");
-        }
-        closeSocket(socketControl, "Control Stop"); socketControl = null;
+        NioTransport.Connection connection = controlConnection;
+        controlConnection = null;
+        ControlCommandPipeline pipeline = controlPipeline;
+        if (pipeline != null) pipeline.setSink(null);
+        if (connection != null) connection.close();
         if(wasConnected && isStreaming) {
-            sendBroadcastStatus(TYPE_CONTROL, "Disconnected");
+            postStatus(StatusBus.Channel.CONTROL, StatusBus.State.DISCONNECTED);
         }
     }
 
@@ -0,0 +1,219 @@
+package com.example.audio;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Cost and accuracy of the {@link VoiceActivityDetector} on one core of a plain JVM.
+ *
+ * Each scene is a minute of synthetic 16 kHz audio in 10 ms frames: a noise bed (quiet room or
+ * fan) with 2 s bursts of voice-like sound (harmonics of a gliding pitch shaped by two moving
+ * formants, with syllable gaps and a fricative now and then) every 6 s, a fan that switches on
+ * half way, or a continuous melody. For each it reports the median time per frame over several
+ * runs (after warmup, so the JIT has compiled the detector), how many frames needed the FFT, the
+ * share of voice frames detected, the share of noise-only frames sent (past the hangover of the
+ * last voice frame) and the overall share of frames suppressed.
+ *
+ * The fricatives are white noise at the same unit RMS as the harmonic sum. They were first mixed
+ * in at full scale, loud enough to pass as voice over anything, which put detection at 97-99% in
+ * every voice scene. With the fixture fixed, about 95% of voice frames are detected in a quiet
+ * room and when the fan comes on mid-scene, but only about 83% under a steady fan 18 dB below the
+ * voice, where quiet fricatives and syllable edges sink into the fan.
+ *
+ * Usage: VadBenchmark [--runs N] [--seed S]
+ */
+public class VadBenchmark {
+
+    private static final int SAMPLE_RATE = 16000;
+    private static final int FRAME_SAMPLES = 160;
+    private static final int SCENE_SECONDS = 60;
+    private static final int WARMUP_RUNS = 5;
+
+    private static final class Scene {
+        final String name;
+        final short[][] frames;
+        final boolean[] voice;  // Ground truth per frame
+
+        Scene(String name, int frameCount) {
+            this.name = name;
+            this.frames = new short[frameCount][FRAME_SAMPLES];
+            this.voice = new boolean[frameCount];
+        }
+    }
+
+    static double dbToAmplitude(double dbfs) { return 32768 * Math.pow(10, dbfs / 20); }
+
+    // White noise, or roughly pink (-3 dB/octave) from a sum of one-pole filters, at an RMS level
+    static double[] noise(Random random, int samples, double dbfs, boolean pink) {
+        double[] y = new double[samples];
+        double b0 = 0, b1 = 0, b2 = 0;
+        double sum = 0;
+        for (int i = 0; i < samples; i++) {
+            double w = random.nextGaussian();
+            if (pink) {
+                b0 = 0.99765 * b0 + w * 0.0990460;
+                b1 = 0.96300 * b1 + w * 0.2965164;
+                b2 = 0.57000 * b2 + w * 1.0526913;
+                w = b0 + b1 + b2 + w * 0.1848;
+            }
+            y[i] = w;
+            sum += w * w;
+        }
+        double scale = dbToAmplitude(dbfs) / Math.sqrt(sum / samples);
+        for (int i = 0; i < samples; i++) y[i] *= scale;
+        return y;
+    }
+
+    // Adds voice-like bursts at a peak RMS level into 'y'; marks the frames where they are audible
+    static void addVoice(Random random, double[] y, boolean[] voice, double dbfs) {
+        double amplitude = dbToAmplitude(dbfs) * Math.sqrt(2.0 / 12); // ~12 harmonics share the level
+        double[] phases = new double[40];
+        double[] fricative = noise(random, y.length, -20 * Math.log10(32768), false); // Unit RMS, like the harmonic sum
+        double hp = 0, lastNoise = 0;
+        int period = 6 * SAMPLE_RATE, burst = 2 * SAMPLE_RATE;
+        int syllable = 0, syllableEnd = 0, gapEnd = 0;
+        double f1 = 600, f2 = 1500, envelope = 0;
+        boolean fricate = false;
+        for (int i = 0; i < y.length; i++) {
+            int pos = i % period;
+            boolean talking = pos < burst;
+            if (talking && i >= gapEnd && i >= syllableEnd) { // New syllable: 120-260 ms, then a 40-120 ms gap
+                syllableEnd = i + SAMPLE_RATE * (120 + random.nextInt(140)) / 1000;
+                gapEnd = syllableEnd + SAMPLE_RATE * (40 + random.nextInt(80)) / 1000;
+                f1 = 350 + random.nextInt(500);
+                f2 = 1000 + random.nextInt(1300);
+                fricate = random.nextInt(5) == 0;
+                syllable++;
+            }
+            double target = talking && i < syllableEnd ? 1 : 0;
+            envelope += (target - envelope) * 0.004; // ~15 ms attack and release
+            double s = 0;
+            if (envelope > 1e-3) {
+                double f0 = 110 + 60 * Math.sin(2 * Math.PI * 0.7 * i / SAMPLE_RATE) + 40 * (syllable % 3);
+                for (int h = 1; h < phases.length && h * f0 < 4000; h++) {
+                    double f = h * f0;
+                    double gain = 1 / (1 + Math.pow((f - f1) / 120, 2)) + 0.6 / (1 + Math.pow((f - f2) / 180, 2));
+                    phases[h] += 2 * Math.PI * f / SAMPLE_RATE;
+                    s += gain * Math.sin(phases[h]);
+                }
+                if (fricate) { // Hiss in place of the vowel
+                    hp = 0.9 * (hp + fricative[i] - lastNoise);
+                    s = 0.3 * hp;
+                }
+                lastNoise = fricative[i];
+            }
+            y[i] += amplitude * envelope * s;
+            if (envelope > 0.3) voice[i / FRAME_SAMPLES] = true;
+        }
+    }
+
+    static void addMelody(double[] y, double dbfs) {
+        double[] notes = { 523.25, 587.33, 659.25, 698.46, 783.99, 659.25, 523.25, 392.00 };
+        double amplitude = dbToAmplitude(dbfs) * Math.sqrt(2);
+        double phase = 0;
+        int noteSamples = SAMPLE_RATE * 300 / 1000;
+        for (int i = 0; i < y.length; i++) {
+            phase += 2 * Math.PI * notes[(i / noteSamples) % notes.length] / SAMPLE_RATE;
+            int inNote = i % noteSamples;
+            double envelope = Math.min(1, inNote / 80.0) * Math.min(1, (noteSamples - inNote) / 800.0);
+            y[i] += amplitude * envelope * (Math.sin(phase) + 0.3 * Math.sin(2 * phase));
+        }
+    }
+
+    private static Scene scene(String name, double[] y, boolean[] voice) {
+        Scene s = new Scene(name, y.length / FRAME_SAMPLES);
+        for (int f = 0; f < s.frames.length; f++) {
+            for (int i = 0; i < FRAME_SAMPLES; i++) s.frames[f][i] = (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, Math.round(y[f * FRAME_SAMPLES + i])));
+            s.voice[f] = voice != null && voice[f];
+        }
+        return s;
+    }
+
+    private static List<Scene> scenes(long seed) {
+        Random random = new Random(seed);
+        int samples = SCENE_SECONDS * SAMPLE_RATE;
+        int frames = samples / FRAME_SAMPLES;
+        List<Scene> scenes = new ArrayList<>();
+
+        scenes.add(scene("digital silence", new double[samples], null));
+
+        double[] y = noise(random, samples, -66, false);
+        scenes.add(scene("quiet room", y.clone(), null));
+        boolean[] voice = new boolean[frames];
+        addVoice(random, y, voice, -26);
+        scenes.add(scene("quiet room + voice", y, voice));
+
+        y = noise(random, samples, -42, true);
+        scenes.add(scene("fan", y.clone(), null));
+        voice = new boolean[frames];
+        addVoice(random, y, voice, -24);
+        scenes.add(scene("fan + voice 18 dB", y, voice));
+
+        y = noise(random, samples, -66, false);
+        double[] fan = noise(random, samples, -40, true);
+        for (int i = samples / 2; i < samples; i++) y[i] += fan[i]; // Switched on half way
+        voice = new boolean[frames];
+        addVoice(random, y, voice, -24);
+        scenes.add(scene("fan on at 30 s + voice", y, voice));
+
+        y = noise(random, samples, -66, false);
+        addMelody(y, -30);
+        voice = new boolean[frames];
+        java.util.Arrays.fill(voice, true);
+        scenes.add(scene("melody", y, voice));
+        return scenes;
+    }
+
+    private static VoiceActivityDetector run(Scene scene, boolean[] active) {
+        VoiceActivityDetector vad = new VoiceActivityDetector(SAMPLE_RATE, FRAME_SAMPLES);
+        for (int f = 0; f < scene.frames.length; f++) active[f] = vad.process(scene.frames[f], FRAME_SAMPLES);
+        return vad;
+    }
+
+    private static void measure(Scene scene, int runs) {
+        List<Double> times = new ArrayList<>();
+        VoiceActivityDetector vad = null;
+        boolean[] active = new boolean[scene.frames.length];
+        for (int r = 0; r < runs; r++) {
+            long start = System.nanoTime();
+            vad = run(scene, active);
+            times.add((System.nanoTime() - start) / (double) scene.frames.length);
+        }
+        Collections.sort(times);
+
+        int hangover = vad.getHangoverFrames();
+        long voiceFrames = 0, voiceDetected = 0, noiseFrames = 0, noiseSent = 0, suppressed = 0;
+        int sinceVoice = Integer.MAX_VALUE / 2;
+        for (int f = 0; f < active.length; f++) {
+            sinceVoice = scene.voice[f] ? 0 : sinceVoice + 1;
+            if (!active[f]) suppressed++;
+            if (scene.voice[f]) { voiceFrames++; if (active[f]) voiceDetected++; }
+            else if (sinceVoice > hangover) { noiseFrames++; if (active[f]) noiseSent++; }
+        }
+        System.out.println(String.format(Locale.US, "%-24s | %7.0f %7.0f | %5.1f%% | %7s | %6s | %5.1f%% | %6.1f dBFS",
+                scene.name, times.get(times.size() / 2), times.get(times.size() - 1), 100.0 * vad.getSpectraComputed() / active.length,
+                voiceFrames == 0 ? "-" : String.format(Locale.US, "%6.1f%%", 100.0 * voiceDetected / voiceFrames),
+                noiseFrames == 0 ? "-" : String.format(Locale.US, "%5.1f%%", 100.0 * noiseSent / noiseFrames),
+                100.0 * suppressed / active.length, vad.getNoiseFloorDb()));
+    }
+
+    public static void main(String[] args) {
+        int runs = 9;
+        long seed = 1;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--runs": runs = Integer.parseInt(args[++i]); break;
+                case "--seed": seed = Long.parseLong(args[++i]); break;
+                default: throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+        System.out.println("Per 10 ms frame: median and worst-run ns, share needing the FFT, voice frames detected, noise-only frames sent, frames suppressed, final noise floor");
+        System.out.println(String.format(Locale.US, "%-24s | %7s %7s | %6s | %7s | %6s | %6s | %s", "scene", "median", "worst", "fft", "voice", "noise", "supp", "floor"));
+        List<Scene> scenes = scenes(seed);
+        for (int r = 0; r < WARMUP_RUNS; r++) for (Scene scene : scenes) run(scene, new boolean[scene.frames.length]); // Every path compiled before timing
+        for (Scene scene : scenes) measure(scene, runs);
+    }
+}
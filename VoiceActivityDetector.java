@@ -0,0 +1,160 @@
+package com.example.audio;
+
+/**
+ * Decides per 10 ms PCM16 frame whether there is anything worth sending: the send path
+ * suppresses frames it calls inactive instead of streaming room noise all night.
+ *
+ * Two features. Frame energy is compared with an adaptive noise floor, which follows quieter
+ * frames down quickly, creeps up ~2 dB/s while the input is quiet and climbs ~10 dB/s through
+ * loud noise-like input, so a fan switched on is learned within seconds while a long melody is
+ * not. Frames clearly above the floor are then checked for spectral flatness (geometric over
+ * arithmetic mean of the power in 250 Hz - 4 kHz): voice and tones are peaky, stationary noise is
+ * flat. Anything far above the floor counts as active whatever its shape, until the floor has
+ * caught up with it. A hangover keeps the detector active for a while after the last active
+ * frame so word endings and short pauses are not clipped.
+ *
+ * Frames near the floor never reach the FFT, which makes the common silent case a single pass
+ * over the samples. Thresholds can be changed from any thread; {@link #process} is for one
+ * thread only.
+ */
+public class VoiceActivityDetector {
+
+    public static final float DEFAULT_ENERGY_MARGIN_DB = 9f;
+    public static final float DEFAULT_FLATNESS_THRESHOLD = 0.3f;
+    public static final float DEFAULT_LOUD_MARGIN_DB = 24f;
+    public static final int DEFAULT_HANGOVER_FRAMES = 30;
+
+    private static final int FFT_SIZE = 256;
+    private static final float BAND_LOW_HZ = 250f;
+    private static final float BAND_HIGH_HZ = 4000f;
+    private static final float SILENCE_DBFS = -72f;    // Below this nothing counts, whatever the floor
+    private static final float MIN_FLOOR_DBFS = -96f;
+    private static final float FLOOR_RISE_DB = 0.02f;  // Per frame near the floor
+    private static final float FLOOR_CLIMB_DB = 0.1f;  // Per frame of noise well above it
+    private static final float FLOOR_FALL = 0.3f;      // Share of the gap closed per quieter frame
+    private static final double FULL_SCALE_POWER = 32768.0 * 32768.0;
+
+    private final RealFft fft = new RealFft(FFT_SIZE);
+    private final int frameSamples;
+    private final float[] window;
+    private final float[] windowed = new float[FFT_SIZE];
+    private final float[] power = new float[FFT_SIZE / 2 + 1];
+    private final int bandLow;
+    private final int bandHigh;
+
+    private volatile float energyMarginDb = DEFAULT_ENERGY_MARGIN_DB;
+    private volatile float flatnessThreshold = DEFAULT_FLATNESS_THRESHOLD;
+    private volatile float loudMarginDb = DEFAULT_LOUD_MARGIN_DB;
+    private volatile int hangoverFrames = DEFAULT_HANGOVER_FRAMES;
+
+    private volatile float floorDb = Float.NaN;  // Until the first frame
+    private int hangover = 0;
+    private volatile float lastEnergyDb = MIN_FLOOR_DBFS;
+    private volatile float lastFlatness = 1f;
+    private volatile long framesProcessed = 0;
+    private volatile long framesActive = 0;
+    private volatile long spectraComputed = 0;
+
+    public VoiceActivityDetector(int sampleRate, int frameSamples) {
+        if (frameSamples <= 0 || frameSamples > FFT_SIZE) throw new IllegalArgumentException("Frame must be 1.." + FFT_SIZE + " samples: " + frameSamples);
+        this.frameSamples = frameSamples;
+        this.window = new float[frameSamples];
+        for (int i = 0; i < frameSamples; i++) window[i] = (float) (0.5 - 0.5 * Math.cos(2 * Math.PI * (i + 0.5) / frameSamples)); // Hann
+        float binHz = (float) sampleRate / FFT_SIZE;
+        this.bandLow = Math.max(1, Math.round(BAND_LOW_HZ / binHz));
+        this.bandHigh = Math.min(FFT_SIZE / 2, Math.round(Math.min(BAND_HIGH_HZ, sampleRate / 2f) / binHz));
+    }
+
+    // --- Configuration ---
+
+    /** Energy above the noise floor a frame needs before its spectrum is looked at. */
+    public void setEnergyMarginDb(float db) { energyMarginDb = db; }
+    /** Frames at least this flat (0 = single tone, ~0.56 = white noise) count as noise. */
+    public void setFlatnessThreshold(float flatness) { flatnessThreshold = flatness; }
+    /** Energy above the floor at which a frame is active even if flat (shouts, claps). */
+    public void setLoudMarginDb(float db) { loudMarginDb = db; }
+    /** Frames that stay active after the last one that was. */
+    public void setHangoverFrames(int frames) { hangoverFrames = Math.max(0, frames); }
+
+    public float getEnergyMarginDb() { return energyMarginDb; }
+    public float getFlatnessThreshold() { return flatnessThreshold; }
+    public float getLoudMarginDb() { return loudMarginDb; }
+    public int getHangoverFrames() { return hangoverFrames; }
+
+    // --- Detection ---
+
+    /** Classifies the first {@code samples} (at most the frame size) of {@code frame}; true = send it. */
+    public boolean process(short[] frame, int samples) {
+        int n = Math.min(samples, frameSamples);
+        long sum = 0;
+        for (int i = 0; i < n; i++) sum += frame[i] * frame[i];
+        float energyDb = sum == 0 ? MIN_FLOOR_DBFS : Math.max(MIN_FLOOR_DBFS, (float) (10 * Math.log10(sum / (double) Math.max(1, n) / FULL_SCALE_POWER)));
+        if (Float.isNaN(floorDb)) floorDb = energyDb;
+        lastEnergyDb = energyDb;
+
+        boolean speech = false;
+        float rise = FLOOR_RISE_DB;
+        float above = energyDb - floorDb;
+        if (energyDb > SILENCE_DBFS && above > energyMarginDb) {
+            float flatness = flatness(frame, n);
+            lastFlatness = flatness;
+            boolean noiseLike = flatness >= flatnessThreshold;
+            speech = !noiseLike || above > loudMarginDb;
+            rise = noiseLike ? FLOOR_CLIMB_DB : 0f; // A loud fan switched on is learned, just not silenced at once
+        }
+
+        if (energyDb < floorDb) floorDb += (energyDb - floorDb) * FLOOR_FALL;
+        else floorDb = Math.min(energyDb, floorDb + rise);
+
+        if (speech) hangover = hangoverFrames + 1;
+        boolean active = hangover > 0;
+        if (active) { hangover--; framesActive++; }
+        framesProcessed++;
+        return active;
+    }
+
+    // Geometric over arithmetic mean of the power in the speech band of the windowed frame
+    private float flatness(short[] frame, int n) {
+        for (int i = 0; i < n; i++) windowed[i] = frame[i] * window[i];
+        java.util.Arrays.fill(windowed, n, FFT_SIZE, 0f);
+        fft.powerSpectrum(windowed, power);
+        spectraComputed++;
+        float log2Sum = 0;
+        float sum = 0;
+        for (int k = bandLow; k <= bandHigh; k++) {
+            float p = power[k] + 1e-3f; // Keeps the log finite on digital silence within the band
+            log2Sum += log2(p);
+            sum += p;
+        }
+        int bins = bandHigh - bandLow + 1;
+        return (float) (Math.pow(2, log2Sum / bins) / (sum / bins));
+    }
+
+    // Exponent plus a quadratic fit of the mantissa's log: within 0.005, far below the spread of a periodogram
+    private static float log2(float x) {
+        int bits = Float.floatToRawIntBits(x);
+        float m = Float.intBitsToFloat((bits & 0x007FFFFF) | 0x3F800000); // [1, 2)
+        return ((bits >>> 23) & 0xFF) - 128 + (-0.34484843f * m + 2.02466578f) * m - 0.67487759f;
+    }
+
+    /** Forgets the hangover (e.g. a new connection); the learned noise floor is kept. */
+    public void reset() {
+        hangover = 0;
+    }
+
+    // --- Statistics ---
+
+    /** Current noise floor as a PCM16 RMS amplitude, e.g. for a comfort-noise level. */
+    public int getNoiseFloorRms() {
+        float db = floorDb;
+        return Float.isNaN(db) ? 0 : (int) Math.round(32768 * Math.pow(10, db / 20));
+    }
+
+    public float getNoiseFloorDb() { return floorDb; }
+    public float getLastEnergyDb() { return lastEnergyDb; }
+    /** Flatness of the last frame that was loud enough to be looked at. */
+    public float getLastFlatness() { return lastFlatness; }
+    public long getFramesProcessed() { return framesProcessed; }
+    public long getFramesActive() { return framesActive; }
+    public long getSpectraComputed() { return spectraComputed; }
+}
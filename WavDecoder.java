@@ -0,0 +1,110 @@
+package com.example.audio;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Parses a RIFF/WAVE file once and converts it to mono little-endian PCM16 at the requested
+ * rate, ready to be streamed to the speaker board without further processing.
+ *
+ * Accepts PCM 8/16/24/32-bit and 32-bit float, any channel count (downmixed) and any rate
+ * (linear interpolation). The result is a direct buffer so it stays off the Java heap.
+ */
+public final class WavDecoder {
+
+    private static final int FORMAT_PCM = 1;
+    private static final int FORMAT_FLOAT = 3;
+    private static final int FORMAT_EXTENSIBLE = 0xFFFE;
+
+    private WavDecoder() {}
+
+    public static ByteBuffer decode(InputStream in, int targetRate) throws IOException {
+        ByteBuffer wav = ByteBuffer.wrap(readAll(in)).order(ByteOrder.LITTLE_ENDIAN);
+        if (wav.remaining() < 12 || wav.getInt(0) != 0x46464952 /* RIFF */ || wav.getInt(8) != 0x45564157 /* WAVE */) {
+            throw new IOException("Not a RIFF/WAVE file");
+        }
+
+        int format = -1, channels = 0, sampleRate = 0, bitsPerSample = 0, blockAlign = 0;
+        int dataOffset = -1, dataLength = 0;
+        int pos = 12;
+        while (pos + 8 <= wav.limit()) {
+            int id = wav.getInt(pos);
+            int size = wav.getInt(pos + 4);
+            int body = pos + 8;
+            if (size < 0 || body + size > wav.limit()) {
+                if (id == 0x61746164 /* data */ && size != 0) size = wav.limit() - body; // Truncated or streamed file
+                else throw new IOException("Corrupt chunk size: " + size);
+            }
+            if (id == 0x20746D66 /* fmt  */) {
+                if (size < 16) throw new IOException("fmt chunk too short");
+                format = wav.getShort(body) & 0xFFFF;
+                channels = wav.getShort(body + 2) & 0xFFFF;
+                sampleRate = wav.getInt(body + 4);
+                blockAlign = wav.getShort(body + 12) & 0xFFFF;
+                bitsPerSample = wav.getShort(body + 14) & 0xFFFF;
+                if (format == FORMAT_EXTENSIBLE && size >= 26) format = wav.getShort(body + 24) & 0xFFFF;
+            } else if (id == 0x61746164 /* data */) {
+                dataOffset = body;
+                dataLength = size;
+            }
+            pos = body + size + (size & 1); // Chunks are word aligned
+        }
+
+        if (format < 0 || dataOffset < 0) throw new IOException("Missing fmt or data chunk");
+        boolean supported = (format == FORMAT_PCM && (bitsPerSample == 8 || bitsPerSample == 16 || bitsPerSample == 24 || bitsPerSample == 32))
+                || (format == FORMAT_FLOAT && bitsPerSample == 32);
+        if (!supported) throw new IOException("Unsupported WAV format " + format + "/" + bitsPerSample + " bit");
+        if (channels < 1 || sampleRate <= 0 || blockAlign != channels * bitsPerSample / 8) throw new IOException("Invalid WAV fmt: " + channels + " ch, " + sampleRate + " Hz");
+
+        int frames = dataLength / blockAlign;
+        float[] mono = new float[frames];
+        int bytesPerSample = bitsPerSample / 8;
+        for (int f = 0; f < frames; f++) {
+            int p = dataOffset + f * blockAlign;
+            float sum = 0f;
+            for (int c = 0; c < channels; c++, p += bytesPerSample) {
+                sum += readSample(wav, p, format, bitsPerSample);
+            }
+            mono[f] = sum / channels;
+        }
+        return toPcm16(mono, sampleRate, targetRate);
+    }
+
+    private static float readSample(ByteBuffer wav, int p, int format, int bits) {
+        if (format == FORMAT_FLOAT) return wav.getFloat(p);
+        switch (bits) {
+            case 8: return ((wav.get(p) & 0xFF) - 128) / 128f;
+            case 16: return wav.getShort(p) / 32768f;
+            case 24: return (((wav.get(p) & 0xFF) | ((wav.get(p + 1) & 0xFF) << 8) | (wav.get(p + 2) << 16))) / 8388608f;
+            default: return wav.getInt(p) / 2147483648f;
+        }
+    }
+
+    private static ByteBuffer toPcm16(float[] mono, int sourceRate, int targetRate) {
+        int outFrames = (int) ((long) mono.length * targetRate / sourceRate);
+        ByteBuffer out = ByteBuffer.allocateDirect(outFrames * 2).order(ByteOrder.LITTLE_ENDIAN);
+        double step = (double) sourceRate / targetRate;
+        for (int i = 0; i < outFrames; i++) {
+            double x = i * step;
+            int i0 = (int) x;
+            int i1 = Math.min(i0 + 1, mono.length - 1);
+            float frac = (float) (x - i0);
+            float v = mono[i0] + (mono[i1] - mono[i0]) * frac;
+            int s = Math.round(v * 32767f);
+            out.putShort((short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, s)));
+        }
+        out.flip();
+        return out;
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(64 * 1024);
+        byte[] chunk = new byte[16 * 1024];
+        int n;
+        while ((n = in.read(chunk)) != -1) bos.write(chunk, 0, n);
+        return bos.toByteArray();
+    }
+}
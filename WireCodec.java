@@ -0,0 +1,109 @@
+package com.example.audio;
+
+/**
+ * Wire format shared with ESP1mic.ino / ESP2speaker.ino.
+ *
+ * Right after connecting, the phone sends a 4-byte hello {'B','M', version, preferred codec}.
+ * Firmware that understands it answers with {'B','M', version, chosen codec} and from then on
+ * every audio chunk is a frame:
+ *
+ *   [0xA5][codec u8][samples u16 LE][payload bytes u16 LE][payload]
+ *
+ * Firmware that does not answer (or starts streaming raw audio instead) keeps the legacy
+ * unframed stream: 32-bit PCM from the mic board, 16-bit PCM to the speaker board.
+ *
+ * A sender that suppresses silence stops sending frames while there is nothing to hear. It opens
+ * each silent stretch with one comfort-noise marker, a frame of codec {@link #CODEC_COMFORT_NOISE}
+ * with no samples and a 2-byte payload, the background level as a PCM16 RMS (u16 LE) the
+ * receiver may fill in; the next audio frame simply resumes. Receivers must not treat the
+ * missing audio as an underrun.
+ */
+public final class WireCodec {
+
+    public static final int CODEC_LEGACY = -1; // Unframed raw stream, no handshake
+    public static final int CODEC_PCM16 = 0;
+    public static final int CODEC_ULAW = 1;
+    public static final int CODEC_IMA_ADPCM = 2;
+    public static final int CODEC_COMFORT_NOISE = 0x7F; // Silence marker, not negotiable as a codec
+    public static final int COMFORT_NOISE_PAYLOAD_BYTES = 2;
+
+    public static final int PROTOCOL_VERSION = 1;
+    public static final int HELLO_BYTES = 4;
+    public static final int FRAME_SYNC = 0xA5;
+    public static final int FRAME_HEADER_BYTES = 6;
+    public static final int MAX_FRAME_SAMPLES = 1024;
+    public static final int MAX_FRAME_BYTES = FRAME_HEADER_BYTES + MAX_FRAME_SAMPLES * 2;
+
+    private static final byte MAGIC_0 = 'B';
+    private static final byte MAGIC_1 = 'M';
+
+    private WireCodec() {}
+
+    public static boolean isSupported(int codec) {
+        return codec == CODEC_PCM16 || codec == CODEC_ULAW || codec == CODEC_IMA_ADPCM;
+    }
+
+    /** True for the header of a comfort-noise marker (see the class comment). */
+    public static boolean isComfortNoise(int codec, int samples, int payloadBytes) {
+        return codec == CODEC_COMFORT_NOISE && samples == 0 && payloadBytes == COMFORT_NOISE_PAYLOAD_BYTES;
+    }
+
+    /** Background level carried by a comfort-noise marker payload. */
+    public static int comfortNoiseRms(byte[] src, int off) {
+        return (src[off] & 0xFF) | ((src[off + 1] & 0xFF) << 8);
+    }
+
+    public static int payloadBytes(int codec, int samples) {
+        switch (codec) {
+            case CODEC_PCM16: return samples * 2;
+            case CODEC_ULAW: return samples;
+            case CODEC_IMA_ADPCM: return ImaAdpcmCodec.encodedBytes(samples);
+            default: throw new IllegalArgumentException("Unknown codec: " + codec);
+        }
+    }
+
+    /** Decodes one frame payload to little-endian PCM16; returns the PCM bytes written. */
+    public static int decodePayload(int codec, byte[] src, int off, int samples, byte[] pcm, int pcmOff) {
+        switch (codec) {
+            case CODEC_PCM16:
+                System.arraycopy(src, off, pcm, pcmOff, samples * 2);
+                return samples * 2;
+            case CODEC_ULAW: return MuLawCodec.decode(src, off, samples, pcm, pcmOff);
+            case CODEC_IMA_ADPCM: return ImaAdpcmCodec.decode(src, off, samples, pcm, pcmOff);
+            default: throw new IllegalArgumentException("Unknown codec: " + codec);
+        }
+    }
+
+    public static void writeHeader(byte[] dst, int off, int codec, int samples, int payloadBytes) {
+        dst[off] = (byte) FRAME_SYNC;
+        dst[off + 1] = (byte) codec;
+        dst[off + 2] = (byte) samples;
+        dst[off + 3] = (byte) (samples >> 8);
+        dst[off + 4] = (byte) payloadBytes;
+        dst[off + 5] = (byte) (payloadBytes >> 8);
+    }
+
+    public static String name(int codec) {
+        switch (codec) {
+            case CODEC_LEGACY: return "legacy";
+            case CODEC_PCM16: return "pcm16";
+            case CODEC_ULAW: return "ulaw";
+            case CODEC_IMA_ADPCM: return "ima-adpcm";
+            case CODEC_COMFORT_NOISE: return "comfort-noise";
+            default: return "unknown(" + codec + ")";
+        }
+    }
+
+    /** The 4-byte hello offering {@code preferredCodec}. */
+    public static byte[] hello(int preferredCodec) {
+        return new byte[] { MAGIC_0, MAGIC_1, (byte) PROTOCOL_VERSION, (byte) preferredCodec };
+    }
+
+    /** Returns the codec chosen by a complete hello reply, or CODEC_LEGACY if it is not one. */
+    public static int parseHello(byte[] reply, int len) {
+        if (len == HELLO_BYTES && reply[0] == MAGIC_0 && reply[1] == MAGIC_1 && reply[2] == PROTOCOL_VERSION && isSupported(reply[3])) {
+            return reply[3];
+        }
+        return CODEC_LEGACY;
+    }
+}